@@ -16,8 +16,6 @@ package com.android.settings.applications;
 
 import android.content.Context;
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.UserInfo;
 import android.os.AsyncTask;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -28,26 +26,30 @@ public abstract class AppCounter extends AsyncTask<Void, Void, Integer> {
 
     protected final PackageManagerWrapper mPm;
     protected final UserManager mUm;
+    private final InstalledAppsCache mAppsCache;
 
     public AppCounter(Context context, PackageManagerWrapper packageManager) {
         mPm = packageManager;
         mUm = (UserManager) context.getSystemService(Context.USER_SERVICE);
+        mAppsCache = InstalledAppsCache.getInstance();
+        mAppsCache.startObserving(context);
     }
 
     @Override
     protected Integer doInBackground(Void... params) {
+        final List<Integer> counts = mAppsCache.runForEachProfile(
+                mUm.getProfiles(UserHandle.myUserId()), user -> {
+                    int count = 0;
+                    for (ApplicationInfo info : mAppsCache.getInstalledApplications(mPm, user)) {
+                        if (includeInCount(info)) {
+                            count++;
+                        }
+                    }
+                    return count;
+                });
         int count = 0;
-        for (UserInfo user : mUm.getProfiles(UserHandle.myUserId())) {
-            final List<ApplicationInfo> list =
-                    mPm.getInstalledApplicationsAsUser(PackageManager.GET_DISABLED_COMPONENTS
-                            | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
-                            | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
-                            user.id);
-            for (ApplicationInfo info : list) {
-                if (includeInCount(info)) {
-                    count++;
-                }
-            }
+        for (int profileCount : counts) {
+            count += profileCount;
         }
         return count;
     }
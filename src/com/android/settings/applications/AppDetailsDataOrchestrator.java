@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
+import android.util.Log;
+
+import com.android.settings.overlay.FeatureFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loads the data shown on the app detail pages.
+ *
+ * Work runs on a small shared pool, and work for the top of the page runs before the rest, so
+ * the header, storage and notification rows are not held up behind battery and memory stats.
+ * Results are kept for a short time per package, so moving between {@link AppInfoBase} pages of
+ * the same app doesn't load them again.
+ */
+public class AppDetailsDataOrchestrator {
+    private static final String TAG = "AppDetailsOrchestrator";
+
+    public static final int PRIORITY_ABOVE_FOLD = 0;
+    public static final int PRIORITY_BELOW_FOLD = 1;
+
+    public static final String TYPE_STORAGE = "storage";
+    public static final String TYPE_NOTIFICATION = "notification";
+    public static final String TYPE_BATTERY = "battery";
+    public static final String TYPE_MEMORY = "memory";
+
+    @VisibleForTesting
+    static final long CACHE_TTL_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+    private static final int POOL_SIZE = 2;
+    private static final long KEEP_ALIVE_SECONDS = 30;
+
+    private static AppDetailsDataOrchestrator sInstance;
+
+    private final Object mLock = new Object();
+    private final Executor mExecutor;
+    private final Handler mMainHandler;
+    // Guarded by mLock.
+    private final ArrayMap<String, CacheEntry> mCache = new ArrayMap<>();
+    private final ArrayMap<String, Request<?>> mInFlight = new ArrayMap<>();
+    private long mNextSequence;
+
+    public interface Callback<T> {
+        /**
+         * Called on the main thread with the result, which is null if loading failed.
+         */
+        void onLoaded(@Nullable T result);
+    }
+
+    public static synchronized AppDetailsDataOrchestrator getInstance() {
+        if (sInstance == null) {
+            final ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                    KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new PriorityBlockingQueue<>(),
+                    r -> new Thread(() -> {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                        r.run();
+                    }, TAG));
+            executor.allowCoreThreadTimeOut(true);
+            sInstance = new AppDetailsDataOrchestrator(executor,
+                    new Handler(Looper.getMainLooper()));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppDetailsDataOrchestrator(Executor executor, Handler mainHandler) {
+        mExecutor = executor;
+        mMainHandler = mainHandler;
+    }
+
+    /**
+     * @return the cache key of {@code type} data for a package, or for the whole device when
+     * {@code packageName} is null
+     */
+    public static String getKey(String type, @Nullable String packageName, int userId) {
+        return packageName == null ? type : type + ':' + userId + ':' + packageName;
+    }
+
+    public Session newSession(Context context, String tag) {
+        return new Session(context, tag);
+    }
+
+    /**
+     * Stores a result loaded elsewhere, so other pages can reuse it.
+     */
+    public void putResult(String key, @Nullable Object result) {
+        if (result == null) {
+            return;
+        }
+        synchronized (mLock) {
+            mCache.put(key, new CacheEntry(result, SystemClock.elapsedRealtime()));
+        }
+    }
+
+    /**
+     * Drops the cached results of a package, e.g. after it changed.
+     */
+    public void invalidate(String packageName, int userId) {
+        final String suffix = ":" + userId + ":" + packageName;
+        synchronized (mLock) {
+            for (int i = mCache.size() - 1; i >= 0; i--) {
+                if (mCache.keyAt(i).endsWith(suffix)) {
+                    mCache.removeAt(i);
+                }
+            }
+        }
+    }
+
+    @VisibleForTesting
+    void clearCache() {
+        synchronized (mLock) {
+            mCache.clear();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> void load(@Nullable String key, int priority, Callable<T> task,
+            Listener<T> listener) {
+        final Request<T> request;
+        synchronized (mLock) {
+            if (key != null) {
+                final CacheEntry entry = mCache.get(key);
+                if (entry != null) {
+                    if (SystemClock.elapsedRealtime() - entry.mTimestampMs < CACHE_TTL_MS) {
+                        final T result = (T) entry.mResult;
+                        mMainHandler.post(() -> listener.deliver(result));
+                        return;
+                    }
+                    mCache.remove(key);
+                }
+                final Request<T> pending = (Request<T>) mInFlight.get(key);
+                if (pending != null) {
+                    pending.mListeners.add(listener);
+                    return;
+                }
+            }
+            request = new Request<>(key, priority, mNextSequence++, task);
+            request.mListeners.add(listener);
+            if (key != null) {
+                mInFlight.put(key, request);
+            }
+        }
+        mExecutor.execute(request);
+    }
+
+    private static class CacheEntry {
+        final Object mResult;
+        final long mTimestampMs;
+
+        CacheEntry(Object result, long timestampMs) {
+            mResult = result;
+            mTimestampMs = timestampMs;
+        }
+    }
+
+    private interface Listener<T> {
+        void deliver(T result);
+    }
+
+    private final class Request<T> implements Runnable, Comparable<Request<?>> {
+        final String mKey;
+        final int mPriority;
+        final long mSequence;
+        final Callable<T> mTask;
+        // Guarded by mLock.
+        final List<Listener<T>> mListeners = new ArrayList<>();
+
+        Request(String key, int priority, long sequence, Callable<T> task) {
+            mKey = key;
+            mPriority = priority;
+            mSequence = sequence;
+            mTask = task;
+        }
+
+        @Override
+        public void run() {
+            T result = null;
+            try {
+                result = mTask.call();
+            } catch (Exception e) {
+                Log.w(TAG, "Failed to load " + mKey, e);
+            }
+            final List<Listener<T>> listeners;
+            synchronized (mLock) {
+                if (mKey != null) {
+                    mInFlight.remove(mKey);
+                    if (result != null) {
+                        mCache.put(mKey, new CacheEntry(result, SystemClock.elapsedRealtime()));
+                    }
+                }
+                listeners = new ArrayList<>(mListeners);
+            }
+            final T finalResult = result;
+            mMainHandler.post(() -> {
+                for (int i = 0, size = listeners.size(); i < size; i++) {
+                    listeners.get(i).deliver(finalResult);
+                }
+            });
+        }
+
+        @Override
+        public int compareTo(Request<?> other) {
+            if (mPriority != other.mPriority) {
+                return mPriority < other.mPriority ? -1 : 1;
+            }
+            return Long.compare(mSequence, other.mSequence);
+        }
+    }
+
+    /**
+     * The loads made by one page while it is resumed. Callbacks are dropped once the session is
+     * closed, and the time until every part of the page is loaded is reported.
+     */
+    public final class Session {
+        private final Context mContext;
+        private final String mTag;
+        private final long mStartMs;
+        private final ArraySet<String> mPendingAboveFold = new ArraySet<>();
+        private final ArraySet<String> mPendingBelowFold = new ArraySet<>();
+        private final ArrayList<Runnable> mAboveFoldLoadedActions = new ArrayList<>();
+        private boolean mClosed;
+        private boolean mStarted;
+
+        private Session(Context context, String tag) {
+            mContext = context.getApplicationContext();
+            mTag = tag;
+            mStartMs = SystemClock.elapsedRealtime();
+        }
+
+        /**
+         * Loads one part of the page on the shared pool.
+         *
+         * @param part name of the part, used to tell when the page is fully loaded
+         * @param key cache key from {@link #getKey}, or null to always load
+         */
+        public <T> void load(String part, @Nullable String key, int priority,
+                Callable<T> task, Callback<T> callback) {
+            expect(part, priority);
+            AppDetailsDataOrchestrator.this.load(key, priority, task, result -> {
+                if (mClosed) {
+                    return;
+                }
+                callback.onLoaded(result);
+                onPartLoaded(part);
+            });
+        }
+
+        /**
+         * Marks a part loaded by other means, e.g. a loader, as pending.
+         */
+        public void expect(String part, int priority) {
+            mStarted = true;
+            (priority == PRIORITY_ABOVE_FOLD ? mPendingAboveFold : mPendingBelowFold).add(part);
+        }
+
+        public void onPartLoaded(String part) {
+            if (mClosed) {
+                return;
+            }
+            if (mPendingAboveFold.remove(part) && mPendingAboveFold.isEmpty()) {
+                runAboveFoldLoadedActions();
+            }
+            mPendingBelowFold.remove(part);
+            if (mPendingAboveFold.isEmpty() && mPendingBelowFold.isEmpty()) {
+                reportFullyLoaded();
+            }
+        }
+
+        /**
+         * Runs {@code action} once every part above the fold is loaded, so work for the rest of
+         * the page doesn't compete with it.
+         */
+        public void runWhenAboveFoldLoaded(Runnable action) {
+            if (mPendingAboveFold.isEmpty()) {
+                action.run();
+            } else {
+                mAboveFoldLoadedActions.add(action);
+            }
+        }
+
+        public void close() {
+            mClosed = true;
+            mAboveFoldLoadedActions.clear();
+        }
+
+        private void runAboveFoldLoadedActions() {
+            final List<Runnable> actions = new ArrayList<>(mAboveFoldLoadedActions);
+            mAboveFoldLoadedActions.clear();
+            for (int i = 0, size = actions.size(); i < size; i++) {
+                actions.get(i).run();
+            }
+        }
+
+        private void reportFullyLoaded() {
+            if (!mStarted) {
+                return;
+            }
+            mStarted = false;
+            final int elapsedMs = (int) (SystemClock.elapsedRealtime() - mStartMs);
+            Log.d(TAG, mTag + " fully loaded in " + elapsedMs + "ms");
+            FeatureFactory.getFactory(mContext).getMetricsFeatureProvider()
+                    .histogram(mContext, mTag + "_full_render_ms", elapsedMs);
+        }
+    }
+}
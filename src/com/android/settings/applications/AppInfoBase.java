@@ -218,6 +218,7 @@ public abstract class AppInfoBase extends SettingsPreferenceFragment
 
     @Override
     public void onPackageListChanged() {
+        AppDetailsDataOrchestrator.getInstance().invalidate(mPackageName, mUserId);
         if (!refreshUi()) {
             setIntentAndFinish(true, true);
         }
@@ -0,0 +1,160 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.icu.text.AlphabeticIndex;
+import android.text.TextUtils;
+import android.util.ArrayMap;
+
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import java.util.ArrayList;
+import java.util.Locale;
+
+/**
+ * Normalized labels and fast scroll buckets of the apps shown in {@link ManageApplications}.
+ *
+ * Labels are normalized and split into words once per app, when the list is rebuilt, rather
+ * than on every keystroke. Typing more of a prefix only rescans the apps that matched the
+ * shorter one.
+ */
+class AppLabelIndex {
+    private static final int[] NO_MATCHES = new int[0];
+
+    // Guarded by this; the filter runs on its own thread.
+    private final ArrayMap<AppEntry, LabelInfo> mLabels = new ArrayMap<>();
+    private ArrayList<AppEntry> mEntries;
+    private LabelInfo[] mEntryLabels = new LabelInfo[0];
+    private String mLastPrefix;
+    private int[] mLastMatches = NO_MATCHES;
+
+    /**
+     * Indexes the labels of {@code entries}, reusing the work done for apps already indexed.
+     */
+    synchronized void update(ArrayList<AppEntry> entries) {
+        final int count = entries != null ? entries.size() : 0;
+        final ArrayMap<AppEntry, LabelInfo> labels = new ArrayMap<>(count);
+        final LabelInfo[] entryLabels = new LabelInfo[count];
+        for (int i = 0; i < count; i++) {
+            final AppEntry entry = entries.get(i);
+            LabelInfo info = mLabels.get(entry);
+            if (info == null || !TextUtils.equals(info.mLabel, entry.label)) {
+                info = new LabelInfo(entry);
+            }
+            labels.put(entry, info);
+            entryLabels[i] = info;
+        }
+        mLabels.clear();
+        mLabels.putAll(labels);
+        mEntries = entries;
+        mEntryLabels = entryLabels;
+        mLastPrefix = null;
+        mLastMatches = NO_MATCHES;
+    }
+
+    /**
+     * @return the indexed apps with a word of their label starting with {@code prefix}, in
+     * order, or all of them when {@code prefix} is empty
+     */
+    synchronized ArrayList<AppEntry> filter(CharSequence prefix) {
+        if (mEntries == null || prefix == null || prefix.length() == 0) {
+            return mEntries;
+        }
+        final String normalizedPrefix = ApplicationsState.normalize(prefix.toString());
+        final int[] matches;
+        if (mLastPrefix != null && normalizedPrefix.startsWith(mLastPrefix)) {
+            matches = match(normalizedPrefix, mLastMatches, mLastMatches.length);
+        } else {
+            matches = match(normalizedPrefix, null, mEntryLabels.length);
+        }
+        mLastPrefix = normalizedPrefix;
+        mLastMatches = matches;
+
+        final ArrayList<AppEntry> result = new ArrayList<>(matches.length);
+        for (int position : matches) {
+            result.add(mEntries.get(position));
+        }
+        return result;
+    }
+
+    /**
+     * @return the bucket of {@code entry} in {@code index}, computed once per label
+     */
+    synchronized int getBucketIndex(AlphabeticIndex.ImmutableIndex<Locale> index,
+            AppEntry entry) {
+        LabelInfo info = mLabels.get(entry);
+        if (info == null) {
+            return index.getBucketIndex(TextUtils.isEmpty(entry.label) ? "" : entry.label);
+        }
+        if (info.mBucketIndex < 0) {
+            info.mBucketIndex = index.getBucketIndex(
+                    TextUtils.isEmpty(info.mLabel) ? "" : info.mLabel);
+        }
+        return info.mBucketIndex;
+    }
+
+    private int[] match(String prefix, int[] candidates, int candidateCount) {
+        final int[] matches = new int[candidateCount];
+        int matchCount = 0;
+        for (int i = 0; i < candidateCount; i++) {
+            final int position = candidates != null ? candidates[i] : i;
+            if (mEntryLabels[position].matches(prefix)) {
+                matches[matchCount++] = position;
+            }
+        }
+        final int[] result = new int[matchCount];
+        System.arraycopy(matches, 0, result, 0, matchCount);
+        return result;
+    }
+
+    private static class LabelInfo {
+        final String mLabel;
+        final String mNormalizedLabel;
+        // Offsets of the start of the label and of every character following a space.
+        final int[] mWordStarts;
+        int mBucketIndex = -1;
+
+        LabelInfo(AppEntry entry) {
+            mLabel = entry.label;
+            final String normalizedLabel = entry.getNormalizedLabel();
+            mNormalizedLabel = normalizedLabel != null ? normalizedLabel : "";
+            int wordCount = 1;
+            for (int i = 0; i < mNormalizedLabel.length(); i++) {
+                if (mNormalizedLabel.charAt(i) == ' ') {
+                    wordCount++;
+                }
+            }
+            mWordStarts = new int[wordCount];
+            int word = 1;
+            for (int i = 0; i < mNormalizedLabel.length(); i++) {
+                if (mNormalizedLabel.charAt(i) == ' ') {
+                    mWordStarts[word++] = i + 1;
+                }
+            }
+        }
+
+        boolean matches(String prefix) {
+            for (int wordStart : mWordStarts) {
+                if (mNormalizedLabel.startsWith(prefix, wordStart)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+    }
+}
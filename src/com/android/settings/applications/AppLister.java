@@ -17,8 +17,6 @@
 package com.android.settings.applications;
 
 import android.content.pm.ApplicationInfo;
-import android.content.pm.PackageManager;
-import android.content.pm.UserInfo;
 import android.os.AsyncTask;
 import android.os.UserHandle;
 import android.os.UserManager;
@@ -35,6 +33,7 @@ import java.util.List;
 public abstract class AppLister extends AsyncTask<Void, Void, List<UserAppInfo>> {
     protected final PackageManagerWrapper mPm;
     protected final UserManager mUm;
+    private final InstalledAppsCache mAppsCache = InstalledAppsCache.getInstance();
 
     public AppLister(PackageManagerWrapper packageManager, UserManager userManager) {
         mPm = packageManager;
@@ -43,18 +42,19 @@ public abstract class AppLister extends AsyncTask<Void, Void, List<UserAppInfo>>
 
     @Override
     protected List<UserAppInfo> doInBackground(Void... params) {
+        final List<List<UserAppInfo>> profileResults = mAppsCache.runForEachProfile(
+                mUm.getProfiles(UserHandle.myUserId()), user -> {
+                    final List<UserAppInfo> result = new ArrayList<>();
+                    for (ApplicationInfo info : mAppsCache.getInstalledApplications(mPm, user)) {
+                        if (includeInCount(info)) {
+                            result.add(new UserAppInfo(user, info));
+                        }
+                    }
+                    return result;
+                });
         final List<UserAppInfo> result = new ArrayList<>();
-        for (UserInfo user : mUm.getProfiles(UserHandle.myUserId())) {
-            final List<ApplicationInfo> list =
-                    mPm.getInstalledApplicationsAsUser(PackageManager.GET_DISABLED_COMPONENTS
-                            | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
-                            | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0),
-                            user.id);
-            for (ApplicationInfo info : list) {
-                if (includeInCount(info)) {
-                    result.add(new UserAppInfo(user, info));
-                }
-            }
+        for (List<UserAppInfo> profileResult : profileResults) {
+            result.addAll(profileResult);
         }
         return result;
     }
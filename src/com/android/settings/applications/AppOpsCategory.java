@@ -29,6 +29,8 @@ import android.content.pm.ActivityInfo;
 import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -42,6 +44,9 @@ import com.android.settings.R;
 import com.android.settings.SettingsActivity;
 import com.android.settings.applications.AppOpsState.AppOpEntry;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 public class AppOpsCategory extends ListFragment implements
@@ -113,6 +118,8 @@ public class AppOpsCategory extends ListFragment implements
         }
 
         @Override public void onReceive(Context context, Intent intent) {
+            // Labels and icons may have changed too.
+            AppOpsState.invalidatePackageEntries();
             // Tell the loader about the change.
             mLoader.onContentChanged();
         }
@@ -126,6 +133,7 @@ public class AppOpsCategory extends ListFragment implements
         final AppOpsState mState;
         final AppOpsState.OpsTemplate mTemplate;
         final boolean mUserControlled;
+        final Handler mHandler = new Handler(Looper.getMainLooper());
 
         List<AppOpEntry> mApps;
         PackageIntentReceiver mPackageObserver;
@@ -138,9 +146,35 @@ public class AppOpsCategory extends ListFragment implements
             mUserControlled = userControlled;
         }
 
+        /**
+         * Builds the ops of the template without waiting for app labels and icons. Apps that
+         * weren't loaded by this or another tab yet are shown by package name first, then the
+         * list is delivered again once they are loaded.
+         */
         @Override public List<AppOpEntry> loadInBackground() {
-            return mState.buildState(mTemplate, 0, null,
-                    mUserControlled ? AppOpsState.LABEL_COMPARATOR : AppOpsState.RECENCY_COMPARATOR);
+            final Comparator<AppOpEntry> comparator = mUserControlled
+                    ? AppOpsState.LABEL_COMPARATOR : AppOpsState.RECENCY_COMPARATOR;
+            final List<AppOpEntry> entries = mState.buildState(mTemplate, 0, null, comparator,
+                    false /* loadLabels */);
+            if (mState.hasUnloadedApps(entries)) {
+                deliverPartialResult(new ArrayList<>(entries));
+                if (mState.loadApps(entries)) {
+                    Collections.sort(entries, comparator);
+                }
+            }
+            return entries;
+        }
+
+        private void deliverPartialResult(List<AppOpEntry> apps) {
+            if (isLoadInBackgroundCanceled()) {
+                return;
+            }
+            // Posted before the final result, so it can't replace it.
+            mHandler.post(() -> {
+                if (isStarted() && !isAbandoned()) {
+                    deliverResult(apps);
+                }
+            });
         }
 
         /**
@@ -0,0 +1,316 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.AppGlobals;
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.PackageInfo;
+import android.os.RemoteException;
+import android.os.UserHandle;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.Log;
+import android.util.SparseArray;
+import android.util.SparseIntArray;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * Shared cache of which packages request, hold and have app ops set for the app op permissions
+ * behind the special access screens, so each screen doesn't query them package by package.
+ *
+ * For every app op, packages are given an ordinal and the per user state is kept as bitsets
+ * indexed by it. Everything is dropped when a package changes, and the state of an app op when
+ * its mode changes.
+ */
+public class AppOpsPermissionMatrix {
+    private static final String TAG = "AppOpsPermissionMatrix";
+
+    private static AppOpsPermissionMatrix sInstance;
+
+    private final IPackageManagerWrapper mPackageManager;
+    private final AppOpsManager mAppOpsManager;
+    // Guarded by this.
+    private final SparseArray<Column> mColumns = new SparseArray<>();
+    private final ArrayList<Integer> mWatchedOps = new ArrayList<>();
+    private boolean mObserving;
+
+    private final AppOpsManager.OnOpChangedListener mOpChangedListener =
+            new AppOpsManager.OnOpChangedListener() {
+                @Override
+                public void onOpChanged(String op, String packageName) {
+                    invalidateOp(AppOpsManager.strOpToOp(op));
+                }
+            };
+
+    @VisibleForTesting
+    final BroadcastReceiver mPackageReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    public static synchronized AppOpsPermissionMatrix getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new AppOpsPermissionMatrix(
+                    new IPackageManagerWrapperImpl(AppGlobals.getPackageManager()),
+                    (AppOpsManager) appContext.getSystemService(Context.APP_OPS_SERVICE));
+            sInstance.startObserving(appContext);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    AppOpsPermissionMatrix(IPackageManagerWrapper packageManager, AppOpsManager appOpsManager) {
+        mPackageManager = packageManager;
+        mAppOpsManager = appOpsManager;
+    }
+
+    /**
+     * Returns the state of every package that requests one of {@code permissions} or has
+     * {@code opCode} set, for one user, or null if the package manager can't be reached.
+     */
+    @Nullable
+    public synchronized UserState getUserState(int opCode, String[] permissions, int userId) {
+        Column column = mColumns.get(opCode);
+        if (column == null || !Arrays.equals(column.mPermissions, permissions)) {
+            column = buildColumn(opCode, permissions);
+            if (column == null) {
+                return null;
+            }
+            mColumns.put(opCode, column);
+            watchOp(opCode);
+        }
+        UserState userState = column.mUserStates.get(userId);
+        if (userState == null) {
+            userState = buildUserState(column, userId);
+            if (userState == null) {
+                return null;
+            }
+            column.mUserStates.put(userId, userState);
+        }
+        return userState;
+    }
+
+    public synchronized void invalidate() {
+        mColumns.clear();
+    }
+
+    public synchronized void invalidateOp(int opCode) {
+        mColumns.remove(opCode);
+    }
+
+    @VisibleForTesting
+    synchronized void startObserving(Context context) {
+        if (mObserving) {
+            return;
+        }
+        mObserving = true;
+        final IntentFilter filter = new IntentFilter();
+        filter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        filter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        filter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        filter.addDataScheme("package");
+        context.registerReceiverAsUser(mPackageReceiver, UserHandle.ALL, filter, null, null);
+    }
+
+    private void watchOp(int opCode) {
+        if (!mObserving || mWatchedOps.contains(opCode)) {
+            return;
+        }
+        mWatchedOps.add(opCode);
+        mAppOpsManager.startWatchingMode(opCode, null, mOpChangedListener);
+    }
+
+    private Column buildColumn(int opCode, String[] permissions) {
+        final ArrayMap<String, Integer> ordinals = new ArrayMap<>();
+        final BitSet requested = new BitSet();
+        try {
+            for (String permission : permissions) {
+                final String[] packages = mPackageManager.getAppOpPermissionPackages(permission);
+                if (packages == null) {
+                    continue;
+                }
+                for (String packageName : packages) {
+                    requested.set(getOrCreateOrdinal(ordinals, packageName));
+                }
+            }
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get list of packages requesting "
+                    + permissions[0], e);
+            return null;
+        }
+
+        final SparseArray<SparseIntArray> modes = new SparseArray<>();
+        final List<AppOpsManager.PackageOps> packageOps =
+                mAppOpsManager.getPackagesForOps(new int[] {opCode});
+        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
+        for (int i = 0; i < packageOpsCount; i++) {
+            final AppOpsManager.PackageOps packageOp = packageOps.get(i);
+            if (packageOp.getOps().size() < 1) {
+                continue;
+            }
+            final int userId = UserHandle.getUserId(packageOp.getUid());
+            SparseIntArray userModes = modes.get(userId);
+            if (userModes == null) {
+                userModes = new SparseIntArray();
+                modes.put(userId, userModes);
+            }
+            userModes.put(getOrCreateOrdinal(ordinals, packageOp.getPackageName()),
+                    packageOp.getOps().get(0).getMode());
+        }
+
+        final String[] packages = new String[ordinals.size()];
+        for (int i = 0; i < packages.length; i++) {
+            packages[ordinals.valueAt(i)] = ordinals.keyAt(i);
+        }
+        return new Column(permissions, packages, ordinals, requested, modes);
+    }
+
+    private UserState buildUserState(Column column, int userId) {
+        final BitSet available = new BitSet();
+        final BitSet granted = new BitSet();
+        final SparseArray<PackageInfo> grantedInfos = new SparseArray<>();
+        try {
+            for (int i = column.mRequested.nextSetBit(0); i >= 0;
+                    i = column.mRequested.nextSetBit(i + 1)) {
+                if (mPackageManager.isPackageAvailable(column.mPackages[i], userId)) {
+                    available.set(i);
+                }
+            }
+            @SuppressWarnings("unchecked")
+            final List<PackageInfo> packageInfos = mPackageManager
+                    .getPackagesHoldingPermissions(column.mPermissions, 0, userId).getList();
+            final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
+            for (int i = 0; i < packageInfoCount; i++) {
+                final PackageInfo packageInfo = packageInfos.get(i);
+                final Integer ordinal = column.mOrdinals.get(packageInfo.packageName);
+                if (ordinal != null) {
+                    granted.set(ordinal);
+                    grantedInfos.put(ordinal, packageInfo);
+                }
+            }
+        } catch (RemoteException e) {
+            Log.w(TAG, "PackageManager is dead. Can't get package state for user " + userId, e);
+            return null;
+        }
+        final SparseIntArray modes = column.mModes.get(userId);
+        return new UserState(column, available, granted, grantedInfos,
+                modes != null ? modes : new SparseIntArray());
+    }
+
+    private static int getOrCreateOrdinal(ArrayMap<String, Integer> ordinals, String packageName) {
+        Integer ordinal = ordinals.get(packageName);
+        if (ordinal == null) {
+            ordinal = ordinals.size();
+            ordinals.put(packageName, ordinal);
+        }
+        return ordinal;
+    }
+
+    private static class Column {
+        final String[] mPermissions;
+        final String[] mPackages;
+        final ArrayMap<String, Integer> mOrdinals;
+        final BitSet mRequested;
+        final SparseArray<SparseIntArray> mModes;
+        // Guarded by the matrix.
+        final SparseArray<UserState> mUserStates = new SparseArray<>();
+
+        Column(String[] permissions, String[] packages, ArrayMap<String, Integer> ordinals,
+                BitSet requested, SparseArray<SparseIntArray> modes) {
+            mPermissions = permissions;
+            mPackages = packages;
+            mOrdinals = ordinals;
+            mRequested = requested;
+            mModes = modes;
+        }
+    }
+
+    /**
+     * Immutable snapshot of one app op for one user. Packages are addressed by ordinal, from 0
+     * to {@link #getPackageCount()}.
+     */
+    public static class UserState {
+        private final Column mColumn;
+        private final BitSet mAvailable;
+        private final BitSet mGranted;
+        private final SparseArray<PackageInfo> mGrantedInfos;
+        private final SparseIntArray mModes;
+
+        private UserState(Column column, BitSet available, BitSet granted,
+                SparseArray<PackageInfo> grantedInfos, SparseIntArray modes) {
+            mColumn = column;
+            mAvailable = available;
+            mGranted = granted;
+            mGrantedInfos = grantedInfos;
+            mModes = modes;
+        }
+
+        public int getPackageCount() {
+            return mColumn.mPackages.length;
+        }
+
+        public String getPackageName(int ordinal) {
+            return mColumn.mPackages[ordinal];
+        }
+
+        /**
+         * @return the ordinal of {@code packageName}, or -1 if it neither requests the
+         * permission nor has the app op set
+         */
+        public int getOrdinal(String packageName) {
+            final Integer ordinal = mColumn.mOrdinals.get(packageName);
+            return ordinal != null ? ordinal : -1;
+        }
+
+        /**
+         * @return the first ordinal from {@code fromOrdinal} of a package that requests the
+         * permission and is available for the user, or -1 if there is none
+         */
+        public int nextRequestedAvailable(int fromOrdinal) {
+            return mAvailable.nextSetBit(fromOrdinal);
+        }
+
+        public boolean isRequested(int ordinal) {
+            return mColumn.mRequested.get(ordinal);
+        }
+
+        public boolean isGranted(int ordinal) {
+            return mGranted.get(ordinal);
+        }
+
+        @Nullable
+        public PackageInfo getGrantedPackageInfo(int ordinal) {
+            return mGrantedInfos.get(ordinal);
+        }
+
+        public int getAppOpMode(int ordinal) {
+            return mModes.get(ordinal, AppOpsManager.MODE_DEFAULT);
+        }
+    }
+}
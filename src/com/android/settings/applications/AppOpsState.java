@@ -18,15 +18,19 @@ package com.android.settings.applications;
 
 import android.app.AppOpsManager;
 import android.content.Context;
+import android.content.pm.ActivityInfo;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.content.res.Configuration;
 import android.content.res.Resources;
 import android.graphics.drawable.Drawable;
 import android.os.Parcel;
 import android.os.Parcelable;
 import android.text.format.DateUtils;
+import android.util.ArrayMap;
+import android.util.ArraySet;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -44,6 +48,11 @@ public class AppOpsState {
     static final String TAG = "AppOpsState";
     static final boolean DEBUG = false;
 
+    // Packages seen by any AppOpsState, keyed by package name.
+    private static final ArrayMap<String, PackageEntry> sPackageEntries = new ArrayMap<>();
+    // Configuration the labels and icons of sPackageEntries were loaded for.
+    private static final Configuration sPackageEntriesConfig = new Configuration();
+
     final Context mContext;
     final AppOpsManager mAppOps;
     final PackageManager mPm;
@@ -225,25 +234,91 @@ public class AppOpsState {
             BOOTUP_TEMPLATE
     };
 
+    /**
+     * Application info, label and icon of a package. These are loaded once per package and
+     * shared by the {@link AppEntry}s of every template, while the ops of each template are kept
+     * in its own {@link AppEntry}.
+     */
+    static class PackageEntry {
+        final ApplicationInfo mInfo;
+        final File mApkFile;
+        volatile String mLabel;
+        volatile Drawable mIcon;
+        volatile boolean mMounted;
+        // Set once label and icon were loaded, or found missing because the apk is not mounted.
+        volatile boolean mLoadAttempted;
+
+        PackageEntry(ApplicationInfo info) {
+            mInfo = info;
+            mApkFile = new File(info.sourceDir);
+        }
+
+        boolean isLoaded() {
+            return mLoadAttempted;
+        }
+
+        synchronized Drawable getIcon(AppOpsState state) {
+            if (mIcon == null) {
+                if (mApkFile.exists()) {
+                    mIcon = mInfo.loadIcon(state.mPm);
+                    return mIcon;
+                } else {
+                    mMounted = false;
+                }
+            } else if (!mMounted) {
+                // If the app wasn't mounted but is now mounted, reload
+                // its icon.
+                if (mApkFile.exists()) {
+                    mMounted = true;
+                    mIcon = mInfo.loadIcon(state.mPm);
+                    return mIcon;
+                }
+            } else {
+                return mIcon;
+            }
+
+            return state.mContext.getDrawable(
+                    android.R.drawable.sym_def_app_icon);
+        }
+
+        /**
+         * @return whether the label changed
+         */
+        synchronized boolean loadLabel(PackageManager pm) {
+            if (mLabel == null || !mMounted) {
+                final String oldLabel = mLabel;
+                if (!mApkFile.exists()) {
+                    mMounted = false;
+                    mLabel = mInfo.packageName;
+                } else {
+                    mMounted = true;
+                    CharSequence label = mInfo.loadLabel(pm);
+                    mLabel = label != null ? label.toString() : mInfo.packageName;
+                }
+                return !mLabel.equals(oldLabel);
+            }
+            return false;
+        }
+    }
+
     /**
      * This class holds the per-item data in our Loader.
      */
     public static class AppEntry {
         private final AppOpsState mState;
-        private final ApplicationInfo mInfo;
-        private final File mApkFile;
+        private final PackageEntry mPackage;
         private final SparseArray<AppOpsManager.OpEntry> mOps
                 = new SparseArray<AppOpsManager.OpEntry>();
         private final SparseArray<AppOpEntry> mOpSwitches
                 = new SparseArray<AppOpEntry>();
-        private String mLabel;
-        private Drawable mIcon;
-        private boolean mMounted;
 
         public AppEntry(AppOpsState state, ApplicationInfo info) {
+            this(state, new PackageEntry(info));
+        }
+
+        AppEntry(AppOpsState state, PackageEntry packageEntry) {
             mState = state;
-            mInfo = info;
-            mApkFile = new File(info.sourceDir);
+            mPackage = packageEntry;
         }
 
         public void addOp(AppOpEntry entry, AppOpsManager.OpEntry op) {
@@ -260,52 +335,27 @@ public class AppOpsState {
         }
 
         public ApplicationInfo getApplicationInfo() {
-            return mInfo;
+            return mPackage.mInfo;
         }
 
+        /**
+         * @return the label of the app, or its package name until the label was loaded
+         */
         public String getLabel() {
-            return mLabel;
+            final String label = mPackage.mLabel;
+            return label != null ? label : mPackage.mInfo.packageName;
         }
 
         public Drawable getIcon() {
-            if (mIcon == null) {
-                if (mApkFile.exists()) {
-                    mIcon = mInfo.loadIcon(mState.mPm);
-                    return mIcon;
-                } else {
-                    mMounted = false;
-                }
-            } else if (!mMounted) {
-                // If the app wasn't mounted but is now mounted, reload
-                // its icon.
-                if (mApkFile.exists()) {
-                    mMounted = true;
-                    mIcon = mInfo.loadIcon(mState.mPm);
-                    return mIcon;
-                }
-            } else {
-                return mIcon;
-            }
-
-            return mState.mContext.getDrawable(
-                    android.R.drawable.sym_def_app_icon);
+            return mPackage.getIcon(mState);
         }
 
         @Override public String toString() {
-            return mLabel;
+            return getLabel();
         }
 
         void loadLabel(Context context) {
-            if (mLabel == null || !mMounted) {
-                if (!mApkFile.exists()) {
-                    mMounted = false;
-                    mLabel = mInfo.packageName;
-                } else {
-                    mMounted = true;
-                    CharSequence label = mInfo.loadLabel(context.getPackageManager());
-                    mLabel = label != null ? label.toString() : mInfo.packageName;
-                }
-            }
+            mPackage.loadLabel(context.getPackageManager());
         }
     }
 
@@ -510,33 +560,119 @@ public class AppOpsState {
     }
 
     private AppEntry getAppEntry(final Context context, final HashMap<String, AppEntry> appEntries,
-            final String packageName, ApplicationInfo appInfo) {
+            final String packageName, ApplicationInfo appInfo, boolean loadLabel) {
         AppEntry appEntry = appEntries.get(packageName);
         if (appEntry == null) {
-            if (appInfo == null) {
-                try {
-                    appInfo = mPm.getApplicationInfo(packageName,
-                            PackageManager.MATCH_DISABLED_COMPONENTS
-                            | PackageManager.MATCH_ANY_USER);
-                } catch (PackageManager.NameNotFoundException e) {
-                    Log.w(TAG, "Unable to find info for package " + packageName);
-                    return null;
-                }
+            final PackageEntry packageEntry = getPackageEntry(packageName, appInfo);
+            if (packageEntry == null) {
+                return null;
+            }
+            appEntry = new AppEntry(this, packageEntry);
+            if (loadLabel) {
+                appEntry.loadLabel(context);
             }
-            appEntry = new AppEntry(this, appInfo);
-            appEntry.loadLabel(context);
             appEntries.put(packageName, appEntry);
         }
         return appEntry;
     }
 
+    private PackageEntry getPackageEntry(String packageName, ApplicationInfo appInfo) {
+        synchronized (sPackageEntries) {
+            final PackageEntry packageEntry = sPackageEntries.get(packageName);
+            if (packageEntry != null) {
+                return packageEntry;
+            }
+        }
+        if (appInfo == null) {
+            try {
+                appInfo = mPm.getApplicationInfo(packageName,
+                        PackageManager.MATCH_DISABLED_COMPONENTS
+                        | PackageManager.MATCH_ANY_USER);
+            } catch (PackageManager.NameNotFoundException e) {
+                Log.w(TAG, "Unable to find info for package " + packageName);
+                return null;
+            }
+        }
+        synchronized (sPackageEntries) {
+            // Another loader may have added the package meanwhile; keep its label and icon.
+            PackageEntry packageEntry = sPackageEntries.get(packageName);
+            if (packageEntry == null) {
+                packageEntry = new PackageEntry(appInfo);
+                sPackageEntries.put(packageName, packageEntry);
+            }
+            return packageEntry;
+        }
+    }
+
+    /**
+     * Drops the application info, labels and icons loaded so far, e.g. after packages or the
+     * locale changed.
+     */
+    public static void invalidatePackageEntries() {
+        synchronized (sPackageEntries) {
+            sPackageEntries.clear();
+        }
+    }
+
+    private static void invalidatePackageEntriesIfNeeded(Configuration config) {
+        synchronized (sPackageEntries) {
+            final int changes = sPackageEntriesConfig.updateFrom(config);
+            if ((changes & (ActivityInfo.CONFIG_LOCALE | ActivityInfo.CONFIG_DENSITY
+                    | ActivityInfo.CONFIG_UI_MODE)) != 0) {
+                sPackageEntries.clear();
+            }
+        }
+    }
+
+    /**
+     * @return whether the label or icon of an app of {@code entries} wasn't loaded yet
+     */
+    public boolean hasUnloadedApps(List<AppOpEntry> entries) {
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            if (!entries.get(i).getAppEntry().mPackage.isLoaded()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Loads the labels and icons of the apps of {@code entries}, once per package.
+     *
+     * @return whether a label changed, in which case the entries need to be sorted again
+     */
+    public boolean loadApps(List<AppOpEntry> entries) {
+        final ArraySet<PackageEntry> loaded = new ArraySet<>();
+        boolean labelChanged = false;
+        for (int i = 0, size = entries.size(); i < size; i++) {
+            final PackageEntry packageEntry = entries.get(i).getAppEntry().mPackage;
+            if (packageEntry.isLoaded() || !loaded.add(packageEntry)) {
+                continue;
+            }
+            labelChanged |= packageEntry.loadLabel(mPm);
+            packageEntry.getIcon(this);
+            packageEntry.mLoadAttempted = true;
+        }
+        return labelChanged;
+    }
+
     public List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName) {
         return buildState(tpl, uid, packageName, RECENCY_COMPARATOR);
     }
 
     public List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName,
             Comparator<AppOpEntry> comparator) {
+        return buildState(tpl, uid, packageName, comparator, true /* loadLabels */);
+    }
+
+    /**
+     * @param loadLabels whether to load the labels of the apps now. Otherwise apps whose label
+     * wasn't loaded before are sorted by package name until {@link #loadApps} is called.
+     */
+    public List<AppOpEntry> buildState(OpsTemplate tpl, int uid, String packageName,
+            Comparator<AppOpEntry> comparator, boolean loadLabels) {
         final Context context = mContext;
+        invalidatePackageEntriesIfNeeded(context.getResources().getConfiguration());
 
         final HashMap<String, AppEntry> appEntries = new HashMap<String, AppEntry>();
         final List<AppOpEntry> entries = new ArrayList<AppOpEntry>();
@@ -565,7 +701,8 @@ public class AppOpsState {
         if (pkgs != null) {
             for (int i=0; i<pkgs.size(); i++) {
                 AppOpsManager.PackageOps pkgOps = pkgs.get(i);
-                AppEntry appEntry = getAppEntry(context, appEntries, pkgOps.getPackageName(), null);
+                AppEntry appEntry = getAppEntry(context, appEntries, pkgOps.getPackageName(), null,
+                        loadLabels);
                 if (appEntry == null) {
                     continue;
                 }
@@ -593,7 +730,7 @@ public class AppOpsState {
         for (int i=0; i<apps.size(); i++) {
             PackageInfo appInfo = apps.get(i);
             AppEntry appEntry = getAppEntry(context, appEntries, appInfo.packageName,
-                    appInfo.applicationInfo);
+                    appInfo.applicationInfo, loadLabels);
             if (appEntry == null) {
                 continue;
             }
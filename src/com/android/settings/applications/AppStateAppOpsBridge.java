@@ -32,11 +32,8 @@ import android.util.SparseArray;
 import com.android.settingslib.applications.ApplicationsState;
 import com.android.settingslib.applications.ApplicationsState.AppEntry;
 
-import java.util.Arrays;
 import java.util.Collection;
-import java.util.HashSet;
 import java.util.List;
-import java.util.Set;
 
 /*
  * Connects app ops info to the ApplicationsState. Makes use of AppOpsManager to
@@ -52,37 +49,40 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     private final AppOpsManager mAppOpsManager;
     private final Context mContext;
     private final int[] mAppOpsOpCodes;
+    private final int mAppOpsOpCode;
     private final String[] mPermissions;
+    private final AppOpsPermissionMatrix mPermissionMatrix;
 
     public AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions) {
         this(context, appState, callback, appOpsOpCode, permissions,
-            new IPackageManagerWrapperImpl(AppGlobals.getPackageManager()));
+            new IPackageManagerWrapperImpl(AppGlobals.getPackageManager()),
+            AppOpsPermissionMatrix.getInstance(context));
     }
 
     @VisibleForTesting(otherwise = VisibleForTesting.NONE)
     AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
             int appOpsOpCode, String[] permissions, IPackageManagerWrapper packageManager) {
+        this(context, appState, callback, appOpsOpCode, permissions, packageManager,
+            new AppOpsPermissionMatrix(packageManager,
+                    (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE)));
+    }
+
+    private AppStateAppOpsBridge(Context context, ApplicationsState appState, Callback callback,
+            int appOpsOpCode, String[] permissions, IPackageManagerWrapper packageManager,
+            AppOpsPermissionMatrix permissionMatrix) {
         super(appState, callback);
         mContext = context;
         mIPackageManager = packageManager;
+        mPermissionMatrix = permissionMatrix;
         mUserManager = UserManager.get(context);
         mProfiles = mUserManager.getUserProfiles();
         mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
         mAppOpsOpCodes = new int[] {appOpsOpCode};
+        mAppOpsOpCode = appOpsOpCode;
         mPermissions = permissions;
     }
 
-    private boolean isThisUserAProfileOfCurrentUser(final int userId) {
-        final int profilesMax = mProfiles.size();
-        for (int i = 0; i < profilesMax; i++) {
-            if (mProfiles.get(i).getIdentifier() == userId) {
-                return true;
-            }
-        }
-        return false;
-    }
-
     protected abstract void updateExtraInfo(AppEntry app, String pkg, int uid);
 
     private boolean doesAnyPermissionMatch(String permissionToMatch, String[] permissions) {
@@ -133,133 +133,50 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
     protected void loadAllExtraInfo() {
         SparseArray<ArrayMap<String, PermissionState>> entries = getEntries();
 
-        // Load state info.
-        loadPermissionsStates(entries);
-        loadAppOpsStates(entries);
-
         // Map states to application info.
         List<AppEntry> apps = mAppSession.getAllApps();
         final int N = apps.size();
         for (int i = 0; i < N; i++) {
             AppEntry app = apps.get(i);
             int userId = UserHandle.getUserId(app.info.uid);
-            ArrayMap<String, PermissionState> userMap = entries.get(userId);
+            ArrayMap<String, PermissionState> userMap = entries != null ? entries.get(userId)
+                    : null;
             app.extraInfo = userMap != null ? userMap.get(app.info.packageName) : null;
         }
     }
 
     /*
      * Gets a sparse array that describes every user on the device and all the associated packages
-     * of each user, together with the packages available for that user.
+     * of each user, together with the packages available for that user. The permission and app op
+     * state of every package is read from the shared {@link AppOpsPermissionMatrix}.
      */
     private SparseArray<ArrayMap<String, PermissionState>> getEntries() {
-        try {
-            Set<String> packagesSet = new HashSet<>();
-            for (String permission : mPermissions) {
-                String[] pkgs = mIPackageManager.getAppOpPermissionPackages(permission);
-                if (pkgs != null) {
-                    packagesSet.addAll(Arrays.asList(pkgs));
-                }
-            }
-
-            if (packagesSet.isEmpty()) {
-                // No packages are requesting permission as specified by mPermissions.
+        // Create a sparse array that maps profileIds to an ArrayMap that maps package names to
+        // an associated PermissionState object
+        SparseArray<ArrayMap<String, PermissionState>> entries = new SparseArray<>();
+        for (final UserHandle profile : mProfiles) {
+            final int profileId = profile.getIdentifier();
+            final AppOpsPermissionMatrix.UserState state = mPermissionMatrix.getUserState(
+                    mAppOpsOpCode, mPermissions, profileId);
+            if (state == null) {
                 return null;
             }
-
-            // Create a sparse array that maps profileIds to an ArrayMap that maps package names to
-            // an associated PermissionState object
-            SparseArray<ArrayMap<String, PermissionState>> entries = new SparseArray<>();
-            for (final UserHandle profile : mProfiles) {
-                final ArrayMap<String, PermissionState> entriesForProfile = new ArrayMap<>();
-                final int profileId = profile.getIdentifier();
-                entries.put(profileId, entriesForProfile);
-                for (final String packageName : packagesSet) {
-                    final boolean isAvailable = mIPackageManager.isPackageAvailable(packageName,
-                            profileId);
-                    if (!shouldIgnorePackage(packageName) && isAvailable) {
-                        final PermissionState newEntry = new PermissionState(packageName, profile);
-                        entriesForProfile.put(packageName, newEntry);
-                    }
-                }
-            }
-
-            return entries;
-        } catch (RemoteException e) {
-            Log.w(TAG, "PackageManager is dead. Can't get list of packages requesting "
-                    + mPermissions[0], e);
-            return null;
-        }
-    }
-
-    /*
-     * This method will set the packageInfo and staticPermissionGranted field of the associated
-     * PermissionState, which describes a particular package.
-     */
-    private void loadPermissionsStates(SparseArray<ArrayMap<String, PermissionState>> entries) {
-         // Load the packages that have been granted the permission specified in mPermission.
-        try {
-            for (final UserHandle profile : mProfiles) {
-                final int profileId = profile.getIdentifier();
-                final ArrayMap<String, PermissionState> entriesForProfile = entries.get(profileId);
-                if (entriesForProfile == null) {
+            final ArrayMap<String, PermissionState> entriesForProfile = new ArrayMap<>();
+            entries.put(profileId, entriesForProfile);
+            for (int i = state.nextRequestedAvailable(0); i >= 0;
+                    i = state.nextRequestedAvailable(i + 1)) {
+                final String packageName = state.getPackageName(i);
+                if (shouldIgnorePackage(packageName)) {
                     continue;
                 }
-                @SuppressWarnings("unchecked")
-                final List<PackageInfo> packageInfos = mIPackageManager
-                        .getPackagesHoldingPermissions(mPermissions, 0, profileId).getList();
-                final int packageInfoCount = packageInfos != null ? packageInfos.size() : 0;
-                for (int i = 0; i < packageInfoCount; i++) {
-                    final PackageInfo packageInfo = packageInfos.get(i);
-                    final PermissionState pe = entriesForProfile.get(packageInfo.packageName);
-                    if (pe != null) {
-                        pe.packageInfo = packageInfo;
-                        pe.staticPermissionGranted = true;
-                    }
-                }
-            }
-        } catch (RemoteException e) {
-            Log.w(TAG, "PackageManager is dead. Can't get list of packages granted "
-                    + mPermissions, e);
-            return;
-        }
-    }
-
-    /*
-     * This method will set the appOpMode field of the associated PermissionState, which describes
-     * a particular package.
-     */
-    private void loadAppOpsStates(SparseArray<ArrayMap<String, PermissionState>> entries) {
-        // Find out which packages have been granted permission from AppOps.
-        final List<AppOpsManager.PackageOps> packageOps = mAppOpsManager.getPackagesForOps(
-                mAppOpsOpCodes);
-        final int packageOpsCount = packageOps != null ? packageOps.size() : 0;
-        for (int i = 0; i < packageOpsCount; i++) {
-            final AppOpsManager.PackageOps packageOp = packageOps.get(i);
-            final int userId = UserHandle.getUserId(packageOp.getUid());
-            if (!isThisUserAProfileOfCurrentUser(userId)) {
-                // This AppOp does not belong to any of this user's profiles.
-                continue;
-            }
-
-            final ArrayMap<String, PermissionState> entriesForProfile = entries.get(userId);
-            if (entriesForProfile == null) {
-                continue;
-            }
-            final PermissionState pe = entriesForProfile.get(packageOp.getPackageName());
-            if (pe == null) {
-                Log.w(TAG, "AppOp permission exists for package " + packageOp.getPackageName()
-                        + " of user " + userId + " but package doesn't exist or did not request "
-                        + mPermissions + " access");
-                continue;
-            }
-
-            if (packageOp.getOps().size() < 1) {
-                Log.w(TAG, "No AppOps permission exists for package " + packageOp.getPackageName());
-                continue;
+                final PermissionState newEntry = new PermissionState(packageName, profile);
+                newEntry.packageInfo = state.getGrantedPackageInfo(i);
+                newEntry.staticPermissionGranted = state.isGranted(i);
+                newEntry.appOpMode = state.getAppOpMode(i);
+                entriesForProfile.put(packageName, newEntry);
             }
-            pe.appOpMode = packageOp.getOps().get(0).getMode();
         }
+        return entries;
     }
 
     /*
@@ -287,8 +204,6 @@ public abstract class AppStateAppOpsBridge extends AppStateBaseBridge {
         if (entries == null) {
             return 0;
         }
-        loadPermissionsStates(entries);
-        loadAppOpsStates(entries);
         final ArrayMap<String, PermissionState> entriesForProfile = entries.get(mUserManager
                 .getUserHandle());
         if (entriesForProfile == null) {
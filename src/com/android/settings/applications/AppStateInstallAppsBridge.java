@@ -22,7 +22,9 @@ import android.content.Context;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageManager;
 import android.os.RemoteException;
+import android.os.UserHandle;
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.android.internal.util.ArrayUtils;
 import com.android.settings.R;
@@ -41,14 +43,18 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
     private static final String TAG = AppStateInstallAppsBridge.class.getSimpleName();
 
+    private static final String[] PERMISSIONS = {Manifest.permission.REQUEST_INSTALL_PACKAGES};
+
     private final IPackageManager mIpm;
     private final AppOpsManager mAppOpsManager;
+    private final AppOpsPermissionMatrix mPermissionMatrix;
 
     public AppStateInstallAppsBridge(Context context, ApplicationsState appState,
             Callback callback) {
         super(appState, callback);
         mIpm = AppGlobals.getPackageManager();
         mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        mPermissionMatrix = AppOpsPermissionMatrix.getInstance(context);
     }
 
     @Override
@@ -58,11 +64,24 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
 
     @Override
     protected void loadAllExtraInfo() {
-        // TODO: consider making this a batch operation with a single binder call
+        final SparseArray<AppOpsPermissionMatrix.UserState> userStates = new SparseArray<>();
         final List<AppEntry> allApps = mAppSession.getAllApps();
         for (int i = 0; i < allApps.size(); i++) {
             AppEntry currentEntry = allApps.get(i);
-            updateExtraInfo(currentEntry, currentEntry.info.packageName, currentEntry.info.uid);
+            final int userId = UserHandle.getUserId(currentEntry.info.uid);
+            AppOpsPermissionMatrix.UserState userState = userStates.get(userId);
+            if (userState == null) {
+                userState = mPermissionMatrix.getUserState(
+                        AppOpsManager.OP_REQUEST_INSTALL_PACKAGES, PERMISSIONS, userId);
+                userStates.put(userId, userState);
+            }
+            if (userState == null) {
+                updateExtraInfo(currentEntry, currentEntry.info.packageName,
+                        currentEntry.info.uid);
+            } else {
+                currentEntry.extraInfo = createInstallAppsStateFor(userState,
+                        currentEntry.info.packageName);
+            }
         }
     }
 
@@ -101,6 +120,18 @@ public class AppStateInstallAppsBridge extends AppStateBaseBridge {
         return appState;
     }
 
+    static InstallAppsState createInstallAppsStateFor(AppOpsPermissionMatrix.UserState userState,
+            String packageName) {
+        final InstallAppsState appState = new InstallAppsState();
+        final int ordinal = userState.getOrdinal(packageName);
+        if (ordinal >= 0) {
+            appState.permissionRequested = userState.isRequested(ordinal);
+            appState.permissionGranted = userState.isGranted(ordinal);
+            appState.appOpMode = userState.getAppOpMode(ordinal);
+        }
+        return appState;
+    }
+
     /**
      * Collection of information to be used as {@link AppEntry#extraInfo} objects
      */
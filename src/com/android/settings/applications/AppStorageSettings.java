@@ -505,6 +505,9 @@ public class AppStorageSettings extends AppInfoWithHeader
 
     @Override
     public void onLoadFinished(Loader<AppStorageStats> loader, AppStorageStats result) {
+        // Let the other app detail pages reuse the fresh stats.
+        AppDetailsDataOrchestrator.getInstance().putResult(AppDetailsDataOrchestrator.getKey(
+                AppDetailsDataOrchestrator.TYPE_STORAGE, mPackageName, mUserId), result);
         mSizeController.setResult(result);
         updateUiWithSize(result);
     }
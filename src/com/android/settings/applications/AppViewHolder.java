@@ -16,6 +16,7 @@
 
 package com.android.settings.applications;
 
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -64,17 +65,31 @@ public class AppViewHolder {
         if (entry.sizeStr != null) {
             switch (whichSize) {
                 case ManageApplications.SIZE_INTERNAL:
-                    summary.setText(entry.internalSizeStr);
+                    setSummary(entry.internalSizeStr);
                     break;
                 case ManageApplications.SIZE_EXTERNAL:
-                    summary.setText(entry.externalSizeStr);
+                    setSummary(entry.externalSizeStr);
                     break;
                 default:
-                    summary.setText(entry.sizeStr);
+                    setSummary(entry.sizeStr);
                     break;
             }
         } else if (entry.size == ApplicationsState.SIZE_INVALID) {
-            summary.setText(invalidSizeStr);
+            setSummary(invalidSizeStr);
         }
     }
+
+    /**
+     * Sets the summary unless it is already showing {@code text}, so updates that don't change
+     * it, e.g. sizes recomputed to the same value, don't cause a layout.
+     */
+    void setSummary(CharSequence text) {
+        if (!TextUtils.equals(text, summary.getText())) {
+            summary.setText(text);
+        }
+    }
+
+    void setSummary(int resId) {
+        setSummary(summary.getContext().getText(resId));
+    }
 }
\ No newline at end of file
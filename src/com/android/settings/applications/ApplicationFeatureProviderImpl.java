@@ -50,6 +50,8 @@ public class ApplicationFeatureProviderImpl implements ApplicationFeatureProvide
         mPms = pms;
         mDpm = dpm;
         mUm = UserManager.get(mContext);
+        // The listers have no context to start it themselves.
+        InstalledAppsCache.getInstance().startObserving(mContext);
     }
 
     @Override
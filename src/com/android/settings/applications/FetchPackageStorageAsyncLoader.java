@@ -49,9 +49,18 @@ public class FetchPackageStorageAsyncLoader extends AsyncLoader<AppStorageStats>
 
     @Override
     public AppStorageStats loadInBackground() {
+        return getStorageStats(mSource, mInfo, mUser);
+    }
+
+    /**
+     * Fetches the storage stats of a package synchronously, for callers that run their own
+     * background work.
+     */
+    public static AppStorageStats getStorageStats(@NonNull StorageStatsSource source,
+            @NonNull ApplicationInfo info, @NonNull UserHandle user) {
         AppStorageStats result = null;
         try {
-            result = mSource.getStatsForPackage(mInfo.volumeUuid, mInfo.packageName, mUser);
+            result = source.getStatsForPackage(info.volumeUuid, info.packageName, user);
         } catch (NameNotFoundException | IOException e) {
             Log.w(TAG, "Package may have been removed during query, failing gracefully", e);
         }
@@ -22,7 +22,6 @@ import android.Manifest.permission;
 import android.app.Activity;
 import android.app.ActivityManager;
 import android.app.AlertDialog;
-import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.app.admin.DevicePolicyManager;
 import android.content.ActivityNotFoundException;
@@ -86,6 +85,7 @@ import com.android.settings.applications.instantapps.InstantAppButtonsController
 import com.android.settings.datausage.AppDataUsage;
 import com.android.settings.datausage.DataUsageList;
 import com.android.settings.datausage.DataUsageUtils;
+import com.android.settings.datausage.NetworkStatsCache;
 import com.android.settings.development.DevelopmentSettingsEnabler;
 import com.android.settings.fuelgauge.AdvancedPowerUsageDetail;
 import com.android.settings.fuelgauge.BatteryEntry;
@@ -105,13 +105,13 @@ import com.android.settingslib.applications.PermissionsSummaryHelper.Permissions
 import com.android.settingslib.applications.StorageStatsSource;
 import com.android.settingslib.applications.StorageStatsSource.AppStorageStats;
 import com.android.settingslib.net.ChartData;
-import com.android.settingslib.net.ChartDataLoader;
 
 import java.lang.ref.WeakReference;
 import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.Callable;
 
 /**
  * Activity to display application information from Settings. This activity presents
@@ -123,8 +123,7 @@ import java.util.Set;
  * uninstall the application.
  */
 public class InstalledAppDetails extends AppInfoBase
-        implements View.OnClickListener, OnPreferenceClickListener,
-        LoaderManager.LoaderCallbacks<AppStorageStats> {
+        implements View.OnClickListener, OnPreferenceClickListener {
 
     private static final String LOG_TAG = "InstalledAppDetails";
 
@@ -140,7 +139,6 @@ public class InstalledAppDetails extends AppInfoBase
     private static final int SUB_INFO_FRAGMENT = 1;
 
     private static final int LOADER_CHART_DATA = 2;
-    private static final int LOADER_STORAGE = 3;
     @VisibleForTesting
     static final int LOADER_BATTERY = 4;
 
@@ -161,6 +159,7 @@ public class InstalledAppDetails extends AppInfoBase
     private static final String KEY_VERSION = "app_version";
     private static final String KEY_INSTANT_APP_SUPPORTED_LINKS =
             "instant_app_launch_supported_domain_urls";
+    private static final String PART_DATA = "data";
 
     private final HashSet<String> mHomePackages = new HashSet<>();
 
@@ -204,6 +203,7 @@ public class InstalledAppDetails extends AppInfoBase
 
     private AppStorageStats mLastResult;
     private String mBatteryPercent;
+    private AppDetailsDataOrchestrator.Session mLoadSession;
 
     @VisibleForTesting
     final LoaderCallbacks<BatteryStatsHelper> mBatteryCallbacks =
@@ -224,6 +224,9 @@ public class InstalledAppDetails extends AppInfoBase
                             updateBattery();
                         }
                     }
+                    if (mLoadSession != null) {
+                        mLoadSession.onPartLoaded(AppDetailsDataOrchestrator.TYPE_BATTERY);
+                    }
                 }
 
                 @Override
@@ -393,20 +396,57 @@ public class InstalledAppDetails extends AppInfoBase
         }
         AppItem app = new AppItem(mAppEntry.info.uid);
         app.addUid(mAppEntry.info.uid);
+        // Rows at the top of the page are loaded first, the loaders for the rest only start
+        // once they are done.
+        mLoadSession = AppDetailsDataOrchestrator.getInstance().newSession(getContext(),
+                LOG_TAG);
         if (mStatsSession != null) {
-            LoaderManager loaderManager = getLoaderManager();
-            loaderManager.restartLoader(LOADER_CHART_DATA,
-                    ChartDataLoader.buildArgs(getTemplate(getContext()), app),
-                    mDataCallbacks);
-            loaderManager.restartLoader(LOADER_STORAGE, Bundle.EMPTY, this);
-        }
-        restartBatteryStatsLoader();
+            loadStorageStats();
+            mLoadSession.expect(PART_DATA, AppDetailsDataOrchestrator.PRIORITY_BELOW_FOLD);
+            mLoadSession.runWhenAboveFoldLoaded(() -> getLoaderManager().restartLoader(
+                    LOADER_CHART_DATA,
+                    NetworkStatsCache.ChartLoader.buildArgs(getTemplate(getContext()), app),
+                    mDataCallbacks));
+        }
+        loadNotificationSummary();
+        mLoadSession.expect(AppDetailsDataOrchestrator.TYPE_BATTERY,
+                AppDetailsDataOrchestrator.PRIORITY_BELOW_FOLD);
+        mLoadSession.runWhenAboveFoldLoaded(this::restartBatteryStatsLoader);
         if (mDevelopmentSettingsEnabler.getLastEnabledState()) {
-            new MemoryUpdater().execute();
+            final MemoryUpdater memoryUpdater = new MemoryUpdater();
+            mLoadSession.load(AppDetailsDataOrchestrator.TYPE_MEMORY, null /* key */,
+                    AppDetailsDataOrchestrator.PRIORITY_BELOW_FOLD, memoryUpdater,
+                    memoryUpdater);
         }
         updateDynamicPrefs();
     }
 
+    private void loadStorageStats() {
+        final Context context = getContext();
+        final ApplicationInfo info = mAppEntry.info;
+        final UserHandle user = UserHandle.of(mUserId);
+        mLoadSession.load(AppDetailsDataOrchestrator.TYPE_STORAGE,
+                AppDetailsDataOrchestrator.getKey(AppDetailsDataOrchestrator.TYPE_STORAGE,
+                        mPackageName, mUserId),
+                AppDetailsDataOrchestrator.PRIORITY_ABOVE_FOLD,
+                () -> FetchPackageStorageAsyncLoader.getStorageStats(
+                        new StorageStatsSource(context), info, user),
+                result -> {
+                    mLastResult = result;
+                    refreshUi();
+                });
+    }
+
+    private void loadNotificationSummary() {
+        final Context context = getContext();
+        final ApplicationInfo info = mAppEntry.info;
+        mLoadSession.load(AppDetailsDataOrchestrator.TYPE_NOTIFICATION, null /* key */,
+                AppDetailsDataOrchestrator.PRIORITY_ABOVE_FOLD,
+                () -> mBackend.loadAppRow(context, context.getPackageManager(), info),
+                appRow -> mNotificationPreference.setSummary(appRow != null
+                        ? getNotificationSummary(appRow, context) : null));
+    }
+
     @VisibleForTesting
     public void restartBatteryStatsLoader() {
         getLoaderManager().restartLoader(LOADER_BATTERY, Bundle.EMPTY, mBatteryCallbacks);
@@ -414,6 +454,10 @@ public class InstalledAppDetails extends AppInfoBase
 
     @Override
     public void onPause() {
+        if (mLoadSession != null) {
+            mLoadSession.close();
+            mLoadSession = null;
+        }
         getLoaderManager().destroyLoader(LOADER_CHART_DATA);
         super.onPause();
     }
@@ -578,23 +622,6 @@ public class InstalledAppDetails extends AppInfoBase
         }
     }
 
-    @Override
-    public Loader<AppStorageStats> onCreateLoader(int id, Bundle args) {
-        Context context = getContext();
-        return new FetchPackageStorageAsyncLoader(
-                context, new StorageStatsSource(context), mAppEntry.info, UserHandle.of(mUserId));
-    }
-
-    @Override
-    public void onLoadFinished(Loader<AppStorageStats> loader, AppStorageStats result) {
-        mLastResult = result;
-        refreshUi();
-    }
-
-    @Override
-    public void onLoaderReset(Loader<AppStorageStats> loader) {
-    }
-
     /**
      * Utility method to hide and show specific preferences based on whether the app being displayed
      * is an Instant App or an installed app.
@@ -728,8 +755,6 @@ public class InstalledAppDetails extends AppInfoBase
                 mPackageName, mPermissionCallback);
         mLaunchPreference.setSummary(AppUtils.getLaunchByDefaultSummary(mAppEntry, mUsbManager,
                 mPm, context));
-        mNotificationPreference.setSummary(getNotificationSummary(mAppEntry, context,
-                mBackend));
         if (mDataPreference != null) {
             mDataPreference.setSummary(getDataSummary());
         }
@@ -1338,10 +1363,11 @@ public class InstalledAppDetails extends AppInfoBase
         super.onPackageRemoved();
     }
 
-    private class MemoryUpdater extends AsyncTask<Void, Void, ProcStatsPackageEntry> {
+    private class MemoryUpdater implements Callable<ProcStatsPackageEntry>,
+            AppDetailsDataOrchestrator.Callback<ProcStatsPackageEntry> {
 
         @Override
-        protected ProcStatsPackageEntry doInBackground(Void... params) {
+        public ProcStatsPackageEntry call() {
             if (getActivity() == null) {
                 return null;
             }
@@ -1351,21 +1377,19 @@ public class InstalledAppDetails extends AppInfoBase
             if (mStatsManager == null) {
                 mStatsManager = new ProcStatsData(getActivity(), false);
                 mStatsManager.setDuration(ProcessStatsBase.sDurations[0]);
+            } else {
+                mStatsManager.refreshStats(true);
             }
-            mStatsManager.refreshStats(true);
-            for (ProcStatsPackageEntry pkgEntry : mStatsManager.getEntries()) {
-                for (ProcStatsEntry entry : pkgEntry.mEntries) {
-                    if (entry.mUid == mPackageInfo.applicationInfo.uid) {
-                        pkgEntry.updateMetrics();
-                        return pkgEntry;
-                    }
-                }
+            final ProcStatsPackageEntry pkgEntry =
+                    mStatsManager.getEntryForUid(mPackageInfo.applicationInfo.uid);
+            if (pkgEntry != null) {
+                pkgEntry.updateMetrics();
             }
-            return null;
+            return pkgEntry;
         }
 
         @Override
-        protected void onPostExecute(ProcStatsPackageEntry entry) {
+        public void onLoaded(ProcStatsPackageEntry entry) {
             if (getActivity() == null) {
                 return;
             }
@@ -1446,13 +1470,16 @@ public class InstalledAppDetails extends AppInfoBase
 
         @Override
         public Loader<ChartData> onCreateLoader(int id, Bundle args) {
-            return new ChartDataLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsCache.ChartLoader(getActivity(), mStatsSession, args);
         }
 
         @Override
         public void onLoadFinished(Loader<ChartData> loader, ChartData data) {
             mChartData = data;
             mDataPreference.setSummary(getDataSummary());
+            if (mLoadSession != null) {
+                mLoadSession.onPartLoaded(PART_DATA);
+            }
         }
 
         @Override
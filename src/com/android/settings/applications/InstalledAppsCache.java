@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageManager;
+import android.content.pm.UserInfo;
+import android.os.AsyncTask;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Installed apps of each profile, shared by the {@link AppCounter}s and {@link AppLister}s that
+ * the apps and enterprise privacy screens run side by side.
+ *
+ * Snapshots are tagged with a generation number that package and user broadcasts bump, and are
+ * only reused while the generation is unchanged. Until {@link #startObserving} was called
+ * nothing would tell the cache about changes, so every request loads the apps again.
+ */
+public class InstalledAppsCache {
+    private static InstalledAppsCache sInstance;
+
+    private final Executor mExecutor;
+    // Guarded by this. Snapshots are kept per package manager, as each one may see a different
+    // set of apps, and keyed by user and flags.
+    private final WeakHashMap<PackageManagerWrapper, ArrayMap<String, Snapshot>> mSnapshots =
+            new WeakHashMap<>();
+    private int mGeneration;
+    private boolean mObserving;
+
+    @VisibleForTesting
+    final BroadcastReceiver mReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            invalidate();
+        }
+    };
+
+    /**
+     * Work done for each profile, in parallel with the other profiles.
+     */
+    public interface ProfileTask<T> {
+        T run(UserInfo user);
+    }
+
+    public static synchronized InstalledAppsCache getInstance() {
+        if (sInstance == null) {
+            sInstance = new InstalledAppsCache(AsyncTask.THREAD_POOL_EXECUTOR);
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    InstalledAppsCache(Executor executor) {
+        mExecutor = executor;
+    }
+
+    /**
+     * Starts listening for package and user changes, after which snapshots are reused.
+     */
+    public synchronized void startObserving(Context context) {
+        if (mObserving) {
+            return;
+        }
+        final Context appContext = context.getApplicationContext() != null
+                ? context.getApplicationContext() : context;
+        final IntentFilter packageFilter = new IntentFilter();
+        packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+        packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+        packageFilter.addDataScheme("package");
+        appContext.registerReceiverAsUser(mReceiver, UserHandle.ALL, packageFilter, null, null);
+        final IntentFilter userFilter = new IntentFilter();
+        userFilter.addAction(Intent.ACTION_USER_ADDED);
+        userFilter.addAction(Intent.ACTION_USER_REMOVED);
+        appContext.registerReceiverAsUser(mReceiver, UserHandle.ALL, userFilter, null, null);
+        mObserving = true;
+    }
+
+    public synchronized int getGeneration() {
+        return mGeneration;
+    }
+
+    public synchronized void invalidate() {
+        mGeneration++;
+        mSnapshots.clear();
+    }
+
+    /**
+     * @return the apps installed for {@code user}, with the flags {@link AppCounter} and
+     * {@link AppLister} query them with. The list must not be modified.
+     */
+    public List<ApplicationInfo> getInstalledApplications(PackageManagerWrapper pm,
+            UserInfo user) {
+        final int flags = PackageManager.GET_DISABLED_COMPONENTS
+                | PackageManager.GET_DISABLED_UNTIL_USED_COMPONENTS
+                | (user.isAdmin() ? PackageManager.MATCH_ANY_USER : 0);
+        final String key = user.id + ":" + flags;
+        final int generation;
+        synchronized (this) {
+            final ArrayMap<String, Snapshot> snapshots = mSnapshots.get(pm);
+            final Snapshot snapshot = snapshots != null ? snapshots.get(key) : null;
+            if (snapshot != null && snapshot.mGeneration == mGeneration) {
+                return snapshot.mApps;
+            }
+            generation = mGeneration;
+        }
+
+        final List<ApplicationInfo> apps = Collections.unmodifiableList(
+                pm.getInstalledApplicationsAsUser(flags, user.id));
+        synchronized (this) {
+            // Don't keep apps loaded while a change came in, they may be missing it.
+            if (mObserving && generation == mGeneration) {
+                ArrayMap<String, Snapshot> snapshots = mSnapshots.get(pm);
+                if (snapshots == null) {
+                    snapshots = new ArrayMap<>();
+                    mSnapshots.put(pm, snapshots);
+                }
+                snapshots.put(key, new Snapshot(apps, generation));
+            }
+        }
+        return apps;
+    }
+
+    /**
+     * Runs {@code task} for every profile and returns the results in profile order. The first
+     * profile runs on the calling thread and the others on a shared pool; profiles the pool
+     * didn't get to yet are run on the calling thread too, so this never waits on a busy pool.
+     */
+    public <T> List<T> runForEachProfile(List<UserInfo> profiles, ProfileTask<T> task) {
+        final int count = profiles.size();
+        final List<T> results = new ArrayList<>(count);
+        if (count == 0) {
+            return results;
+        }
+        final List<FutureTask<T>> futures = new ArrayList<>(count - 1);
+        for (int i = 1; i < count; i++) {
+            final UserInfo user = profiles.get(i);
+            final FutureTask<T> future = new FutureTask<>(() -> task.run(user));
+            futures.add(future);
+            mExecutor.execute(future);
+        }
+        results.add(task.run(profiles.get(0)));
+        for (FutureTask<T> future : futures) {
+            // Does nothing if the pool already started it.
+            future.run();
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while evaluating profiles", e);
+            } catch (ExecutionException e) {
+                throw new IllegalStateException("Failed to evaluate profile", e.getCause());
+            }
+        }
+        return results;
+    }
+
+    private static class Snapshot {
+        final List<ApplicationInfo> mApps;
+        final int mGeneration;
+
+        Snapshot(List<ApplicationInfo> apps, int generation) {
+            mApps = apps;
+            mGeneration = generation;
+        }
+    }
+}
@@ -933,18 +933,20 @@ public class ManageApplications extends InstrumentedPreferenceFragment
         private int mLastIndex = -1;
         private int mLastTop;
 
+        private final AppLabelIndex mLabelIndex = new AppLabelIndex();
         private AlphabeticIndex.ImmutableIndex<Locale> mIndex;
         private SectionInfo[] mSections = EMPTY_SECTIONS;
         private int[] mPositionToSectionIndex;
+        // The entries mSections was built for.
+        private ArrayList<ApplicationsState.AppEntry> mSectionedEntries;
 
         private Filter mFilter = new Filter() {
             @Override
             protected FilterResults performFiltering(CharSequence constraint) {
-                ArrayList<ApplicationsState.AppEntry> entries
-                        = applyPrefixFilter(constraint, mBaseEntries);
+                ArrayList<ApplicationsState.AppEntry> entries = mLabelIndex.filter(constraint);
                 FilterResults fr = new FilterResults();
                 fr.values = entries;
-                fr.count = entries.size();
+                fr.count = entries != null ? entries.size() : 0;
                 return fr;
             }
 
@@ -979,7 +981,7 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             } else if (mManageApplications.mListType == LIST_TYPE_USAGE_ACCESS) {
                 mExtraInfoBridge = new AppStateUsageBridge(mContext, mState, this);
             } else if (mManageApplications.mListType == LIST_TYPE_HIGH_POWER) {
-                mExtraInfoBridge = new AppStatePowerBridge(mState, this);
+                mExtraInfoBridge = new AppStatePowerBridge(mContext, mState, this);
             } else if (mManageApplications.mListType == LIST_TYPE_OVERLAY) {
                 mExtraInfoBridge = new AppStateOverlayBridge(mContext, mState, this);
             } else if (mManageApplications.mListType == LIST_TYPE_WRITE_SETTINGS) {
@@ -1151,17 +1153,26 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                     mFilterMode == FILTER_APPS_POWER_WHITELIST_ALL) {
                 entries = removeDuplicateIgnoringUser(entries);
             }
+            final ArrayList<ApplicationsState.AppEntry> oldEntries = mEntries;
             mBaseEntries = entries;
+            mLabelIndex.update(mBaseEntries);
             if (mBaseEntries != null) {
-                mEntries = applyPrefixFilter(mCurFilterPrefix, mBaseEntries);
+                mEntries = mLabelIndex.filter(mCurFilterPrefix);
                 rebuildSections();
             } else {
                 mEntries = null;
                 mSections = EMPTY_SECTIONS;
                 mPositionToSectionIndex = null;
+                mSectionedEntries = null;
             }
 
-            notifyDataSetChanged();
+            if (mEntries != null && hasSameEntries(oldEntries, mEntries)) {
+                // Only the content of the rows can have changed, e.g. sizes coming in, so
+                // rebind the rows on screen rather than having the list rebind every row.
+                rebindActiveViews();
+            } else {
+                notifyDataSetChanged();
+            }
             // Restore the last scroll position if the number of entries added so far is bigger than
             // it.
             if (mLastIndex != -1 && getCount() > mLastIndex) {
@@ -1184,6 +1195,9 @@ public class ManageApplications extends InstrumentedPreferenceFragment
 
         private void rebuildSections() {
             if (mEntries != null && mManageApplications.mListView.isFastScrollEnabled()) {
+                if (mEntries == mSectionedEntries) {
+                    return;
+                }
                 // Rebuild sections
                 if (mIndex == null) {
                     LocaleList locales = mContext.getResources().getConfiguration().getLocales();
@@ -1206,8 +1220,7 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                 mPositionToSectionIndex = new int[totalEntries];
 
                 for (int pos = 0; pos < totalEntries; pos++) {
-                    String label = mEntries.get(pos).label;
-                    int secId = mIndex.getBucketIndex(TextUtils.isEmpty(label) ? "" : label);
+                    int secId = mLabelIndex.getBucketIndex(mIndex, mEntries.get(pos));
                     if (secId != lastSecId) {
                         lastSecId = secId;
                         sections.add(new SectionInfo(mIndex.getBucket(secId).getLabel(), pos));
@@ -1215,9 +1228,11 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                     mPositionToSectionIndex[pos] = sections.size() - 1;
                 }
                 mSections = sections.toArray(EMPTY_SECTIONS);
+                mSectionedEntries = mEntries;
             } else {
                 mSections = EMPTY_SECTIONS;
                 mPositionToSectionIndex = null;
+                mSectionedEntries = null;
             }
         }
 
@@ -1231,26 +1246,6 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             }
         }
 
-        ArrayList<ApplicationsState.AppEntry> applyPrefixFilter(CharSequence prefix,
-                ArrayList<ApplicationsState.AppEntry> origEntries) {
-            if (prefix == null || prefix.length() == 0) {
-                return origEntries;
-            } else {
-                String prefixStr = ApplicationsState.normalize(prefix.toString());
-                final String spacePrefixStr = " " + prefixStr;
-                ArrayList<ApplicationsState.AppEntry> newEntries
-                        = new ArrayList<ApplicationsState.AppEntry>();
-                for (int i = 0; i < origEntries.size(); i++) {
-                    ApplicationsState.AppEntry entry = origEntries.get(i);
-                    String nlabel = entry.getNormalizedLabel();
-                    if (nlabel.startsWith(prefixStr) || nlabel.indexOf(spacePrefixStr) != -1) {
-                        newEntries.add(entry);
-                    }
-                }
-                return newEntries;
-            }
-        }
-
         @Override
         public void onExtraInfoUpdated() {
             mHasReceivedBridgeCallback = true;
@@ -1363,6 +1358,10 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             return mEntries.get(position);
         }
 
+        /**
+         * Returns the id of the {@link ApplicationsState.AppEntry}, which stays the same for a
+         * package and user across rebuilds.
+         */
         public long getItemId(int position) {
             if (position == mEntries.size()) {
                 return -1;
@@ -1370,6 +1369,11 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             return mEntries.get(position).id;
         }
 
+        @Override
+        public boolean hasStableIds() {
+            return true;
+        }
+
         @Override
         public boolean areAllItemsEnabled() {
             return false;
@@ -1382,10 +1386,13 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                 return true;
             }
 
+            return isEntryEnabled(mEntries.get(position));
+        }
+
+        private boolean isEntryEnabled(ApplicationsState.AppEntry entry) {
             if (mManageApplications.mListType != LIST_TYPE_HIGH_POWER) {
                 return true;
             }
-            ApplicationsState.AppEntry entry = mEntries.get(position);
             return !PowerWhitelistBackend.getInstance().isSysWhitelisted(entry.info.packageName);
         }
 
@@ -1402,20 +1409,7 @@ public class ManageApplications extends InstrumentedPreferenceFragment
                 convertView.setEnabled(true);
             } else {
                 // Bind the data efficiently with the holder
-                ApplicationsState.AppEntry entry = mEntries.get(position);
-                synchronized (entry) {
-                    holder.entry = entry;
-                    if (entry.label != null) {
-                        holder.appName.setText(entry.label);
-                    }
-                    mState.ensureIcon(entry);
-                    if (entry.icon != null) {
-                        holder.appIcon.setImageDrawable(entry.icon);
-                    }
-                    updateSummary(holder);
-                    updateDisableView(holder.disabled, entry.info);
-                }
-                convertView.setEnabled(isEnabled(position));
+                bindEntry(holder, mEntries.get(position));
             }
 
             mActive.remove(convertView);
@@ -1423,6 +1417,57 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             return convertView;
         }
 
+        /**
+         * Binds {@code entry} to the row, only touching the views whose content changed so rows
+         * rebound in place don't request a layout.
+         */
+        private void bindEntry(AppViewHolder holder, ApplicationsState.AppEntry entry) {
+            synchronized (entry) {
+                holder.entry = entry;
+                if (entry.label != null
+                        && !TextUtils.equals(entry.label, holder.appName.getText())) {
+                    holder.appName.setText(entry.label);
+                }
+                mState.ensureIcon(entry);
+                if (entry.icon != null && entry.icon != holder.appIcon.getDrawable()) {
+                    holder.appIcon.setImageDrawable(entry.icon);
+                }
+                updateSummary(holder);
+                updateDisableView(holder.disabled, entry.info);
+            }
+            holder.rootView.setEnabled(isEntryEnabled(entry));
+        }
+
+        /**
+         * Rebinds the rows on screen, for rebuilds that kept the same apps in the same order.
+         */
+        private void rebindActiveViews() {
+            for (int i = 0; i < mActive.size(); i++) {
+                AppViewHolder holder = (AppViewHolder) mActive.get(i).getTag();
+                if (holder != null && holder.entry != null) {
+                    bindEntry(holder, holder.entry);
+                }
+            }
+        }
+
+        @VisibleForTesting
+        static boolean hasSameEntries(ArrayList<ApplicationsState.AppEntry> oldEntries,
+                ArrayList<ApplicationsState.AppEntry> newEntries) {
+            if (oldEntries == null || newEntries == null) {
+                return oldEntries == newEntries;
+            }
+            final int size = newEntries.size();
+            if (oldEntries.size() != size) {
+                return false;
+            }
+            for (int i = 0; i < size; i++) {
+                if (oldEntries.get(i) != newEntries.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
         @VisibleForTesting
         void updateDisableView(TextView view, ApplicationInfo info) {
             if ((info.flags & ApplicationInfo.FLAG_INSTALLED) == 0) {
@@ -1441,39 +1486,39 @@ public class ManageApplications extends InstrumentedPreferenceFragment
             switch (mManageApplications.mListType) {
                 case LIST_TYPE_NOTIFICATION:
                     if (holder.entry.extraInfo != null) {
-                        holder.summary.setText(InstalledAppDetails.getNotificationSummary(
+                        holder.setSummary(InstalledAppDetails.getNotificationSummary(
                                 (AppRow) holder.entry.extraInfo, mContext));
                     } else {
-                        holder.summary.setText(null);
+                        holder.setSummary(null);
                     }
                     break;
 
                 case LIST_TYPE_USAGE_ACCESS:
                     if (holder.entry.extraInfo != null) {
-                        holder.summary.setText((new UsageState((PermissionState) holder.entry
+                        holder.setSummary((new UsageState((PermissionState) holder.entry
                                 .extraInfo)).isPermissible()
                                 ? R.string.app_permission_summary_allowed
                                 : R.string.app_permission_summary_not_allowed);
                     } else {
-                        holder.summary.setText(null);
+                        holder.setSummary(null);
                     }
                     break;
 
                 case LIST_TYPE_HIGH_POWER:
-                    holder.summary.setText(HighPowerDetail.getSummary(mContext, holder.entry));
+                    holder.setSummary(HighPowerDetail.getSummary(mContext, holder.entry));
                     break;
 
                 case LIST_TYPE_OVERLAY:
-                    holder.summary.setText(DrawOverlayDetails.getSummary(mContext, holder.entry));
+                    holder.setSummary(DrawOverlayDetails.getSummary(mContext, holder.entry));
                     break;
 
                 case LIST_TYPE_WRITE_SETTINGS:
-                    holder.summary.setText(WriteSettingsDetails.getSummary(mContext,
+                    holder.setSummary(WriteSettingsDetails.getSummary(mContext,
                             holder.entry));
                     break;
 
                 case LIST_TYPE_MANAGE_SOURCES:
-                    holder.summary.setText(ExternalSourcesDetails.getPreferenceSummary(mContext,
+                    holder.setSummary(ExternalSourcesDetails.getPreferenceSummary(mContext,
                             holder.entry));
                     break;
 
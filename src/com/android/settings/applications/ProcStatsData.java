@@ -23,6 +23,8 @@ import android.os.ParcelFileDescriptor;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
 import android.text.format.Formatter;
 import android.util.ArrayMap;
 import android.util.Log;
@@ -43,6 +45,7 @@ import com.android.settings.Utils;
 import java.io.IOException;
 import java.io.InputStream;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
 import java.util.List;
 
@@ -52,8 +55,14 @@ public class ProcStatsData {
 
     private static final boolean DEBUG = ProcessStatsUi.DEBUG;
 
+    @VisibleForTesting
+    static final long CACHE_TTL_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+
     private static ProcessStats sStatsXfer;
 
+    // Parsed and aggregated stats, keyed by duration and filters.
+    private static final ArrayMap<String, CachedStats> sCache = new ArrayMap<>();
+
     private PackageManager mPm;
     private Context mContext;
     private long memTotalTime;
@@ -72,6 +81,8 @@ public class ProcStatsData {
 
     private ArrayList<ProcStatsPackageEntry> pkgEntries;
 
+    private SparseArray<ProcStatsPackageEntry> mEntriesByUid;
+
     public ProcStatsData(Context context, boolean useXfer) {
         mContext = context;
         mPm = context.getPackageManager();
@@ -124,7 +135,7 @@ public class ProcStatsData {
     public void setDuration(long duration) {
         if (duration != mDuration) {
             mDuration = duration;
-            refreshStats(true);
+            refreshStats(true /* forceLoad */, true /* allowCached */);
         }
     }
 
@@ -136,11 +147,57 @@ public class ProcStatsData {
         return pkgEntries;
     }
 
+    /**
+     * @return the entry of the package the process running as {@code uid} is attributed to, or
+     * null if it didn't run
+     */
+    public ProcStatsPackageEntry getEntryForUid(int uid) {
+        return mEntriesByUid != null ? mEntriesByUid.get(uid) : null;
+    }
+
+    /**
+     * Loads and aggregates the stats for the current duration and filters.
+     *
+     * @param forceLoad whether to load fresh stats, rather than reusing what this instance or
+     * another screen loaded
+     */
     public void refreshStats(boolean forceLoad) {
+        refreshStats(forceLoad, !forceLoad /* allowCached */);
+    }
+
+    /**
+     * @param allowCached whether to reuse the stats another screen loaded for the same duration
+     * and filters within {@link #CACHE_TTL_MS}, so e.g. going from the memory summary to the app
+     * list or opening app details doesn't read the stats again
+     */
+    private void refreshStats(boolean forceLoad, boolean allowCached) {
+        final String key = getCacheKey(mDuration, mMemStates, mStates);
+        if (allowCached) {
+            final CachedStats cached = getCachedStats(key, SystemClock.elapsedRealtime());
+            if (cached != null && (mStats == null || forceLoad || cached.mStats == mStats)) {
+                applyCachedStats(cached);
+                return;
+            }
+        }
         if (mStats == null || forceLoad) {
             load();
         }
 
+        aggregate();
+        putCachedStats(key, new CachedStats(mStats, mMemInfo, pkgEntries, memTotalTime,
+                SystemClock.elapsedRealtime()));
+    }
+
+    private void applyCachedStats(CachedStats cached) {
+        mStats = cached.mStats;
+        mMemInfo = cached.mMemInfo;
+        memTotalTime = cached.mMemTotalTime;
+        // Callers sort the list and update the entries, so each gets its own.
+        pkgEntries = cached.copyEntries();
+        mEntriesByUid = indexByUid(pkgEntries);
+    }
+
+    private void aggregate() {
         pkgEntries = new ArrayList<>();
 
         long now = SystemClock.uptimeMillis();
@@ -167,6 +224,63 @@ public class ProcStatsData {
         ProcStatsPackageEntry osPkg = createOsEntry(bgTotals, runTotals, totalMem,
                 mMemInfo.baseCacheRam);
         pkgEntries.add(osPkg);
+
+        mEntriesByUid = indexByUid(pkgEntries);
+    }
+
+    private static SparseArray<ProcStatsPackageEntry> indexByUid(
+            List<ProcStatsPackageEntry> pkgEntries) {
+        final SparseArray<ProcStatsPackageEntry> entriesByUid = new SparseArray<>();
+        for (int i = 0, N = pkgEntries.size(); i < N; i++) {
+            final ProcStatsPackageEntry pkgEntry = pkgEntries.get(i);
+            for (int j = 0, M = pkgEntry.mEntries.size(); j < M; j++) {
+                final int uid = pkgEntry.mEntries.get(j).mUid;
+                if (entriesByUid.indexOfKey(uid) < 0) {
+                    entriesByUid.put(uid, pkgEntry);
+                }
+            }
+        }
+        return entriesByUid;
+    }
+
+    private static ArrayList<ProcStatsPackageEntry> copyEntries(
+            List<ProcStatsPackageEntry> pkgEntries) {
+        final ArrayList<ProcStatsPackageEntry> copies = new ArrayList<>(pkgEntries.size());
+        for (int i = 0, N = pkgEntries.size(); i < N; i++) {
+            copies.add(new ProcStatsPackageEntry(pkgEntries.get(i)));
+        }
+        return copies;
+    }
+
+    @VisibleForTesting
+    static String getCacheKey(long duration, int[] memStates, int[] states) {
+        return duration + ":" + Arrays.toString(memStates) + ":" + Arrays.toString(states);
+    }
+
+    @VisibleForTesting
+    static CachedStats getCachedStats(String key, long now) {
+        synchronized (sCache) {
+            final CachedStats cached = sCache.get(key);
+            if (cached != null && now - cached.mLoadTime >= CACHE_TTL_MS) {
+                sCache.remove(key);
+                return null;
+            }
+            return cached;
+        }
+    }
+
+    @VisibleForTesting
+    static void putCachedStats(String key, CachedStats cached) {
+        synchronized (sCache) {
+            sCache.put(key, cached);
+        }
+    }
+
+    @VisibleForTesting
+    static void clearCache() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
     }
 
     private void createPkgMap(ArrayList<ProcStatsEntry> procEntries, ProcessDataCollection bgTotals,
@@ -358,6 +472,29 @@ public class ProcStatsData {
         }
     }
 
+    @VisibleForTesting
+    static class CachedStats {
+        final ProcessStats mStats;
+        final MemInfo mMemInfo;
+        // Never handed out, callers get copies they can update.
+        private final List<ProcStatsPackageEntry> mPkgEntries;
+        final long mMemTotalTime;
+        final long mLoadTime;
+
+        CachedStats(ProcessStats stats, MemInfo memInfo, List<ProcStatsPackageEntry> pkgEntries,
+                long memTotalTime, long loadTime) {
+            mStats = stats;
+            mMemInfo = memInfo;
+            mPkgEntries = ProcStatsData.copyEntries(pkgEntries);
+            mMemTotalTime = memTotalTime;
+            mLoadTime = loadTime;
+        }
+
+        ArrayList<ProcStatsPackageEntry> copyEntries() {
+            return ProcStatsData.copyEntries(mPkgEntries);
+        }
+    }
+
     public static class MemInfo {
         public double realUsedRam;
         public double realFreeRam;
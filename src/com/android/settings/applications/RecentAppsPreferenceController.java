@@ -46,10 +46,10 @@ import com.android.settingslib.core.AbstractPreferenceController;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Set;
 
 /**
@@ -76,7 +76,7 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
     private final IconDrawableFactory mIconDrawableFactory;
 
     private Calendar mCal;
-    private List<UsageStats> mStats;
+    private PriorityQueue<UsageStats> mStats;
 
     private PreferenceCategory mCategory;
     private Preference mSeeAllPref;
@@ -179,9 +179,9 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
     void reloadData() {
         mCal = Calendar.getInstance();
         mCal.add(Calendar.DAY_OF_YEAR, -1);
-        mStats = mUsageStatsManager.queryUsageStats(
-                UsageStatsManager.INTERVAL_BEST, mCal.getTimeInMillis(),
-                System.currentTimeMillis());
+        mStats = RecentUsageCache.getInstance(mContext, mUserId).getRecentUsage(
+                mUsageStatsManager, mCal.getTimeInMillis(), System.currentTimeMillis(),
+                this /* comparator */);
     }
 
     private void displayOnlyAppInfo() {
@@ -258,26 +258,13 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
 
     private List<UsageStats> getDisplayableRecentAppList() {
         final List<UsageStats> recentApps = new ArrayList<>();
-        final Map<String, UsageStats> map = new ArrayMap<>();
-        final int statCount = mStats.size();
-        for (int i = 0; i < statCount; i++) {
-            final UsageStats pkgStats = mStats.get(i);
-            if (!shouldIncludePkgInRecents(pkgStats)) {
+        int count = 0;
+        // Stats are already merged per package; only take the most recent ones off the heap.
+        UsageStats stat;
+        while (count < SHOW_RECENT_APP_COUNT && (stat = mStats.poll()) != null) {
+            if (!shouldIncludePkgInRecents(stat)) {
                 continue;
             }
-            final String pkgName = pkgStats.getPackageName();
-            final UsageStats existingStats = map.get(pkgName);
-            if (existingStats == null) {
-                map.put(pkgName, pkgStats);
-            } else {
-                existingStats.add(pkgStats);
-            }
-        }
-        final List<UsageStats> packageStats = new ArrayList<>();
-        packageStats.addAll(map.values());
-        Collections.sort(packageStats, this /* comparator */);
-        int count = 0;
-        for (UsageStats stat : packageStats) {
             final ApplicationsState.AppEntry appEntry = mApplicationsState.getEntry(
                     stat.getPackageName(), mUserId);
             if (appEntry == null) {
@@ -285,9 +272,6 @@ public class RecentAppsPreferenceController extends AbstractPreferenceController
             }
             recentApps.add(stat);
             count++;
-            if (count >= SHOW_RECENT_APP_COUNT) {
-                break;
-            }
         }
         return recentApps;
     }
@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import android.app.usage.UsageEvents;
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.Process;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.util.ArrayMap;
+import android.util.SparseArray;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * When each package was last used, aggregated over a sliding window.
+ *
+ * The first request aggregates {@link UsageStatsManager#queryUsageStats}. Later requests only
+ * read the events since the end of the previous window and drop packages that fell out of the
+ * new one, so refreshing the recent apps doesn't aggregate a full day of stats each time.
+ *
+ * There is one cache per user. The {@link UsageStatsManager} is passed to each request rather
+ * than kept, since it holds on to the context of the screen that created it.
+ */
+public class RecentUsageCache {
+    private static final SparseArray<RecentUsageCache> sInstances = new SparseArray<>();
+    private static BroadcastReceiver sPackageRemovedReceiver;
+
+    // Guarded by this.
+    private final ArrayMap<String, UsageStats> mStats = new ArrayMap<>();
+    private long mBeginTime;
+    private long mEndTime;
+
+    public static RecentUsageCache getInstance(Context context, int userId) {
+        registerPackageRemovedReceiver(context);
+        synchronized (sInstances) {
+            RecentUsageCache cache = sInstances.get(userId);
+            if (cache == null) {
+                cache = new RecentUsageCache();
+                sInstances.put(userId, cache);
+            }
+            return cache;
+        }
+    }
+
+    /**
+     * Drops the usage of all users.
+     */
+    @VisibleForTesting
+    static void invalidateAll() {
+        synchronized (sInstances) {
+            for (int i = 0, size = sInstances.size(); i < size; i++) {
+                sInstances.valueAt(i).invalidate();
+            }
+        }
+    }
+
+    private static void registerPackageRemovedReceiver(Context context) {
+        final Context appContext = context.getApplicationContext();
+        if (appContext == null) {
+            return;
+        }
+        synchronized (sInstances) {
+            if (sPackageRemovedReceiver != null) {
+                return;
+            }
+            sPackageRemovedReceiver = new PackageRemovedReceiver();
+            final IntentFilter packageFilter = new IntentFilter(Intent.ACTION_PACKAGE_REMOVED);
+            packageFilter.addDataScheme("package");
+            appContext.registerReceiver(sPackageRemovedReceiver, packageFilter);
+        }
+    }
+
+    @VisibleForTesting
+    RecentUsageCache() {
+    }
+
+    /**
+     * @return the packages used between {@code beginTime} and {@code endTime}, one
+     * {@link UsageStats} each, in a heap ordered by {@code comparator}. Polling the heap yields
+     * the first packages in order without sorting all of them.
+     */
+    public synchronized PriorityQueue<UsageStats> getRecentUsage(
+            UsageStatsManager usageStatsManager, long beginTime, long endTime,
+            Comparator<UsageStats> comparator) {
+        if (mEndTime == 0 || beginTime < mBeginTime || endTime < mEndTime) {
+            reload(usageStatsManager, beginTime, endTime);
+        } else {
+            update(usageStatsManager, beginTime, endTime);
+        }
+        final PriorityQueue<UsageStats> heap =
+                new PriorityQueue<>(Math.max(1, mStats.size()), comparator);
+        for (int i = 0, size = mStats.size(); i < size; i++) {
+            heap.add(new UsageStats(mStats.valueAt(i)));
+        }
+        return heap;
+    }
+
+    public synchronized void invalidate() {
+        mStats.clear();
+        mBeginTime = 0;
+        mEndTime = 0;
+    }
+
+    private void reload(UsageStatsManager usageStatsManager, long beginTime, long endTime) {
+        mStats.clear();
+        final List<UsageStats> stats = usageStatsManager.queryUsageStats(
+                UsageStatsManager.INTERVAL_BEST, beginTime, endTime);
+        if (stats != null) {
+            for (int i = 0, size = stats.size(); i < size; i++) {
+                final UsageStats pkgStats = stats.get(i);
+                noteUsed(pkgStats.getPackageName(), pkgStats.getLastTimeUsed());
+            }
+        }
+        prune(beginTime);
+        mBeginTime = beginTime;
+        mEndTime = endTime;
+    }
+
+    private void update(UsageStatsManager usageStatsManager, long beginTime, long endTime) {
+        final UsageEvents events = usageStatsManager.queryEvents(mEndTime, endTime);
+        if (events != null) {
+            final UsageEvents.Event event = new UsageEvents.Event();
+            while (events.hasNextEvent()) {
+                events.getNextEvent(event);
+                // Same as UsageStats: interacting with a notification isn't using the app.
+                if (event.getEventType() != UsageEvents.Event.SYSTEM_INTERACTION) {
+                    noteUsed(event.getPackageName(), event.getTimeStamp());
+                }
+            }
+        }
+        prune(beginTime);
+        mBeginTime = beginTime;
+        mEndTime = endTime;
+    }
+
+    private void noteUsed(String packageName, long timeUsed) {
+        UsageStats stats = mStats.get(packageName);
+        if (stats == null) {
+            stats = new UsageStats();
+            stats.mPackageName = packageName;
+            mStats.put(packageName, stats);
+        }
+        stats.mLastTimeUsed = Math.max(stats.mLastTimeUsed, timeUsed);
+    }
+
+    private void prune(long beginTime) {
+        for (int i = mStats.size() - 1; i >= 0; i--) {
+            if (mStats.valueAt(i).getLastTimeUsed() < beginTime) {
+                mStats.removeAt(i);
+            }
+        }
+    }
+
+    /**
+     * Drops the usage of the user of a removed app, so it doesn't stay in the recent apps.
+     */
+    @VisibleForTesting
+    static class PackageRemovedReceiver extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            if (intent.getBooleanExtra(Intent.EXTRA_REPLACING, false)) {
+                return;
+            }
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, Process.INVALID_UID);
+            if (uid == Process.INVALID_UID) {
+                invalidateAll();
+                return;
+            }
+            final RecentUsageCache cache;
+            synchronized (sInstances) {
+                cache = sInstances.get(UserHandle.getUserId(uid));
+            }
+            if (cache != null) {
+                cache.invalidate();
+            }
+        }
+    }
+}
@@ -39,7 +39,9 @@ import android.os.Message;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.support.annotation.VisibleForTesting;
 import android.text.format.Formatter;
+import android.util.ArrayMap;
 import android.util.Log;
 import android.util.SparseArray;
 
@@ -53,6 +55,7 @@ import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * Singleton for retrieving and monitoring the state about all running
@@ -139,6 +142,10 @@ public class RunningState {
 
     int mSequence = 0;
 
+    // Services and processes the current structure was built from.
+    List<ActivityManager.RunningServiceInfo> mLastServices;
+    List<ActivityManager.RunningAppProcessInfo> mLastProcesses;
+
     final Comparator<RunningState.MergedItem> mBackgroundComparator
         = new Comparator<RunningState.MergedItem>() {
             @Override
@@ -372,6 +379,9 @@ public class RunningState {
         ActivityManager.RunningServiceInfo mRunningService;
         ServiceInfo mServiceInfo;
         boolean mShownAsStarted;
+        // Client the description was built for, so it is only looked up again on change.
+        String mClientPackage;
+        int mClientLabel;
         
         MergedItem mMergedItem;
         
@@ -528,21 +538,28 @@ public class RunningState {
                     si.mShownAsStarted = false;
                     changed = true;
                 }
-                try {
-                    Resources clientr = pm.getResourcesForApplication(service.clientPackage);
-                    String label = clientr.getString(service.clientLabel);
-                    si.mDescription = context.getResources().getString(
-                            R.string.service_client_name, label);
-                } catch (PackageManager.NameNotFoundException e) {
-                    si.mDescription = null;
+                if (si.mClientLabel != service.clientLabel
+                        || !service.clientPackage.equals(si.mClientPackage)) {
+                    si.mClientPackage = service.clientPackage;
+                    si.mClientLabel = service.clientLabel;
+                    try {
+                        Resources clientr = pm.getResourcesForApplication(service.clientPackage);
+                        String label = clientr.getString(service.clientLabel);
+                        si.mDescription = context.getResources().getString(
+                                R.string.service_client_name, label);
+                    } catch (PackageManager.NameNotFoundException e) {
+                        si.mDescription = null;
+                    }
                 }
             } else {
                 if (!si.mShownAsStarted) {
                     si.mShownAsStarted = true;
                     changed = true;
+                    si.mClientPackage = null;
+                    si.mClientLabel = 0;
+                    si.mDescription = context.getResources().getString(
+                            R.string.service_started_by_app);
                 }
-                si.mDescription = context.getResources().getString(
-                        R.string.service_started_by_app);
             }
             
             return changed;
@@ -862,6 +879,89 @@ public class RunningState {
         mRunningProcesses.clear();
         mProcessItems.clear();
         mAllProcessItems.clear();
+        mLastServices = null;
+        mLastProcesses = null;
+    }
+
+    /**
+     * Returns true if {@code current} has the same services as {@code last}, matched by uid and
+     * ComponentName in any order, with the same state as far as {@link #update} is concerned.
+     */
+    @VisibleForTesting
+    static boolean isSameServiceSnapshot(List<ActivityManager.RunningServiceInfo> last,
+            List<ActivityManager.RunningServiceInfo> current) {
+        if (last == null) {
+            return false;
+        }
+        final int N = current != null ? current.size() : 0;
+        if (last.size() != N) {
+            return false;
+        }
+        final SparseArray<ArrayMap<ComponentName, ActivityManager.RunningServiceInfo>> lastByUid
+                = new SparseArray<>();
+        for (int i=0; i<N; i++) {
+            final ActivityManager.RunningServiceInfo a = last.get(i);
+            ArrayMap<ComponentName, ActivityManager.RunningServiceInfo> byComponent
+                    = lastByUid.get(a.uid);
+            if (byComponent == null) {
+                byComponent = new ArrayMap<>();
+                lastByUid.put(a.uid, byComponent);
+            }
+            byComponent.put(a.service, a);
+        }
+        for (int i=0; i<N; i++) {
+            final ActivityManager.RunningServiceInfo b = current.get(i);
+            final ArrayMap<ComponentName, ActivityManager.RunningServiceInfo> byComponent
+                    = lastByUid.get(b.uid);
+            // Removed, so each service of last is only matched once.
+            final ActivityManager.RunningServiceInfo a = byComponent != null
+                    ? byComponent.remove(b.service) : null;
+            if (a == null || a.pid != b.pid || a.restarting != b.restarting
+                    || a.activeSince != b.activeSince || a.started != b.started
+                    || a.foreground != b.foreground || a.flags != b.flags
+                    || a.clientLabel != b.clientLabel
+                    || !Objects.equals(a.process, b.process)
+                    || !Objects.equals(a.clientPackage, b.clientPackage)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns true if {@code current} has the same processes as {@code last}, matched by pid in
+     * any order, with the same state as far as {@link #update} is concerned. The LRU position
+     * is ignored: it changes on almost every poll and only breaks ties when sorting.
+     */
+    @VisibleForTesting
+    static boolean isSameProcessSnapshot(List<ActivityManager.RunningAppProcessInfo> last,
+            List<ActivityManager.RunningAppProcessInfo> current) {
+        if (last == null) {
+            return false;
+        }
+        final int N = current != null ? current.size() : 0;
+        if (last.size() != N) {
+            return false;
+        }
+        final SparseArray<ActivityManager.RunningAppProcessInfo> lastByPid
+                = new SparseArray<>(N);
+        for (int i=0; i<N; i++) {
+            final ActivityManager.RunningAppProcessInfo a = last.get(i);
+            lastByPid.put(a.pid, a);
+        }
+        for (int i=0; i<N; i++) {
+            final ActivityManager.RunningAppProcessInfo b = current.get(i);
+            final ActivityManager.RunningAppProcessInfo a = lastByPid.get(b.pid);
+            lastByPid.remove(b.pid);
+            if (a == null || a.uid != b.uid || a.importance != b.importance
+                    || a.importanceReasonPid != b.importanceReasonPid
+                    || a.importanceReasonCode != b.importanceReasonCode
+                    || a.flags != b.flags
+                    || !Objects.equals(a.processName, b.processName)) {
+                return false;
+            }
+        }
+        return true;
     }
 
     private void addOtherUserItem(Context context, ArrayList<MergedItem> newMergedItems,
@@ -896,8 +996,6 @@ public class RunningState {
     private boolean update(Context context, ActivityManager am) {
         final PackageManager pm = context.getPackageManager();
 
-        mSequence++;
-        
         boolean changed = false;
 
         // Retrieve list of services, filtering out anything that definitely
@@ -932,6 +1030,19 @@ public class RunningState {
         List<ActivityManager.RunningAppProcessInfo> processes
                 = am.getRunningAppProcesses();
         final int NP = processes != null ? processes.size() : 0;
+
+        // The structure only depends on the services and processes, so if none of them changed
+        // there is no need to rebuild it; memory sizes still need to be refreshed though.
+        if (isSameServiceSnapshot(mLastServices, services)
+                && isSameProcessSnapshot(mLastProcesses, processes)) {
+            return updateSizes(context, false);
+        }
+        mLastServices = services != null
+                ? services : Collections.<ActivityManager.RunningServiceInfo>emptyList();
+        mLastProcesses = processes != null
+                ? processes : Collections.<ActivityManager.RunningAppProcessInfo>emptyList();
+        mSequence++;
+
         mTmpAppProcesses.clear();
         for (int i=0; i<NP; i++) {
             ActivityManager.RunningAppProcessInfo pi = processes.get(i);
@@ -1201,7 +1312,7 @@ public class RunningState {
                 
                 // Now add the services running in it.
                 MergedItem mergedItem = null;
-                boolean haveAllMerged = false;
+                boolean haveAllMerged = true;
                 boolean needDivider = false;
                 for (ServiceItem si : pi.mServices.values()) {
                     si.mNeedDivider = needDivider;
@@ -1217,7 +1328,8 @@ public class RunningState {
                     }
                 }
                 
-                if (!haveAllMerged || mergedItem == null
+                // Keep the MergedItem of a process whose services are all the same as before.
+                if (!haveAllMerged || mergedItem == null || mergedItem.mProcess != pi
                         || mergedItem.mServices.size() != pi.mServices.size()) {
                     // Whoops, we need to build a new MergedItem!
                     mergedItem = new MergedItem(pi.mUserId);
@@ -1226,10 +1338,11 @@ public class RunningState {
                         si.mMergedItem = mergedItem;
                     }
                     mergedItem.mProcess = pi;
-                    mergedItem.mOtherProcesses.clear();
-                    for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
-                        mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
-                    }
+                }
+                // The processes it depends on may have changed either way.
+                mergedItem.mOtherProcesses.clear();
+                for (int mpi=firstProc; mpi<(mProcessItems.size()-1); mpi++) {
+                    mergedItem.mOtherProcesses.add(mProcessItems.get(mpi));
                 }
                 
                 mergedItem.update(context, false);
@@ -1277,6 +1390,13 @@ public class RunningState {
             }
         }
         
+        return updateSizes(context, changed);
+    }
+
+    /**
+     * Retrieves memory use of the current processes and rebuilds the background items.
+     */
+    private boolean updateSizes(Context context, boolean changed) {
         // Count number of interesting other (non-active) processes, and
         // build a list of all processes we will retrieve memory for.
         mAllProcessItems.clear();
@@ -1284,7 +1404,7 @@ public class RunningState {
         int numBackgroundProcesses = 0;
         int numForegroundProcesses = 0;
         int numServiceProcesses = 0;
-        NRP = mRunningProcesses.size();
+        final int NRP = mRunningProcesses.size();
         for (int i=0; i<NRP; i++) {
             ProcessItem proc = mRunningProcesses.valueAt(i);
             if (proc.mCurSeq != mSequence) {
@@ -50,12 +50,15 @@ public final class BluetoothDevicePreference extends GearPreference implements
 
     private static int sDimAlpha = Integer.MIN_VALUE;
 
+    static final int NO_DISCOVERY_ORDER = -1;
+
     private final CachedBluetoothDevice mCachedDevice;
     private final UserManager mUserManager;
 
     private AlertDialog mDisconnectDialog;
     private String contentDescription = null;
     private DeviceListPreferenceFragment mDeviceListPreferenceFragment;
+    private int mDiscoveryOrder = NO_DISCOVERY_ORDER;
     /* Talk-back descriptions for various BT icons */
     Resources mResources;
 
@@ -82,6 +85,19 @@ public final class BluetoothDevicePreference extends GearPreference implements
         notifyChanged();
     }
 
+    /**
+     * Sorts this preference by {@code order} among discovered devices, after the devices without
+     * a discovery order, instead of by the state and signal strength of its device, so it
+     * doesn't move while devices are being discovered.
+     */
+    void setDiscoveryOrder(int order) {
+        mDiscoveryOrder = order;
+    }
+
+    boolean hasDiscoveryOrder() {
+        return mDiscoveryOrder != NO_DISCOVERY_ORDER;
+    }
+
     @Override
     protected boolean shouldHideSecondTarget() {
         return mCachedDevice == null
@@ -137,8 +153,10 @@ public final class BluetoothDevicePreference extends GearPreference implements
         setVisible(mDeviceListPreferenceFragment.shouldShowDevicesWithoutNames()
                 || mCachedDevice.hasHumanReadableName());
 
-        // This could affect ordering, so notify that
-        notifyHierarchyChanged();
+        // This could affect ordering, so notify that, unless sorted by discovery order
+        if (!hasDiscoveryOrder()) {
+            notifyHierarchyChanged();
+        }
     }
 
     @Override
@@ -183,6 +201,17 @@ public final class BluetoothDevicePreference extends GearPreference implements
             return super.compareTo(another);
         }
 
+        final BluetoothDevicePreference other = (BluetoothDevicePreference) another;
+        if (hasDiscoveryOrder() || other.hasDiscoveryOrder()) {
+            if (!hasDiscoveryOrder()) {
+                return -1;
+            }
+            if (!other.hasDiscoveryOrder()) {
+                return 1;
+            }
+            return Integer.compare(mDiscoveryOrder, other.mDiscoveryOrder);
+        }
+
         return mCachedDevice
                 .compareTo(((BluetoothDevicePreference) another).mCachedDevice);
     }
@@ -19,6 +19,8 @@ package com.android.settings.bluetooth;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.os.SystemProperties;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
@@ -35,7 +37,10 @@ import com.android.settingslib.bluetooth.CachedBluetoothDevice;
 import com.android.settingslib.bluetooth.LocalBluetoothAdapter;
 import com.android.settingslib.bluetooth.LocalBluetoothManager;
 
+import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.WeakHashMap;
 
 /**
@@ -57,6 +62,25 @@ public abstract class DeviceListPreferenceFragment extends
     private static final String BLUETOOTH_SHOW_DEVICES_WITHOUT_NAMES_PROPERTY =
             "persist.bluetooth.showdeviceswithoutnames";
 
+    // Devices discovered while scanning are added to the list in batches, at most this often.
+    @VisibleForTesting
+    static final long DISCOVERY_BATCH_INTERVAL_MS = 500;
+    // Default maximum number of discovered devices in the list, see getMaxDiscoveredDevices().
+    @VisibleForTesting
+    static final int DEFAULT_MAX_DISCOVERED_DEVICES = 100;
+
+    /**
+     * Orders discovered devices by how likely they are the one the user is looking for: devices
+     * with a name first, then by {@link CachedBluetoothDevice#compareTo}, which puts devices
+     * with a stronger signal first.
+     */
+    private static final Comparator<CachedBluetoothDevice> DISCOVERY_PRIORITY = (a, b) -> {
+        if (a.hasHumanReadableName() != b.hasHumanReadableName()) {
+            return a.hasHumanReadableName() ? -1 : 1;
+        }
+        return a.compareTo(b);
+    };
+
     private BluetoothDeviceFilter.Filter mFilter;
 
     @VisibleForTesting
@@ -73,6 +97,20 @@ public abstract class DeviceListPreferenceFragment extends
     final WeakHashMap<CachedBluetoothDevice, BluetoothDevicePreference> mDevicePreferenceMap =
             new WeakHashMap<CachedBluetoothDevice, BluetoothDevicePreference>();
 
+    // Devices discovered while scanning that are not in the list yet. Devices that would be
+    // hidden for lack of a name stay here until their name resolves.
+    @VisibleForTesting
+    final ArrayList<CachedBluetoothDevice> mPendingDevices = new ArrayList<>();
+    // Registered on the pending devices, so a device can be added once it gets a name.
+    private final CachedBluetoothDevice.Callback mPendingDeviceCallback =
+            this::postAddPendingDevices;
+    // Number of preferences in the list added through mPendingDevices.
+    private int mDiscoveredDeviceCount;
+    private int mNextDiscoveryOrder;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final Runnable mAddPendingDevicesRunnable = this::addPendingDevices;
+    private boolean mAddPendingDevicesPosted;
+
     boolean mShowDevicesWithoutNames;
 
     DeviceListPreferenceFragment(String restrictedKey) {
@@ -131,6 +169,14 @@ public abstract class DeviceListPreferenceFragment extends
     }
 
     void removeAllDevices() {
+        mHandler.removeCallbacks(mAddPendingDevicesRunnable);
+        mAddPendingDevicesPosted = false;
+        for (CachedBluetoothDevice cachedDevice : mPendingDevices) {
+            cachedDevice.unregisterCallback(mPendingDeviceCallback);
+        }
+        mPendingDevices.clear();
+        mDiscoveredDeviceCount = 0;
+        mNextDiscoveryOrder = 0;
         mDevicePreferenceMap.clear();
         mDeviceListGroup.removeAll();
     }
@@ -141,6 +187,8 @@ public abstract class DeviceListPreferenceFragment extends
         for (CachedBluetoothDevice cachedDevice : cachedDevices) {
             onDeviceAdded(cachedDevice);
         }
+        // Devices known already are shown right away.
+        addPendingDevices();
     }
 
     @Override
@@ -175,11 +223,85 @@ public abstract class DeviceListPreferenceFragment extends
         if (mLocalAdapter.getBluetoothState() != BluetoothAdapter.STATE_ON) return;
 
         if (mFilter.matches(cachedDevice.getDevice())) {
-            createDevicePreference(cachedDevice);
+            if (mScanEnabled && cachedDevice.getBondState() != BluetoothDevice.BOND_BONDED) {
+                addPendingDevice(cachedDevice);
+            } else {
+                createDevicePreference(cachedDevice);
+            }
+        }
+    }
+
+    private void addPendingDevice(CachedBluetoothDevice cachedDevice) {
+        if (mPendingDevices.contains(cachedDevice)) {
+            return;
+        }
+        mPendingDevices.add(cachedDevice);
+        cachedDevice.registerCallback(mPendingDeviceCallback);
+        postAddPendingDevices();
+    }
+
+    private void postAddPendingDevices() {
+        if (!mAddPendingDevicesPosted) {
+            mAddPendingDevicesPosted = true;
+            mHandler.postDelayed(mAddPendingDevicesRunnable, DISCOVERY_BATCH_INTERVAL_MS);
+        }
+    }
+
+    /**
+     * Adds the pending discovered devices with the highest priority to the list, after the
+     * devices already in it, up to {@link #getMaxDiscoveredDevices()}. The others stay pending
+     * until devices leave the list. Devices that would be hidden for lack of a name stay pending
+     * until their name resolves, so they don't take up room in the list.
+     */
+    @VisibleForTesting
+    void addPendingDevices() {
+        mHandler.removeCallbacks(mAddPendingDevicesRunnable);
+        mAddPendingDevicesPosted = false;
+        final int room = getMaxDiscoveredDevices() - mDiscoveredDeviceCount;
+        if (mPendingDevices.isEmpty() || room <= 0
+                || mLocalAdapter.getBluetoothState() != BluetoothAdapter.STATE_ON) {
+            return;
+        }
+        Collections.sort(mPendingDevices, DISCOVERY_PRIORITY);
+        int count = 0;
+        while (count < room && count < mPendingDevices.size()) {
+            final CachedBluetoothDevice cachedDevice = mPendingDevices.get(count);
+            if (!isShown(cachedDevice)) {
+                // Devices without a name sort last, so the rest would be hidden too.
+                break;
+            }
+            cachedDevice.unregisterCallback(mPendingDeviceCallback);
+            if (mDevicePreferenceMap.get(cachedDevice) == null) {
+                createDevicePreference(cachedDevice, mNextDiscoveryOrder++);
+                if (mDevicePreferenceMap.get(cachedDevice) != null) {
+                    mDiscoveredDeviceCount++;
+                }
+            }
+            count++;
         }
+        mPendingDevices.subList(0, count).clear();
+    }
+
+    /**
+     * @return whether the preference of {@code cachedDevice} would be visible, see
+     * {@link BluetoothDevicePreference#onDeviceAttributesChanged()}
+     */
+    private boolean isShown(CachedBluetoothDevice cachedDevice) {
+        return shouldShowDevicesWithoutNames() || cachedDevice.hasHumanReadableName();
+    }
+
+    /**
+     * @return the maximum number of discovered devices shown in the list
+     */
+    int getMaxDiscoveredDevices() {
+        return DEFAULT_MAX_DISCOVERED_DEVICES;
     }
 
     void createDevicePreference(CachedBluetoothDevice cachedDevice) {
+        createDevicePreference(cachedDevice, BluetoothDevicePreference.NO_DISCOVERY_ORDER);
+    }
+
+    private void createDevicePreference(CachedBluetoothDevice cachedDevice, int discoveryOrder) {
         if (mDeviceListGroup == null) {
             Log.w(TAG, "Trying to create a device preference before the list group/category "
                     + "exists!");
@@ -192,10 +314,12 @@ public abstract class DeviceListPreferenceFragment extends
         if (preference == null) {
             preference = new BluetoothDevicePreference(getPrefContext(), cachedDevice, this);
             preference.setKey(key);
+            preference.setDiscoveryOrder(discoveryOrder);
             mDeviceListGroup.addPreference(preference);
         } else {
             // Tell the preference it is being re-used in case there is new info in the
             // cached device.
+            preference.setDiscoveryOrder(discoveryOrder);
             preference.rebind();
         }
 
@@ -222,9 +346,19 @@ public abstract class DeviceListPreferenceFragment extends
 
     @Override
     public void onDeviceDeleted(CachedBluetoothDevice cachedDevice) {
+        if (mPendingDevices.remove(cachedDevice)) {
+            cachedDevice.unregisterCallback(mPendingDeviceCallback);
+        }
         BluetoothDevicePreference preference = mDevicePreferenceMap.remove(cachedDevice);
         if (preference != null) {
             mDeviceListGroup.removePreference(preference);
+            if (preference.hasDiscoveryOrder()) {
+                mDiscoveredDeviceCount--;
+                // Make room for the pending devices.
+                if (!mPendingDevices.isEmpty()) {
+                    postAddPendingDevices();
+                }
+            }
         }
     }
 
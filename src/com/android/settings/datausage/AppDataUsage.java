@@ -54,7 +54,6 @@ import com.android.settings.applications.PackageManagerWrapperImpl;
 import com.android.settings.widget.EntityHeaderController;
 import com.android.settingslib.AppItem;
 import com.android.settingslib.net.ChartData;
-import com.android.settingslib.net.ChartDataLoader;
 import com.android.settingslib.net.UidDetail;
 import com.android.settingslib.net.UidDetailProvider;
 
@@ -237,7 +236,7 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
         }
         mPolicy = services.mPolicyEditor.getPolicy(mTemplate);
         getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                ChartDataLoader.buildArgs(mTemplate, mAppItem), mChartDataCallbacks);
+                NetworkStatsCache.ChartLoader.buildArgs(mTemplate, mAppItem), mChartDataCallbacks);
         updatePrefs();
     }
 
@@ -446,7 +445,7 @@ public class AppDataUsage extends DataUsageBase implements Preference.OnPreferen
             new LoaderManager.LoaderCallbacks<ChartData>() {
         @Override
         public Loader<ChartData> onCreateLoader(int id, Bundle args) {
-            return new ChartDataLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsCache.ChartLoader(getActivity(), mStatsSession, args);
         }
 
         @Override
@@ -34,6 +34,14 @@ public class AppDataUsagePreference extends Preference {
 
     public AppDataUsagePreference(Context context, AppItem item, int percent,
             UidDetailProvider provider) {
+        this(context, item, percent, provider, null /* label */);
+    }
+
+    /**
+     * @param label label to show until the details of the app are loaded, e.g. a stored one
+     */
+    public AppDataUsagePreference(Context context, AppItem item, int percent,
+            UidDetailProvider provider, CharSequence label) {
         super(context);
         mItem = item;
         mPercent = percent;
@@ -47,6 +55,9 @@ public class AppDataUsagePreference extends Preference {
 
         // kick off async load of app details
         UidDetailTask.bindView(provider, item, this);
+        if (label != null && getTitle() == null) {
+            setTitle(label);
+        }
     }
 
     @Override
@@ -0,0 +1,195 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+import static android.net.TrafficStats.UID_TETHERING;
+
+import android.net.NetworkStats;
+import android.os.UserHandle;
+import android.os.UserManager;
+import android.util.SparseIntArray;
+
+import com.android.internal.util.GrowingArrayUtils;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Collapses the rows of a {@link NetworkStats} summary into the {@link AppItem}s shown by
+ * {@link DataUsageList}: apps of the current user and its profiles, other users, removed apps,
+ * tethering and the system.
+ *
+ * Rows are added up in primitive arrays indexed by collapse key, and {@link AppItem}s are only
+ * created once all rows were added, so a summary with thousands of uid and tag rows doesn't
+ * allocate per row.
+ */
+class AppUsageCollapser {
+    private static final int USER_UNKNOWN = 0;
+    private static final int USER_REMOVED = 1;
+    private static final int USER_OTHER = 2;
+
+    // Category of items only added for their restricted state, which keep the default one.
+    private static final int NO_CATEGORY = -1;
+
+    private final int mCurrentUserId;
+    private final BitSet mProfileIds = new BitSet();
+    private final UserManager mUserManager;
+    // Whether users that aren't profiles were removed, looked up once per user.
+    private final SparseIntArray mUserStates = new SparseIntArray();
+
+    // Slot of each collapse key in the arrays below.
+    private final SparseIntArray mSlots = new SparseIntArray();
+    private int[] mKeys = new int[16];
+    private int[] mCategories = new int[16];
+    private long[] mTotals = new long[16];
+    private boolean[] mRestricted = new boolean[16];
+    private int mSlotCount;
+    private long mLargest;
+
+    // Uid of each row and the slot it was collapsed into.
+    private int[] mRowUids = new int[64];
+    private int[] mRowSlots = new int[64];
+    private int mRowCount;
+
+    AppUsageCollapser(int currentUserId, List<UserHandle> profiles, UserManager userManager) {
+        mCurrentUserId = currentUserId;
+        mUserManager = userManager;
+        for (int i = 0, size = profiles.size(); i < size; i++) {
+            mProfileIds.set(profiles.get(i).getIdentifier());
+        }
+    }
+
+    void add(NetworkStats.Entry entry) {
+        add(entry.uid, entry.rxBytes + entry.txBytes);
+    }
+
+    void add(int uid, long bytes) {
+        // Decide how to collapse items together
+        final int collapseKey;
+        final int category;
+        final int userId = UserHandle.getUserId(uid);
+        if (UserHandle.isApp(uid)) {
+            if (isProfile(userId)) {
+                if (userId != mCurrentUserId) {
+                    // Add to a managed user item.
+                    final int managedKey = UidDetailProvider.buildKeyForUser(userId);
+                    accumulate(managedKey, uid, bytes, AppItem.CATEGORY_USER);
+                }
+                // Add to app item.
+                collapseKey = uid;
+                category = AppItem.CATEGORY_APP;
+            } else if (getUserState(userId) == USER_REMOVED) {
+                // If it is a removed user add it to the removed users' key
+                collapseKey = UID_REMOVED;
+                category = AppItem.CATEGORY_APP;
+            } else {
+                // Add to other user item.
+                collapseKey = UidDetailProvider.buildKeyForUser(userId);
+                category = AppItem.CATEGORY_USER;
+            }
+        } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
+            collapseKey = uid;
+            category = AppItem.CATEGORY_APP;
+        } else {
+            collapseKey = android.os.Process.SYSTEM_UID;
+            category = AppItem.CATEGORY_APP;
+        }
+        accumulate(collapseKey, uid, bytes, category);
+    }
+
+    /**
+     * Marks {@code uid} as restricted, if it belongs to the current user or its profiles.
+     */
+    void addRestricted(int uid) {
+        // Only splice in restricted state for current user or managed users
+        if (!isProfile(UserHandle.getUserId(uid))) {
+            return;
+        }
+        int slot = mSlots.get(uid, -1);
+        if (slot < 0) {
+            slot = addSlot(uid, NO_CATEGORY);
+            mTotals[slot] = -1;
+        }
+        mRestricted[slot] = true;
+    }
+
+    long getLargest() {
+        return mLargest;
+    }
+
+    /**
+     * @return the items, sorted for display
+     */
+    ArrayList<AppItem> getItems() {
+        final ArrayList<AppItem> items = new ArrayList<>(mSlotCount);
+        for (int i = 0; i < mSlotCount; i++) {
+            final AppItem item = new AppItem(mKeys[i]);
+            if (mCategories[i] != NO_CATEGORY) {
+                item.category = mCategories[i];
+            }
+            item.total = mTotals[i];
+            item.restricted = mRestricted[i];
+            items.add(item);
+        }
+        for (int i = 0; i < mRowCount; i++) {
+            items.get(mRowSlots[i]).addUid(mRowUids[i]);
+        }
+        Collections.sort(items);
+        return items;
+    }
+
+    private boolean isProfile(int userId) {
+        return userId >= 0 && mProfileIds.get(userId);
+    }
+
+    private int getUserState(int userId) {
+        int state = mUserStates.get(userId, USER_UNKNOWN);
+        if (state == USER_UNKNOWN) {
+            state = mUserManager.getUserInfo(userId) == null ? USER_REMOVED : USER_OTHER;
+            mUserStates.put(userId, state);
+        }
+        return state;
+    }
+
+    private void accumulate(int collapseKey, int uid, long bytes, int category) {
+        int slot = mSlots.get(collapseKey, -1);
+        if (slot < 0) {
+            slot = addSlot(collapseKey, category);
+        }
+        mRowUids = GrowingArrayUtils.append(mRowUids, mRowCount, uid);
+        mRowSlots = GrowingArrayUtils.append(mRowSlots, mRowCount, slot);
+        mRowCount++;
+        mTotals[slot] += bytes;
+        mLargest = Math.max(mLargest, mTotals[slot]);
+    }
+
+    private int addSlot(int collapseKey, int category) {
+        final int slot = mSlotCount;
+        mKeys = GrowingArrayUtils.append(mKeys, slot, collapseKey);
+        mCategories = GrowingArrayUtils.append(mCategories, slot, category);
+        mTotals = GrowingArrayUtils.append(mTotals, slot, 0);
+        mRestricted = GrowingArrayUtils.append(mRestricted, slot, false);
+        mSlots.put(collapseKey, slot);
+        mSlotCount++;
+        return slot;
+    }
+}
@@ -73,17 +73,9 @@ public class ChartDataUsagePreference extends Preference {
     }
 
     public int getTop() {
-        NetworkStatsHistory.Entry entry = null;
-        long totalData = 0;
         final int start = mNetwork.getIndexBefore(mStart);
         final int end = mNetwork.getIndexAfter(mEnd);
-
-        for (int i = start; i <= end; i++) {
-            entry = mNetwork.getValues(i, entry);
-
-            // increment by current bucket total
-            totalData += entry.rxBytes + entry.txBytes;
-        }
+        final long totalData = NetworkHistoryIndex.get(mNetwork).getTotalBytes(start, end);
         long policyMax = mPolicy != null ? Math.max(mPolicy.limitBytes, mPolicy.warningBytes) : 0;
         return (int) (Math.max(totalData, policyMax) / RESOLUTION);
     }
@@ -29,10 +29,17 @@ import com.android.settingslib.net.ChartData;
 import libcore.util.Objects;
 
 import java.time.ZonedDateTime;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
 
+    /**
+     * Length of the cycles listed without a policy, which end with the available history.
+     */
+    static final long ROLLING_CYCLE_MS = 4 * DateUtils.WEEK_IN_MILLIS;
+
     private final SpinnerInterface mSpinner;
     private final AdapterView.OnItemSelectedListener mListener;
 
@@ -76,13 +83,43 @@ public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
         clear();
 
         final Context context = getContext();
-        NetworkStatsHistory.Entry entry = null;
+        final List<Pair<Long, Long>> cycles =
+                getCycles(policy, chartData != null ? chartData.network : null);
+        for (int i = 0; i < cycles.size(); i++) {
+            final Pair<Long, Long> cycle = cycles.get(i);
+            add(new CycleAdapter.CycleItem(context, cycle.first, cycle.second));
+        }
+
+        // force pick the current cycle (first item)
+        if (getCount() > 0) {
+            final int position = findNearestPosition(previousItem);
+            mSpinner.setSelection(position);
+
+            // only force-update cycle when changed; skipping preserves any
+            // user-defined inspection region.
+            final CycleAdapter.CycleItem selectedItem = getItem(position);
+            if (!Objects.equal(selectedItem, previousItem)) {
+                mListener.onItemSelected(null, null, position, 0);
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return the start and end of the cycles to list for {@link NetworkPolicy} and available
+     * {@link NetworkStatsHistory} data, newest first
+     */
+    static List<Pair<Long, Long>> getCycles(NetworkPolicy policy, NetworkStatsHistory history) {
+        final List<Pair<Long, Long>> cycles = new ArrayList<>();
+        NetworkHistoryIndex index = null;
 
         long historyStart = Long.MAX_VALUE;
         long historyEnd = Long.MIN_VALUE;
-        if (chartData != null) {
-            historyStart = chartData.network.getStart();
-            historyEnd = chartData.network.getEnd();
+        if (history != null) {
+            historyStart = history.getStart();
+            historyEnd = history.getEnd();
+            index = NetworkHistoryIndex.get(history);
         }
 
         final long now = System.currentTimeMillis();
@@ -99,15 +136,14 @@ public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
                 final long cycleEnd = cycle.second.toInstant().toEpochMilli();
 
                 final boolean includeCycle;
-                if (chartData != null) {
-                    entry = chartData.network.getValues(cycleStart, cycleEnd, entry);
-                    includeCycle = (entry.rxBytes + entry.txBytes) > 0;
+                if (index != null) {
+                    includeCycle = index.getTotalBytes(cycleStart, cycleEnd) > 0;
                 } else {
                     includeCycle = true;
                 }
 
                 if (includeCycle) {
-                    add(new CycleAdapter.CycleItem(context, cycleStart, cycleEnd));
+                    cycles.add(Pair.create(cycleStart, cycleEnd));
                     hasCycles = true;
                 }
             }
@@ -117,37 +153,22 @@ public class CycleAdapter extends ArrayAdapter<CycleAdapter.CycleItem> {
             // no policy defined cycles; show entry for each four-week period
             long cycleEnd = historyEnd;
             while (cycleEnd > historyStart) {
-                final long cycleStart = cycleEnd - (DateUtils.WEEK_IN_MILLIS * 4);
+                final long cycleStart = cycleEnd - ROLLING_CYCLE_MS;
 
                 final boolean includeCycle;
-                if (chartData != null) {
-                    entry = chartData.network.getValues(cycleStart, cycleEnd, entry);
-                    includeCycle = (entry.rxBytes + entry.txBytes) > 0;
+                if (index != null) {
+                    includeCycle = index.getTotalBytes(cycleStart, cycleEnd) > 0;
                 } else {
                     includeCycle = true;
                 }
 
                 if (includeCycle) {
-                    add(new CycleAdapter.CycleItem(context, cycleStart, cycleEnd));
+                    cycles.add(Pair.create(cycleStart, cycleEnd));
                 }
                 cycleEnd = cycleStart;
             }
         }
-
-        // force pick the current cycle (first item)
-        if (getCount() > 0) {
-            final int position = findNearestPosition(previousItem);
-            mSpinner.setSelection(position);
-
-            // only force-update cycle when changed; skipping preserves any
-            // user-defined inspection region.
-            final CycleAdapter.CycleItem selectedItem = getItem(position);
-            if (!Objects.equal(selectedItem, previousItem)) {
-                mListener.onItemSelected(null, null, position, 0);
-                return false;
-            }
-        }
-        return true;
+        return cycles;
     }
 
     /**
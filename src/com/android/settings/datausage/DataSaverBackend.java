@@ -20,6 +20,7 @@ import android.net.NetworkPolicyManager;
 import android.os.Handler;
 import android.os.Looper;
 import android.os.RemoteException;
+import android.support.annotation.VisibleForTesting;
 import android.util.SparseIntArray;
 
 import com.android.internal.logging.nano.MetricsProto.MetricsEvent;
@@ -43,8 +44,14 @@ public class DataSaverBackend {
     private final NetworkPolicyManager mPolicyManager;
     private final ArrayList<Listener> mListeners = new ArrayList<>();
     private SparseIntArray mUidPolicies = new SparseIntArray();
-    private boolean mWhitelistInitialized;
-    private boolean mBlacklistInitialized;
+    private boolean mPoliciesInitialized;
+    // Restrict background state, kept up to date by mPolicyListener while there are listeners.
+    private boolean mRestrictBackground;
+
+    // Uid policies reported by mPolicyListener and not dispatched yet, so a burst of changes is
+    // dispatched in one pass.
+    private final SparseIntArray mPendingUidPolicies = new SparseIntArray();
+    private final Runnable mDispatchUidPolicies = this::dispatchUidPoliciesChanged;
 
     // TODO: Staticize into only one.
     public DataSaverBackend(Context context) {
@@ -57,8 +64,9 @@ public class DataSaverBackend {
         mListeners.add(listener);
         if (mListeners.size() == 1) {
             mPolicyManager.registerListener(mPolicyListener);
+            mRestrictBackground = mPolicyManager.getRestrictBackground();
         }
-        listener.onDataSaverChanged(isDataSaverEnabled());
+        listener.onDataSaverChanged(mRestrictBackground);
     }
 
     public void remListener(Listener listener) {
@@ -69,17 +77,21 @@ public class DataSaverBackend {
     }
 
     public boolean isDataSaverEnabled() {
+        if (!mListeners.isEmpty()) {
+            return mRestrictBackground;
+        }
         return mPolicyManager.getRestrictBackground();
     }
 
     public void setDataSaverEnabled(boolean enabled) {
         mPolicyManager.setRestrictBackground(enabled);
+        mRestrictBackground = enabled;
         mMetricsFeatureProvider.action(
                 mContext, MetricsEvent.ACTION_DATA_SAVER_MODE, enabled ? 1 : 0);
     }
 
     public void refreshWhitelist() {
-        loadWhitelist();
+        loadPolicies();
     }
 
     public void setIsWhitelisted(int uid, String packageName, boolean whitelisted) {
@@ -93,13 +105,23 @@ public class DataSaverBackend {
     }
 
     public boolean isWhitelisted(int uid) {
-        loadWhitelist();
-        return mUidPolicies.get(uid, POLICY_NONE) == POLICY_ALLOW_METERED_BACKGROUND;
+        return getUidPolicy(uid) == POLICY_ALLOW_METERED_BACKGROUND;
+    }
+
+    /**
+     * @return the data saver policy of {@code uid}:
+     * {@link NetworkPolicyManager#POLICY_ALLOW_METERED_BACKGROUND},
+     * {@link NetworkPolicyManager#POLICY_REJECT_METERED_BACKGROUND} or
+     * {@link NetworkPolicyManager#POLICY_NONE}
+     */
+    public int getUidPolicy(int uid) {
+        loadPolicies();
+        return mUidPolicies.get(uid, POLICY_NONE);
     }
 
     public int getWhitelistedCount() {
         int count = 0;
-        loadWhitelist();
+        loadPolicies();
         for (int i = 0; i < mUidPolicies.size(); i++) {
             if (mUidPolicies.valueAt(i) == POLICY_ALLOW_METERED_BACKGROUND) {
                 count++;
@@ -108,17 +130,24 @@ public class DataSaverBackend {
         return count;
     }
 
-    private void loadWhitelist() {
-        if (mWhitelistInitialized) return;
+    /**
+     * Loads the whitelisted and blacklisted uids at once, so every later lookup is answered from
+     * {@link #mUidPolicies}.
+     */
+    private void loadPolicies() {
+        if (mPoliciesInitialized) return;
 
         for (int uid : mPolicyManager.getUidsWithPolicy(POLICY_ALLOW_METERED_BACKGROUND)) {
             mUidPolicies.put(uid, POLICY_ALLOW_METERED_BACKGROUND);
         }
-        mWhitelistInitialized = true;
+        for (int uid : mPolicyManager.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND)) {
+            mUidPolicies.put(uid, POLICY_REJECT_METERED_BACKGROUND);
+        }
+        mPoliciesInitialized = true;
     }
 
     public void refreshBlacklist() {
-        loadBlacklist();
+        loadPolicies();
     }
 
     public void setIsBlacklisted(int uid, String packageName, boolean blacklisted) {
@@ -132,19 +161,11 @@ public class DataSaverBackend {
     }
 
     public boolean isBlacklisted(int uid) {
-        loadBlacklist();
-        return mUidPolicies.get(uid, POLICY_NONE) == POLICY_REJECT_METERED_BACKGROUND;
-    }
-
-    private void loadBlacklist() {
-        if (mBlacklistInitialized) return;
-        for (int uid : mPolicyManager.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND)) {
-            mUidPolicies.put(uid, POLICY_REJECT_METERED_BACKGROUND);
-        }
-        mBlacklistInitialized = true;
+        return getUidPolicy(uid) == POLICY_REJECT_METERED_BACKGROUND;
     }
 
     private void handleRestrictBackgroundChanged(boolean isDataSaving) {
+        mRestrictBackground = isDataSaving;
         for (int i = 0; i < mListeners.size(); i++) {
             mListeners.get(i).onDataSaverChanged(isDataSaving);
         }
@@ -162,10 +183,19 @@ public class DataSaverBackend {
         }
     }
 
-    private void handleUidPoliciesChanged(int uid, int newPolicy) {
-        loadWhitelist();
-        loadBlacklist();
+    private void dispatchUidPoliciesChanged() {
+        final SparseIntArray uidPolicies;
+        synchronized (mPendingUidPolicies) {
+            uidPolicies = mPendingUidPolicies.clone();
+            mPendingUidPolicies.clear();
+        }
+        loadPolicies();
+        for (int i = 0; i < uidPolicies.size(); i++) {
+            handleUidPoliciesChanged(uidPolicies.keyAt(i), uidPolicies.valueAt(i));
+        }
+    }
 
+    private void handleUidPoliciesChanged(int uid, int newPolicy) {
         final int oldPolicy = mUidPolicies.get(uid, POLICY_NONE);
         if (newPolicy == POLICY_NONE) {
             mUidPolicies.delete(uid);
@@ -188,14 +218,22 @@ public class DataSaverBackend {
 
     }
 
-    private final INetworkPolicyListener mPolicyListener = new INetworkPolicyListener.Stub() {
+    @VisibleForTesting
+    final INetworkPolicyListener mPolicyListener = new INetworkPolicyListener.Stub() {
         @Override
         public void onUidRulesChanged(int uid, int uidRules) throws RemoteException {
         }
 
         @Override
         public void onUidPoliciesChanged(final int uid, final int uidPolicies) {
-            mHandler.post(() -> handleUidPoliciesChanged(uid, uidPolicies));
+            synchronized (mPendingUidPolicies) {
+                // Only the latest policy of each uid matters; post once per batch.
+                final boolean posted = mPendingUidPolicies.size() > 0;
+                mPendingUidPolicies.put(uid, uidPolicies);
+                if (!posted) {
+                    mHandler.post(mDispatchUidPolicies);
+                }
+            }
         }
 
         @Override
@@ -16,15 +16,12 @@ package com.android.settings.datausage;
 
 import static android.net.ConnectivityManager.TYPE_MOBILE;
 import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
-import static android.net.TrafficStats.UID_REMOVED;
-import static android.net.TrafficStats.UID_TETHERING;
 import static android.telephony.TelephonyManager.SIM_STATE_READY;
 
 import android.app.ActivityManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.Context;
 import android.content.Loader;
-import android.content.pm.UserInfo;
 import android.graphics.Color;
 import android.net.ConnectivityManager;
 import android.net.INetworkStatsSession;
@@ -37,7 +34,6 @@ import android.os.AsyncTask;
 import android.os.Bundle;
 import android.os.RemoteException;
 import android.os.SystemProperties;
-import android.os.UserHandle;
 import android.os.UserManager;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceGroup;
@@ -47,7 +43,6 @@ import android.telephony.TelephonyManager;
 import android.text.format.DateUtils;
 import android.text.format.Formatter;
 import android.util.Log;
-import android.util.SparseArray;
 import android.view.View;
 import android.widget.AdapterView;
 import android.widget.AdapterView.OnItemSelectedListener;
@@ -58,11 +53,8 @@ import com.android.settings.datausage.CycleAdapter.SpinnerInterface;
 import com.android.settings.widget.LoadingViewController;
 import com.android.settingslib.AppItem;
 import com.android.settingslib.net.ChartData;
-import com.android.settingslib.net.ChartDataLoader;
-import com.android.settingslib.net.SummaryForAllUidLoader;
 import com.android.settingslib.net.UidDetailProvider;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -101,6 +93,7 @@ public class DataUsageList extends DataUsageBase {
 
     private LoadingViewController mLoadingViewController;
     private UidDetailProvider mUidDetailProvider;
+    private DataUsageRankingCache mRankingCache;
     private CycleAdapter mCycleAdapter;
     private Spinner mCycleSpinner;
     private Preference mUsageAmount;
@@ -130,6 +123,8 @@ public class DataUsageList extends DataUsageBase {
         }
 
         mUidDetailProvider = new UidDetailProvider(context);
+        mRankingCache = new DataUsageRankingCache(context, ActivityManager.getCurrentUser());
+        DataUsageRankingJobService.schedule(context);
 
         addPreferencesFromResource(R.xml.data_usage_list);
         mUsageAmount = findPreference(KEY_USAGE_AMOUNT);
@@ -187,6 +182,7 @@ public class DataUsageList extends DataUsageBase {
         updateBody();
 
         // kick off background task to update stats
+        final NetworkTemplate template = mTemplate;
         new AsyncTask<Void, Void, Void>() {
             @Override
             protected Void doInBackground(Void... params) {
@@ -194,6 +190,8 @@ public class DataUsageList extends DataUsageBase {
                     // wait a few seconds before kicking off
                     Thread.sleep(2 * DateUtils.SECOND_IN_MILLIS);
                     services.mStatsService.forceUpdate();
+                    // Stats read before the poll are missing its usage.
+                    NetworkStatsCache.invalidate(template);
                 } catch (InterruptedException e) {
                 } catch (RemoteException e) {
                 }
@@ -239,7 +237,7 @@ public class DataUsageList extends DataUsageBase {
         // TODO: consider chaining two loaders together instead of reloading
         // network history when showing app detail.
         getLoaderManager().restartLoader(LOADER_CHART_DATA,
-                ChartDataLoader.buildArgs(mTemplate, null), mChartDataCallbacks);
+                NetworkStatsCache.ChartLoader.buildArgs(mTemplate, null), mChartDataCallbacks);
 
         // detail mode can change visible menus, invalidate
         getActivity().invalidateOptionsMenu();
@@ -296,16 +294,21 @@ public class DataUsageList extends DataUsageBase {
 
         final Context context = getActivity();
 
-        NetworkStatsHistory.Entry entry = null;
-        if (mChartData != null) {
-            entry = mChartData.network.getValues(start, end, now, null);
+        final long totalBytes = mChartData != null
+                ? NetworkHistoryIndex.get(mChartData.network).getTotalBytes(start, end, now) : 0;
+
+        // show the stored usage of the cycle, if any, until the loader is done
+        final DataUsageRankingCache.Ranking ranking =
+                mRankingCache.getRanking(mTemplate, start, end);
+        if (ranking != null) {
+            bindItems(ranking.items, ranking.getLargest(), ranking);
         }
 
         // kick off loader for detailed stats
         getLoaderManager().restartLoader(LOADER_SUMMARY,
-                SummaryForAllUidLoader.buildArgs(mTemplate, start, end), mSummaryCallbacks);
+                NetworkStatsCache.UidSummaryLoader.buildArgs(mTemplate, start, end),
+                mSummaryCallbacks);
 
-        final long totalBytes = entry != null ? entry.rxBytes + entry.txBytes : 0;
         final String totalPhrase = Formatter.formatFileSize(context, totalBytes);
         mUsageAmount.setTitle(getString(R.string.data_used_template, totalPhrase));
     }
@@ -314,82 +317,38 @@ public class DataUsageList extends DataUsageBase {
      * Bind the given {@link NetworkStats}, or {@code null} to clear list.
      */
     public void bindStats(NetworkStats stats, int[] restrictedUids) {
-        ArrayList<AppItem> items = new ArrayList<>();
-        long largest = 0;
-
-        final int currentUserId = ActivityManager.getCurrentUser();
         UserManager userManager = UserManager.get(getContext());
-        final List<UserHandle> profiles = userManager.getUserProfiles();
-        final SparseArray<AppItem> knownItems = new SparseArray<AppItem>();
+        final AppUsageCollapser collapser = new AppUsageCollapser(
+                ActivityManager.getCurrentUser(), userManager.getUserProfiles(), userManager);
 
         NetworkStats.Entry entry = null;
         final int size = stats != null ? stats.size() : 0;
         for (int i = 0; i < size; i++) {
             entry = stats.getValues(i, entry);
-
-            // Decide how to collapse items together
-            final int uid = entry.uid;
-
-            final int collapseKey;
-            final int category;
-            final int userId = UserHandle.getUserId(uid);
-            if (UserHandle.isApp(uid)) {
-                if (profiles.contains(new UserHandle(userId))) {
-                    if (userId != currentUserId) {
-                        // Add to a managed user item.
-                        final int managedKey = UidDetailProvider.buildKeyForUser(userId);
-                        largest = accumulate(managedKey, knownItems, entry, AppItem.CATEGORY_USER,
-                                items, largest);
-                    }
-                    // Add to app item.
-                    collapseKey = uid;
-                    category = AppItem.CATEGORY_APP;
-                } else {
-                    // If it is a removed user add it to the removed users' key
-                    final UserInfo info = userManager.getUserInfo(userId);
-                    if (info == null) {
-                        collapseKey = UID_REMOVED;
-                        category = AppItem.CATEGORY_APP;
-                    } else {
-                        // Add to other user item.
-                        collapseKey = UidDetailProvider.buildKeyForUser(userId);
-                        category = AppItem.CATEGORY_USER;
-                    }
-                }
-            } else if (uid == UID_REMOVED || uid == UID_TETHERING) {
-                collapseKey = uid;
-                category = AppItem.CATEGORY_APP;
-            } else {
-                collapseKey = android.os.Process.SYSTEM_UID;
-                category = AppItem.CATEGORY_APP;
-            }
-            largest = accumulate(collapseKey, knownItems, entry, category, items, largest);
+            collapser.add(entry);
         }
 
         final int restrictedUidsMax = restrictedUids.length;
         for (int i = 0; i < restrictedUidsMax; ++i) {
-            final int uid = restrictedUids[i];
-            // Only splice in restricted state for current user or managed users
-            if (!profiles.contains(new UserHandle(UserHandle.getUserId(uid)))) {
-                continue;
-            }
-
-            AppItem item = knownItems.get(uid);
-            if (item == null) {
-                item = new AppItem(uid);
-                item.total = -1;
-                items.add(item);
-                knownItems.put(item.key, item);
-            }
-            item.restricted = true;
+            collapser.addRestricted(restrictedUids[i]);
         }
 
-        Collections.sort(items);
+        bindItems(collapser.getItems(), collapser.getLargest(), null);
+    }
+
+    /**
+     * Bind the given items, sorted for display, using the labels of {@code ranking} until the
+     * ones of the apps are loaded.
+     */
+    private void bindItems(List<AppItem> items, long largest,
+            DataUsageRankingCache.Ranking ranking) {
         mApps.removeAll();
         for (int i = 0; i < items.size(); i++) {
-            final int percentTotal = largest != 0 ? (int) (items.get(i).total * 100 / largest) : 0;
+            final AppItem item = items.get(i);
+            final int percentTotal = largest != 0 ? (int) (item.total * 100 / largest) : 0;
             AppDataUsagePreference preference = new AppDataUsagePreference(getContext(),
-                    items.get(i), percentTotal, mUidDetailProvider);
+                    item, percentTotal, mUidDetailProvider,
+                    ranking != null ? ranking.getLabel(item.key) : null);
             preference.setOnPreferenceClickListener(new Preference.OnPreferenceClickListener() {
                 @Override
                 public boolean onPreferenceClick(Preference preference) {
@@ -403,35 +362,39 @@ public class DataUsageList extends DataUsageBase {
         }
     }
 
-    private void startAppDataUsage(AppItem item) {
-        Bundle args = new Bundle();
-        args.putParcelable(AppDataUsage.ARG_APP_ITEM, item);
-        args.putParcelable(AppDataUsage.ARG_NETWORK_TEMPLATE, mTemplate);
-        startFragment(this, AppDataUsage.class.getName(), R.string.app_data_usage, 0, args);
+    /**
+     * Stores the list shown for {@code start} to {@code end}, so it can be shown right away the
+     * next time.
+     */
+    private void storeRanking(long start, long end) {
+        final ArrayList<AppItem> items = new ArrayList<>(mApps.getPreferenceCount());
+        for (int i = 0; i < mApps.getPreferenceCount(); i++) {
+            items.add(((AppDataUsagePreference) mApps.getPreference(i)).getItem());
+        }
+        final DataUsageRankingCache rankingCache = mRankingCache;
+        final NetworkTemplate template = mTemplate;
+        final UidDetailProvider provider = mUidDetailProvider;
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(
+                () -> rankingCache.putRanking(template, start, end, items, provider));
     }
 
     /**
-     * Accumulate data usage of a network stats entry for the item mapped by the collapse key.
-     * Creates the item if needed.
-     *
-     * @param collapseKey  the collapse key used to map the item.
-     * @param knownItems   collection of known (already existing) items.
-     * @param entry        the network stats entry to extract data usage from.
-     * @param itemCategory the item is categorized on the list view by this category. Must be
+     * @return whether {@code start} to {@code end} is the newest cycle, which the list shows
+     * first
      */
-    private static long accumulate(int collapseKey, final SparseArray<AppItem> knownItems,
-            NetworkStats.Entry entry, int itemCategory, ArrayList<AppItem> items, long largest) {
-        final int uid = entry.uid;
-        AppItem item = knownItems.get(collapseKey);
-        if (item == null) {
-            item = new AppItem(collapseKey);
-            item.category = itemCategory;
-            items.add(item);
-            knownItems.put(item.key, item);
+    private boolean isNewestCycle(long start, long end) {
+        if (mCycleAdapter.isEmpty()) {
+            return false;
         }
-        item.addUid(uid);
-        item.total += entry.rxBytes + entry.txBytes;
-        return Math.max(largest, item.total);
+        final CycleAdapter.CycleItem newest = mCycleAdapter.getItem(0);
+        return newest.start == start && newest.end == end;
+    }
+
+    private void startAppDataUsage(AppItem item) {
+        Bundle args = new Bundle();
+        args.putParcelable(AppDataUsage.ARG_APP_ITEM, item);
+        args.putParcelable(AppDataUsage.ARG_NETWORK_TEMPLATE, mTemplate);
+        startFragment(this, AppDataUsage.class.getName(), R.string.app_data_usage, 0, args);
     }
 
     /**
@@ -519,7 +482,7 @@ public class DataUsageList extends DataUsageBase {
             ChartData>() {
         @Override
         public Loader<ChartData> onCreateLoader(int id, Bundle args) {
-            return new ChartDataLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsCache.ChartLoader(getActivity(), mStatsSession, args);
         }
 
         @Override
@@ -543,7 +506,7 @@ public class DataUsageList extends DataUsageBase {
             NetworkStats>() {
         @Override
         public Loader<NetworkStats> onCreateLoader(int id, Bundle args) {
-            return new SummaryForAllUidLoader(getActivity(), mStatsSession, args);
+            return new NetworkStatsCache.UidSummaryLoader(getActivity(), mStatsSession, args);
         }
 
         @Override
@@ -551,6 +514,16 @@ public class DataUsageList extends DataUsageBase {
             final int[] restrictedUids = services.mPolicyManager.getUidsWithPolicy(
                     POLICY_REJECT_METERED_BACKGROUND);
             bindStats(data, restrictedUids);
+            if (data != null) {
+                final NetworkStatsCache.UidSummaryLoader summaryLoader =
+                        (NetworkStatsCache.UidSummaryLoader) loader;
+                final long start = summaryLoader.getStart();
+                final long end = summaryLoader.getEnd();
+                // The ranking cache keeps one cycle per template, the one the list opens on.
+                if (isNewestCycle(start, end)) {
+                    storeRanking(start, end);
+                }
+            }
             updateEmptyVisible();
         }
 
@@ -0,0 +1,213 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.NetworkTemplate;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.util.SparseArray;
+
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetail;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the ranked per-app usage of a template over a cycle, with the resolved app labels, so
+ * {@link DataUsageList} can show the list as soon as it opens while it reloads the usage.
+ */
+public class DataUsageRankingCache {
+    private static final String TAG = "DataUsageRankingCache";
+
+    @VisibleForTesting
+    static final String SHARED_PREFERENCES_NAME = "DataUsageRanking";
+    @VisibleForTesting
+    static final long MAX_AGE_MS = DateUtils.DAY_IN_MILLIS;
+    @VisibleForTesting
+    static final int MAX_ITEMS = 50;
+
+    private static final String START_KEY = "start";
+    private static final String END_KEY = "end";
+    private static final String USER_ID_KEY = "user_id";
+    private static final String TIMESTAMP_KEY = "timestamp";
+    private static final String ITEMS_KEY = "items";
+    private static final String ITEM_KEY = "key";
+    private static final String CATEGORY_KEY = "category";
+    private static final String TOTAL_KEY = "total";
+    private static final String RESTRICTED_KEY = "restricted";
+    private static final String UIDS_KEY = "uids";
+    private static final String LABEL_KEY = "label";
+
+    private final SharedPreferences mSharedPreferences;
+    private final int mUserId;
+    // This clock is used to provide the time. By default, it uses the system clock, but can be
+    // replaced for test purposes.
+    @VisibleForTesting
+    Clock mClock;
+
+    public DataUsageRankingCache(Context context, int userId) {
+        mSharedPreferences =
+                context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+        mUserId = userId;
+        mClock = new Clock();
+    }
+
+    /**
+     * @return the stored usage of {@code template} between {@code start} and {@code end}, or
+     * {@code null} if there is none or it is too old. See {@link #isSameCycle} for which stored
+     * ranges match.
+     */
+    public Ranking getRanking(NetworkTemplate template, long start, long end) {
+        final String stored = mSharedPreferences.getString(getKey(template), null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            final JSONObject ranking = new JSONObject(stored);
+            if (!isSameCycle(ranking.getLong(START_KEY), ranking.getLong(END_KEY), start, end)
+                    || ranking.getInt(USER_ID_KEY) != mUserId
+                    || mClock.getCurrentTime() - ranking.getLong(TIMESTAMP_KEY) >= MAX_AGE_MS) {
+                return null;
+            }
+            final JSONArray items = ranking.getJSONArray(ITEMS_KEY);
+            final Ranking result = new Ranking(items.length());
+            for (int i = 0; i < items.length(); i++) {
+                final JSONObject item = items.getJSONObject(i);
+                final AppItem appItem = new AppItem(item.getInt(ITEM_KEY));
+                appItem.category = item.getInt(CATEGORY_KEY);
+                appItem.total = item.getLong(TOTAL_KEY);
+                appItem.restricted = item.getBoolean(RESTRICTED_KEY);
+                final JSONArray uids = item.getJSONArray(UIDS_KEY);
+                for (int j = 0; j < uids.length(); j++) {
+                    appItem.addUid(uids.getInt(j));
+                }
+                result.add(appItem, item.optString(LABEL_KEY, null));
+            }
+            return result;
+        } catch (JSONException e) {
+            Log.w(TAG, "Ignoring unreadable ranking", e);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the first items of {@code items}, sorted for display, as the usage of
+     * {@code template} between {@code start} and {@code end}. Resolves labels that
+     * {@code provider} doesn't have yet, so this must not be called on the main thread.
+     */
+    public void putRanking(NetworkTemplate template, long start, long end, List<AppItem> items,
+            UidDetailProvider provider) {
+        try {
+            final JSONArray storedItems = new JSONArray();
+            for (int i = 0, size = Math.min(items.size(), MAX_ITEMS); i < size; i++) {
+                final AppItem appItem = items.get(i);
+                final JSONObject item = new JSONObject();
+                item.put(ITEM_KEY, appItem.key);
+                item.put(CATEGORY_KEY, appItem.category);
+                item.put(TOTAL_KEY, appItem.total);
+                item.put(RESTRICTED_KEY, appItem.restricted);
+                final JSONArray uids = new JSONArray();
+                for (int j = 0; j < appItem.uids.size(); j++) {
+                    uids.put(appItem.uids.keyAt(j));
+                }
+                item.put(UIDS_KEY, uids);
+                final UidDetail detail = provider.getUidDetail(appItem.key, true);
+                if (detail != null && detail.label != null) {
+                    item.put(LABEL_KEY, detail.label.toString());
+                }
+                storedItems.put(item);
+            }
+            final JSONObject ranking = new JSONObject();
+            ranking.put(START_KEY, start);
+            ranking.put(END_KEY, end);
+            ranking.put(USER_ID_KEY, mUserId);
+            ranking.put(TIMESTAMP_KEY, mClock.getCurrentTime());
+            ranking.put(ITEMS_KEY, storedItems);
+            mSharedPreferences.edit().putString(getKey(template), ranking.toString()).apply();
+        } catch (JSONException e) {
+            Log.w(TAG, "Unable to store ranking", e);
+        }
+    }
+
+    /**
+     * Without a policy the newest cycle is the four weeks up to the end of the history, which
+     * moves forward with every bucket. So a stored four-week cycle matches any later one, and
+     * other cycles only match exactly.
+     */
+    @VisibleForTesting
+    static boolean isSameCycle(long storedStart, long storedEnd, long start, long end) {
+        if (storedStart == start && storedEnd == end) {
+            return true;
+        }
+        return storedEnd - storedStart == CycleAdapter.ROLLING_CYCLE_MS
+                && end - start == CycleAdapter.ROLLING_CYCLE_MS && end > storedEnd;
+    }
+
+    private static String getKey(NetworkTemplate template) {
+        return template.getMatchRule() + ":" + template.getSubscriberId() + ":"
+                + template.getNetworkId();
+    }
+
+    /**
+     * Stored items, sorted for display, and their labels.
+     */
+    public static class Ranking {
+        public final ArrayList<AppItem> items;
+        private final SparseArray<CharSequence> mLabels;
+        private long mLargest;
+
+        Ranking(int size) {
+            items = new ArrayList<>(size);
+            mLabels = new SparseArray<>(size);
+        }
+
+        void add(AppItem item, CharSequence label) {
+            items.add(item);
+            if (label != null) {
+                mLabels.put(item.key, label);
+            }
+            mLargest = Math.max(mLargest, item.total);
+        }
+
+        public long getLargest() {
+            return mLargest;
+        }
+
+        /**
+         * @return the label stored for the item with {@code key}, or {@code null}
+         */
+        public CharSequence getLabel(int key) {
+            return mLabels.get(key);
+        }
+    }
+
+    /** Clock provides the current time. */
+    static class Clock {
+        public long getCurrentTime() {
+            return System.currentTimeMillis();
+        }
+    }
+}
@@ -0,0 +1,203 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
+
+import android.app.ActivityManager;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.net.INetworkStatsService;
+import android.net.INetworkStatsSession;
+import android.net.NetworkPolicyManager;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.net.TrafficStats;
+import android.os.AsyncTask;
+import android.os.RemoteException;
+import android.os.ServiceManager;
+import android.os.UserManager;
+import android.telephony.SubscriptionManager;
+import android.text.format.DateUtils;
+import android.util.Log;
+import android.util.Pair;
+
+import com.android.settingslib.NetworkPolicyEditor;
+import com.android.settingslib.net.UidDetailProvider;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Stores the per-app usage of the current cycle of the mobile and Wi-Fi templates in
+ * {@link DataUsageRankingCache} while the device is idle, so {@link DataUsageList} opens with
+ * its list already filled in. The job cancels itself once data usage wasn't opened for
+ * {@link #MAX_UNUSED_MS} or there is nothing to store, until {@link DataUsageList} schedules it
+ * again.
+ */
+public class DataUsageRankingJobService extends JobService {
+    private static final String TAG = "DataUsageRankingJob";
+
+    private static final int JOB_ID = 0x44555241;
+    private static final long INTERVAL_MS = 12 * DateUtils.HOUR_IN_MILLIS;
+    private static final long MAX_UNUSED_MS = 7 * DateUtils.DAY_IN_MILLIS;
+
+    private static final String SHARED_PREFERENCES_NAME = "DataUsageRankingJob";
+    private static final String LAST_SCHEDULED_KEY = "last_scheduled";
+
+    private RankingTask mTask;
+
+    /**
+     * Schedules the job, unless it already is, and notes that data usage was opened.
+     */
+    public static void schedule(Context context) {
+        getSharedPreferences(context).edit()
+                .putLong(LAST_SCHEDULED_KEY, System.currentTimeMillis())
+                .apply();
+        final JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler == null || jobScheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, DataUsageRankingJobService.class))
+                .setRequiresDeviceIdle(true)
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final long lastScheduled = getSharedPreferences(this).getLong(LAST_SCHEDULED_KEY, 0);
+        if (System.currentTimeMillis() - lastScheduled >= MAX_UNUSED_MS
+                || getTemplates(this).isEmpty()) {
+            getSystemService(JobScheduler.class).cancel(JOB_ID);
+            return false;
+        }
+        mTask = new RankingTask(this, params);
+        mTask.executeOnExecutor(AsyncTask.THREAD_POOL_EXECUTOR);
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        if (mTask != null) {
+            mTask.cancel(false /* mayInterruptIfRunning */);
+            mTask = null;
+        }
+        return true;
+    }
+
+    /**
+     * Stores the usage of the newest cycle of each template that {@link DataUsageList} is
+     * likely to show.
+     */
+    static void updateRankings(Context context) {
+        final INetworkStatsService statsService = INetworkStatsService.Stub.asInterface(
+                ServiceManager.getService(Context.NETWORK_STATS_SERVICE));
+        final NetworkPolicyManager policyManager = NetworkPolicyManager.from(context);
+        final NetworkPolicyEditor policyEditor = new NetworkPolicyEditor(policyManager);
+        policyEditor.read();
+        final int[] restrictedUids =
+                policyManager.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND);
+        final UserManager userManager = UserManager.get(context);
+        final int currentUserId = ActivityManager.getCurrentUser();
+        final DataUsageRankingCache cache = new DataUsageRankingCache(context, currentUserId);
+        final UidDetailProvider provider = new UidDetailProvider(context);
+
+        INetworkStatsSession session = null;
+        try {
+            session = statsService.openSession();
+            for (NetworkTemplate template : getTemplates(context)) {
+                final NetworkStatsHistory history =
+                        NetworkStatsCache.getHistoryForNetwork(session, template);
+                final List<Pair<Long, Long>> cycles =
+                        CycleAdapter.getCycles(policyEditor.getPolicy(template), history);
+                if (cycles.isEmpty()) {
+                    continue;
+                }
+                // DataUsageList starts on the newest cycle.
+                final Pair<Long, Long> cycle = cycles.get(0);
+                final NetworkStats stats = NetworkStatsCache.getSummaryForAllUid(session,
+                        template, cycle.first, cycle.second);
+
+                final AppUsageCollapser collapser = new AppUsageCollapser(currentUserId,
+                        userManager.getUserProfiles(), userManager);
+                NetworkStats.Entry entry = null;
+                final int size = stats != null ? stats.size() : 0;
+                for (int i = 0; i < size; i++) {
+                    entry = stats.getValues(i, entry);
+                    collapser.add(entry);
+                }
+                for (int i = 0; i < restrictedUids.length; i++) {
+                    collapser.addRestricted(restrictedUids[i]);
+                }
+                cache.putRanking(template, cycle.first, cycle.second, collapser.getItems(),
+                        provider);
+            }
+        } catch (RemoteException e) {
+            Log.w(TAG, "Unable to read network stats", e);
+        } finally {
+            TrafficStats.closeQuietly(session);
+            provider.clearCache();
+        }
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+
+    private static List<NetworkTemplate> getTemplates(Context context) {
+        final List<NetworkTemplate> templates = new ArrayList<>();
+        final int subId = DataUsageUtils.getDefaultSubscriptionId(context);
+        if (DataUsageUtils.hasMobileData(context)
+                && subId != SubscriptionManager.INVALID_SUBSCRIPTION_ID) {
+            templates.add(DataUsageUtils.getDefaultTemplate(context, subId));
+        }
+        if (DataUsageUtils.hasWifiRadio(context)) {
+            templates.add(NetworkTemplate.buildTemplateWifiWildcard());
+        }
+        return templates;
+    }
+
+    private static class RankingTask extends AsyncTask<Void, Void, Void> {
+        private final JobService mService;
+        private final JobParameters mParams;
+
+        RankingTask(JobService service, JobParameters params) {
+            mService = service;
+            mParams = params;
+        }
+
+        @Override
+        protected Void doInBackground(Void... params) {
+            updateRankings(mService);
+            return null;
+        }
+
+        @Override
+        protected void onPostExecute(Void result) {
+            mService.jobFinished(mParams, false /* wantsReschedule */);
+        }
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import android.net.NetworkStatsHistory;
+
+import java.util.Arrays;
+import java.util.WeakHashMap;
+
+/**
+ * Running totals of the buckets of a {@link NetworkStatsHistory}, so the bytes used over any
+ * range take two binary searches instead of a scan of the history.
+ *
+ * Totals are the same as the ones {@link NetworkStatsHistory#getValues(long, long, long,
+ * NetworkStatsHistory.Entry)} adds up: buckets partially in the range count in proportion to
+ * their overlap, unless they are the bucket in progress.
+ */
+public class NetworkHistoryIndex {
+    // Indexes are built once per history and shared by the screens showing it.
+    private static final WeakHashMap<NetworkStatsHistory, NetworkHistoryIndex> sIndexes =
+            new WeakHashMap<>();
+
+    private final long mBucketDuration;
+    private final long[] mBucketStart;
+    private final long[] mRxBytes;
+    private final long[] mTxBytes;
+    // mTotalBytes[i] is the sum of the received and sent bytes of buckets 0 to i - 1.
+    private final long[] mTotalBytes;
+    private final long mHistoryStart;
+    private final long mHistoryEnd;
+
+    /**
+     * @return the index of {@code history}, built when first requested or after the history
+     * changed
+     */
+    public static NetworkHistoryIndex get(NetworkStatsHistory history) {
+        synchronized (sIndexes) {
+            NetworkHistoryIndex index = sIndexes.get(history);
+            if (index == null || !index.matches(history)) {
+                index = new NetworkHistoryIndex(history);
+                sIndexes.put(history, index);
+            }
+            return index;
+        }
+    }
+
+    NetworkHistoryIndex(NetworkStatsHistory history) {
+        final int size = history.size();
+        mBucketDuration = history.getBucketDuration();
+        mBucketStart = new long[size];
+        mRxBytes = new long[size];
+        mTxBytes = new long[size];
+        mTotalBytes = new long[size + 1];
+        NetworkStatsHistory.Entry entry = null;
+        for (int i = 0; i < size; i++) {
+            entry = history.getValues(i, entry);
+            mBucketStart[i] = entry.bucketStart;
+            // Histories loaded without a field report it as unknown; ranges count it as 0.
+            mRxBytes[i] = Math.max(entry.rxBytes, 0);
+            mTxBytes[i] = Math.max(entry.txBytes, 0);
+            mTotalBytes[i + 1] = mTotalBytes[i] + mRxBytes[i] + mTxBytes[i];
+        }
+        mHistoryStart = history.getStart();
+        mHistoryEnd = history.getEnd();
+    }
+
+    /**
+     * @return the bytes received and sent between {@code start} and {@code end}
+     */
+    public long getTotalBytes(long start, long end) {
+        return getTotalBytes(start, end, Long.MAX_VALUE);
+    }
+
+    /**
+     * @return the bytes received and sent between {@code start} and {@code end}, counting the
+     * whole bucket in progress at {@code now}
+     */
+    public long getTotalBytes(long start, long end, long now) {
+        // First bucket ending after start, and last bucket starting before end.
+        final int first = findFirstBucketAfter(start - mBucketDuration);
+        final int last = findFirstBucketAfter(end - 1) - 1;
+        if (first > last) {
+            return 0;
+        }
+        long totalBytes = getBucketBytes(first, start, end, now);
+        if (last > first) {
+            totalBytes += mTotalBytes[last] - mTotalBytes[first + 1];
+            totalBytes += getBucketBytes(last, start, end, now);
+        }
+        return totalBytes;
+    }
+
+    /**
+     * @return the bytes received and sent in buckets {@code first} to {@code last}, inclusive
+     */
+    public long getTotalBytes(int first, int last) {
+        first = Math.max(first, 0);
+        last = Math.min(last, mBucketStart.length - 1);
+        return first <= last ? mTotalBytes[last + 1] - mTotalBytes[first] : 0;
+    }
+
+    private boolean matches(NetworkStatsHistory history) {
+        return history.size() == mBucketStart.length
+                && history.getBucketDuration() == mBucketDuration
+                && history.getStart() == mHistoryStart
+                && history.getEnd() == mHistoryEnd;
+    }
+
+    /**
+     * @return the position of the first bucket starting after {@code time}
+     */
+    private int findFirstBucketAfter(long time) {
+        int index = Arrays.binarySearch(mBucketStart, time);
+        if (index >= 0) {
+            // Bucket starts are unique.
+            return index + 1;
+        }
+        return ~index;
+    }
+
+    private long getBucketBytes(int i, long start, long end, long now) {
+        final long curStart = mBucketStart[i];
+        final long curEnd = curStart + mBucketDuration;
+        final boolean activeBucket = curStart < now && curEnd > now;
+        final long overlap;
+        if (activeBucket) {
+            overlap = mBucketDuration;
+        } else {
+            final long overlapEnd = curEnd < end ? curEnd : end;
+            final long overlapStart = curStart > start ? curStart : start;
+            overlap = overlapEnd - overlapStart;
+        }
+        if (overlap <= 0) {
+            return 0;
+        }
+        // Same integer math as NetworkStatsHistory, so the totals match exactly.
+        return mRxBytes[i] * overlap / mBucketDuration + mTxBytes[i] * overlap / mBucketDuration;
+    }
+}
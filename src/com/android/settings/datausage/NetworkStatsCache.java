@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.NetworkStats.SET_ALL;
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.net.NetworkStats.TAG_NONE;
+import static android.net.NetworkStats.UID_ALL;
+import static android.net.NetworkStatsHistory.FIELD_RX_BYTES;
+import static android.net.NetworkStatsHistory.FIELD_TX_BYTES;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import android.content.Context;
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.Bundle;
+import android.os.RemoteException;
+import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+import android.util.ArrayMap;
+
+import com.android.settings.utils.AsyncLoader;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.ChartData;
+
+import java.util.ArrayList;
+import java.util.Objects;
+
+/**
+ * Network stats read from {@link INetworkStatsSession}, shared by the data usage screens for
+ * {@link #CACHE_TTL_MS}, so switching cycles, going back to a list or opening the usage of an app
+ * reuses what was already read instead of asking the stats service again.
+ *
+ * Cached stats are shared and must not be modified. {@link #invalidate(NetworkTemplate)} drops
+ * those of a template once the stats service polled new usage.
+ */
+public class NetworkStatsCache {
+    @VisibleForTesting
+    static final long CACHE_TTL_MS = 30 * DateUtils.SECOND_IN_MILLIS;
+
+    private static final int FIELDS = FIELD_RX_BYTES | FIELD_TX_BYTES;
+
+    private static final String KEY_TEMPLATE = "template";
+    private static final String KEY_APP = "app";
+    private static final String KEY_START = "start";
+    private static final String KEY_END = "end";
+
+    private static final ArrayMap<Key, CachedStats> sCache = new ArrayMap<>();
+
+    private NetworkStatsCache() {
+    }
+
+    /**
+     * @return the history of {@code template} for all uids
+     */
+    public static NetworkStatsHistory getHistoryForNetwork(INetworkStatsSession session,
+            NetworkTemplate template) throws RemoteException {
+        final Key key = new Key(template, UID_ALL, SET_ALL, 0, 0);
+        NetworkStatsHistory history = (NetworkStatsHistory) get(key);
+        if (history == null) {
+            history = session.getHistoryForNetwork(template, FIELDS);
+            put(key, history);
+        }
+        return history;
+    }
+
+    /**
+     * @return the history of {@code uid} in {@code set}, over {@code template}
+     */
+    public static NetworkStatsHistory getHistoryForUid(INetworkStatsSession session,
+            NetworkTemplate template, int uid, int set) throws RemoteException {
+        final Key key = new Key(template, uid, set, 0, 0);
+        NetworkStatsHistory history = (NetworkStatsHistory) get(key);
+        if (history == null) {
+            history = session.getHistoryForUid(template, uid, set, TAG_NONE, FIELDS);
+            put(key, history);
+        }
+        return history;
+    }
+
+    /**
+     * @return the usage of each uid between {@code start} and {@code end}, over
+     * {@code template}
+     */
+    public static NetworkStats getSummaryForAllUid(INetworkStatsSession session,
+            NetworkTemplate template, long start, long end) throws RemoteException {
+        final Key key = new Key(template, UID_ALL, SET_ALL, start, end);
+        NetworkStats stats = (NetworkStats) get(key);
+        if (stats == null) {
+            stats = session.getSummaryForAllUid(template, start, end, false);
+            put(key, stats);
+        }
+        return stats;
+    }
+
+    /**
+     * Drops the cached stats of {@code template}, e.g. after the stats service was asked to poll.
+     */
+    public static void invalidate(NetworkTemplate template) {
+        synchronized (sCache) {
+            for (int i = sCache.size() - 1; i >= 0; i--) {
+                if (Objects.equals(sCache.keyAt(i).mTemplate, template)) {
+                    sCache.removeAt(i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Drops all cached stats.
+     */
+    @VisibleForTesting
+    static void invalidate() {
+        synchronized (sCache) {
+            sCache.clear();
+        }
+    }
+
+    @VisibleForTesting
+    static int getCachedCount() {
+        synchronized (sCache) {
+            return sCache.size();
+        }
+    }
+
+    private static Object get(Key key) {
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (sCache) {
+            final CachedStats cached = sCache.get(key);
+            if (cached == null) {
+                return null;
+            }
+            if (now - cached.mLoadTime >= CACHE_TTL_MS) {
+                sCache.remove(key);
+                return null;
+            }
+            return cached.mStats;
+        }
+    }
+
+    private static void put(Key key, Object stats) {
+        if (stats == null) {
+            return;
+        }
+        final long now = SystemClock.elapsedRealtime();
+        synchronized (sCache) {
+            // Expired stats are otherwise only dropped when the same key is read again.
+            for (int i = sCache.size() - 1; i >= 0; i--) {
+                if (now - sCache.valueAt(i).mLoadTime >= CACHE_TTL_MS) {
+                    sCache.removeAt(i);
+                }
+            }
+            sCache.put(key, new CachedStats(stats, now));
+        }
+    }
+
+    /**
+     * Loads the {@link ChartData} of a template and optionally an app, like
+     * {@link com.android.settingslib.net.ChartDataLoader}, through the cache.
+     */
+    public static class ChartLoader extends AsyncLoader<ChartData> {
+        private final INetworkStatsSession mSession;
+        private final Bundle mArgs;
+
+        public static Bundle buildArgs(NetworkTemplate template, AppItem app) {
+            final Bundle args = new Bundle();
+            args.putParcelable(KEY_TEMPLATE, template);
+            args.putParcelable(KEY_APP, app);
+            return args;
+        }
+
+        public ChartLoader(Context context, INetworkStatsSession session, Bundle args) {
+            super(context);
+            mSession = session;
+            mArgs = args;
+        }
+
+        @Override
+        public ChartData loadInBackground() {
+            final NetworkTemplate template = mArgs.getParcelable(KEY_TEMPLATE);
+            final AppItem app = mArgs.getParcelable(KEY_APP);
+            try {
+                return loadChartData(template, app);
+            } catch (RemoteException e) {
+                // since we can't do much without history, and we don't want to
+                // leave with half-baked UI, we bail hard.
+                throw new RuntimeException("problem reading network stats", e);
+            }
+        }
+
+        private ChartData loadChartData(NetworkTemplate template, AppItem app)
+                throws RemoteException {
+            final ChartData data = new ChartData();
+            data.network = getHistoryForNetwork(mSession, template);
+
+            if (app != null) {
+                final int size = app.uids.size();
+                if (size > 0) {
+                    final ArrayList<NetworkStatsHistory> defaults = new ArrayList<>(size);
+                    final ArrayList<NetworkStatsHistory> foregrounds = new ArrayList<>(size);
+                    for (int i = 0; i < size; i++) {
+                        final int uid = app.uids.keyAt(i);
+                        defaults.add(getHistoryForUid(mSession, template, uid, SET_DEFAULT));
+                        foregrounds.add(getHistoryForUid(mSession, template, uid,
+                                SET_FOREGROUND));
+                    }
+                    data.detailDefault = combine(defaults);
+                    data.detailForeground = combine(foregrounds);
+                    data.detail = new NetworkStatsHistory(
+                            data.detailForeground.getBucketDuration());
+                    data.detail.recordEntireHistory(data.detailDefault);
+                    data.detail.recordEntireHistory(data.detailForeground);
+                } else {
+                    data.detailDefault = new NetworkStatsHistory(HOUR_IN_MILLIS);
+                    data.detailForeground = new NetworkStatsHistory(HOUR_IN_MILLIS);
+                    data.detail = new NetworkStatsHistory(HOUR_IN_MILLIS);
+                }
+            }
+            return data;
+        }
+
+        /**
+         * @return the only history, or a new one with all of them, leaving cached ones unchanged
+         */
+        private static NetworkStatsHistory combine(ArrayList<NetworkStatsHistory> histories) {
+            if (histories.size() == 1) {
+                return histories.get(0);
+            }
+            final NetworkStatsHistory combined =
+                    new NetworkStatsHistory(histories.get(0).getBucketDuration());
+            for (int i = 0; i < histories.size(); i++) {
+                combined.recordEntireHistory(histories.get(i));
+            }
+            return combined;
+        }
+
+        @Override
+        protected void onDiscardResult(ChartData result) {
+        }
+    }
+
+    /**
+     * Loads the usage of each uid over a template and range, like
+     * {@link com.android.settingslib.net.SummaryForAllUidLoader}, through the cache.
+     */
+    public static class UidSummaryLoader extends AsyncLoader<NetworkStats> {
+        private final INetworkStatsSession mSession;
+        private final Bundle mArgs;
+
+        public static Bundle buildArgs(NetworkTemplate template, long start, long end) {
+            final Bundle args = new Bundle();
+            args.putParcelable(KEY_TEMPLATE, template);
+            args.putLong(KEY_START, start);
+            args.putLong(KEY_END, end);
+            return args;
+        }
+
+        public UidSummaryLoader(Context context, INetworkStatsSession session, Bundle args) {
+            super(context);
+            mSession = session;
+            mArgs = args;
+        }
+
+        public long getStart() {
+            return mArgs.getLong(KEY_START);
+        }
+
+        public long getEnd() {
+            return mArgs.getLong(KEY_END);
+        }
+
+        @Override
+        public NetworkStats loadInBackground() {
+            final NetworkTemplate template = mArgs.getParcelable(KEY_TEMPLATE);
+            final long start = mArgs.getLong(KEY_START);
+            final long end = mArgs.getLong(KEY_END);
+            try {
+                return getSummaryForAllUid(mSession, template, start, end);
+            } catch (RemoteException e) {
+                return null;
+            }
+        }
+
+        @Override
+        protected void onDiscardResult(NetworkStats result) {
+        }
+    }
+
+    private static class Key {
+        private final NetworkTemplate mTemplate;
+        private final int mUid;
+        private final int mSet;
+        private final long mStart;
+        private final long mEnd;
+
+        Key(NetworkTemplate template, int uid, int set, long start, long end) {
+            mTemplate = template;
+            mUid = uid;
+            mSet = set;
+            mStart = start;
+            mEnd = end;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return mUid == other.mUid && mSet == other.mSet && mStart == other.mStart
+                    && mEnd == other.mEnd && Objects.equals(mTemplate, other.mTemplate);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(mTemplate, mUid, mSet, mStart, mEnd);
+        }
+    }
+
+    private static class CachedStats {
+        final Object mStats;
+        final long mLoadTime;
+
+        CachedStats(Object stats, long loadTime) {
+            mStats = stats;
+            mLoadTime = loadTime;
+        }
+    }
+}
@@ -20,7 +20,9 @@ import android.os.Bundle;
 import android.os.UserHandle;
 import android.support.v14.preference.SwitchPreference;
 import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceScreen;
 import android.support.v7.preference.PreferenceViewHolder;
+import android.util.SparseArray;
 import android.view.Menu;
 import android.view.MenuInflater;
 import android.view.MenuItem;
@@ -54,6 +56,9 @@ public class UnrestrictedDataAccess extends SettingsPreferenceFragment
     private boolean mShowSystem;
     private boolean mExtraLoaded;
     private AppFilter mFilter;
+    // Preferences of each uid, so policy changes only update the preferences of their uid.
+    private final SparseArray<ArrayList<AccessPreference>> mPreferencesByUid =
+            new SparseArray<>();
 
     @Override
     public void onCreate(Bundle icicle) {
@@ -64,6 +69,7 @@ public class UnrestrictedDataAccess extends SettingsPreferenceFragment
                 (Application) getContext().getApplicationContext());
         mDataSaverBackend = new DataSaverBackend(getContext());
         mDataUsageBridge = new AppStateDataUsageBridge(mApplicationsState, this, mDataSaverBackend);
+        mDataSaverBackend.addListener(mDataSaverListener);
         mSession = mApplicationsState.newSession(this);
         mShowSystem = icicle != null && icicle.getBoolean(EXTRA_SHOW_SYSTEM);
         mFilter = mShowSystem ? ApplicationsState.FILTER_ALL_ENABLED
@@ -123,6 +129,7 @@ public class UnrestrictedDataAccess extends SettingsPreferenceFragment
     @Override
     public void onDestroy() {
         super.onDestroy();
+        mDataSaverBackend.remListener(mDataSaverListener);
         mSession.release();
         mDataUsageBridge.release();
     }
@@ -179,6 +186,26 @@ public class UnrestrictedDataAccess extends SettingsPreferenceFragment
         }
         setLoading(false, true);
         removeCachedPrefs(getPreferenceScreen());
+        updatePreferencesByUid();
+    }
+
+    private void updatePreferencesByUid() {
+        mPreferencesByUid.clear();
+        final PreferenceScreen screen = getPreferenceScreen();
+        for (int i = 0; i < screen.getPreferenceCount(); i++) {
+            final Preference preference = screen.getPreference(i);
+            if (!(preference instanceof AccessPreference)) {
+                continue;
+            }
+            final AccessPreference accessPreference = (AccessPreference) preference;
+            final int uid = accessPreference.mEntry.info.uid;
+            ArrayList<AccessPreference> preferences = mPreferencesByUid.get(uid);
+            if (preferences == null) {
+                preferences = new ArrayList<>(1);
+                mPreferencesByUid.put(uid, preferences);
+            }
+            preferences.add(accessPreference);
+        }
     }
 
     @Override
@@ -238,7 +265,35 @@ public class UnrestrictedDataAccess extends SettingsPreferenceFragment
         return app != null && UserHandle.isApp(app.info.uid);
     }
 
-    private class AccessPreference extends SwitchPreference implements DataSaverBackend.Listener {
+    private final DataSaverBackend.Listener mDataSaverListener = new DataSaverBackend.Listener() {
+        @Override
+        public void onDataSaverChanged(boolean isDataSaving) {
+        }
+
+        @Override
+        public void onWhitelistStatusChanged(int uid, boolean isWhitelisted) {
+            final ArrayList<AccessPreference> preferences = mPreferencesByUid.get(uid);
+            if (preferences == null) {
+                return;
+            }
+            for (int i = 0; i < preferences.size(); i++) {
+                preferences.get(i).setWhitelisted(isWhitelisted);
+            }
+        }
+
+        @Override
+        public void onBlacklistStatusChanged(int uid, boolean isBlacklisted) {
+            final ArrayList<AccessPreference> preferences = mPreferencesByUid.get(uid);
+            if (preferences == null) {
+                return;
+            }
+            for (int i = 0; i < preferences.size(); i++) {
+                preferences.get(i).setBlacklisted(isBlacklisted);
+            }
+        }
+    };
+
+    private class AccessPreference extends SwitchPreference {
         private final AppEntry mEntry;
         private final DataUsageState mState;
 
@@ -253,18 +308,6 @@ public class UnrestrictedDataAccess extends SettingsPreferenceFragment
             }
         }
 
-        @Override
-        public void onAttached() {
-            super.onAttached();
-            mDataSaverBackend.addListener(this);
-        }
-
-        @Override
-        public void onDetached() {
-            mDataSaverBackend.remListener(this);
-            super.onDetached();
-        }
-
         @Override
         protected void onClick() {
             if (mState.isDataSaverBlacklisted) {
@@ -317,21 +360,15 @@ public class UnrestrictedDataAccess extends SettingsPreferenceFragment
             super.onBindViewHolder(holder);
         }
 
-        @Override
-        public void onDataSaverChanged(boolean isDataSaving) {
-        }
-
-        @Override
-        public void onWhitelistStatusChanged(int uid, boolean isWhitelisted) {
-            if (mState != null && mEntry.info.uid == uid) {
+        void setWhitelisted(boolean isWhitelisted) {
+            if (mState != null) {
                 mState.isDataSaverWhitelisted = isWhitelisted;
                 reuse();
             }
         }
 
-        @Override
-        public void onBlacklistStatusChanged(int uid, boolean isBlacklisted) {
-            if (mState != null && mEntry.info.uid == uid) {
+        void setBlacklisted(boolean isBlacklisted) {
+            if (mState != null) {
                 mState.isDataSaverBlacklisted = isBlacklisted;
                 reuse();
             }
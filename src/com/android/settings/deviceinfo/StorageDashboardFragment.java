@@ -69,6 +69,8 @@ public class StorageDashboardFragment extends DashboardFragment
     private VolumeInfo mVolume;
     private PrivateStorageInfo mStorageInfo;
     private SparseArray<StorageAsyncLoader.AppsStorageResult> mAppsResult;
+    // The user whose values in mAppsResult are the partial totals of a load in progress.
+    private int mPartialAppsUserId = UserHandle.USER_NULL;
     private CachedStorageValuesHelper mCachedStorageValuesHelper;
 
     private StorageSummaryDonutPreferenceController mSummaryController;
@@ -243,17 +245,61 @@ public class StorageDashboardFragment extends DashboardFragment
     public Loader<SparseArray<StorageAsyncLoader.AppsStorageResult>> onCreateLoader(int id,
             Bundle args) {
         Context context = getContext();
-        return new StorageAsyncLoader(context,
+        final StorageAsyncLoader loader = new StorageAsyncLoader(context,
                 new UserManagerWrapperImpl(context.getSystemService(UserManager.class)),
                 mVolume.fsUuid,
                 new StorageStatsSource(context),
                 new PackageManagerWrapperImpl(context.getPackageManager()));
+        loader.setPartialResultListener(this::onPartialAppsResult);
+        return loader;
+    }
+
+    private void onPartialAppsResult(SparseArray<StorageAsyncLoader.AppsStorageResult> partial,
+            int loadingUserId) {
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> merged =
+                mergeAppsResults(partial, mAppsResult);
+        int partialUserId = loadingUserId;
+        if (loadingUserId != mPartialAppsUserId && mAppsResult != null) {
+            final StorageAsyncLoader.AppsStorageResult complete = mAppsResult.get(loadingUserId);
+            if (complete != null) {
+                // Keep showing complete values, e.g. cached ones, rather than growing totals.
+                merged.put(loadingUserId, complete);
+                partialUserId = UserHandle.USER_NULL;
+            }
+        }
+        // Wait for the final result if there is nothing to show for this user yet.
+        if (merged.get(UserHandle.myUserId()) == null) {
+            return;
+        }
+        mAppsResult = merged;
+        mPartialAppsUserId = partialUserId;
+        onReceivedSizes();
+    }
+
+    /**
+     * @return the users of {@code partial}, plus the previously loaded or cached values of the
+     * users that are still loading
+     */
+    @VisibleForTesting
+    static SparseArray<StorageAsyncLoader.AppsStorageResult> mergeAppsResults(
+            SparseArray<StorageAsyncLoader.AppsStorageResult> partial,
+            SparseArray<StorageAsyncLoader.AppsStorageResult> previous) {
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> merged = partial.clone();
+        if (previous != null) {
+            for (int i = 0, size = previous.size(); i < size; i++) {
+                if (merged.indexOfKey(previous.keyAt(i)) < 0) {
+                    merged.put(previous.keyAt(i), previous.valueAt(i));
+                }
+            }
+        }
+        return merged;
     }
 
     @Override
     public void onLoadFinished(Loader<SparseArray<StorageAsyncLoader.AppsStorageResult>> loader,
             SparseArray<StorageAsyncLoader.AppsStorageResult> data) {
         mAppsResult = data;
+        mPartialAppsUserId = UserHandle.USER_NULL;
         maybeCacheFreshValues();
         onReceivedSizes();
     }
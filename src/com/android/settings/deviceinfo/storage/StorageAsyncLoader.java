@@ -25,9 +25,15 @@ import android.content.Context;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
 import android.content.pm.UserInfo;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
 import android.os.UserHandle;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.Pair;
 import android.util.SparseArray;
 
 import com.android.settings.applications.PackageManagerWrapper;
@@ -36,39 +42,97 @@ import com.android.settings.utils.AsyncLoader;
 import com.android.settingslib.applications.StorageStatsSource;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
 
 /**
  * StorageAsyncLoader is a Loader which loads categorized app information and external stats for all
- * users
+ * users. Users, and chunks of {@link #PACKAGES_PER_TASK} apps of each user, are queried in parallel
+ * on a pool of this loader's own. The totals so far are published through a {@link PartialResultListener} as
+ * each chunk is added up, so the categories fill in before all apps are done.
  */
 public class StorageAsyncLoader
         extends AsyncLoader<SparseArray<StorageAsyncLoader.AppsStorageResult>> {
     private UserManagerWrapper mUserManager;
     private static final String TAG = "StorageAsyncLoader";
+    @VisibleForTesting
+    static final int PACKAGES_PER_TASK = 32;
+    private static final int POOL_SIZE = 4;
+    // Queries that don't fit are dropped by the pool and run by the loader when it gets to them.
+    private static final int MAX_QUEUED_TASKS = 64;
+    private static final long KEEP_ALIVE_SECONDS = 1;
 
     private String mUuid;
     private StorageStatsSource mStatsManager;
     private PackageManagerWrapper mPackageManager;
     private ArraySet<String> mSeenPackages;
+    // Null to start a pool for each load.
+    private final Executor mExecutor;
+    private Handler mHandler;
+    private volatile PartialResultListener mPartialResultListener;
+    // The newest partial result not delivered yet, with the id of the user still loading. While
+    // it is set, a delivery is posted.
+    private final AtomicReference<Pair<SparseArray<AppsStorageResult>, Integer>>
+            mPendingPartialResult = new AtomicReference<>();
 
     public StorageAsyncLoader(Context context, UserManagerWrapper userManager,
             String uuid, StorageStatsSource source, PackageManagerWrapper pm) {
+        this(context, userManager, uuid, source, pm, null /* executor */);
+    }
+
+    @VisibleForTesting
+    StorageAsyncLoader(Context context, UserManagerWrapper userManager,
+            String uuid, StorageStatsSource source, PackageManagerWrapper pm,
+            @Nullable Executor executor) {
         super(context);
         mUserManager = userManager;
         mUuid = uuid;
         mStatsManager = source;
         mPackageManager = pm;
+        mExecutor = executor;
+    }
+
+    /**
+     * Receives the totals loaded so far, on the main thread, while the rest are still loading.
+     */
+    public void setPartialResultListener(PartialResultListener listener) {
+        mPartialResultListener = listener;
+        if (listener != null && mHandler == null) {
+            mHandler = new Handler(Looper.getMainLooper());
+        }
     }
 
     @Override
     public SparseArray<AppsStorageResult> loadInBackground() {
-        return loadApps();
+        if (mExecutor != null) {
+            return loadApps(mExecutor);
+        }
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(POOL_SIZE, POOL_SIZE,
+                KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(MAX_QUEUED_TASKS),
+                r -> new Thread(() -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    r.run();
+                }, TAG),
+                new ThreadPoolExecutor.DiscardPolicy());
+        try {
+            return loadApps(executor);
+        } finally {
+            // Every query was waited for by now, unless loading failed.
+            executor.shutdownNow();
+        }
     }
 
-    private SparseArray<AppsStorageResult> loadApps() {
+    private SparseArray<AppsStorageResult> loadApps(Executor executor) {
         mSeenPackages = new ArraySet<>();
         SparseArray<AppsStorageResult> result = new SparseArray<>();
         List<UserInfo> infos = mUserManager.getUsers();
@@ -81,25 +145,72 @@ public class StorageAsyncLoader
                         return Integer.compare(userInfo.id, otherUser.id);
                     }
                 });
+
+        // Query every user at once, but add up the results in user order: code size is blamed
+        // on the first user with the app.
+        final List<List<FutureTask<List<PackageSize>>>> userTasks = new ArrayList<>();
+        final List<FutureTask<StorageStatsSource.ExternalStorageStats>> externalTasks =
+                new ArrayList<>();
+        for (int i = 0, userCount = infos.size(); i < userCount; i++) {
+            userTasks.add(startPackageQueries(executor, infos.get(i).id));
+            externalTasks.add(startExternalQuery(executor, infos.get(i).id));
+        }
         for (int i = 0, userCount = infos.size(); i < userCount; i++) {
-            UserInfo info = infos.get(i);
-            result.put(info.id, getStorageResultForUser(info.id));
+            final AppsStorageResult userResult = new AppsStorageResult();
+            // Partial results are shown with the external stats, so wait for those first.
+            userResult.externalStats = await(externalTasks.get(i));
+            result.put(infos.get(i).id, userResult);
+            final List<FutureTask<List<PackageSize>>> tasks = userTasks.get(i);
+            for (int j = 0, taskCount = tasks.size(); j < taskCount; j++) {
+                addPackageSizes(userResult, await(tasks.get(j)));
+                if (j < taskCount - 1) {
+                    publishPartialResult(result, infos.get(i).id);
+                } else if (i < userCount - 1) {
+                    publishPartialResult(result, UserHandle.USER_NULL);
+                }
+            }
         }
+        Log.d(TAG, "Obtaining result completed");
         return result;
     }
 
-    private AppsStorageResult getStorageResultForUser(int userId) {
+    private List<FutureTask<List<PackageSize>>> startPackageQueries(Executor executor,
+            int userId) {
         Log.d(TAG, "Loading apps");
-        List<ApplicationInfo> applicationInfos =
+        final List<ApplicationInfo> applicationInfos =
                 mPackageManager.getInstalledApplicationsAsUser(0, userId);
-        AppsStorageResult result = new AppsStorageResult();
-        UserHandle myUser = UserHandle.of(userId);
-        for (int i = 0, size = applicationInfos.size(); i < size; i++) {
-            ApplicationInfo app = applicationInfos.get(i);
+        final UserHandle user = UserHandle.of(userId);
+        final List<FutureTask<List<PackageSize>>> tasks = new ArrayList<>();
+        for (int start = 0, size = applicationInfos.size(); start < size;
+                start += PACKAGES_PER_TASK) {
+            final List<ApplicationInfo> chunk = applicationInfos.subList(
+                    start, Math.min(start + PACKAGES_PER_TASK, size));
+            tasks.add(execute(executor, () -> getPackageSizes(chunk, user)));
+        }
+        return tasks;
+    }
+
+    private FutureTask<StorageStatsSource.ExternalStorageStats> startExternalQuery(
+            Executor executor, int userId) {
+        return execute(executor, () -> {
+            Log.d(TAG, "Loading external stats");
+            try {
+                return mStatsManager.getExternalStorageStats(mUuid, UserHandle.of(userId));
+            } catch (IOException e) {
+                Log.w(TAG, e);
+                return null;
+            }
+        });
+    }
+
+    private List<PackageSize> getPackageSizes(List<ApplicationInfo> apps, UserHandle user) {
+        final List<PackageSize> sizes = new ArrayList<>(apps.size());
+        for (int i = 0, size = apps.size(); i < size; i++) {
+            ApplicationInfo app = apps.get(i);
 
             StorageStatsSource.AppStorageStats stats;
             try {
-                stats = mStatsManager.getStatsForPackage(mUuid, app.packageName, myUser);
+                stats = mStatsManager.getStatsForPackage(mUuid, app.packageName, user);
             } catch (NameNotFoundException | IOException e) {
                 // This may happen if the package was removed during our calculation.
                 Log.w(TAG, "App unexpectedly not found", e);
@@ -117,11 +228,21 @@ public class StorageAsyncLoader
             if (cacheQuota < cacheBytes) {
                 blamedSize = blamedSize - cacheBytes + cacheQuota;
             }
+            sizes.add(new PackageSize(app, blamedSize, stats.getCodeBytes()));
+        }
+        return sizes;
+    }
+
+    private void addPackageSizes(AppsStorageResult result, List<PackageSize> sizes) {
+        for (int i = 0, size = sizes.size(); i < size; i++) {
+            final PackageSize packageSize = sizes.get(i);
+            final ApplicationInfo app = packageSize.mApp;
+            long blamedSize = packageSize.mBlamedSize;
 
             // This isn't quite right because it slams the first user by user id with the whole code
             // size, but this ensures that we count all apps seen once.
             if (!mSeenPackages.contains(app.packageName)) {
-                blamedSize += stats.getCodeBytes();
+                blamedSize += packageSize.mCodeSize;
                 mSeenPackages.add(app.packageName);
             }
 
@@ -148,16 +269,67 @@ public class StorageAsyncLoader
                     break;
             }
         }
+    }
 
-        Log.d(TAG, "Loading external stats");
+    private static <T> FutureTask<T> execute(Executor executor, Callable<T> callable) {
+        final FutureTask<T> task = new FutureTask<>(callable);
+        executor.execute(task);
+        return task;
+    }
+
+    /**
+     * Waits for {@code task}, running it here if the pool didn't get to it yet or dropped it
+     * because its queue was full.
+     */
+    private static <T> T await(FutureTask<T> task) {
+        // Does nothing if the pool already started it.
+        task.run();
         try {
-            result.externalStats = mStatsManager.getExternalStorageStats(mUuid,
-                    UserHandle.of(userId));
-        } catch (IOException e) {
-            Log.w(TAG, e);
+            return task.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while loading storage stats", e);
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Failed to load storage stats", e.getCause());
         }
-        Log.d(TAG, "Obtaining result completed");
-        return result;
+    }
+
+    /**
+     * Posts a copy of {@code result} to the listener. Results published before the previous one
+     * was delivered replace it, so the main thread only handles the newest totals.
+     */
+    private void publishPartialResult(SparseArray<AppsStorageResult> result, int loadingUserId) {
+        final PartialResultListener listener = mPartialResultListener;
+        if (listener == null || isLoadInBackgroundCanceled()) {
+            return;
+        }
+        if (mPendingPartialResult.getAndSet(Pair.create(copyOf(result), loadingUserId)) != null) {
+            return;
+        }
+        mHandler.post(() -> {
+            final Pair<SparseArray<AppsStorageResult>, Integer> partial =
+                    mPendingPartialResult.getAndSet(null);
+            if (partial != null && isStarted() && !isAbandoned()) {
+                listener.onPartialResult(partial.first, partial.second);
+            }
+        });
+    }
+
+    private static SparseArray<AppsStorageResult> copyOf(SparseArray<AppsStorageResult> result) {
+        final SparseArray<AppsStorageResult> copy = new SparseArray<>(result.size());
+        for (int i = 0, size = result.size(); i < size; i++) {
+            final AppsStorageResult original = result.valueAt(i);
+            final AppsStorageResult userCopy = new AppsStorageResult();
+            userCopy.gamesSize = original.gamesSize;
+            userCopy.musicAppsSize = original.musicAppsSize;
+            userCopy.photosAppsSize = original.photosAppsSize;
+            userCopy.videoAppsSize = original.videoAppsSize;
+            userCopy.otherAppsSize = original.otherAppsSize;
+            userCopy.cacheSize = original.cacheSize;
+            userCopy.externalStats = original.externalStats;
+            copy.put(result.keyAt(i), userCopy);
+        }
+        return copy;
     }
 
     @Override
@@ -174,6 +346,34 @@ public class StorageAsyncLoader
         public StorageStatsSource.ExternalStorageStats externalStats;
     }
 
+    /**
+     * PartialResultListener receives the totals of the apps added up so far while
+     * {@link StorageAsyncLoader} is still loading the others.
+     */
+    public interface PartialResultListener {
+        /**
+         * @param result the totals of the users loaded so far
+         * @param loadingUserId the user of {@code result} that only has the totals of some of
+         *         its apps, or {@link UserHandle#USER_NULL} if all of them are complete
+         */
+        void onPartialResult(SparseArray<AppsStorageResult> result, int loadingUserId);
+    }
+
+    /**
+     * Size of one app, before its code size was attributed to a user.
+     */
+    private static class PackageSize {
+        final ApplicationInfo mApp;
+        final long mBlamedSize;
+        final long mCodeSize;
+
+        PackageSize(ApplicationInfo app, long blamedSize, long codeSize) {
+            mApp = app;
+            mBlamedSize = blamedSize;
+            mCodeSize = codeSize;
+        }
+    }
+
     /**
      * ResultHandler defines a destination of data which can handle a result from
      * {@link StorageAsyncLoader}.
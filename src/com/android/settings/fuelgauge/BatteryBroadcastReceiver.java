@@ -68,6 +68,11 @@ public class BatteryBroadcastReceiver extends BroadcastReceiver {
     }
 
     private void updateBatteryStatus(Intent intent, boolean forceUpdate) {
+        if (intent != null && Intent.ACTION_BATTERY_CHANGED.equals(intent.getAction())) {
+            // Feeds the estimator history, see BatterySampleJobService for when no screen is open.
+            BatteryRemainingTimeEstimator.recordInBackground(mContext, intent,
+                    null /* onRecorded */);
+        }
         if (intent != null && mBatteryListener != null && Intent.ACTION_BATTERY_CHANGED.equals(
                 intent.getAction())) {
             String batteryLevel = Utils.getBatteryPercentage(intent);
@@ -81,5 +86,4 @@ public class BatteryBroadcastReceiver extends BroadcastReceiver {
             }
         }
     }
-
-}
\ No newline at end of file
+}
@@ -17,7 +17,10 @@
 package com.android.settings.fuelgauge;
 
 import android.app.AppGlobals;
+import android.content.BroadcastReceiver;
 import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.IPackageManager;
 import android.content.pm.PackageInfo;
@@ -30,14 +33,18 @@ import android.os.Process;
 import android.os.RemoteException;
 import android.os.UserHandle;
 import android.os.UserManager;
+import android.support.annotation.VisibleForTesting;
 import android.util.Log;
+import android.util.LruCache;
 
 import com.android.internal.os.BatterySipper;
 import com.android.settings.R;
 import com.android.settingslib.Utils;
 
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.ArrayDeque;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Wraps the power usage data of a BatterySipper with information about package name
@@ -50,71 +57,140 @@ public class BatteryEntry {
     private static final String TAG = "BatteryEntry";
     private static final String PACKAGE_SYSTEM = "android";
 
-    static final HashMap<String,UidToDetail> sUidCache = new HashMap<String,UidToDetail>();
+    private static final int MAX_LOADER_THREADS = 2;
+    private static final int MAX_UID_CACHE_SIZE = 256;
+    private static final long LOADER_KEEP_ALIVE_SECONDS = 10;
 
-    static final ArrayList<BatteryEntry> mRequestQueue = new ArrayList<BatteryEntry>();
+    /**
+     * Resolved name and icon per uid. It is kept across visits to the battery screens and only
+     * evicted when a package of that uid changes, the locale changes or the cache is full.
+     */
+    static final LruCache<Integer, UidToDetail> sUidCache = new LruCache<>(MAX_UID_CACHE_SIZE);
+
+    static final ArrayDeque<BatteryEntry> sRequestQueue = new ArrayDeque<>();
     static Handler sHandler;
 
-    static private class NameAndIconLoader extends Thread {
-        private boolean mAbort = false;
+    private static ThreadPoolExecutor sExecutor;
+    private static BroadcastReceiver sCacheInvalidator;
+    // Bumped every time the queue is (re)started or stopped so stale loaders bail out.
+    private static int sRequestGeneration;
+    private static int sActiveLoaders;
 
-        public NameAndIconLoader() {
-            super("BatteryUsage Icon Loader");
-        }
+    private static class NameAndIconLoader implements Runnable {
+        private final int mGeneration;
 
-        public void abort() {
-            mAbort = true;
+        NameAndIconLoader(int generation) {
+            mGeneration = generation;
         }
 
         @Override
         public void run() {
             while (true) {
                 BatteryEntry be;
-                synchronized (mRequestQueue) {
-                    if (mRequestQueue.isEmpty() || mAbort) {
-                        if (sHandler != null) {
+                synchronized (sRequestQueue) {
+                    if (mGeneration != sRequestGeneration) {
+                        return;
+                    }
+                    be = sRequestQueue.pollFirst();
+                    if (be == null) {
+                        if (--sActiveLoaders == 0 && sHandler != null) {
                             sHandler.sendEmptyMessage(MSG_REPORT_FULLY_DRAWN);
                         }
-                        mRequestQueue.clear();
                         return;
                     }
-                    be = mRequestQueue.remove(0);
                 }
                 be.loadNameAndIcon();
             }
         }
     }
 
-    private static NameAndIconLoader mRequestThread;
+    private static ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            sExecutor = new ThreadPoolExecutor(MAX_LOADER_THREADS, MAX_LOADER_THREADS,
+                    LOADER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+                    r -> {
+                        final Thread thread = new Thread(r, "BatteryUsage Icon Loader");
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    });
+            sExecutor.allowCoreThreadTimeOut(true);
+        }
+        return sExecutor;
+    }
 
     public static void startRequestQueue() {
         if (sHandler != null) {
-            synchronized (mRequestQueue) {
-                if (!mRequestQueue.isEmpty()) {
-                    if (mRequestThread != null) {
-                        mRequestThread.abort();
+            synchronized (sRequestQueue) {
+                if (!sRequestQueue.isEmpty()) {
+                    final int generation = ++sRequestGeneration;
+                    sActiveLoaders = Math.min(sRequestQueue.size(), MAX_LOADER_THREADS);
+                    final ThreadPoolExecutor executor = getExecutor();
+                    for (int i = 0; i < sActiveLoaders; i++) {
+                        executor.execute(new NameAndIconLoader(generation));
                     }
-                    mRequestThread = new NameAndIconLoader();
-                    mRequestThread.setPriority(Thread.MIN_PRIORITY);
-                    mRequestThread.start();
-                    mRequestQueue.notify();
                 }
             }
         }
     }
 
     public static void stopRequestQueue() {
-        synchronized (mRequestQueue) {
-            if (mRequestThread != null) {
-                mRequestThread.abort();
-                mRequestThread = null;
-                sHandler = null;
+        synchronized (sRequestQueue) {
+            sRequestGeneration++;
+            sActiveLoaders = 0;
+            sRequestQueue.clear();
+            sHandler = null;
+        }
+    }
+
+    /**
+     * Moves a pending request to the head of the queue, so entries that are currently on screen
+     * get their name and icon before the ones that still need to be scrolled to.
+     */
+    public static void prioritizeRequest(BatteryEntry entry) {
+        synchronized (sRequestQueue) {
+            if (sRequestQueue.peekFirst() != entry && sRequestQueue.remove(entry)) {
+                sRequestQueue.addFirst(entry);
             }
         }
     }
 
     public static void clearUidCache() {
-        sUidCache.clear();
+        sUidCache.evictAll();
+    }
+
+    private static void registerCacheInvalidator(Context context) {
+        final Context appContext = context.getApplicationContext();
+        if (appContext == null) {
+            return;
+        }
+        synchronized (sUidCache) {
+            if (sCacheInvalidator != null) {
+                return;
+            }
+            sCacheInvalidator = new UidCacheInvalidator();
+            final IntentFilter packageFilter = new IntentFilter();
+            packageFilter.addAction(Intent.ACTION_PACKAGE_ADDED);
+            packageFilter.addAction(Intent.ACTION_PACKAGE_CHANGED);
+            packageFilter.addAction(Intent.ACTION_PACKAGE_REMOVED);
+            packageFilter.addDataScheme("package");
+            appContext.registerReceiver(sCacheInvalidator, packageFilter);
+            appContext.registerReceiver(sCacheInvalidator,
+                    new IntentFilter(Intent.ACTION_LOCALE_CHANGED));
+        }
+    }
+
+    @VisibleForTesting
+    static class UidCacheInvalidator extends BroadcastReceiver {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            final int uid = intent.getIntExtra(Intent.EXTRA_UID, Process.INVALID_UID);
+            if (uid == Process.INVALID_UID || Intent.ACTION_LOCALE_CHANGED.equals(
+                    intent.getAction())) {
+                clearUidCache();
+            } else {
+                sUidCache.remove(uid);
+            }
+        }
     }
 
     public final Context context;
@@ -227,9 +303,8 @@ public class BatteryEntry {
     }
 
     void getQuickNameIconForUid(final int uid) {
-        final String uidString = Integer.toString(uid);
-        if (sUidCache.containsKey(uidString)) {
-            UidToDetail utd = sUidCache.get(uidString);
+        final UidToDetail utd = sUidCache.get(uid);
+        if (utd != null) {
             defaultPackageName = utd.packageName;
             name = utd.name;
             icon = utd.icon;
@@ -250,8 +325,8 @@ public class BatteryEntry {
         }
 
         if (sHandler != null) {
-            synchronized (mRequestQueue) {
-                mRequestQueue.add(this);
+            synchronized (sRequestQueue) {
+                sRequestQueue.addLast(this);
             }
         }
     }
@@ -348,7 +423,8 @@ public class BatteryEntry {
         utd.name = name;
         utd.icon = icon;
         utd.packageName = defaultPackageName;
-        sUidCache.put(uidString, utd);
+        registerCacheInvalidator(context);
+        sUidCache.put(uid, utd);
         if (sHandler != null) {
             sHandler.sendMessage(sHandler.obtainMessage(MSG_UPDATE_NAME_ICON, this));
         }
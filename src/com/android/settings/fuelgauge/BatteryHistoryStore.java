@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.support.annotation.Nullable;
+import android.util.AtomicFile;
+import android.util.Log;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Fixed size ring buffer of battery level samples, optionally backed by a file so the history
+ * survives process restarts. Not thread safe, callers need to synchronize.
+ */
+public class BatteryHistoryStore {
+    private static final String TAG = "BatteryHistoryStore";
+    // Version 1 stored elapsed realtime, which restarts at every boot.
+    private static final int VERSION = 2;
+
+    public static final int FLAG_PLUGGED = 1;
+    public static final int FLAG_SCREEN_ON = 1 << 1;
+
+    private final long[] mTimesMs;
+    private final byte[] mLevels;
+    private final byte[] mFlags;
+    @Nullable
+    private final AtomicFile mFile;
+    // Index of the oldest sample.
+    private int mStart;
+    private int mSize;
+
+    public BatteryHistoryStore(int capacity, @Nullable File file) {
+        mTimesMs = new long[capacity];
+        mLevels = new byte[capacity];
+        mFlags = new byte[capacity];
+        mFile = file != null ? new AtomicFile(file) : null;
+    }
+
+    public int size() {
+        return mSize;
+    }
+
+    public int capacity() {
+        return mTimesMs.length;
+    }
+
+    /**
+     * Appends a sample, dropping the oldest one when the buffer is full.
+     */
+    public void add(long timeMs, int level, int flags) {
+        final int index;
+        if (mSize < mTimesMs.length) {
+            index = (mStart + mSize++) % mTimesMs.length;
+        } else {
+            index = mStart;
+            mStart = (mStart + 1) % mTimesMs.length;
+        }
+        mTimesMs[index] = timeMs;
+        mLevels[index] = (byte) level;
+        mFlags[index] = (byte) flags;
+    }
+
+    public void clear() {
+        mStart = 0;
+        mSize = 0;
+    }
+
+    /**
+     * @param i position of the sample, 0 being the oldest one
+     */
+    public long getTimeMs(int i) {
+        return mTimesMs[indexOf(i)];
+    }
+
+    public int getLevel(int i) {
+        return mLevels[indexOf(i)];
+    }
+
+    public int getFlags(int i) {
+        return mFlags[indexOf(i)];
+    }
+
+    private int indexOf(int i) {
+        if (i < 0 || i >= mSize) {
+            throw new IndexOutOfBoundsException("index " + i + ", size " + mSize);
+        }
+        return (mStart + i) % mTimesMs.length;
+    }
+
+    /**
+     * Replaces the in-memory samples with the ones stored in the backing file, if any.
+     */
+    public void load() {
+        clear();
+        if (mFile == null) {
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(mFile.openRead())) {
+            if (in.readInt() != VERSION) {
+                return;
+            }
+            final int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                add(in.readLong(), in.readByte(), in.readByte());
+            }
+        } catch (FileNotFoundException e) {
+            // Nothing recorded yet.
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to read battery history", e);
+            clear();
+        }
+    }
+
+    /**
+     * Writes the samples to the backing file, if any.
+     */
+    public void save() {
+        if (mFile == null) {
+            return;
+        }
+        FileOutputStream out = null;
+        try {
+            out = mFile.startWrite();
+            final DataOutputStream data = new DataOutputStream(out);
+            data.writeInt(VERSION);
+            data.writeInt(mSize);
+            for (int i = 0; i < mSize; i++) {
+                final int index = indexOf(i);
+                data.writeLong(mTimesMs[index]);
+                data.writeByte(mLevels[index]);
+                data.writeByte(mFlags[index]);
+            }
+            data.flush();
+            mFile.finishWrite(out);
+        } catch (IOException e) {
+            Log.w(TAG, "Unable to write battery history", e);
+            mFile.failWrite(out);
+        }
+    }
+}
@@ -23,7 +23,9 @@ import android.os.BatteryManager;
 import android.os.BatteryStats;
 import android.os.BatteryStats.HistoryItem;
 import android.os.Bundle;
+import android.os.PowerManager;
 import android.os.SystemClock;
+import android.support.annotation.VisibleForTesting;
 import android.support.annotation.WorkerThread;
 import android.text.TextUtils;
 import android.text.format.Formatter;
@@ -178,6 +180,11 @@ public class BatteryInfo {
                 } else {
                     long prediction = discharging
                             ? stats.computeBatteryTimeRemaining(elapsedRealtimeUs) : 0;
+                    if (discharging && prediction <= 0) {
+                        // BatteryStats needs some time after unplugging before it estimates,
+                        // use the recorded level history in the meantime.
+                        prediction = getStreamingEstimateUs(context, batteryBroadcast);
+                    }
                     BatteryUtils.logRuntime(LOG_TAG, "time for regular BatteryInfo", startTime);
                     return BatteryInfo.getBatteryInfo(context, batteryBroadcast, stats,
                             elapsedRealtimeUs, shortString, prediction, false);
@@ -193,6 +200,19 @@ public class BatteryInfo {
         }.execute();
     }
 
+    /**
+     * @return the remaining time estimated by {@link BatteryRemainingTimeEstimator} from the
+     * recorded battery level history, or 0 if there is not enough history
+     */
+    @WorkerThread
+    private static long getStreamingEstimateUs(Context context, Intent batteryBroadcast) {
+        final PowerManager powerManager = context.getSystemService(PowerManager.class);
+        return BatteryRemainingTimeEstimator.getInstance(context).getRemainingTimeUs(
+                Utils.getBatteryLevel(batteryBroadcast),
+                batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0,
+                powerManager == null || powerManager.isInteractive());
+    }
+
     @WorkerThread
     public static BatteryInfo getBatteryInfoOld(Context context, Intent batteryBroadcast,
             BatteryStats stats, long elapsedRealtimeUs, boolean shortString) {
@@ -271,7 +291,8 @@ public class BatteryInfo {
         void onParsingDone();
     }
 
-    private static void parse(BatteryStats stats, BatteryDataParser... parsers) {
+    @VisibleForTesting
+    static void parse(BatteryStats stats, BatteryDataParser... parsers) {
         long startWalltime = 0;
         long endWalltime = 0;
         long historyStart = 0;
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.content.Context;
+import android.content.Intent;
+import android.os.AsyncTask;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+import android.support.annotation.Nullable;
+import android.support.annotation.VisibleForTesting;
+import android.text.format.DateUtils;
+
+import com.android.settings.Utils;
+
+import java.io.File;
+
+/**
+ * Estimates the remaining battery time from a stream of battery level samples, without going
+ * through {@link android.os.BatteryStats}.
+ *
+ * Samples are kept in a {@link BatteryHistoryStore} with their wall clock time, which unlike
+ * elapsed realtime carries on across reboots, and an exponentially weighted rate of level
+ * change is maintained for each of screen on discharge, screen off discharge and charging, so
+ * {@link #getRemainingTimeUs(int, boolean, boolean)} is O(1).
+ */
+public class BatteryRemainingTimeEstimator {
+    private static final String HISTORY_FILE = "battery_estimator_history";
+    private static final int HISTORY_CAPACITY = 256;
+
+    @VisibleForTesting
+    static final int STATE_DISCHARGING_SCREEN_ON = 0;
+    @VisibleForTesting
+    static final int STATE_DISCHARGING_SCREEN_OFF = 1;
+    @VisibleForTesting
+    static final int STATE_CHARGING = 2;
+    private static final int STATE_COUNT = 3;
+
+    /**
+     * Weight of a one percent level step in the moving average.
+     */
+    private static final double SMOOTHING = 0.2;
+    /**
+     * Samples further apart than this are not used for rates, since we can't tell what happened
+     * in between, e.g. the device was switched off or the clock was changed.
+     */
+    @VisibleForTesting
+    static final long MAX_SAMPLE_GAP_MS = 3 * DateUtils.HOUR_IN_MILLIS;
+    private static final int FULL_LEVEL = 100;
+
+    private static BatteryRemainingTimeEstimator sInstance;
+
+    private final BatteryHistoryStore mStore;
+    // Level change per millisecond for each state, 0 if unknown.
+    private final double[] mRates = new double[STATE_COUNT];
+    private boolean mLoaded;
+
+    public static synchronized BatteryRemainingTimeEstimator getInstance(Context context) {
+        if (sInstance == null) {
+            final Context appContext = context.getApplicationContext();
+            sInstance = new BatteryRemainingTimeEstimator(new BatteryHistoryStore(
+                    HISTORY_CAPACITY, new File(appContext.getFilesDir(), HISTORY_FILE)));
+        }
+        return sInstance;
+    }
+
+    @VisibleForTesting
+    BatteryRemainingTimeEstimator(BatteryHistoryStore store) {
+        mStore = store;
+    }
+
+    /**
+     * Records {@code batteryBroadcast} with the current time and screen state on a background
+     * thread, since it persists the samples.
+     *
+     * @param onRecorded run on the background thread once the sample is recorded, if not null
+     */
+    public static void recordInBackground(Context context, Intent batteryBroadcast,
+            @Nullable Runnable onRecorded) {
+        final PowerManager powerManager = context.getSystemService(PowerManager.class);
+        final boolean screenOn = powerManager != null && powerManager.isInteractive();
+        final long timeMs = System.currentTimeMillis();
+        final BatteryRemainingTimeEstimator estimator = getInstance(context);
+        AsyncTask.THREAD_POOL_EXECUTOR.execute(() -> {
+            estimator.onBatteryChanged(batteryBroadcast, timeMs, screenOn);
+            if (onRecorded != null) {
+                onRecorded.run();
+            }
+        });
+    }
+
+    /**
+     * Records the state carried by an {@link Intent#ACTION_BATTERY_CHANGED} broadcast. Reads
+     * and writes the history file, so it should not be called on the main thread.
+     */
+    public void onBatteryChanged(Intent batteryBroadcast, long timeMs, boolean screenOn) {
+        final boolean plugged =
+                batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        if (addSample(timeMs, Utils.getBatteryLevel(batteryBroadcast), plugged, screenOn)) {
+            synchronized (this) {
+                mStore.save();
+            }
+        }
+    }
+
+    /**
+     * Adds a sample to the history and updates the rate of its state.
+     *
+     * @param timeMs the wall clock time of the sample
+     *
+     * @return true if the sample was recorded, false if nothing changed since the last one
+     */
+    public synchronized boolean addSample(long timeMs, int level, boolean plugged,
+            boolean screenOn) {
+        ensureLoaded();
+        final int flags = (plugged ? BatteryHistoryStore.FLAG_PLUGGED : 0)
+                | (screenOn ? BatteryHistoryStore.FLAG_SCREEN_ON : 0);
+        final int size = mStore.size();
+        if (size > 0 && mStore.getLevel(size - 1) == level
+                && mStore.getFlags(size - 1) == flags) {
+            return false;
+        }
+        if (size > 0) {
+            updateRate(mStore.getTimeMs(size - 1), mStore.getLevel(size - 1),
+                    mStore.getFlags(size - 1), timeMs, level, flags);
+        }
+        mStore.add(timeMs, level, flags);
+        return true;
+    }
+
+    /**
+     * @return the estimated time until the battery is empty when discharging, or full when
+     * plugged, or 0 if there is not enough history yet
+     */
+    public synchronized long getRemainingTimeUs(int level, boolean plugged, boolean screenOn) {
+        ensureLoaded();
+        final double rate;
+        final int levelsLeft;
+        if (plugged) {
+            rate = mRates[STATE_CHARGING];
+            levelsLeft = FULL_LEVEL - level;
+        } else {
+            final int state = screenOn ? STATE_DISCHARGING_SCREEN_ON
+                    : STATE_DISCHARGING_SCREEN_OFF;
+            // Fall back to the other screen state rather than giving no estimate at all.
+            rate = mRates[state] != 0 ? mRates[state]
+                    : mRates[screenOn ? STATE_DISCHARGING_SCREEN_OFF
+                            : STATE_DISCHARGING_SCREEN_ON];
+            levelsLeft = level;
+        }
+        if (rate <= 0 || levelsLeft <= 0) {
+            return 0;
+        }
+        return BatteryUtils.convertMsToUs((long) (levelsLeft / rate));
+    }
+
+    @VisibleForTesting
+    synchronized double getRate(int state) {
+        return mRates[state];
+    }
+
+    private void ensureLoaded() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+        mStore.load();
+        for (int i = 1, size = mStore.size(); i < size; i++) {
+            updateRate(mStore.getTimeMs(i - 1), mStore.getLevel(i - 1), mStore.getFlags(i - 1),
+                    mStore.getTimeMs(i), mStore.getLevel(i), mStore.getFlags(i));
+        }
+    }
+
+    private void updateRate(long lastTimeMs, int lastLevel, int lastFlags, long timeMs, int level,
+            int flags) {
+        final long deltaMs = timeMs - lastTimeMs;
+        if (flags != lastFlags || deltaMs <= 0 || deltaMs > MAX_SAMPLE_GAP_MS) {
+            return;
+        }
+        final boolean plugged = (flags & BatteryHistoryStore.FLAG_PLUGGED) != 0;
+        final int levelChange = plugged ? level - lastLevel : lastLevel - level;
+        if (levelChange <= 0) {
+            return;
+        }
+        final int state = plugged ? STATE_CHARGING
+                : (flags & BatteryHistoryStore.FLAG_SCREEN_ON) != 0
+                        ? STATE_DISCHARGING_SCREEN_ON : STATE_DISCHARGING_SCREEN_OFF;
+        final double rate = (double) levelChange / deltaMs;
+        if (mRates[state] == 0) {
+            mRates[state] = rate;
+        } else {
+            // Bigger level steps carry more weight.
+            final double weight = 1 - Math.pow(1 - SMOOTHING, levelChange);
+            mRates[state] += weight * (rate - mRates[state]);
+        }
+    }
+}
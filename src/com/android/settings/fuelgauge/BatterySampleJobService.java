@@ -0,0 +1,94 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.content.SharedPreferences;
+import android.os.BatteryManager;
+import android.text.format.DateUtils;
+
+/**
+ * Records a battery level sample for {@link BatteryRemainingTimeEstimator} periodically while
+ * discharging, so its history also covers the time no battery screen is open. The job cancels
+ * itself once no battery screen was opened for {@link #MAX_UNUSED_MS}, until
+ * {@link PowerUsageBase} schedules it again.
+ */
+public class BatterySampleJobService extends JobService {
+    private static final int JOB_ID = 0x42415453;
+    // Runs at most twice per BatteryRemainingTimeEstimator.MAX_SAMPLE_GAP_MS even if deferred
+    // to the end of its flex window, so consecutive samples still count.
+    private static final long INTERVAL_MS = DateUtils.HOUR_IN_MILLIS;
+    private static final long MAX_UNUSED_MS = 7 * DateUtils.DAY_IN_MILLIS;
+
+    private static final String SHARED_PREFERENCES_NAME = "BatterySampleJob";
+    private static final String LAST_SCHEDULED_KEY = "last_scheduled";
+
+    /**
+     * Schedules the job, unless it already is, and notes that a battery screen was opened.
+     */
+    public static void schedule(Context context) {
+        getSharedPreferences(context).edit()
+                .putLong(LAST_SCHEDULED_KEY, System.currentTimeMillis())
+                .apply();
+        final JobScheduler jobScheduler = context.getSystemService(JobScheduler.class);
+        if (jobScheduler == null || jobScheduler.getPendingJob(JOB_ID) != null) {
+            return;
+        }
+        jobScheduler.schedule(new JobInfo.Builder(JOB_ID,
+                new ComponentName(context, BatterySampleJobService.class))
+                .setPeriodic(INTERVAL_MS)
+                .setPersisted(true)
+                .build());
+    }
+
+    @Override
+    public boolean onStartJob(JobParameters params) {
+        final long lastScheduled = getSharedPreferences(this).getLong(LAST_SCHEDULED_KEY, 0);
+        if (System.currentTimeMillis() - lastScheduled >= MAX_UNUSED_MS) {
+            getSystemService(JobScheduler.class).cancel(JOB_ID);
+            return false;
+        }
+        final Intent batteryBroadcast = registerReceiver(null,
+                new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        // Only discharging is sampled here, the charging rate is learnt while a battery screen
+        // is open.
+        if (batteryBroadcast == null
+                || batteryBroadcast.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0) {
+            return false;
+        }
+        BatteryRemainingTimeEstimator.recordInBackground(this, batteryBroadcast,
+                () -> jobFinished(params, false /* wantsReschedule */));
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The sample is recorded quickly, and the next run takes a new one anyway.
+        return false;
+    }
+
+    private static SharedPreferences getSharedPreferences(Context context) {
+        return context.getSharedPreferences(SHARED_PREFERENCES_NAME, Context.MODE_PRIVATE);
+    }
+}
@@ -0,0 +1,337 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.fuelgauge;
+
+import android.os.BatteryStats;
+import android.os.Process;
+import android.os.UserHandle;
+import android.support.annotation.VisibleForTesting;
+import android.util.SparseIntArray;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatterySipper.DrainType;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Coalesces, filters and ranks {@link BatterySipper}s for the battery usage list.
+ *
+ * Rows are kept in parallel primitive arrays indexed by slot, where each slot becomes one row of
+ * the list. A new {@link BatterySipper} is only created for slots that merge several uids, and
+ * only the top entries are selected, so there is no full sort of the usage list. Arrays are
+ * reused across calls, so an instance should only be used from one thread.
+ */
+public class BatterySipperCoalescer {
+    private static final int NO_SLOT = -1;
+    private static final String MEDIASERVER = "mediaserver";
+
+    private final BatteryUtils mBatteryUtils;
+    private final SparseIntArray mSlotForUid = new SparseIntArray();
+
+    // Indexed by position in the input list: next member of the same slot.
+    private int[] mNextMember = new int[0];
+
+    // Indexed by slot.
+    private int[] mSlotUids = new int[0];
+    private int[] mFirstMember = new int[0];
+    private int[] mLastMember = new int[0];
+    private int[] mMemberCounts = new int[0];
+    private double[] mPowerMah = new double[0];
+    private long[] mScreenActivityTimeMs = new long[0];
+    private boolean[] mHidden = new boolean[0];
+    private BatterySipper[] mSlotSippers = new BatterySipper[0];
+    private int mSlotCount;
+
+    // Min-heap of slot indices used for top-k selection.
+    private int[] mHeap = new int[0];
+
+    private double mHiddenPowerMah;
+
+    public BatterySipperCoalescer(BatteryUtils batteryUtils) {
+        mBatteryUtils = batteryUtils;
+    }
+
+    /**
+     * Coalesces {@code sippers} and returns at most {@code maxItems} of them, ordered by
+     * descending power.
+     *
+     * Shared gids are merged into the owner's app uid, and system uids other than mediaserver
+     * are merged into {@link Process#SYSTEM_UID}. When {@code removeHidden} is set, sippers that
+     * {@link BatteryUtils#shouldHideSipper(BatterySipper)} are dropped and screen power is
+     * smeared the same way as {@link BatteryUtils#removeHiddenBatterySippers(List)}; the power
+     * of the dropped sippers is available from {@link #getHiddenPowerMah()} afterwards.
+     */
+    public List<BatterySipper> coalesce(List<BatterySipper> sippers, boolean removeHidden,
+            int maxItems) {
+        final int numSippers = sippers.size();
+        ensureCapacity(numSippers);
+        mSlotForUid.clear();
+        mSlotCount = 0;
+        mHiddenPowerMah = 0;
+
+        for (int i = 0; i < numSippers; i++) {
+            final BatterySipper sipper = sippers.get(i);
+            final int uid = sipper.getUid();
+            int slot = NO_SLOT;
+            if (uid > 0) {
+                final int realUid = getCoalescedUid(sipper);
+                slot = mSlotForUid.get(realUid, NO_SLOT);
+                if (slot == NO_SLOT) {
+                    slot = newSlot(realUid, i);
+                    mSlotForUid.put(realUid, slot);
+                } else {
+                    mNextMember[mLastMember[slot]] = i;
+                    mLastMember[slot] = i;
+                    mMemberCounts[slot]++;
+                }
+            } else {
+                slot = newSlot(uid, i);
+            }
+            mNextMember[i] = NO_SLOT;
+            mPowerMah[slot] += sipper.totalPowerMah;
+        }
+
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            mSlotSippers[slot] = buildSlotSipper(sippers, slot);
+        }
+
+        if (removeHidden) {
+            filterHiddenSlots();
+        } else {
+            Arrays.fill(mHidden, 0, mSlotCount, false);
+        }
+
+        final List<BatterySipper> results = selectTopSlots(maxItems);
+        Arrays.fill(mSlotSippers, 0, mSlotCount, null);
+        return results;
+    }
+
+    /**
+     * @return the total power of the sippers removed as hidden by the last call to
+     * {@link #coalesce(List, boolean, int)}
+     */
+    public double getHiddenPowerMah() {
+        return mHiddenPowerMah;
+    }
+
+    @VisibleForTesting
+    static int getCoalescedUid(BatterySipper sipper) {
+        int realUid = sipper.getUid();
+        // Check if this UID is a shared GID. If so, we combine it with the OWNER's
+        // actual app UID.
+        if (UserHandle.getAppIdFromSharedAppGid(realUid) > 0) {
+            realUid = UserHandle.getUid(UserHandle.USER_SYSTEM,
+                    UserHandle.getAppIdFromSharedAppGid(realUid));
+        }
+
+        // Use the system UID for all UIDs running in their own sandbox that are not apps. We
+        // exclude mediaserver because we already are expected to report that as a separate item.
+        if (realUid >= Process.SYSTEM_UID && realUid < Process.FIRST_APPLICATION_UID
+                && !MEDIASERVER.equals(sipper.packageWithHighestDrain)) {
+            realUid = Process.SYSTEM_UID;
+        }
+        return realUid;
+    }
+
+    private int newSlot(int uid, int member) {
+        final int slot = mSlotCount++;
+        mSlotUids[slot] = uid;
+        mFirstMember[slot] = member;
+        mLastMember[slot] = member;
+        mMemberCounts[slot] = 1;
+        mPowerMah[slot] = 0;
+        mScreenActivityTimeMs[slot] = 0;
+        return slot;
+    }
+
+    /**
+     * Returns the sipper that represents {@code slot}. The original sipper is reused unless the
+     * slot merges several sippers or moves a sipper to a different uid. A merged sipper keeps the
+     * {@link BatteryStats.Uid} of the member that has the uid of the slot, since only that one
+     * reports process state times and timers; a {@link FakeUid} is used if no member has it.
+     */
+    private BatterySipper buildSlotSipper(List<BatterySipper> sippers, int slot) {
+        final BatterySipper first = sippers.get(mFirstMember[slot]);
+        if (mMemberCounts[slot] == 1 && first.getUid() == mSlotUids[slot]) {
+            return first;
+        }
+
+        BatteryStats.Uid uidObj = null;
+        for (int i = mFirstMember[slot]; i != NO_SLOT; i = mNextMember[i]) {
+            final BatterySipper sipper = sippers.get(i);
+            if (sipper.uidObj != null && sipper.getUid() == mSlotUids[slot]) {
+                uidObj = sipper.uidObj;
+                break;
+            }
+        }
+        final BatterySipper merged = new BatterySipper(first.drainType,
+                uidObj != null ? uidObj : new FakeUid(mSlotUids[slot]), 0.0);
+        int packageCount = 0;
+        for (int i = mFirstMember[slot]; i != NO_SLOT; i = mNextMember[i]) {
+            final BatterySipper sipper = sippers.get(i);
+            merged.add(sipper);
+            if (merged.packageWithHighestDrain == null) {
+                merged.packageWithHighestDrain = sipper.packageWithHighestDrain;
+            }
+            packageCount += sipper.mPackages != null ? sipper.mPackages.length : 0;
+        }
+
+        if (packageCount > 0) {
+            final String[] packages = new String[packageCount];
+            int offset = 0;
+            for (int i = mFirstMember[slot]; i != NO_SLOT; i = mNextMember[i]) {
+                final String[] memberPackages = sippers.get(i).mPackages;
+                if (memberPackages != null) {
+                    System.arraycopy(memberPackages, 0, packages, offset, memberPackages.length);
+                    offset += memberPackages.length;
+                }
+            }
+            merged.mPackages = packages;
+        }
+        return merged;
+    }
+
+    private void filterHiddenSlots() {
+        int screenSlot = NO_SLOT;
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            final BatterySipper sipper = mSlotSippers[slot];
+            // shouldHideSipper() looks at the power of the coalesced row.
+            sipper.totalPowerMah = mPowerMah[slot];
+            mHidden[slot] = mBatteryUtils.shouldHideSipper(sipper);
+            if (mHidden[slot] && BatteryUtils.shouldSmearHiddenPower(sipper.drainType)) {
+                mHiddenPowerMah += mPowerMah[slot];
+            }
+            if (sipper.drainType == DrainType.SCREEN) {
+                screenSlot = slot;
+            }
+        }
+        if (screenSlot == NO_SLOT) {
+            return;
+        }
+
+        long totalActivityTimeMs = 0;
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            final BatteryStats.Uid uid = mSlotSippers[slot].uidObj;
+            if (!mHidden[slot] && uid != null) {
+                mScreenActivityTimeMs[slot] = mBatteryUtils.getProcessTimeMs(
+                        BatteryUtils.StatusType.SCREEN_USAGE, uid,
+                        BatteryStats.STATS_SINCE_CHARGED);
+                totalActivityTimeMs += mScreenActivityTimeMs[slot];
+            }
+        }
+
+        if (totalActivityTimeMs >= BatteryUtils.MIN_SCREEN_SMEAR_ACTIVITY_TIME_MS) {
+            final double screenPowerMah = mPowerMah[screenSlot];
+            for (int slot = 0; slot < mSlotCount; slot++) {
+                if (!mHidden[slot]) {
+                    mPowerMah[slot] += screenPowerMah * mScreenActivityTimeMs[slot]
+                            / totalActivityTimeMs;
+                }
+            }
+        }
+    }
+
+    private List<BatterySipper> selectTopSlots(int maxItems) {
+        int heapSize = 0;
+        for (int slot = 0; slot < mSlotCount; slot++) {
+            if (mHidden[slot]) {
+                continue;
+            }
+            if (heapSize < maxItems) {
+                mHeap[heapSize] = slot;
+                siftUp(heapSize++);
+            } else if (heapSize > 0 && isLess(mHeap[0], slot)) {
+                mHeap[0] = slot;
+                siftDown(0, heapSize);
+            }
+        }
+
+        // Drain the min-heap from the back so the list ends up in descending order.
+        final BatterySipper[] top = new BatterySipper[heapSize];
+        for (int i = heapSize - 1; i >= 0; i--) {
+            final int slot = mHeap[0];
+            mHeap[0] = mHeap[i];
+            siftDown(0, i);
+            top[i] = mSlotSippers[slot];
+            top[i].totalPowerMah = mPowerMah[slot];
+        }
+
+        final List<BatterySipper> results = new ArrayList<>(heapSize);
+        for (BatterySipper sipper : top) {
+            results.add(sipper);
+        }
+        return results;
+    }
+
+    /**
+     * Orders slots by power, ties broken in favor of the slot seen first.
+     */
+    private boolean isLess(int slotA, int slotB) {
+        final int result = Double.compare(mPowerMah[slotA], mPowerMah[slotB]);
+        return result < 0 || (result == 0 && slotA > slotB);
+    }
+
+    private void siftUp(int index) {
+        final int slot = mHeap[index];
+        while (index > 0) {
+            final int parent = (index - 1) >>> 1;
+            if (!isLess(slot, mHeap[parent])) {
+                break;
+            }
+            mHeap[index] = mHeap[parent];
+            index = parent;
+        }
+        mHeap[index] = slot;
+    }
+
+    private void siftDown(int index, int size) {
+        final int slot = mHeap[index];
+        while (true) {
+            int child = 2 * index + 1;
+            if (child >= size) {
+                break;
+            }
+            if (child + 1 < size && isLess(mHeap[child + 1], mHeap[child])) {
+                child++;
+            }
+            if (!isLess(mHeap[child], slot)) {
+                break;
+            }
+            mHeap[index] = mHeap[child];
+            index = child;
+        }
+        mHeap[index] = slot;
+    }
+
+    private void ensureCapacity(int size) {
+        if (mNextMember.length >= size) {
+            return;
+        }
+        mNextMember = new int[size];
+        mSlotUids = new int[size];
+        mFirstMember = new int[size];
+        mLastMember = new int[size];
+        mMemberCounts = new int[size];
+        mPowerMah = new double[size];
+        mScreenActivityTimeMs = new long[size];
+        mHidden = new boolean[size];
+        mSlotSippers = new BatterySipper[size];
+        mHeap = new int[size];
+    }
+}
@@ -68,6 +68,7 @@ public class BatteryUtils {
     private static final String TAG = "BatteryUtils";
 
     private static final int MIN_POWER_THRESHOLD_MILLI_AMP = 5;
+    static final long MIN_SCREEN_SMEAR_ACTIVITY_TIME_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
     private static final int SECONDS_IN_HOUR = 60 * 60;
     private static BatteryUtils sInstance;
 
@@ -75,6 +76,9 @@ public class BatteryUtils {
     private AppOpsManager mAppOpsManager;
     @VisibleForTesting
     PowerUsageFeatureProvider mPowerUsageFeatureProvider;
+    @VisibleForTesting
+    PowerWhitelistBackend mPowerWhitelistBackend;
+    private final Context mContext;
 
     public static BatteryUtils getInstance(Context context) {
         if (sInstance == null || sInstance.isDataCorrupted()) {
@@ -85,6 +89,7 @@ public class BatteryUtils {
 
     @VisibleForTesting
     BatteryUtils(Context context) {
+        mContext = context;
         mPackageManager = context.getPackageManager();
         mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
         mPowerUsageFeatureProvider = FeatureFactory.getFactory(
@@ -165,13 +170,7 @@ public class BatteryUtils {
             final BatterySipper sipper = sippers.get(i);
             if (shouldHideSipper(sipper)) {
                 sippers.remove(i);
-                if (sipper.drainType != BatterySipper.DrainType.OVERCOUNTED
-                        && sipper.drainType != BatterySipper.DrainType.SCREEN
-                        && sipper.drainType != BatterySipper.DrainType.UNACCOUNTED
-                        && sipper.drainType != BatterySipper.DrainType.BLUETOOTH
-                        && sipper.drainType != BatterySipper.DrainType.WIFI
-                        && sipper.drainType != BatterySipper.DrainType.IDLE) {
-                    // Don't add it if it is overcounted, unaccounted, wifi, bluetooth, or screen
+                if (shouldSmearHiddenPower(sipper.drainType)) {
                     proportionalSmearPowerMah += sipper.totalPowerMah;
                 }
             }
@@ -204,7 +203,7 @@ public class BatteryUtils {
             }
         }
 
-        if (totalActivityTimeMs >= 10 * DateUtils.MINUTE_IN_MILLIS) {
+        if (totalActivityTimeMs >= MIN_SCREEN_SMEAR_ACTIVITY_TIME_MS) {
             final double screenPowerMah = screenSipper.totalPowerMah;
             for (int i = 0, size = sippers.size(); i < size; i++) {
                 final BatterySipper sipper = sippers.get(i);
@@ -214,6 +213,19 @@ public class BatteryUtils {
         }
     }
 
+    /**
+     * Check whether the power of a hidden sipper with {@code drainType} should be smeared across
+     * the remaining sippers. Overcounted, unaccounted, wifi, bluetooth, idle and screen are not.
+     */
+    static boolean shouldSmearHiddenPower(BatterySipper.DrainType drainType) {
+        return drainType != BatterySipper.DrainType.OVERCOUNTED
+                && drainType != BatterySipper.DrainType.SCREEN
+                && drainType != BatterySipper.DrainType.UNACCOUNTED
+                && drainType != BatterySipper.DrainType.BLUETOOTH
+                && drainType != BatterySipper.DrainType.WIFI
+                && drainType != BatterySipper.DrainType.IDLE;
+    }
+
     /**
      * Check whether we should hide the battery sipper.
      */
@@ -309,11 +321,18 @@ public class BatteryUtils {
         if (targetSdkVersion >= Build.VERSION_CODES.O) {
             return true;
         }
-        final int mode = mAppOpsManager
-                .checkOpNoThrow(AppOpsManager.OP_RUN_IN_BACKGROUND, uid, packageName);
+        // Read from the bulk loaded op modes, this is called for many apps in a row.
+        final int mode = getPowerWhitelistBackend().getBackgroundOpMode(uid, packageName);
         return mode == AppOpsManager.MODE_IGNORED || mode == AppOpsManager.MODE_ERRORED;
     }
 
+    private PowerWhitelistBackend getPowerWhitelistBackend() {
+        if (mPowerWhitelistBackend == null) {
+            mPowerWhitelistBackend = PowerWhitelistBackend.getInstance(mContext);
+        }
+        return mPowerWhitelistBackend;
+    }
+
     /**
      * Sort the {@code usageList} based on {@link BatterySipper#totalPowerMah}
      */
@@ -43,7 +43,7 @@ public class HighPowerDetail extends InstrumentedDialogFragment implements OnCli
 
     private static final String ARG_DEFAULT_ON = "default_on";
 
-    private final PowerWhitelistBackend mBackend = PowerWhitelistBackend.getInstance();
+    private PowerWhitelistBackend mBackend;
 
     private String mPackageName;
     private CharSequence mLabel;
@@ -61,6 +61,7 @@ public class HighPowerDetail extends InstrumentedDialogFragment implements OnCli
     public void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
 
+        mBackend = PowerWhitelistBackend.getInstance(getContext());
         mPackageName = getArguments().getString(AppInfoBase.ARG_PACKAGE_NAME);
         PackageManager pm = getContext().getPackageManager();
         try {
@@ -159,7 +160,7 @@ public class HighPowerDetail extends InstrumentedDialogFragment implements OnCli
     }
 
     public static CharSequence getSummary(Context context, String pkg) {
-        PowerWhitelistBackend powerWhitelist = PowerWhitelistBackend.getInstance();
+        PowerWhitelistBackend powerWhitelist = PowerWhitelistBackend.getInstance(context);
         return context.getString(powerWhitelist.isSysWhitelisted(pkg) ? R.string.high_power_system
                 : powerWhitelist.isWhitelisted(pkg) ? R.string.high_power_on
                 : R.string.high_power_off);
@@ -108,6 +108,9 @@ public class PowerGaugePreference extends TintablePreference {
     @Override
     public void onBindViewHolder(PreferenceViewHolder view) {
         super.onBindViewHolder(view);
+        if (mInfo != null) {
+            BatteryEntry.prioritizeRequest(mInfo);
+        }
         ImageView icon = (ImageView) view.findViewById(android.R.id.icon);
         icon.setLayoutParams(new LinearLayout.LayoutParams(mIconSize, mIconSize));
 
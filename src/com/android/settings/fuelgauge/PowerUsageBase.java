@@ -62,6 +62,7 @@ public abstract class PowerUsageBase extends DashboardFragment
         });
 
         getLoaderManager().initLoader(0, icicle, this);
+        BatterySampleJobService.schedule(getContext());
     }
 
     @Override
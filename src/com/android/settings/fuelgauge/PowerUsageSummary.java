@@ -143,6 +143,8 @@ public class PowerUsageSummary extends PowerUsageBase implements
     @VisibleForTesting
     BatteryUtils mBatteryUtils;
     @VisibleForTesting
+    BatterySipperCoalescer mSipperCoalescer;
+    @VisibleForTesting
     LayoutPreference mBatteryLayoutPref;
 
     /**
@@ -263,6 +265,7 @@ public class PowerUsageSummary extends PowerUsageBase implements
         mAnomalySummaryPreferenceController = new AnomalySummaryPreferenceController(
                 (SettingsActivity) getActivity(), this, MetricsEvent.FUELGAUGE_POWER_USAGE_SUMMARY);
         mBatteryUtils = BatteryUtils.getInstance(getContext());
+        mSipperCoalescer = new BatterySipperCoalescer(mBatteryUtils);
         mAnomalySparseArray = new SparseArray<>();
 
         restartBatteryInfoLoader();
@@ -483,100 +486,6 @@ public class PowerUsageSummary extends PowerUsageBase implements
         }
     }
 
-    private static boolean isSharedGid(int uid) {
-        return UserHandle.getAppIdFromSharedAppGid(uid) > 0;
-    }
-
-    private static boolean isSystemUid(int uid) {
-        return uid >= Process.SYSTEM_UID && uid < Process.FIRST_APPLICATION_UID;
-    }
-
-    /**
-     * We want to coalesce some UIDs. For example, dex2oat runs under a shared gid that
-     * exists for all users of the same app. We detect this case and merge the power use
-     * for dex2oat to the device OWNER's use of the app.
-     *
-     * @return A sorted list of apps using power.
-     */
-    private List<BatterySipper> getCoalescedUsageList(final List<BatterySipper> sippers) {
-        final SparseArray<BatterySipper> uidList = new SparseArray<>();
-
-        final ArrayList<BatterySipper> results = new ArrayList<>();
-        final int numSippers = sippers.size();
-        for (int i = 0; i < numSippers; i++) {
-            BatterySipper sipper = sippers.get(i);
-            if (sipper.getUid() > 0) {
-                int realUid = sipper.getUid();
-
-                // Check if this UID is a shared GID. If so, we combine it with the OWNER's
-                // actual app UID.
-                if (isSharedGid(sipper.getUid())) {
-                    realUid = UserHandle.getUid(UserHandle.USER_SYSTEM,
-                            UserHandle.getAppIdFromSharedAppGid(sipper.getUid()));
-                }
-
-                // Check if this UID is a system UID (mediaserver, logd, nfc, drm, etc).
-                if (isSystemUid(realUid)
-                        && !"mediaserver".equals(sipper.packageWithHighestDrain)) {
-                    // Use the system UID for all UIDs running in their own sandbox that
-                    // are not apps. We exclude mediaserver because we already are expected to
-                    // report that as a separate item.
-                    realUid = Process.SYSTEM_UID;
-                }
-
-                if (realUid != sipper.getUid()) {
-                    // Replace the BatterySipper with a new one with the real UID set.
-                    BatterySipper newSipper = new BatterySipper(sipper.drainType,
-                            new FakeUid(realUid), 0.0);
-                    newSipper.add(sipper);
-                    newSipper.packageWithHighestDrain = sipper.packageWithHighestDrain;
-                    newSipper.mPackages = sipper.mPackages;
-                    sipper = newSipper;
-                }
-
-                int index = uidList.indexOfKey(realUid);
-                if (index < 0) {
-                    // New entry.
-                    uidList.put(realUid, sipper);
-                } else {
-                    // Combine BatterySippers if we already have one with this UID.
-                    final BatterySipper existingSipper = uidList.valueAt(index);
-                    existingSipper.add(sipper);
-                    if (existingSipper.packageWithHighestDrain == null
-                            && sipper.packageWithHighestDrain != null) {
-                        existingSipper.packageWithHighestDrain = sipper.packageWithHighestDrain;
-                    }
-
-                    final int existingPackageLen = existingSipper.mPackages != null ?
-                            existingSipper.mPackages.length : 0;
-                    final int newPackageLen = sipper.mPackages != null ?
-                            sipper.mPackages.length : 0;
-                    if (newPackageLen > 0) {
-                        String[] newPackages = new String[existingPackageLen + newPackageLen];
-                        if (existingPackageLen > 0) {
-                            System.arraycopy(existingSipper.mPackages, 0, newPackages, 0,
-                                    existingPackageLen);
-                        }
-                        System.arraycopy(sipper.mPackages, 0, newPackages, existingPackageLen,
-                                newPackageLen);
-                        existingSipper.mPackages = newPackages;
-                    }
-                }
-            } else {
-                results.add(sipper);
-            }
-        }
-
-        final int numUidSippers = uidList.size();
-        for (int i = 0; i < numUidSippers; i++) {
-            results.add(uidList.valueAt(i));
-        }
-
-        // The sort order must have changed, so re-sort based on total power use.
-        mBatteryUtils.sortUsageList(results);
-        return results;
-    }
-
     protected void refreshUi() {
         final Context context = getContext();
         if (context == null) {
@@ -608,7 +517,8 @@ public class PowerUsageSummary extends PowerUsageBase implements
         refreshAppListGroup();
     }
 
-    private void refreshAppListGroup() {
+    @VisibleForTesting
+    void refreshAppListGroup() {
         final Context context = getContext();
         final PowerProfile powerProfile = mStatsHelper.getPowerProfile();
         final BatteryStats stats = mStatsHelper.getStats();
@@ -627,11 +537,14 @@ public class PowerUsageSummary extends PowerUsageBase implements
         mAppListGroup.setOrderingAsAdded(false);
 
         if (averagePower >= MIN_AVERAGE_POWER_THRESHOLD_MILLI_AMP || USE_FAKE_DATA) {
-            final List<BatterySipper> usageList = getCoalescedUsageList(
-                    USE_FAKE_DATA ? getFakeStats() : mStatsHelper.getUsageList());
-            double hiddenPowerMah = mShowAllApps ? 0 :
-                    mBatteryUtils.removeHiddenBatterySippers(usageList);
-            mBatteryUtils.sortUsageList(usageList);
+            // The loop below adds at most MAX_ITEMS_TO_LIST + 2 rows. Rows under 1% only come
+            // after all shown ones, and the coalescer already drops the unaccounted and
+            // overcounted rows that shouldHideSipper() skips, unless all apps are shown.
+            final int maxSippers = MAX_ITEMS_TO_LIST + 2 + (mShowAllApps ? 2 : 0);
+            final List<BatterySipper> usageList = mSipperCoalescer.coalesce(
+                    USE_FAKE_DATA ? getFakeStats() : mStatsHelper.getUsageList(),
+                    !mShowAllApps, maxSippers);
+            final double hiddenPowerMah = mSipperCoalescer.getHiddenPowerMah();
 
             final int numSippers = usageList.size();
             for (int i = 0; i < numSippers; i++) {
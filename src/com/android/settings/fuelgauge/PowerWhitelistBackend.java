@@ -15,49 +15,78 @@
  */
 package com.android.settings.fuelgauge;
 
+import android.app.AppOpsManager;
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
 import android.os.IDeviceIdleController;
+import android.os.PowerManager;
 import android.os.RemoteException;
 import android.os.ServiceManager;
 import android.support.annotation.VisibleForTesting;
 
+import android.util.ArrayMap;
 import android.util.ArraySet;
 import android.util.Log;
+import android.util.SparseArray;
 
+import java.util.List;
 
 /**
  * Handles getting/changing the whitelist for the exceptions to battery saving features.
+ *
+ * Also caches the {@link AppOpsManager#OP_RUN_IN_BACKGROUND} mode of all packages, loaded in
+ * one call. Once {@link #getInstance(Context)} has been called, both are reloaded lazily after
+ * the whitelist or the op changes instead of being queried per app.
  */
 public class PowerWhitelistBackend {
 
     private static final String TAG = "PowerWhitelistBackend";
 
     private static final String DEVICE_IDLE_SERVICE = "deviceidle";
+    private static final int[] BACKGROUND_OPS = {AppOpsManager.OP_RUN_IN_BACKGROUND};
 
     private static PowerWhitelistBackend sInstance;
 
     private final IDeviceIdleController mDeviceIdleService;
     private final ArraySet<String> mWhitelistedApps = new ArraySet<>();
     private final ArraySet<String> mSysWhitelistedApps = new ArraySet<>();
+    // uid -> package -> mode, only for packages that don't use the default mode.
+    private final SparseArray<ArrayMap<String, Integer>> mBackgroundOpModes = new SparseArray<>();
+
+    private AppOpsManager mAppOpsManager;
+    private boolean mObserving;
+    private boolean mWhitelistStale;
+    private boolean mBackgroundOpsStale = true;
 
     public PowerWhitelistBackend() {
-        mDeviceIdleService = IDeviceIdleController.Stub.asInterface(
-                ServiceManager.getService(DEVICE_IDLE_SERVICE));
+        this(IDeviceIdleController.Stub.asInterface(
+                ServiceManager.getService(DEVICE_IDLE_SERVICE)));
+    }
+
+    @VisibleForTesting
+    PowerWhitelistBackend(IDeviceIdleController deviceIdleService) {
+        mDeviceIdleService = deviceIdleService;
         refreshList();
     }
 
-    public int getWhitelistSize() {
+    public synchronized int getWhitelistSize() {
+        refreshListIfStale();
         return mWhitelistedApps.size();
     }
 
-    public boolean isSysWhitelisted(String pkg) {
+    public synchronized boolean isSysWhitelisted(String pkg) {
+        refreshListIfStale();
         return mSysWhitelistedApps.contains(pkg);
     }
 
-    public boolean isWhitelisted(String pkg) {
+    public synchronized boolean isWhitelisted(String pkg) {
+        refreshListIfStale();
         return mWhitelistedApps.contains(pkg);
     }
 
-    public void addApp(String pkg) {
+    public synchronized void addApp(String pkg) {
         try {
             mDeviceIdleService.addPowerSaveWhitelistApp(pkg);
             mWhitelistedApps.add(pkg);
@@ -66,7 +95,7 @@ public class PowerWhitelistBackend {
         }
     }
 
-    public void removeApp(String pkg) {
+    public synchronized void removeApp(String pkg) {
         try {
             mDeviceIdleService.removePowerSaveWhitelistApp(pkg);
             mWhitelistedApps.remove(pkg);
@@ -75,10 +104,31 @@ public class PowerWhitelistBackend {
         }
     }
 
+    /**
+     * @return the {@link AppOpsManager#OP_RUN_IN_BACKGROUND} mode of {@code pkg}, the same as
+     * {@link AppOpsManager#checkOpNoThrow(int, int, String)} unless user restrictions apply
+     */
+    public synchronized int getBackgroundOpMode(int uid, String pkg) {
+        if (mAppOpsManager == null) {
+            return AppOpsManager.opToDefaultMode(AppOpsManager.OP_RUN_IN_BACKGROUND);
+        }
+        if (mBackgroundOpsStale) {
+            refreshBackgroundOps();
+        }
+        final ArrayMap<String, Integer> modes = mBackgroundOpModes.get(uid);
+        final Integer mode = modes != null ? modes.get(pkg) : null;
+        return mode != null ? mode
+                : AppOpsManager.opToDefaultMode(AppOpsManager.OP_RUN_IN_BACKGROUND);
+    }
+
     @VisibleForTesting
     void refreshList() {
         mSysWhitelistedApps.clear();
         mWhitelistedApps.clear();
+        mWhitelistStale = false;
+        if (mDeviceIdleService == null) {
+            return;
+        }
         try {
             String[] whitelistedApps = mDeviceIdleService.getFullPowerWhitelist();
             for (String app : whitelistedApps) {
@@ -93,6 +143,66 @@ public class PowerWhitelistBackend {
         }
     }
 
+    private void refreshListIfStale() {
+        if (mWhitelistStale) {
+            refreshList();
+        }
+    }
+
+    @VisibleForTesting
+    void refreshBackgroundOps() {
+        mBackgroundOpModes.clear();
+        mBackgroundOpsStale = false;
+        final List<AppOpsManager.PackageOps> packageOps =
+                mAppOpsManager.getPackagesForOps(BACKGROUND_OPS);
+        if (packageOps == null) {
+            return;
+        }
+        for (int i = 0, size = packageOps.size(); i < size; i++) {
+            final AppOpsManager.PackageOps ops = packageOps.get(i);
+            final List<AppOpsManager.OpEntry> entries = ops.getOps();
+            for (int j = 0, entrySize = entries.size(); j < entrySize; j++) {
+                final AppOpsManager.OpEntry entry = entries.get(j);
+                if (entry.getOp() != AppOpsManager.OP_RUN_IN_BACKGROUND) {
+                    continue;
+                }
+                ArrayMap<String, Integer> modes = mBackgroundOpModes.get(ops.getUid());
+                if (modes == null) {
+                    modes = new ArrayMap<>();
+                    mBackgroundOpModes.put(ops.getUid(), modes);
+                }
+                modes.put(ops.getPackageName(), entry.getMode());
+            }
+        }
+    }
+
+    @VisibleForTesting
+    synchronized void startObserving(Context context) {
+        if (mObserving) {
+            return;
+        }
+        mObserving = true;
+        // Changes made by other apps or adb are not seen by addApp()/removeApp().
+        context.registerReceiver(new BroadcastReceiver() {
+            @Override
+            public void onReceive(Context context, Intent intent) {
+                synchronized (PowerWhitelistBackend.this) {
+                    mWhitelistStale = true;
+                }
+            }
+        }, new IntentFilter(PowerManager.ACTION_POWER_SAVE_WHITELIST_CHANGED));
+
+        mAppOpsManager = (AppOpsManager) context.getSystemService(Context.APP_OPS_SERVICE);
+        if (mAppOpsManager != null) {
+            mAppOpsManager.startWatchingMode(AppOpsManager.OP_RUN_IN_BACKGROUND, null,
+                    (op, packageName) -> {
+                        synchronized (PowerWhitelistBackend.this) {
+                            mBackgroundOpsStale = true;
+                        }
+                    });
+        }
+    }
+
     public static PowerWhitelistBackend getInstance() {
         if (sInstance == null) {
             sInstance = new PowerWhitelistBackend();
@@ -100,4 +210,13 @@ public class PowerWhitelistBackend {
         return sInstance;
     }
 
+    /**
+     * Same as {@link #getInstance()}, but also keeps the cached state up to date.
+     */
+    public static PowerWhitelistBackend getInstance(Context context) {
+        final PowerWhitelistBackend backend = getInstance();
+        backend.startObserving(context.getApplicationContext());
+        return backend;
+    }
+
 }
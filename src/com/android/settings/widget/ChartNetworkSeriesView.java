@@ -32,6 +32,7 @@ import android.view.View;
 
 import com.android.internal.util.Preconditions;
 import com.android.settings.R;
+import com.android.settings.datausage.NetworkHistoryIndex;
 
 import static android.text.format.DateUtils.DAY_IN_MILLIS;
 import static android.text.format.DateUtils.WEEK_IN_MILLIS;
@@ -308,8 +309,7 @@ public class ChartNetworkSeriesView extends View {
         final long maxVisible = mEstimateVisible ? mMaxEstimate : mMax;
         if (maxVisible <= 0 && mStats != null) {
             // haven't generated path yet; fall back to raw data
-            final NetworkStatsHistory.Entry entry = mStats.getValues(mStart, mEnd, null);
-            return entry.rxBytes + entry.txBytes;
+            return NetworkHistoryIndex.get(mStats).getTotalBytes(mStart, mEnd);
         } else {
             return maxVisible;
         }
@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import android.support.annotation.VisibleForTesting;
+
+import com.android.settingslib.wifi.AccessPoint;
+
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Decides whether an access point list from {@link com.android.settingslib.wifi.WifiTracker}
+ * differs enough from the one shown to be worth updating the UI for.
+ *
+ * Access points appearing or disappearing and changes of connection, saved state or summary are
+ * always shown. A signal level change is shown once it is at least {@link #LEVEL_HYSTERESIS}
+ * buckets, or once the same level was seen in two lists in a row, so RSSI jitter around a bucket
+ * boundary doesn't reorder the list.
+ */
+public class AccessPointUpdateThrottler {
+    @VisibleForTesting
+    static final int LEVEL_HYSTERESIS = 2;
+
+    // Shown access points by instance, null until a list was shown. Preferences are bound to
+    // access point instances, so a new instance needs an update anyway.
+    private IdentityHashMap<AccessPoint, Entry> mShown;
+    // Levels that differed from the shown ones in the last skipped list.
+    private final IdentityHashMap<AccessPoint, Integer> mPendingLevels = new IdentityHashMap<>();
+
+    private int mAppliedCount;
+    private int mSkippedCount;
+
+    /**
+     * @return whether {@code accessPoints} should be shown, counting it as skipped otherwise
+     */
+    public boolean shouldUpdate(List<AccessPoint> accessPoints) {
+        if (mShown == null) {
+            return true;
+        }
+        final IdentityHashMap<AccessPoint, Integer> levelChanges = new IdentityHashMap<>();
+        int reachable = 0;
+        for (int i = 0, size = accessPoints.size(); i < size; i++) {
+            final AccessPoint accessPoint = accessPoints.get(i);
+            if (!accessPoint.isReachable()) {
+                continue;
+            }
+            reachable++;
+            final Entry shown = mShown.get(accessPoint);
+            if (shown == null || !shown.hasSameState(accessPoint)) {
+                return true;
+            }
+            final int level = accessPoint.getLevel();
+            if (level != shown.mLevel) {
+                if (Math.abs(level - shown.mLevel) >= LEVEL_HYSTERESIS) {
+                    return true;
+                }
+                final Integer pending = mPendingLevels.get(accessPoint);
+                if (pending != null && pending == level) {
+                    return true;
+                }
+                levelChanges.put(accessPoint, level);
+            }
+        }
+        if (reachable != mShown.size()) {
+            return true;
+        }
+        mPendingLevels.clear();
+        mPendingLevels.putAll(levelChanges);
+        mSkippedCount++;
+        return false;
+    }
+
+    /**
+     * Records {@code accessPoints} as shown, whether or not {@link #shouldUpdate} was asked.
+     */
+    public void onUpdated(List<AccessPoint> accessPoints) {
+        final IdentityHashMap<AccessPoint, Entry> shown =
+                new IdentityHashMap<>(accessPoints.size());
+        for (int i = 0, size = accessPoints.size(); i < size; i++) {
+            final AccessPoint accessPoint = accessPoints.get(i);
+            if (accessPoint.isReachable()) {
+                shown.put(accessPoint, new Entry(accessPoint));
+            }
+        }
+        mShown = shown;
+        mPendingLevels.clear();
+        mAppliedCount++;
+    }
+
+    /**
+     * Forgets the shown list, e.g. when it was cleared, so the next list is always shown.
+     */
+    public void reset() {
+        mShown = null;
+        mPendingLevels.clear();
+    }
+
+    public int getAppliedCount() {
+        return mAppliedCount;
+    }
+
+    public int getSkippedCount() {
+        return mSkippedCount;
+    }
+
+    /**
+     * Resets the applied and skipped counts, e.g. after logging them.
+     */
+    public void clearCounts() {
+        mAppliedCount = 0;
+        mSkippedCount = 0;
+    }
+
+    private static class Entry {
+        final int mLevel;
+        final boolean mActive;
+        final boolean mSaved;
+        final String mSummary;
+
+        Entry(AccessPoint accessPoint) {
+            mLevel = accessPoint.getLevel();
+            mActive = accessPoint.isActive();
+            mSaved = accessPoint.isSaved();
+            mSummary = accessPoint.getSettingsSummary();
+        }
+
+        /**
+         * @return whether {@code accessPoint} shows the same as this entry, apart from its level
+         */
+        boolean hasSameState(AccessPoint accessPoint) {
+            return accessPoint.isActive() == mActive
+                    && accessPoint.isSaved() == mSaved
+                    && Objects.equals(accessPoint.getSettingsSummary(), mSummary);
+        }
+    }
+}
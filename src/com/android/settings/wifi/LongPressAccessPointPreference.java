@@ -18,15 +18,34 @@ package com.android.settings.wifi;
 import android.app.Fragment;
 import android.content.Context;
 import android.support.v7.preference.PreferenceViewHolder;
+import android.text.TextUtils;
 import android.widget.ImageView;
 import com.android.settings.R;
 import com.android.settingslib.wifi.AccessPoint;
 import com.android.settingslib.wifi.AccessPointPreference;
 
+import java.util.Objects;
+
 public class LongPressAccessPointPreference extends AccessPointPreference {
 
     private final Fragment mFragment;
 
+    // Access point values the key was generated from, see generatePreferenceKey().
+    private boolean mHasKeySource;
+    private String mKeyBssid;
+    private String mKeySsid;
+    private int mKeySecurity;
+
+    // Access point values shown by the last refresh(). Not initialized here, since the super
+    // constructor already refreshes.
+    private boolean mHasShownState;
+    private String mShownSsid;
+    private int mShownSecurity;
+    private int mShownLevel;
+    private boolean mShownActive;
+    private boolean mShownSaved;
+    private String mShownSummary;
+
     public LongPressAccessPointPreference(AccessPoint accessPoint, Context context,
             UserBadgeCache cache, boolean forSavedNetworks, Fragment fragment) {
         super(accessPoint, context, cache, forSavedNetworks);
@@ -39,6 +58,73 @@ public class LongPressAccessPointPreference extends AccessPointPreference {
         mFragment = fragment;
     }
 
+    /**
+     * Sets the key, which must be {@link #generatePreferenceKey} of the access point.
+     */
+    @Override
+    public void setKey(String key) {
+        super.setKey(key);
+        final AccessPoint accessPoint = getAccessPoint();
+        mKeyBssid = accessPoint.getBssid();
+        mKeySsid = accessPoint.getSsidStr();
+        mKeySecurity = accessPoint.getSecurity();
+        mHasKeySource = true;
+    }
+
+    /**
+     * @return whether {@link #generatePreferenceKey} of the access point would still return the
+     * key of this preference, without generating it
+     */
+    public boolean isKeyCurrent() {
+        if (!mHasKeySource) {
+            return false;
+        }
+        final AccessPoint accessPoint = getAccessPoint();
+        if (accessPoint.getSecurity() != mKeySecurity) {
+            return false;
+        }
+        final String bssid = accessPoint.getBssid();
+        if (!TextUtils.isEmpty(bssid)) {
+            return bssid.equals(mKeyBssid);
+        }
+        return TextUtils.isEmpty(mKeyBssid)
+                && Objects.equals(accessPoint.getSsidStr(), mKeySsid);
+    }
+
+    @Override
+    public void refresh() {
+        super.refresh();
+        final AccessPoint accessPoint = getAccessPoint();
+        mShownSsid = accessPoint.getSsidStr();
+        mShownSecurity = accessPoint.getSecurity();
+        mShownLevel = accessPoint.getLevel();
+        mShownActive = accessPoint.isActive();
+        mShownSaved = accessPoint.isSaved();
+        mShownSummary = accessPoint.getSettingsSummary();
+        mHasShownState = true;
+    }
+
+    /**
+     * Refreshes the preference only if its SSID, security, signal level, saved or connection
+     * state changed since the last refresh.
+     *
+     * @return whether the preference was refreshed
+     */
+    public boolean refreshIfChanged() {
+        final AccessPoint accessPoint = getAccessPoint();
+        if (mHasShownState
+                && accessPoint.getLevel() == mShownLevel
+                && accessPoint.getSecurity() == mShownSecurity
+                && accessPoint.isActive() == mShownActive
+                && accessPoint.isSaved() == mShownSaved
+                && Objects.equals(accessPoint.getSsidStr(), mShownSsid)
+                && Objects.equals(accessPoint.getSettingsSummary(), mShownSummary)) {
+            return false;
+        }
+        refresh();
+        return true;
+    }
+
     @Override
     public void onBindViewHolder(final PreferenceViewHolder view) {
         super.onBindViewHolder(view);
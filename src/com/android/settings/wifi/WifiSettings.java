@@ -44,6 +44,7 @@ import android.provider.Settings;
 import android.support.annotation.VisibleForTesting;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceCategory;
+import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.ContextMenu;
 import android.view.ContextMenu.ContextMenuInfo;
@@ -113,9 +114,38 @@ public class WifiSettings extends RestrictedSettingsFragment
     private static final String PREF_KEY_CONFIGURE_WIFI_SETTINGS = "configure_settings";
     private static final String PREF_KEY_SAVED_NETWORKS = "saved_networks";
 
+    // Metrics counters of scan result updates shown and skipped by mUpdateThrottler.
+    private static final String METRICS_UPDATES_APPLIED = "wifi_settings_ap_updates|applied";
+    private static final String METRICS_UPDATES_SKIPPED = "wifi_settings_ap_updates|skipped";
+
+    private final AccessPointUpdateThrottler mUpdateThrottler = new AccessPointUpdateThrottler();
+    // Whether the list is being scrolled, during which access points are not reordered.
+    private boolean mListScrolling;
+    // Whether an update was held back while the list was scrolled.
+    private boolean mAccessPointsUpdatePending;
+
     private final Runnable mUpdateAccessPointsRunnable = () -> {
-        updateAccessPointPreferences();
+        if (mListScrolling) {
+            mAccessPointsUpdatePending = true;
+            return;
+        }
+        mAccessPointsUpdatePending = false;
+        if (mUpdateThrottler.shouldUpdate(mWifiTracker.getAccessPoints())) {
+            updateAccessPointPreferences();
+        } else {
+            getView().postDelayed(mHideProgressBarRunnable, 1700 /* delay millis */);
+        }
     };
+    private final RecyclerView.OnScrollListener mScrollListener =
+            new RecyclerView.OnScrollListener() {
+                @Override
+                public void onScrollStateChanged(RecyclerView recyclerView, int newState) {
+                    mListScrolling = newState != RecyclerView.SCROLL_STATE_IDLE;
+                    if (!mListScrolling && mAccessPointsUpdatePending) {
+                        mUpdateAccessPointsRunnable.run();
+                    }
+                }
+            };
     private final Runnable mHideProgressBarRunnable = () -> {
         setProgressBarVisible(false);
     };
@@ -326,6 +356,7 @@ public class WifiSettings extends RestrictedSettingsFragment
         }
 
         registerForContextMenu(getListView());
+        getListView().addOnScrollListener(mScrollListener);
         setHasOptionsMenu(true);
 
         if (intent.hasExtra(EXTRA_START_CONNECT_SSID)) {
@@ -364,6 +395,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             getEmptyTextView().setText(R.string.wifi_empty_list_user_restricted);
         }
         getPreferenceScreen().removeAll();
+        mUpdateThrottler.reset();
     }
 
     /**
@@ -432,9 +464,25 @@ public class WifiSettings extends RestrictedSettingsFragment
         mWifiTracker.stopTracking();
         getView().removeCallbacks(mUpdateAccessPointsRunnable);
         getView().removeCallbacks(mHideProgressBarRunnable);
+        mListScrolling = false;
+        mAccessPointsUpdatePending = false;
+        logAccessPointUpdateCounts();
         super.onStop();
     }
 
+    private void logAccessPointUpdateCounts() {
+        final Context context = getActivity();
+        if (mUpdateThrottler.getAppliedCount() > 0) {
+            mMetricsFeatureProvider.count(context, METRICS_UPDATES_APPLIED,
+                    mUpdateThrottler.getAppliedCount());
+        }
+        if (mUpdateThrottler.getSkippedCount() > 0) {
+            mMetricsFeatureProvider.count(context, METRICS_UPDATES_SKIPPED,
+                    mUpdateThrottler.getSkippedCount());
+        }
+        mUpdateThrottler.clearCounts();
+    }
+
     @Override
     public void onActivityResult(int requestCode, int resultCode, Intent data) {
         super.onActivityResult(requestCode, resultCode, data);
@@ -704,6 +752,8 @@ public class WifiSettings extends RestrictedSettingsFragment
         // Safeguard from some delayed event handling
         if (getActivity() != null && !mIsRestricted && mWifiManager.isWifiEnabled()) {
             setProgressBarVisible(true);
+            // Coalesces bursts of callbacks into a single update.
+            getView().removeCallbacks(mUpdateAccessPointsRunnable);
             getView().postDelayed(mUpdateAccessPointsRunnable, 300 /* delay milliseconds */);
         }
     }
@@ -724,6 +774,7 @@ public class WifiSettings extends RestrictedSettingsFragment
             case WifiManager.WIFI_STATE_ENABLING:
                 removeConnectedAccessPointPreference();
                 mAccessPointsPreferenceCategory.removeAll();
+                mUpdateThrottler.reset();
                 addMessagePreference(R.string.wifi_starting);
                 setProgressBarVisible(true);
                 break;
@@ -731,10 +782,12 @@ public class WifiSettings extends RestrictedSettingsFragment
             case WifiManager.WIFI_STATE_DISABLING:
                 removeConnectedAccessPointPreference();
                 mAccessPointsPreferenceCategory.removeAll();
+                mUpdateThrottler.reset();
                 addMessagePreference(R.string.wifi_stopping);
                 break;
 
             case WifiManager.WIFI_STATE_DISABLED:
+                mUpdateThrottler.reset();
                 setOffMessage();
                 setAdditionalSettingsSummaries();
                 setProgressBarVisible(false);
@@ -777,6 +830,7 @@ public class WifiSettings extends RestrictedSettingsFragment
         if (WifiTracker.sVerboseLogging) {
             Log.i(TAG, "updateAccessPoints called for: " + accessPoints);
         }
+        mUpdateThrottler.onUpdated(accessPoints);
 
         boolean hasAvailableAccessPoints = false;
         mAccessPointsPreferenceCategory.removePreference(mStatusMessagePreference);
@@ -789,12 +843,17 @@ public class WifiSettings extends RestrictedSettingsFragment
             AccessPoint accessPoint = accessPoints.get(index);
             // Ignore access points that are out of range.
             if (accessPoint.isReachable()) {
-                String key = AccessPointPreference.generatePreferenceKey(accessPoint);
+                String key = getPreferenceKey(accessPoint);
                 hasAvailableAccessPoints = true;
                 LongPressAccessPointPreference pref =
                         (LongPressAccessPointPreference) getCachedPreference(key);
                 if (pref != null) {
+                    // Only moves the preference if its position changed, and only rebinds it if
+                    // what it shows changed.
                     pref.setOrder(index);
+                    if (pref.getAccessPoint() == accessPoint) {
+                        pref.refreshIfChanged();
+                    }
                     continue;
                 }
                 LongPressAccessPointPreference preference =
@@ -813,25 +872,45 @@ public class WifiSettings extends RestrictedSettingsFragment
                 preference.refresh();
             }
         }
-        removeCachedPrefs(mAccessPointsPreferenceCategory);
         mAddPreference.setOrder(index);
         mAccessPointsPreferenceCategory.addPreference(mAddPreference);
         setAdditionalSettingsSummaries();
 
         if (!hasAvailableAccessPoints) {
             setProgressBarVisible(true);
-            Preference pref = new Preference(getPrefContext());
-            pref.setSelectable(false);
-            pref.setSummary(R.string.wifi_empty_list_wifi_on);
+            Preference pref = getCachedPreference(PREF_KEY_EMPTY_WIFI_LIST);
+            if (pref == null) {
+                pref = new Preference(getPrefContext());
+                pref.setSelectable(false);
+                pref.setSummary(R.string.wifi_empty_list_wifi_on);
+                pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
+            }
             pref.setOrder(index++);
-            pref.setKey(PREF_KEY_EMPTY_WIFI_LIST);
             mAccessPointsPreferenceCategory.addPreference(pref);
+            removeCachedPrefs(mAccessPointsPreferenceCategory);
         } else {
+            removeCachedPrefs(mAccessPointsPreferenceCategory);
             // Continuing showing progress bar for an additional delay to overlap with animation
             getView().postDelayed(mHideProgressBarRunnable, 1700 /* delay millis */);
         }
     }
 
+    /**
+     * @return the key of the preference of {@code accessPoint}, reusing the key of the preference
+     * already showing it when the access point still matches it
+     */
+    private static String getPreferenceKey(AccessPoint accessPoint) {
+        final Object tag = accessPoint.getTag();
+        if (tag instanceof LongPressAccessPointPreference) {
+            final LongPressAccessPointPreference pref = (LongPressAccessPointPreference) tag;
+            if (pref.getAccessPoint() == accessPoint && pref.getKey() != null
+                    && pref.isKeyCurrent()) {
+                return pref.getKey();
+            }
+        }
+        return AccessPointPreference.generatePreferenceKey(accessPoint);
+    }
+
     @NonNull
     private LongPressAccessPointPreference createLongPressActionPointPreference(
             AccessPoint accessPoint) {
@@ -874,9 +953,9 @@ public class WifiSettings extends RestrictedSettingsFragment
         }
 
         // Else same AP is connected, simply refresh the connected access point preference
-        // (first and only access point in this category).
+        // (first and only access point in this category) if what it shows changed.
         ((LongPressAccessPointPreference) mConnectedAccessPointPreferenceCategory.getPreference(0))
-                .refresh();
+                .refreshIfChanged();
         return true;
     }
 
@@ -1097,7 +1176,7 @@ public class WifiSettings extends RestrictedSettingsFragment
                 public void run() {
                     Object tag = accessPoint.getTag();
                     if (tag != null) {
-                        ((LongPressAccessPointPreference) tag).refresh();
+                        ((LongPressAccessPointPreference) tag).refreshIfChanged();
                     }
                 }
             });
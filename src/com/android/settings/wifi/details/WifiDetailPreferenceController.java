@@ -145,6 +145,9 @@ public class WifiDetailPreferenceController extends AbstractPreferenceController
     private PreferenceCategory mIpv6Category;
     private Preference mIpv6AddressPref;
 
+    // What the page shows, null until it was first updated after resuming.
+    private DetailState mShownState;
+
     private final IntentFilter mFilter;
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
@@ -305,6 +308,7 @@ public class WifiDetailPreferenceController extends AbstractPreferenceController
         mNetworkCapabilities = null;
         mNetworkInfo = null;
         mWifiInfo = null;
+        mShownState = null;
         mContext.unregisterReceiver(mReceiver);
         mConnectivityManager.unregisterNetworkCallback(mNetworkCallback);
     }
@@ -321,37 +325,13 @@ public class WifiDetailPreferenceController extends AbstractPreferenceController
 
         // Update whether the forgot button should be displayed.
         mForgetButton.setVisibility(canForgetNetwork() ? View.VISIBLE : View.INVISIBLE);
+        updateButtons();
 
-        refreshNetworkState();
-
-        // Update Connection Header icon and Signal Strength Preference
-        mRssi = mWifiInfo.getRssi();
-        refreshRssiViews();
-
-        // MAC Address Pref
-        mMacAddressPref.setDetailText(mWifiInfo.getMacAddress());
-
-        // Link Speed Pref
-        int linkSpeedMbps = mWifiInfo.getLinkSpeed();
-        mLinkSpeedPref.setVisible(linkSpeedMbps >= 0);
-        mLinkSpeedPref.setDetailText(mContext.getString(
-                R.string.link_speed, mWifiInfo.getLinkSpeed()));
-
-        // Frequency Pref
-        final int frequency = mWifiInfo.getFrequency();
-        String band = null;
-        if (frequency >= AccessPoint.LOWER_FREQ_24GHZ
-                && frequency < AccessPoint.HIGHER_FREQ_24GHZ) {
-            band = mContext.getResources().getString(R.string.wifi_band_24ghz);
-        } else if (frequency >= AccessPoint.LOWER_FREQ_5GHZ
-                && frequency < AccessPoint.HIGHER_FREQ_5GHZ) {
-            band = mContext.getResources().getString(R.string.wifi_band_5ghz);
-        } else {
-            Log.e(TAG, "Unexpected frequency " + frequency);
-        }
-        mFrequencyPref.setDetailText(band);
-
-        updateIpLayerInfo();
+        final DetailState state = new DetailState(mShownState);
+        readNetworkState(state);
+        readWifiInfo(state);
+        readIpLayerInfo(state);
+        applyState(state);
     }
 
     private void exitActivity() {
@@ -362,92 +342,174 @@ public class WifiDetailPreferenceController extends AbstractPreferenceController
     }
 
     private void refreshNetworkState() {
-        mAccessPoint.update(mWifiConfig, mWifiInfo, mNetworkInfo);
-        mEntityHeaderController.setSummary(mAccessPoint.getSettingsSummary())
-                .done(mFragment.getActivity(), true /* rebind */);
+        if (mShownState == null) {
+            // Nothing is shown yet, the next updateInfo() reads everything.
+            return;
+        }
+        final DetailState state = new DetailState(mShownState);
+        readNetworkState(state);
+        applyState(state);
     }
 
-    private void refreshRssiViews() {
-        int iconSignalLevel = WifiManager.calculateSignalLevel(
-                mRssi, WifiManager.RSSI_LEVELS);
-        Drawable wifiIcon = NetworkBadging.getWifiIcon(
-                iconSignalLevel, NetworkBadging.BADGING_NONE, mContext.getTheme()).mutate();
-
-        wifiIcon.setTint(Utils.getColorAccent(mContext));
-        mEntityHeaderController.setIcon(wifiIcon).done(mFragment.getActivity(), true /* rebind */);
+    private void updateIpLayerInfo() {
+        updateButtons();
+        if (mShownState == null) {
+            return;
+        }
+        final DetailState state = new DetailState(mShownState);
+        readIpLayerInfo(state);
+        applyState(state);
+    }
 
-        Drawable wifiIconDark = wifiIcon.getConstantState().newDrawable().mutate();
-        wifiIconDark.setTint(mContext.getResources().getColor(
-                R.color.wifi_details_icon_color, mContext.getTheme()));
-        mSignalStrengthPref.setIcon(wifiIconDark);
+    private void updateButtons() {
+        mSignInButton.setVisibility(canSignIntoNetwork() ? View.VISIBLE : View.INVISIBLE);
+        mButtonsPref.setVisible(mForgetButton.getVisibility() == View.VISIBLE
+                || mSignInButton.getVisibility() == View.VISIBLE);
+    }
 
-        int summarySignalLevel = mAccessPoint.getLevel();
-        mSignalStrengthPref.setDetailText(mSignalStr[summarySignalLevel]);
+    private void readNetworkState(DetailState state) {
+        mAccessPoint.update(mWifiConfig, mWifiInfo, mNetworkInfo);
+        state.summary = mAccessPoint.getSettingsSummary();
+        state.signalLevel = mAccessPoint.getLevel();
     }
 
-    private void updatePreference(WifiDetailPreference pref, String detailText) {
-        if (!TextUtils.isEmpty(detailText)) {
-            pref.setDetailText(detailText);
-            pref.setVisible(true);
+    private void readWifiInfo(DetailState state) {
+        mRssi = mWifiInfo.getRssi();
+        state.iconSignalLevel = WifiManager.calculateSignalLevel(mRssi, WifiManager.RSSI_LEVELS);
+        state.macAddress = mWifiInfo.getMacAddress();
+        state.linkSpeedMbps = mWifiInfo.getLinkSpeed();
+
+        final int frequency = mWifiInfo.getFrequency();
+        String band = null;
+        if (frequency >= AccessPoint.LOWER_FREQ_24GHZ
+                && frequency < AccessPoint.HIGHER_FREQ_24GHZ) {
+            band = mContext.getResources().getString(R.string.wifi_band_24ghz);
+        } else if (frequency >= AccessPoint.LOWER_FREQ_5GHZ
+                && frequency < AccessPoint.HIGHER_FREQ_5GHZ) {
+            band = mContext.getResources().getString(R.string.wifi_band_5ghz);
         } else {
-            pref.setVisible(false);
+            Log.e(TAG, "Unexpected frequency " + frequency);
         }
+        state.band = band;
     }
 
-    private void updateIpLayerInfo() {
-        mSignInButton.setVisibility(canSignIntoNetwork() ? View.VISIBLE : View.INVISIBLE);
-        mButtonsPref.setVisible(mForgetButton.getVisibility() == View.VISIBLE
-                || mSignInButton.getVisibility() == View.VISIBLE);
-
+    private void readIpLayerInfo(DetailState state) {
+        state.ipv4Address = null;
+        state.subnet = null;
+        state.gateway = null;
+        state.dnsServers = null;
+        state.ipv6Addresses = null;
         if (mNetwork == null || mLinkProperties == null) {
-            mIpAddressPref.setVisible(false);
-            mSubnetPref.setVisible(false);
-            mGatewayPref.setVisible(false);
-            mDnsPref.setVisible(false);
-            mIpv6Category.setVisible(false);
             return;
         }
 
         // Find IPv4 and IPv6 addresses.
-        String ipv4Address = null;
-        String subnet = null;
         StringJoiner ipv6Addresses = new StringJoiner("\n");
-
         for (LinkAddress addr : mLinkProperties.getLinkAddresses()) {
             if (addr.getAddress() instanceof Inet4Address) {
-                ipv4Address = addr.getAddress().getHostAddress();
-                subnet = ipv4PrefixLengthToSubnetMask(addr.getPrefixLength());
+                state.ipv4Address = addr.getAddress().getHostAddress();
+                state.subnet = ipv4PrefixLengthToSubnetMask(addr.getPrefixLength());
             } else if (addr.getAddress() instanceof Inet6Address) {
                 ipv6Addresses.add(addr.getAddress().getHostAddress());
             }
         }
+        state.ipv6Addresses = ipv6Addresses.toString();
 
         // Find IPv4 default gateway.
-        String gateway = null;
         for (RouteInfo routeInfo : mLinkProperties.getRoutes()) {
             if (routeInfo.isIPv4Default() && routeInfo.hasGateway()) {
-                gateway = routeInfo.getGateway().getHostAddress();
+                state.gateway = routeInfo.getGateway().getHostAddress();
                 break;
             }
         }
 
         // Find all (IPv4 and IPv6) DNS addresses.
-        String dnsServers = mLinkProperties.getDnsServers().stream()
+        state.dnsServers = mLinkProperties.getDnsServers().stream()
                 .map(InetAddress::getHostAddress)
                 .collect(Collectors.joining("\n"));
+    }
 
-        // Update UI.
-        updatePreference(mIpAddressPref, ipv4Address);
-        updatePreference(mSubnetPref, subnet);
-        updatePreference(mGatewayPref, gateway);
-        updatePreference(mDnsPref, dnsServers);
+    /**
+     * Updates the views whose values differ between {@code state} and the shown state, or all of
+     * them if nothing is shown yet.
+     */
+    private void applyState(DetailState state) {
+        final DetailState shown = mShownState;
+        mShownState = state;
+
+        if (shown == null || !TextUtils.equals(shown.summary, state.summary)) {
+            mEntityHeaderController.setSummary(state.summary)
+                    .done(mFragment.getActivity(), true /* rebind */);
+        }
 
-        if (ipv6Addresses.length() > 0) {
-            mIpv6AddressPref.setSummary(
-                    BidiFormatter.getInstance().unicodeWrap(ipv6Addresses.toString()));
-            mIpv6Category.setVisible(true);
+        // Update Connection Header icon and Signal Strength Preference
+        if (shown == null || shown.iconSignalLevel != state.iconSignalLevel) {
+            refreshRssiIcons(state.iconSignalLevel);
+        }
+        if (shown == null || shown.signalLevel != state.signalLevel) {
+            mSignalStrengthPref.setDetailText(mSignalStr[state.signalLevel]);
+        }
+
+        // MAC Address Pref
+        if (shown == null || !TextUtils.equals(shown.macAddress, state.macAddress)) {
+            mMacAddressPref.setDetailText(state.macAddress);
+        }
+
+        // Link Speed Pref
+        if (shown == null || shown.linkSpeedMbps != state.linkSpeedMbps) {
+            mLinkSpeedPref.setVisible(state.linkSpeedMbps >= 0);
+            mLinkSpeedPref.setDetailText(mContext.getString(
+                    R.string.link_speed, state.linkSpeedMbps));
+        }
+
+        // Frequency Pref
+        if (shown == null || !TextUtils.equals(shown.band, state.band)) {
+            mFrequencyPref.setDetailText(state.band);
+        }
+
+        // IP layer prefs
+        if (shown == null || !TextUtils.equals(shown.ipv4Address, state.ipv4Address)) {
+            updatePreference(mIpAddressPref, state.ipv4Address);
+        }
+        if (shown == null || !TextUtils.equals(shown.subnet, state.subnet)) {
+            updatePreference(mSubnetPref, state.subnet);
+        }
+        if (shown == null || !TextUtils.equals(shown.gateway, state.gateway)) {
+            updatePreference(mGatewayPref, state.gateway);
+        }
+        if (shown == null || !TextUtils.equals(shown.dnsServers, state.dnsServers)) {
+            updatePreference(mDnsPref, state.dnsServers);
+        }
+        if (shown == null || !TextUtils.equals(shown.ipv6Addresses, state.ipv6Addresses)) {
+            if (!TextUtils.isEmpty(state.ipv6Addresses)) {
+                mIpv6AddressPref.setSummary(
+                        BidiFormatter.getInstance().unicodeWrap(state.ipv6Addresses));
+                mIpv6Category.setVisible(true);
+            } else {
+                mIpv6Category.setVisible(false);
+            }
+        }
+    }
+
+    private void refreshRssiIcons(int iconSignalLevel) {
+        Drawable wifiIcon = NetworkBadging.getWifiIcon(
+                iconSignalLevel, NetworkBadging.BADGING_NONE, mContext.getTheme()).mutate();
+
+        wifiIcon.setTint(Utils.getColorAccent(mContext));
+        mEntityHeaderController.setIcon(wifiIcon).done(mFragment.getActivity(), true /* rebind */);
+
+        Drawable wifiIconDark = wifiIcon.getConstantState().newDrawable().mutate();
+        wifiIconDark.setTint(mContext.getResources().getColor(
+                R.color.wifi_details_icon_color, mContext.getTheme()));
+        mSignalStrengthPref.setIcon(wifiIconDark);
+    }
+
+    private void updatePreference(WifiDetailPreference pref, String detailText) {
+        if (!TextUtils.isEmpty(detailText)) {
+            pref.setDetailText(detailText);
+            pref.setVisible(true);
         } else {
-            mIpv6Category.setVisible(false);
+            pref.setVisible(false);
         }
     }
 
@@ -504,4 +566,40 @@ public class WifiDetailPreferenceController extends AbstractPreferenceController
                 mFragment.getActivity(), MetricsProto.MetricsEvent.ACTION_WIFI_SIGNIN);
         mConnectivityManagerWrapper.startCaptivePortalApp(mNetwork);
     }
+
+    /**
+     * Values shown on the page. Each broadcast or network callback copies the shown state, reads
+     * the parts it affects and applies only the values that changed.
+     */
+    private static class DetailState {
+        String summary;
+        int signalLevel;
+        int iconSignalLevel;
+        String macAddress;
+        int linkSpeedMbps;
+        String band;
+        // IP layer values, null or empty when hidden.
+        String ipv4Address;
+        String subnet;
+        String gateway;
+        String dnsServers;
+        String ipv6Addresses;
+
+        DetailState(DetailState other) {
+            if (other == null) {
+                return;
+            }
+            summary = other.summary;
+            signalLevel = other.signalLevel;
+            iconSignalLevel = other.iconSignalLevel;
+            macAddress = other.macAddress;
+            linkSpeedMbps = other.linkSpeedMbps;
+            band = other.band;
+            ipv4Address = other.ipv4Address;
+            subnet = other.subnet;
+            gateway = other.gateway;
+            dnsServers = other.dnsServers;
+            ipv6Addresses = other.ipv6Addresses;
+        }
+    }
 }
@@ -24,6 +24,8 @@ import android.support.v7.preference.PreferenceScreen;
 import com.android.settings.core.PreferenceControllerMixin;
 import com.android.settingslib.core.AbstractPreferenceController;
 
+import java.util.Set;
+
 public abstract class P2pCategoryPreferenceController extends AbstractPreferenceController
         implements PreferenceControllerMixin {
 
@@ -58,6 +60,31 @@ public abstract class P2pCategoryPreferenceController extends AbstractPreference
         }
     }
 
+    /**
+     * @return the child with {@code key}, or {@code null} if there is none
+     */
+    public Preference getChild(String key) {
+        return mCategory != null ? mCategory.findPreference(key) : null;
+    }
+
+    /**
+     * Removes the children whose key is not in {@code keys}, and hides the category once empty.
+     */
+    public void removeChildrenExcept(Set<String> keys) {
+        if (mCategory == null) {
+            return;
+        }
+        for (int i = mCategory.getPreferenceCount() - 1; i >= 0; i--) {
+            final Preference child = mCategory.getPreference(i);
+            if (!keys.contains(child.getKey())) {
+                mCategory.removePreference(child);
+            }
+        }
+        if (mCategory.getPreferenceCount() == 0) {
+            mCategory.setVisible(false);
+        }
+    }
+
     public void setEnabled(boolean enabled) {
         if (mCategory != null) {
             mCategory.setEnabled(enabled);
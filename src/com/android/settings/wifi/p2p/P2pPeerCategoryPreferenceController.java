@@ -17,6 +17,10 @@
 package com.android.settings.wifi.p2p;
 
 import android.content.Context;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.util.ArraySet;
+
+import java.util.Collection;
 
 public class P2pPeerCategoryPreferenceController extends P2pCategoryPreferenceController {
 
@@ -28,4 +32,25 @@ public class P2pPeerCategoryPreferenceController extends P2pCategoryPreferenceCo
     public String getPreferenceKey() {
         return "p2p_peer_devices";
     }
+
+    /**
+     * Shows {@code peers}, updating the preferences of the peers already shown, by device
+     * address, instead of recreating them.
+     */
+    public void updatePeers(Collection<WifiP2pDevice> peers) {
+        if (mCategory == null) {
+            return;
+        }
+        final ArraySet<String> addresses = new ArraySet<>(peers.size());
+        for (WifiP2pDevice peer : peers) {
+            addresses.add(peer.deviceAddress);
+            final WifiP2pPeer preference = (WifiP2pPeer) getChild(peer.deviceAddress);
+            if (preference == null) {
+                addChild(new WifiP2pPeer(mCategory.getContext(), peer));
+            } else {
+                preference.setDevice(peer);
+            }
+        }
+        removeChildrenExcept(addresses);
+    }
 }
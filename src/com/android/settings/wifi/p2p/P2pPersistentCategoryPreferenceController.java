@@ -17,6 +17,10 @@
 package com.android.settings.wifi.p2p;
 
 import android.content.Context;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.util.ArraySet;
+
+import java.util.Collection;
 
 public class P2pPersistentCategoryPreferenceController extends P2pCategoryPreferenceController {
 
@@ -28,4 +32,43 @@ public class P2pPersistentCategoryPreferenceController extends P2pCategoryPrefer
     public String getPreferenceKey() {
         return "p2p_persistent_group";
     }
+
+    /**
+     * Shows {@code groups}, updating the preferences of the groups already shown, by network id,
+     * instead of recreating them.
+     */
+    public void updateGroups(Collection<WifiP2pGroup> groups) {
+        if (mCategory == null) {
+            return;
+        }
+        final ArraySet<String> keys = new ArraySet<>(groups.size());
+        for (WifiP2pGroup group : groups) {
+            final String key = WifiP2pPersistentGroup.getKey(group);
+            keys.add(key);
+            final WifiP2pPersistentGroup preference = (WifiP2pPersistentGroup) getChild(key);
+            if (preference == null) {
+                addChild(new WifiP2pPersistentGroup(mCategory.getContext(), group));
+            } else {
+                preference.setGroup(group);
+            }
+        }
+        removeChildrenExcept(keys);
+    }
+
+    /**
+     * @return the shown group named {@code groupName}, or {@code null} if there is none
+     */
+    public WifiP2pPersistentGroup getGroup(String groupName) {
+        if (mCategory == null || groupName == null) {
+            return null;
+        }
+        for (int i = 0; i < mCategory.getPreferenceCount(); i++) {
+            final WifiP2pPersistentGroup group =
+                    (WifiP2pPersistentGroup) mCategory.getPreference(i);
+            if (groupName.equals(group.getGroupName())) {
+                return group;
+            }
+        }
+        return null;
+    }
 }
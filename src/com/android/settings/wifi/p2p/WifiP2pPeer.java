@@ -38,14 +38,35 @@ public class WifiP2pPeer extends Preference {
     public WifiP2pPeer(Context context, WifiP2pDevice dev) {
         super(context);
         device = dev;
+        setKey(device.deviceAddress);
         setWidgetLayoutResource(R.layout.preference_widget_wifi_signal);
         mRssi = 60; //TODO: fix
+        updateDevice();
+    }
+
+    /**
+     * Shows {@code dev}, a newer state of the device of this preference.
+     */
+    void setDevice(WifiP2pDevice dev) {
+        // The order of peers depends on their status and name.
+        final boolean reorder = dev.status != device.status
+                || !TextUtils.equals(dev.deviceName, device.deviceName);
+        device = dev;
+        updateDevice();
+        if (reorder) {
+            notifyHierarchyChanged();
+        }
+    }
+
+    private void updateDevice() {
+        // Title and summary are only rebound when they changed.
         if (TextUtils.isEmpty(device.deviceName)) {
             setTitle(device.deviceAddress);
         } else {
             setTitle(device.deviceName);
         }
-        String[] statusArray = context.getResources().getStringArray(R.array.wifi_p2p_status);
+        String[] statusArray = getContext().getResources().getStringArray(
+                R.array.wifi_p2p_status);
         setSummary(statusArray[device.status]);
     }
 
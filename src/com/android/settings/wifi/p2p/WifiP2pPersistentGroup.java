@@ -27,6 +27,18 @@ public class WifiP2pPersistentGroup extends Preference {
 
     public WifiP2pPersistentGroup(Context context, WifiP2pGroup group) {
         super(context);
+        setKey(getKey(group));
+        setGroup(group);
+    }
+
+    /**
+     * @return the key of the preference of {@code group}, from its network id
+     */
+    static String getKey(WifiP2pGroup group) {
+        return Integer.toString(group.getNetworkId());
+    }
+
+    void setGroup(WifiP2pGroup group) {
         mGroup = group;
         setTitle(mGroup.getNetworkName());
     }
@@ -37,6 +37,7 @@ import android.net.wifi.p2p.WifiP2pManager;
 import android.net.wifi.p2p.WifiP2pManager.PeerListListener;
 import android.net.wifi.p2p.WifiP2pManager.PersistentGroupInfoListener;
 import android.os.Bundle;
+import android.os.Handler;
 import android.os.SystemProperties;
 import android.support.v7.preference.Preference;
 import android.support.v7.preference.PreferenceScreen;
@@ -55,6 +56,7 @@ import com.android.settings.dashboard.DashboardFragment;
 import com.android.settingslib.core.AbstractPreferenceController;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.List;
 
 /*
@@ -68,6 +70,10 @@ public class WifiP2pSettings extends DashboardFragment
     private static final int MENU_ID_SEARCH = Menu.FIRST;
     private static final int MENU_ID_RENAME = Menu.FIRST + 1;
 
+    // Peer and persistent group broadcasts come in bursts, so they are applied at most this
+    // often.
+    private static final long UPDATE_DELAY_MS = 100;
+
     private final IntentFilter mIntentFilter = new IntentFilter();
     private WifiP2pManager mWifiP2pManager;
     private WifiP2pManager.Channel mChannel;
@@ -103,6 +109,20 @@ public class WifiP2pSettings extends DashboardFragment
 
     private String mSavedDeviceName;
 
+    private final Handler mHandler = new Handler();
+    private boolean mPeersUpdatePosted;
+    private boolean mPersistentGroupsRequestPosted;
+    private final Runnable mPeersUpdateRunnable = () -> {
+        mPeersUpdatePosted = false;
+        handlePeersChanged();
+    };
+    private final Runnable mPersistentGroupsRequestRunnable = () -> {
+        mPersistentGroupsRequestPosted = false;
+        if (mWifiP2pManager != null) {
+            mWifiP2pManager.requestPersistentGroupInfo(mChannel, WifiP2pSettings.this);
+        }
+    };
+
     private final BroadcastReceiver mReceiver = new BroadcastReceiver() {
         @Override
         public void onReceive(Context context, Intent intent) {
@@ -115,7 +135,11 @@ public class WifiP2pSettings extends DashboardFragment
             } else if (WifiP2pManager.WIFI_P2P_PEERS_CHANGED_ACTION.equals(action)) {
                 mPeers = (WifiP2pDeviceList) intent.getParcelableExtra(
                         WifiP2pManager.EXTRA_P2P_DEVICE_LIST);
-                handlePeersChanged();
+                // Only the latest list of a burst is shown.
+                if (!mPeersUpdatePosted) {
+                    mPeersUpdatePosted = true;
+                    mHandler.postDelayed(mPeersUpdateRunnable, UPDATE_DELAY_MS);
+                }
             } else if (WifiP2pManager.WIFI_P2P_CONNECTION_CHANGED_ACTION.equals(action)) {
                 if (mWifiP2pManager == null) return;
                 NetworkInfo networkInfo = (NetworkInfo) intent.getParcelableExtra(
@@ -145,8 +169,10 @@ public class WifiP2pSettings extends DashboardFragment
                     updateSearchMenu(false);
                 }
             } else if (WifiP2pManager.WIFI_P2P_PERSISTENT_GROUPS_CHANGED_ACTION.equals(action)) {
-                if (mWifiP2pManager != null) {
-                    mWifiP2pManager.requestPersistentGroupInfo(mChannel, WifiP2pSettings.this);
+                // Requests the groups once per burst.
+                if (!mPersistentGroupsRequestPosted) {
+                    mPersistentGroupsRequestPosted = true;
+                    mHandler.postDelayed(mPersistentGroupsRequestRunnable, UPDATE_DELAY_MS);
                 }
             }
         }
@@ -342,6 +368,10 @@ public class WifiP2pSettings extends DashboardFragment
             mWifiP2pManager.stopPeerDiscovery(mChannel, null);
         }
         getActivity().unregisterReceiver(mReceiver);
+        mHandler.removeCallbacks(mPeersUpdateRunnable);
+        mHandler.removeCallbacks(mPersistentGroupsRequestRunnable);
+        mPeersUpdatePosted = false;
+        mPersistentGroupsRequestPosted = false;
     }
 
     @Override
@@ -528,13 +558,13 @@ public class WifiP2pSettings extends DashboardFragment
     }
 
     private void handlePeersChanged() {
-        mPeerCategoryController.removeAllChildren();
+        final Collection<WifiP2pDevice> peers = mPeers.getDeviceList();
+        mPeerCategoryController.updatePeers(peers);
 
         mConnectedDevices = 0;
         if (DBG) Log.d(TAG, "List of available peers");
-        for (WifiP2pDevice peer: mPeers.getDeviceList()) {
+        for (WifiP2pDevice peer: peers) {
             if (DBG) Log.d(TAG, "-> " + peer);
-            mPeerCategoryController.addChild(new WifiP2pPeer(getPrefContext(), peer));
             if (peer.status == WifiP2pDevice.CONNECTED) mConnectedDevices++;
         }
         if (DBG) Log.d(TAG, " mConnectedDevices " + mConnectedDevices);
@@ -542,17 +572,14 @@ public class WifiP2pSettings extends DashboardFragment
 
     @Override
     public void onPersistentGroupInfoAvailable(WifiP2pGroupList groups) {
-        mPersistentCategoryController.removeAllChildren();
-
-        for (WifiP2pGroup group: groups.getGroupList()) {
-            if (DBG) Log.d(TAG, " group " + group);
-            WifiP2pPersistentGroup wppg = new WifiP2pPersistentGroup(getPrefContext(), group);
-            mPersistentCategoryController.addChild(wppg);
-            if (wppg.getGroupName().equals(mSelectedGroupName)) {
-                if (DBG) Log.d(TAG, "Selecting group " + wppg.getGroupName());
-                mSelectedGroup = wppg;
-                mSelectedGroupName = null;
-            }
+        mPersistentCategoryController.updateGroups(groups.getGroupList());
+
+        final WifiP2pPersistentGroup selectedGroup =
+                mPersistentCategoryController.getGroup(mSelectedGroupName);
+        if (selectedGroup != null) {
+            if (DBG) Log.d(TAG, "Selecting group " + selectedGroup.getGroupName());
+            mSelectedGroup = selectedGroup;
+            mSelectedGroupName = null;
         }
         if (mSelectedGroupName != null) {
             // Looks like there's a dialog pending getting user confirmation to delete the
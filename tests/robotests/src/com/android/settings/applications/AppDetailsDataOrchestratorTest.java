@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.android.settings.applications.AppDetailsDataOrchestrator.PRIORITY_ABOVE_FOLD;
+import static com.android.settings.applications.AppDetailsDataOrchestrator.PRIORITY_BELOW_FOLD;
+import static com.android.settings.applications.AppDetailsDataOrchestrator.TYPE_MEMORY;
+import static com.android.settings.applications.AppDetailsDataOrchestrator.TYPE_STORAGE;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.FakeFeatureFactory;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppDetailsDataOrchestratorTest {
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final int USER_ID = 0;
+    private static final String TAG = "test";
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Context mContext;
+    private final PriorityQueue<Runnable> mQueue = new PriorityQueue<>();
+    private final List<String> mLoaded = new ArrayList<>();
+    private AppDetailsDataOrchestrator mOrchestrator;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        FakeFeatureFactory.setupForTest(mContext);
+        mOrchestrator = new AppDetailsDataOrchestrator(mQueue::add,
+                new Handler(Looper.getMainLooper()));
+    }
+
+    @Test
+    public void testLoad_aboveFoldRunsBeforeBelowFold() {
+        final AppDetailsDataOrchestrator.Session session = mOrchestrator.newSession(mContext, TAG);
+
+        session.load("memory", null, PRIORITY_BELOW_FOLD, () -> "memory", mLoaded::add);
+        session.load("storage", null, PRIORITY_ABOVE_FOLD, () -> "storage", mLoaded::add);
+        session.load("notification", null, PRIORITY_ABOVE_FOLD, () -> "notification",
+                mLoaded::add);
+        drainQueue();
+
+        assertThat(mLoaded).containsExactly("storage", "notification", "memory").inOrder();
+    }
+
+    @Test
+    public void testLoad_cachedKey_reusesResultAcrossSessions() {
+        final String key = AppDetailsDataOrchestrator.getKey(TYPE_STORAGE, PACKAGE_NAME, USER_ID);
+        final int[] loads = new int[1];
+
+        mOrchestrator.newSession(mContext, TAG).load(TYPE_STORAGE, key, PRIORITY_ABOVE_FOLD,
+                () -> "stats" + ++loads[0], mLoaded::add);
+        drainQueue();
+        mOrchestrator.newSession(mContext, TAG).load(TYPE_STORAGE, key, PRIORITY_ABOVE_FOLD,
+                () -> "stats" + ++loads[0], mLoaded::add);
+        drainQueue();
+
+        assertThat(loads[0]).isEqualTo(1);
+        assertThat(mLoaded).containsExactly("stats1", "stats1");
+    }
+
+    @Test
+    public void testLoad_afterInvalidate_loadsAgain() {
+        final String key = AppDetailsDataOrchestrator.getKey(TYPE_STORAGE, PACKAGE_NAME, USER_ID);
+        mOrchestrator.putResult(key, "stale");
+
+        mOrchestrator.invalidate(PACKAGE_NAME, USER_ID);
+        mOrchestrator.newSession(mContext, TAG).load(TYPE_STORAGE, key, PRIORITY_ABOVE_FOLD,
+                () -> "fresh", mLoaded::add);
+        drainQueue();
+
+        assertThat(mLoaded).containsExactly("fresh");
+    }
+
+    @Test
+    public void testLoad_sessionClosed_callbackDropped() {
+        final AppDetailsDataOrchestrator.Session session = mOrchestrator.newSession(mContext, TAG);
+
+        session.load(TYPE_MEMORY, null, PRIORITY_BELOW_FOLD, () -> "memory", mLoaded::add);
+        session.close();
+        drainQueue();
+
+        assertThat(mLoaded).isEmpty();
+    }
+
+    @Test
+    public void testRunWhenAboveFoldLoaded_waitsForAboveFoldParts() {
+        final AppDetailsDataOrchestrator.Session session = mOrchestrator.newSession(mContext, TAG);
+        session.load(TYPE_STORAGE, null, PRIORITY_ABOVE_FOLD, () -> "storage", mLoaded::add);
+
+        session.runWhenAboveFoldLoaded(() -> mLoaded.add("battery"));
+        assertThat(mLoaded).isEmpty();
+        drainQueue();
+
+        assertThat(mLoaded).containsExactly("storage", "battery").inOrder();
+    }
+
+    private void drainQueue() {
+        while (!mQueue.isEmpty()) {
+            mQueue.poll().run();
+        }
+    }
+}
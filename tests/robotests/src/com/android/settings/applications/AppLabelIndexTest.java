@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.applications.ApplicationsState;
+import com.android.settingslib.applications.ApplicationsState.AppEntry;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppLabelIndexTest {
+    private AppEntry mCamera;
+    private AppEntry mGoogleCamera;
+    private AppEntry mCalendar;
+    private AppEntry mMaps;
+    private ArrayList<AppEntry> mEntries;
+    private AppLabelIndex mIndex;
+
+    @Before
+    public void setUp() {
+        mCamera = createEntry("Camera");
+        mGoogleCamera = createEntry("Google Camera");
+        mCalendar = createEntry("Calendar");
+        mMaps = createEntry("Maps");
+        mEntries = new ArrayList<>(Arrays.asList(mCalendar, mCamera, mGoogleCamera, mMaps));
+        mIndex = new AppLabelIndex();
+        mIndex.update(mEntries);
+    }
+
+    @Test
+    public void testFilter_emptyPrefix_returnAllEntries() {
+        assertThat(mIndex.filter(null)).isSameAs(mEntries);
+        assertThat(mIndex.filter("")).isSameAs(mEntries);
+    }
+
+    @Test
+    public void testFilter_matchesStartOfAnyWord() {
+        assertThat(mIndex.filter("cam")).containsExactly(mCamera, mGoogleCamera).inOrder();
+        assertThat(mIndex.filter("ca")).containsExactly(mCalendar, mCamera, mGoogleCamera)
+                .inOrder();
+    }
+
+    @Test
+    public void testFilter_doesNotMatchInsideWord() {
+        assertThat(mIndex.filter("aps")).isEmpty();
+    }
+
+    @Test
+    public void testFilter_normalizesPrefix() {
+        assertThat(mIndex.filter("CÁM")).containsExactly(mCamera, mGoogleCamera).inOrder();
+    }
+
+    @Test
+    public void testFilter_longerPrefixAfterShorter_sameAsFullScan() {
+        mIndex.filter("c");
+        mIndex.filter("ca");
+
+        assertThat(mIndex.filter("cal")).containsExactly(mCalendar);
+        assertThat(mIndex.filter("m")).containsExactly(mMaps);
+    }
+
+    @Test
+    public void testUpdate_reusesLabelsOfKnownEntries() {
+        mIndex.update(new ArrayList<>(Arrays.asList(mCamera, mMaps)));
+
+        // Once for the first update, none for the second.
+        verify(mCamera, times(1)).getNormalizedLabel();
+        assertThat(mIndex.filter("ca")).containsExactly(mCamera);
+    }
+
+    @Test
+    public void testUpdate_labelChanged_reindexesEntry() {
+        mMaps.label = "Karten";
+        when(mMaps.getNormalizedLabel()).thenReturn("karten");
+
+        mIndex.update(mEntries);
+
+        assertThat(mIndex.filter("ka")).containsExactly(mMaps);
+        assertThat(mIndex.filter("ma")).isEmpty();
+    }
+
+    private AppEntry createEntry(String label) {
+        final AppEntry entry = mock(ApplicationsState.AppEntry.class);
+        entry.label = label;
+        when(entry.getNormalizedLabel()).thenReturn(ApplicationsState.normalize(label));
+        return entry;
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyString;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.Manifest;
+import android.app.AppOpsManager;
+import android.content.pm.PackageInfo;
+import android.content.pm.ParceledListSlice;
+import android.os.RemoteException;
+import android.os.UserHandle;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppOpsPermissionMatrixTest {
+    private static final int OP = AppOpsManager.OP_SYSTEM_ALERT_WINDOW;
+    private static final String[] PERMISSIONS = {Manifest.permission.SYSTEM_ALERT_WINDOW};
+    private static final String PACKAGE_GRANTED = "com.android.granted";
+    private static final String PACKAGE_DENIED = "com.android.denied";
+    private static final String PACKAGE_UNAVAILABLE = "com.android.unavailable";
+    private static final String PACKAGE_OPS_ONLY = "com.android.opsonly";
+    private static final int USER_ID = 0;
+
+    @Mock
+    private IPackageManagerWrapper mPackageManager;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    private AppOpsPermissionMatrix mMatrix;
+
+    @Before
+    public void setUp() throws RemoteException {
+        MockitoAnnotations.initMocks(this);
+        when(mPackageManager.getAppOpPermissionPackages(PERMISSIONS[0])).thenReturn(
+                new String[] {PACKAGE_GRANTED, PACKAGE_DENIED, PACKAGE_UNAVAILABLE});
+        when(mPackageManager.isPackageAvailable(anyString(), anyInt())).thenReturn(true);
+        when(mPackageManager.isPackageAvailable(PACKAGE_UNAVAILABLE, USER_ID)).thenReturn(false);
+        final PackageInfo grantedInfo = new PackageInfo();
+        grantedInfo.packageName = PACKAGE_GRANTED;
+        when(mPackageManager.getPackagesHoldingPermissions(PERMISSIONS, 0, USER_ID))
+                .thenReturn(new ParceledListSlice<>(Collections.singletonList(grantedInfo)));
+        when(mAppOpsManager.getPackagesForOps(any(int[].class))).thenReturn(Arrays.asList(
+                createPackageOps(PACKAGE_DENIED, AppOpsManager.MODE_ERRORED),
+                createPackageOps(PACKAGE_OPS_ONLY, AppOpsManager.MODE_ALLOWED)));
+        mMatrix = new AppOpsPermissionMatrix(mPackageManager, mAppOpsManager);
+    }
+
+    @Test
+    public void testGetUserState_onlyRequestedAvailablePackagesIterated() {
+        final AppOpsPermissionMatrix.UserState state =
+                mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+
+        assertThat(state.getPackageName(state.nextRequestedAvailable(0)))
+                .isEqualTo(PACKAGE_GRANTED);
+        final int next = state.nextRequestedAvailable(state.nextRequestedAvailable(0) + 1);
+        assertThat(state.getPackageName(next)).isEqualTo(PACKAGE_DENIED);
+        assertThat(state.nextRequestedAvailable(next + 1)).isEqualTo(-1);
+    }
+
+    @Test
+    public void testGetUserState_permissionAndAppOpState() {
+        final AppOpsPermissionMatrix.UserState state =
+                mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+
+        final int granted = state.getOrdinal(PACKAGE_GRANTED);
+        assertThat(state.isGranted(granted)).isTrue();
+        assertThat(state.getGrantedPackageInfo(granted).packageName).isEqualTo(PACKAGE_GRANTED);
+        assertThat(state.getAppOpMode(granted)).isEqualTo(AppOpsManager.MODE_DEFAULT);
+
+        final int denied = state.getOrdinal(PACKAGE_DENIED);
+        assertThat(state.isGranted(denied)).isFalse();
+        assertThat(state.getAppOpMode(denied)).isEqualTo(AppOpsManager.MODE_ERRORED);
+
+        final int opsOnly = state.getOrdinal(PACKAGE_OPS_ONLY);
+        assertThat(state.isRequested(opsOnly)).isFalse();
+        assertThat(state.getAppOpMode(opsOnly)).isEqualTo(AppOpsManager.MODE_ALLOWED);
+
+        assertThat(state.getOrdinal("com.android.unknown")).isEqualTo(-1);
+    }
+
+    @Test
+    public void testGetUserState_secondCall_reusesState() throws RemoteException {
+        mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+        mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+
+        verify(mPackageManager, times(1)).getAppOpPermissionPackages(PERMISSIONS[0]);
+        verify(mPackageManager, times(1)).getPackagesHoldingPermissions(PERMISSIONS, 0, USER_ID);
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void testInvalidate_reloadsState() throws RemoteException {
+        mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+
+        mMatrix.invalidate();
+        mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+
+        verify(mPackageManager, times(2)).getAppOpPermissionPackages(PERMISSIONS[0]);
+    }
+
+    @Test
+    public void testInvalidateOp_reloadsOnlyThatOp() {
+        mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+        mMatrix.getUserState(AppOpsManager.OP_WRITE_SETTINGS,
+                new String[] {Manifest.permission.WRITE_SETTINGS}, USER_ID);
+
+        mMatrix.invalidateOp(OP);
+        mMatrix.getUserState(OP, PERMISSIONS, USER_ID);
+        mMatrix.getUserState(AppOpsManager.OP_WRITE_SETTINGS,
+                new String[] {Manifest.permission.WRITE_SETTINGS}, USER_ID);
+
+        verify(mAppOpsManager, times(3)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void testGetUserState_packageManagerDead_returnNull() throws RemoteException {
+        when(mPackageManager.getAppOpPermissionPackages(anyString()))
+                .thenThrow(new RemoteException());
+
+        assertThat(mMatrix.getUserState(OP, PERMISSIONS, USER_ID)).isNull();
+    }
+
+    private AppOpsManager.PackageOps createPackageOps(String packageName, int mode) {
+        final AppOpsManager.OpEntry entry = mock(AppOpsManager.OpEntry.class);
+        when(entry.getMode()).thenReturn(mode);
+        return new AppOpsManager.PackageOps(packageName, UserHandle.getUid(USER_ID, 10001),
+                Collections.singletonList(entry));
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.PackageItemInfo;
+import android.content.pm.PackageManager;
+import android.content.res.Configuration;
+import android.content.res.Resources;
+import android.graphics.drawable.ColorDrawable;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppOpsStateTest {
+    private static final String PACKAGE_NAME = "com.android.test";
+    private static final String LABEL = "Test app";
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private Resources mResources;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    @Mock
+    private PackageManager mPackageManager;
+    private File mApkFile;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        AppOpsState.invalidatePackageEntries();
+        when(mContext.getResources()).thenReturn(mResources);
+        when(mResources.getConfiguration()).thenReturn(new Configuration());
+        when(mContext.getSystemService(Context.APP_OPS_SERVICE)).thenReturn(mAppOpsManager);
+        when(mContext.getPackageManager()).thenReturn(mPackageManager);
+
+        mApkFile = File.createTempFile("base", ".apk");
+        final ApplicationInfo info = new ApplicationInfo();
+        info.packageName = PACKAGE_NAME;
+        info.sourceDir = mApkFile.getPath();
+        info.nonLocalizedLabel = LABEL;
+        when(mPackageManager.getApplicationInfo(eq(PACKAGE_NAME), anyInt())).thenReturn(info);
+        when(mPackageManager.loadItemIcon(any(PackageItemInfo.class),
+                any(ApplicationInfo.class))).thenReturn(new ColorDrawable());
+
+        final AppOpsManager.OpEntry op = new AppOpsManager.OpEntry(
+                AppOpsManager.OP_COARSE_LOCATION, AppOpsManager.MODE_ALLOWED, 0, 0, 0, -1, null);
+        when(mAppOpsManager.getPackagesForOps(any(int[].class))).thenReturn(
+                Collections.singletonList(new AppOpsManager.PackageOps(
+                        PACKAGE_NAME, 10001, Collections.singletonList(op))));
+    }
+
+    @After
+    public void tearDown() {
+        AppOpsState.invalidatePackageEntries();
+        mApkFile.delete();
+    }
+
+    @Test
+    public void testBuildState_labelsNotLoaded_usePackageName() {
+        final AppOpsState state = new AppOpsState(mContext);
+
+        final List<AppOpsState.AppOpEntry> entries = state.buildState(
+                AppOpsState.LOCATION_TEMPLATE, 0, null, AppOpsState.RECENCY_COMPARATOR,
+                false /* loadLabels */);
+
+        assertThat(entries).hasSize(1);
+        assertThat(entries.get(0).getAppEntry().getLabel()).isEqualTo(PACKAGE_NAME);
+        assertThat(state.hasUnloadedApps(entries)).isTrue();
+    }
+
+    @Test
+    public void testLoadApps_loadsLabelAndIcon() {
+        final AppOpsState state = new AppOpsState(mContext);
+        final List<AppOpsState.AppOpEntry> entries = state.buildState(
+                AppOpsState.LOCATION_TEMPLATE, 0, null, AppOpsState.RECENCY_COMPARATOR,
+                false /* loadLabels */);
+
+        assertThat(state.loadApps(entries)).isTrue();
+
+        assertThat(entries.get(0).getAppEntry().getLabel()).isEqualTo(LABEL);
+        assertThat(state.hasUnloadedApps(entries)).isFalse();
+        // Already loaded, nothing to sort again.
+        assertThat(state.loadApps(entries)).isFalse();
+    }
+
+    @Test
+    public void testLoadApps_apkMissing_isLoaded() {
+        mApkFile.delete();
+        final AppOpsState state = new AppOpsState(mContext);
+        final List<AppOpsState.AppOpEntry> entries = state.buildState(
+                AppOpsState.LOCATION_TEMPLATE, 0, null, AppOpsState.RECENCY_COMPARATOR,
+                false /* loadLabels */);
+
+        state.loadApps(entries);
+
+        assertThat(entries.get(0).getAppEntry().getLabel()).isEqualTo(PACKAGE_NAME);
+        assertThat(state.hasUnloadedApps(entries)).isFalse();
+        assertThat(state.loadApps(entries)).isFalse();
+    }
+
+    @Test
+    public void testBuildState_otherTemplate_reusesLoadedApps() throws Exception {
+        final AppOpsState state = new AppOpsState(mContext);
+        state.loadApps(state.buildState(AppOpsState.LOCATION_TEMPLATE, 0, null,
+                AppOpsState.RECENCY_COMPARATOR, false /* loadLabels */));
+
+        final List<AppOpsState.AppOpEntry> entries = new AppOpsState(mContext).buildState(
+                AppOpsState.PERSONAL_TEMPLATE, 0, null, AppOpsState.RECENCY_COMPARATOR,
+                false /* loadLabels */);
+
+        assertThat(entries.get(0).getAppEntry().getLabel()).isEqualTo(LABEL);
+        assertThat(state.hasUnloadedApps(entries)).isFalse();
+        verify(mPackageManager, times(1)).getApplicationInfo(eq(PACKAGE_NAME), anyInt());
+    }
+
+    @Test
+    public void testInvalidatePackageEntries_reloadsApps() throws Exception {
+        final AppOpsState state = new AppOpsState(mContext);
+        state.loadApps(state.buildState(AppOpsState.LOCATION_TEMPLATE, 0, null,
+                AppOpsState.RECENCY_COMPARATOR, false /* loadLabels */));
+
+        AppOpsState.invalidatePackageEntries();
+        final List<AppOpsState.AppOpEntry> entries = state.buildState(
+                AppOpsState.LOCATION_TEMPLATE, 0, null, AppOpsState.RECENCY_COMPARATOR,
+                false /* loadLabels */);
+
+        assertThat(state.hasUnloadedApps(entries)).isTrue();
+        verify(mPackageManager, times(2)).getApplicationInfo(eq(PACKAGE_NAME), anyInt());
+    }
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ApplicationInfo;
+import android.content.pm.UserInfo;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class InstalledAppsCacheTest {
+    private static final int MAIN_USER_ID = 0;
+    private static final int MANAGED_PROFILE_ID = 10;
+
+    @Mock
+    private Context mContext;
+    @Mock
+    private PackageManagerWrapper mPackageManager;
+    private final UserInfo mMainUser = new UserInfo(MAIN_USER_ID, "main", UserInfo.FLAG_ADMIN);
+    private final UserInfo mManagedProfile = new UserInfo(MANAGED_PROFILE_ID, "managed", 0);
+    private final List<Runnable> mPendingTasks = new ArrayList<>();
+    private InstalledAppsCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mPackageManager.getInstalledApplicationsAsUser(anyInt(), anyInt()))
+                .thenReturn(Collections.singletonList(new ApplicationInfo()));
+        mCache = new InstalledAppsCache(mPendingTasks::add);
+    }
+
+    @Test
+    public void testGetInstalledApplications_notObserving_alwaysLoads() {
+        mCache.getInstalledApplications(mPackageManager, mMainUser);
+        mCache.getInstalledApplications(mPackageManager, mMainUser);
+
+        verify(mPackageManager, times(2)).getInstalledApplicationsAsUser(anyInt(),
+                eq(MAIN_USER_ID));
+    }
+
+    @Test
+    public void testGetInstalledApplications_observing_reusesSnapshot() {
+        mCache.startObserving(mContext);
+
+        final List<ApplicationInfo> first =
+                mCache.getInstalledApplications(mPackageManager, mMainUser);
+        final List<ApplicationInfo> second =
+                mCache.getInstalledApplications(mPackageManager, mMainUser);
+
+        assertThat(second).isSameAs(first);
+        verify(mPackageManager, times(1)).getInstalledApplicationsAsUser(anyInt(),
+                eq(MAIN_USER_ID));
+    }
+
+    @Test
+    public void testGetInstalledApplications_packageBroadcast_reloads() {
+        mCache.startObserving(mContext);
+        mCache.getInstalledApplications(mPackageManager, mMainUser);
+        final int generation = mCache.getGeneration();
+
+        mCache.mReceiver.onReceive(mContext, new Intent(Intent.ACTION_PACKAGE_ADDED));
+        mCache.getInstalledApplications(mPackageManager, mMainUser);
+
+        assertThat(mCache.getGeneration()).isEqualTo(generation + 1);
+        verify(mPackageManager, times(2)).getInstalledApplicationsAsUser(anyInt(),
+                eq(MAIN_USER_ID));
+    }
+
+    @Test
+    public void testRunForEachProfile_poolBusy_runsOnCallerInProfileOrder() {
+        final List<Integer> results = mCache.runForEachProfile(
+                Arrays.asList(mMainUser, mManagedProfile), user -> user.id);
+
+        assertThat(results).containsExactly(MAIN_USER_ID, MANAGED_PROFILE_ID).inOrder();
+        // The queued task was already run by the caller, so running it again does nothing.
+        assertThat(mPendingTasks).hasSize(1);
+        mPendingTasks.get(0).run();
+    }
+
+    @Test
+    public void testRunForEachProfile_noProfiles_returnEmpty() {
+        assertThat(mCache.runForEachProfile(Collections.emptyList(), user -> user.id))
+                .isEmpty();
+    }
+}
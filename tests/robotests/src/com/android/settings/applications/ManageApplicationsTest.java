@@ -24,6 +24,7 @@ import static org.mockito.Mockito.doNothing;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
@@ -38,6 +39,7 @@ import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.ListView;
 import android.widget.TextView;
 
 import com.android.settings.R;
@@ -245,6 +247,72 @@ public class ManageApplicationsTest {
         verify(loadingViewController).showContent(true /* animate */);
     }
 
+    @Test
+    public void onRebuildComplete_sameEntries_shouldNotNotifyDataSetChanged() {
+        final ManageApplications.ApplicationsAdapter adapter = createRebuildableAdapter();
+        final ArrayList<ApplicationsState.AppEntry> appList = new ArrayList<>();
+        appList.add(mock(ApplicationsState.AppEntry.class));
+        appList.add(mock(ApplicationsState.AppEntry.class));
+
+        adapter.onRebuildComplete(appList);
+        adapter.onRebuildComplete(new ArrayList<>(appList));
+
+        verify(adapter, times(1)).notifyDataSetChanged();
+    }
+
+    @Test
+    public void onRebuildComplete_entriesChanged_shouldNotifyDataSetChanged() {
+        final ManageApplications.ApplicationsAdapter adapter = createRebuildableAdapter();
+        final ArrayList<ApplicationsState.AppEntry> appList = new ArrayList<>();
+        appList.add(mock(ApplicationsState.AppEntry.class));
+
+        adapter.onRebuildComplete(appList);
+        final ArrayList<ApplicationsState.AppEntry> newList = new ArrayList<>(appList);
+        newList.add(mock(ApplicationsState.AppEntry.class));
+        adapter.onRebuildComplete(newList);
+
+        verify(adapter, times(2)).notifyDataSetChanged();
+    }
+
+    @Test
+    public void hasSameEntries_reorderedEntries_shouldReturnFalse() {
+        final ApplicationsState.AppEntry first = mock(ApplicationsState.AppEntry.class);
+        final ApplicationsState.AppEntry second = mock(ApplicationsState.AppEntry.class);
+        final ArrayList<ApplicationsState.AppEntry> oldList = new ArrayList<>();
+        oldList.add(first);
+        oldList.add(second);
+        final ArrayList<ApplicationsState.AppEntry> newList = new ArrayList<>();
+        newList.add(second);
+        newList.add(first);
+
+        assertThat(ManageApplications.ApplicationsAdapter.hasSameEntries(oldList, newList))
+                .isFalse();
+        assertThat(ManageApplications.ApplicationsAdapter.hasSameEntries(oldList,
+                new ArrayList<>(oldList))).isTrue();
+        assertThat(ManageApplications.ApplicationsAdapter.hasSameEntries(null, newList))
+                .isFalse();
+    }
+
+    private ManageApplications.ApplicationsAdapter createRebuildableAdapter() {
+        final Context context = RuntimeEnvironment.application;
+        final ManageApplications fragment = mock(ManageApplications.class);
+        final View loadingContainer = mock(View.class);
+        when(loadingContainer.getContext()).thenReturn(context);
+        final View listContainer = mock(View.class);
+        when(listContainer.getContext()).thenReturn(context);
+        ReflectionHelpers.setField(fragment, "mLoadingContainer", loadingContainer);
+        ReflectionHelpers.setField(fragment, "mListContainer", listContainer);
+        ReflectionHelpers.setField(fragment, "mListView", mock(ListView.class));
+        when(fragment.getActivity()).thenReturn(mock(Activity.class));
+        final ManageApplications.ApplicationsAdapter adapter =
+                spy(new ManageApplications.ApplicationsAdapter(mState, fragment, 0));
+        ReflectionHelpers.setField(adapter, "mLoadingViewController",
+                mock(LoadingViewController.class));
+        ReflectionHelpers.setField(adapter, "mFilterMode", -1);
+        when(mSession.getAllApps()).thenReturn(new ArrayList<>());
+        return adapter;
+    }
+
     private void setUpOptionMenus() {
         when(mMenu.findItem(anyInt())).thenAnswer(invocation -> {
             final Object[] args = invocation.getArguments();
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.internal.app.procstats.ProcessStats;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class ProcStatsDataTest {
+    private static final long LOAD_TIME = 1000;
+
+    @After
+    public void tearDown() {
+        ProcStatsData.clearCache();
+    }
+
+    @Test
+    public void testGetCacheKey_differentFilters_differentKeys() {
+        final String key = ProcStatsData.getCacheKey(LOAD_TIME, ProcessStats.ALL_MEM_ADJ,
+                ProcessStats.BACKGROUND_PROC_STATES);
+
+        assertThat(ProcStatsData.getCacheKey(LOAD_TIME, ProcessStats.ALL_MEM_ADJ,
+                ProcessStats.BACKGROUND_PROC_STATES)).isEqualTo(key);
+        assertThat(ProcStatsData.getCacheKey(LOAD_TIME * 2, ProcessStats.ALL_MEM_ADJ,
+                ProcessStats.BACKGROUND_PROC_STATES)).isNotEqualTo(key);
+        assertThat(ProcStatsData.getCacheKey(LOAD_TIME, ProcessStats.ALL_MEM_ADJ,
+                ProcessStatsUi.FOREGROUND_PROC_STATES)).isNotEqualTo(key);
+    }
+
+    @Test
+    public void testGetCachedStats_withinLifetime_returnCachedStats() {
+        final ProcStatsData.CachedStats cached = createCachedStats();
+        ProcStatsData.putCachedStats("key", cached);
+
+        assertThat(ProcStatsData.getCachedStats("key",
+                LOAD_TIME + ProcStatsData.CACHE_TTL_MS - 1)).isSameAs(cached);
+        assertThat(ProcStatsData.getCachedStats("other", LOAD_TIME)).isNull();
+    }
+
+    @Test
+    public void testGetCachedStats_expired_returnNull() {
+        ProcStatsData.putCachedStats("key", createCachedStats());
+
+        assertThat(ProcStatsData.getCachedStats("key",
+                LOAD_TIME + ProcStatsData.CACHE_TTL_MS)).isNull();
+        // Expired stats are dropped.
+        assertThat(ProcStatsData.getCachedStats("key", LOAD_TIME)).isNull();
+    }
+
+    @Test
+    public void testCachedStats_copyEntries_returnsEntriesOfTheCaller() {
+        final ProcStatsPackageEntry entry = new ProcStatsPackageEntry("package", LOAD_TIME);
+        entry.mBgWeight = 1;
+        final ProcStatsData.CachedStats cached = new ProcStatsData.CachedStats(null, null,
+                Collections.singletonList(entry), 0, LOAD_TIME);
+
+        final List<ProcStatsPackageEntry> first = cached.copyEntries();
+        first.get(0).mBgWeight = 2;
+        final List<ProcStatsPackageEntry> second = cached.copyEntries();
+
+        assertThat(first.get(0)).isNotSameAs(entry);
+        assertThat(second.get(0)).isNotSameAs(first.get(0));
+        assertThat(second.get(0).mBgWeight).isEqualTo(1.0);
+        assertThat(entry.mBgWeight).isEqualTo(1.0);
+    }
+
+    private ProcStatsData.CachedStats createCachedStats() {
+        return new ProcStatsData.CachedStats(null, null, Collections.emptyList(), 0, LOAD_TIME);
+    }
+}
@@ -91,6 +91,8 @@ public class RecentAppsPreferenceControllerTest {
     @Before
     public void setUp() {
         MockitoAnnotations.initMocks(this);
+        // The cache is shared by all controllers of a user.
+        RecentUsageCache.invalidateAll();
         when(mMockContext.getSystemService(Context.USAGE_STATS_SERVICE))
                 .thenReturn(mUsageStatsManager);
         when(mMockContext.getSystemService(Context.USER_SERVICE))
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.app.usage.UsageStats;
+import android.app.usage.UsageStatsManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.UserHandle;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class RecentUsageCacheTest {
+    private static final Comparator<UsageStats> MOST_RECENT_FIRST =
+            (a, b) -> Long.compare(b.getLastTimeUsed(), a.getLastTimeUsed());
+
+    @Mock
+    private UsageStatsManager mUsageStatsManager;
+    private RecentUsageCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mUsageStatsManager.queryUsageStats(anyInt(), anyLong(), anyLong())).thenReturn(
+                Arrays.asList(createStats("pkg.old", 50), createStats("pkg.a", 150),
+                        createStats("pkg.b", 300), createStats("pkg.a", 200)));
+        mCache = new RecentUsageCache();
+    }
+
+    @After
+    public void tearDown() {
+        RecentUsageCache.invalidateAll();
+    }
+
+    @Test
+    public void testGetRecentUsage_mergesPackagesInWindow() {
+        final PriorityQueue<UsageStats> heap =
+                mCache.getRecentUsage(mUsageStatsManager, 100, 1000, MOST_RECENT_FIRST);
+
+        assertThat(heap).hasSize(2);
+        assertThat(heap.poll().getPackageName()).isEqualTo("pkg.b");
+        final UsageStats second = heap.poll();
+        assertThat(second.getPackageName()).isEqualTo("pkg.a");
+        assertThat(second.getLastTimeUsed()).isEqualTo(200L);
+    }
+
+    @Test
+    public void testGetRecentUsage_windowMovedForward_onlyQueriesEvents() {
+        mCache.getRecentUsage(mUsageStatsManager, 100, 1000, MOST_RECENT_FIRST);
+
+        final PriorityQueue<UsageStats> heap =
+                mCache.getRecentUsage(mUsageStatsManager, 250, 2000, MOST_RECENT_FIRST);
+
+        verify(mUsageStatsManager, times(1)).queryUsageStats(anyInt(), anyLong(), anyLong());
+        verify(mUsageStatsManager).queryEvents(1000, 2000);
+        // pkg.a fell out of the window.
+        assertThat(heap).hasSize(1);
+        assertThat(heap.peek().getPackageName()).isEqualTo("pkg.b");
+    }
+
+    @Test
+    public void testGetRecentUsage_windowMovedBack_reloads() {
+        mCache.getRecentUsage(mUsageStatsManager, 100, 1000, MOST_RECENT_FIRST);
+
+        mCache.getRecentUsage(mUsageStatsManager, 0, 1000, MOST_RECENT_FIRST);
+
+        verify(mUsageStatsManager, times(2)).queryUsageStats(anyInt(), anyLong(), anyLong());
+    }
+
+    @Test
+    public void testGetRecentUsage_heapDoesNotExposeCachedStats() {
+        mCache.getRecentUsage(mUsageStatsManager, 100, 1000, MOST_RECENT_FIRST)
+                .peek().mLastTimeUsed = 0;
+
+        assertThat(mCache.getRecentUsage(mUsageStatsManager, 100, 1000, MOST_RECENT_FIRST)
+                .peek().getLastTimeUsed()).isEqualTo(300L);
+    }
+
+    @Test
+    public void testGetInstance_sameUser_sharesCache() {
+        final Context context = RuntimeEnvironment.application;
+        final RecentUsageCache cache = RecentUsageCache.getInstance(context, UserHandle.myUserId());
+
+        assertThat(RecentUsageCache.getInstance(context, UserHandle.myUserId())).isSameAs(cache);
+    }
+
+    @Test
+    public void testPackageRemoved_reloads() {
+        final Context context = RuntimeEnvironment.application;
+        final RecentUsageCache cache = RecentUsageCache.getInstance(context, UserHandle.myUserId());
+        cache.getRecentUsage(mUsageStatsManager, 100, 1000, MOST_RECENT_FIRST);
+
+        final Intent intent = new Intent(Intent.ACTION_PACKAGE_REMOVED);
+        intent.putExtra(Intent.EXTRA_UID, UserHandle.getUid(UserHandle.myUserId(), 10001));
+        new RecentUsageCache.PackageRemovedReceiver().onReceive(context, intent);
+        cache.getRecentUsage(mUsageStatsManager, 100, 1000, MOST_RECENT_FIRST);
+
+        verify(mUsageStatsManager, times(2)).queryUsageStats(anyInt(), anyLong(), anyLong());
+    }
+
+    private UsageStats createStats(String packageName, long lastTimeUsed) {
+        final UsageStats stats = new UsageStats();
+        stats.mPackageName = packageName;
+        stats.mLastTimeUsed = lastTimeUsed;
+        return stats;
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.applications;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.app.ActivityManager.RunningAppProcessInfo;
+import android.app.ActivityManager.RunningServiceInfo;
+import android.content.ComponentName;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class RunningStateTest {
+    private static final String PACKAGE_NAME = "com.android.app";
+    private static final int PID = 1234;
+    private static final int UID = 10050;
+
+    @Test
+    public void testIsSameServiceSnapshot_noPreviousSnapshot_returnFalse() {
+        assertThat(RunningState.isSameServiceSnapshot(null, Collections.emptyList())).isFalse();
+    }
+
+    @Test
+    public void testIsSameServiceSnapshot_equalServices_returnTrue() {
+        final List<RunningServiceInfo> last = Arrays.asList(createService("Sync", PID));
+        final List<RunningServiceInfo> current = Arrays.asList(createService("Sync", PID));
+
+        assertThat(RunningState.isSameServiceSnapshot(last, current)).isTrue();
+    }
+
+    @Test
+    public void testIsSameServiceSnapshot_serviceRestarted_returnFalse() {
+        final List<RunningServiceInfo> last = Arrays.asList(createService("Sync", PID));
+        final List<RunningServiceInfo> current = Arrays.asList(createService("Sync", PID + 1));
+
+        assertThat(RunningState.isSameServiceSnapshot(last, current)).isFalse();
+    }
+
+    @Test
+    public void testIsSameServiceSnapshot_reordered_returnTrue() {
+        final List<RunningServiceInfo> last =
+                Arrays.asList(createService("Sync", PID), createService("Music", PID));
+        final List<RunningServiceInfo> current =
+                Arrays.asList(createService("Music", PID), createService("Sync", PID));
+
+        assertThat(RunningState.isSameServiceSnapshot(last, current)).isTrue();
+    }
+
+    @Test
+    public void testIsSameServiceSnapshot_sameComponentOtherUid_returnFalse() {
+        final RunningServiceInfo service = createService("Sync", PID);
+        service.uid = UID + 1;
+        final List<RunningServiceInfo> last = Arrays.asList(createService("Sync", PID));
+
+        assertThat(RunningState.isSameServiceSnapshot(last, Arrays.asList(service))).isFalse();
+    }
+
+    @Test
+    public void testIsSameServiceSnapshot_serviceAdded_returnFalse() {
+        final List<RunningServiceInfo> last = Arrays.asList(createService("Sync", PID));
+        final List<RunningServiceInfo> current = new ArrayList<>(last);
+        current.add(createService("Music", PID));
+
+        assertThat(RunningState.isSameServiceSnapshot(last, current)).isFalse();
+    }
+
+    @Test
+    public void testIsSameServiceSnapshot_clientChanged_returnFalse() {
+        final RunningServiceInfo service = createService("Sync", PID);
+        service.clientPackage = PACKAGE_NAME;
+        service.clientLabel = 1;
+        final List<RunningServiceInfo> last = Arrays.asList(createService("Sync", PID));
+
+        assertThat(RunningState.isSameServiceSnapshot(last, Arrays.asList(service))).isFalse();
+    }
+
+    @Test
+    public void testIsSameServiceSnapshot_nullCurrent_sameAsEmpty() {
+        assertThat(RunningState.isSameServiceSnapshot(Collections.emptyList(), null)).isTrue();
+    }
+
+    @Test
+    public void testIsSameProcessSnapshot_equalProcesses_returnTrue() {
+        final List<RunningAppProcessInfo> last = Arrays.asList(createProcess(PID));
+        final List<RunningAppProcessInfo> current = Arrays.asList(createProcess(PID));
+
+        assertThat(RunningState.isSameProcessSnapshot(last, current)).isTrue();
+    }
+
+    @Test
+    public void testIsSameProcessSnapshot_importanceChanged_returnFalse() {
+        final RunningAppProcessInfo process = createProcess(PID);
+        process.importance = RunningAppProcessInfo.IMPORTANCE_CACHED;
+        final List<RunningAppProcessInfo> last = Arrays.asList(createProcess(PID));
+
+        assertThat(RunningState.isSameProcessSnapshot(last, Arrays.asList(process))).isFalse();
+    }
+
+    @Test
+    public void testIsSameProcessSnapshot_lruChanged_returnTrue() {
+        final RunningAppProcessInfo process = createProcess(PID);
+        process.lru = 5;
+        final List<RunningAppProcessInfo> last = Arrays.asList(createProcess(PID));
+
+        assertThat(RunningState.isSameProcessSnapshot(last, Arrays.asList(process))).isTrue();
+    }
+
+    @Test
+    public void testIsSameProcessSnapshot_reordered_returnTrue() {
+        final List<RunningAppProcessInfo> last =
+                Arrays.asList(createProcess(PID), createProcess(PID + 1));
+        final List<RunningAppProcessInfo> current =
+                Arrays.asList(createProcess(PID + 1), createProcess(PID));
+
+        assertThat(RunningState.isSameProcessSnapshot(last, current)).isTrue();
+    }
+
+    @Test
+    public void testIsSameProcessSnapshot_pidReplaced_returnFalse() {
+        final List<RunningAppProcessInfo> last =
+                Arrays.asList(createProcess(PID), createProcess(PID + 1));
+        final List<RunningAppProcessInfo> current =
+                Arrays.asList(createProcess(PID), createProcess(PID + 2));
+
+        assertThat(RunningState.isSameProcessSnapshot(last, current)).isFalse();
+    }
+
+    private RunningServiceInfo createService(String className, int pid) {
+        final RunningServiceInfo service = new RunningServiceInfo();
+        service.service = new ComponentName(PACKAGE_NAME, PACKAGE_NAME + "." + className);
+        service.pid = pid;
+        service.uid = UID;
+        service.process = PACKAGE_NAME;
+        service.started = true;
+        service.activeSince = 1000;
+        return service;
+    }
+
+    private RunningAppProcessInfo createProcess(int pid) {
+        final RunningAppProcessInfo process = new RunningAppProcessInfo(PACKAGE_NAME, pid,
+                new String[]{PACKAGE_NAME});
+        process.uid = UID;
+        process.importance = RunningAppProcessInfo.IMPORTANCE_SERVICE;
+        return process;
+    }
+}
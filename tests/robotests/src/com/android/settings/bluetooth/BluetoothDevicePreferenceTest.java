@@ -220,4 +220,19 @@ public class BluetoothDevicePreferenceTest {
         preference.onDeviceAttributesChanged();
         assertThat(preference.isVisible()).isTrue();
     }
+
+    @Test
+    public void testCompareTo_discoveryOrder_sortsAfterOtherDevicesByOrder() {
+        final BluetoothDevicePreference other = new BluetoothDevicePreference(mContext,
+                mock(CachedBluetoothDevice.class), mDeviceListPreferenceFragment);
+        final BluetoothDevicePreference unordered = new BluetoothDevicePreference(mContext,
+                mock(CachedBluetoothDevice.class), mDeviceListPreferenceFragment);
+        mPreference.setDiscoveryOrder(1);
+        other.setDiscoveryOrder(0);
+
+        assertThat(mPreference.compareTo(other)).isGreaterThan(0);
+        assertThat(other.compareTo(mPreference)).isLessThan(0);
+        assertThat(unordered.compareTo(other)).isLessThan(0);
+        assertThat(other.compareTo(unordered)).isGreaterThan(0);
+    }
 }
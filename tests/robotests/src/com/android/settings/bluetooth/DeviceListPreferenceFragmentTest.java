@@ -22,14 +22,22 @@ import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.anyBoolean;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.spy;
 import static org.mockito.Mockito.times;
 import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
 
+import android.bluetooth.BluetoothAdapter;
+import android.bluetooth.BluetoothDevice;
+import android.bluetooth.BluetoothManager;
 import android.content.Context;
 import android.content.res.Resources;
 import android.os.UserManager;
 import android.support.v7.preference.Preference;
+import android.support.v7.preference.PreferenceCategory;
+import android.support.v7.preference.PreferenceManager;
+import android.support.v7.preference.PreferenceScreen;
 
 import com.android.settings.R;
 import com.android.settings.testutils.SettingsRobolectricTestRunner;
@@ -41,6 +49,7 @@ import com.android.settingslib.core.AbstractPreferenceController;
 import org.junit.Before;
 import org.junit.Test;
 import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
 import org.mockito.Mock;
 import org.mockito.MockitoAnnotations;
 import org.robolectric.RuntimeEnvironment;
@@ -172,6 +181,120 @@ public class DeviceListPreferenceFragmentTest {
         verify(mLocalAdapter, times(1)).startScanning(anyBoolean());
     }
 
+    @Test
+    public void testOnDeviceAdded_whileScanning_addsDevicesInBatchByPriority() {
+        setUpDeviceList();
+        mFragment.mShowDevicesWithoutNames = true;
+        final CachedBluetoothDevice unnamed = mockDevice("00:00:00:00:00:01", false);
+        final CachedBluetoothDevice weak = mockDevice("00:00:00:00:00:02", true);
+        final CachedBluetoothDevice strong = mockDevice("00:00:00:00:00:03", true);
+        // CachedBluetoothDevice puts devices with a stronger signal first.
+        when(strong.compareTo(weak)).thenReturn(-1);
+        when(weak.compareTo(strong)).thenReturn(1);
+
+        mFragment.onDeviceAdded(unnamed);
+        mFragment.onDeviceAdded(weak);
+        mFragment.onDeviceAdded(strong);
+        assertThat(mFragment.mDeviceListGroup.getPreferenceCount()).isEqualTo(0);
+
+        mFragment.addPendingDevices();
+
+        assertThat(mFragment.mDeviceListGroup.getPreferenceCount()).isEqualTo(3);
+        assertThat(getDevice(0)).isSameAs(strong);
+        assertThat(getDevice(1)).isSameAs(weak);
+        assertThat(getDevice(2)).isSameAs(unnamed);
+        assertThat(mFragment.mPendingDevices).isEmpty();
+    }
+
+    @Test
+    public void testAddPendingDevices_overMaximum_addsDevicesOnceThereIsRoom() {
+        setUpDeviceList();
+        doReturn(1).when(mFragment).getMaxDiscoveredDevices();
+        final CachedBluetoothDevice first = mockDevice("00:00:00:00:00:01", true);
+        final CachedBluetoothDevice second = mockDevice("00:00:00:00:00:02", true);
+        mFragment.onDeviceAdded(first);
+        mFragment.onDeviceAdded(second);
+
+        mFragment.addPendingDevices();
+
+        assertThat(mFragment.mDeviceListGroup.getPreferenceCount()).isEqualTo(1);
+        assertThat(getDevice(0)).isSameAs(first);
+        assertThat(mFragment.mPendingDevices).containsExactly(second);
+
+        mFragment.onDeviceDeleted(first);
+        mFragment.addPendingDevices();
+
+        assertThat(mFragment.mDeviceListGroup.getPreferenceCount()).isEqualTo(1);
+        assertThat(getDevice(0)).isSameAs(second);
+    }
+
+    @Test
+    public void testAddPendingDevices_namelessDevicesFirst_namedDeviceIsShown() {
+        setUpDeviceList();
+        for (int i = 0; i < DeviceListPreferenceFragment.DEFAULT_MAX_DISCOVERED_DEVICES; i++) {
+            mFragment.onDeviceAdded(mockDevice(String.format("00:00:00:00:01:%02X", i), false));
+        }
+        mFragment.addPendingDevices();
+        final CachedBluetoothDevice named = mockDevice("00:00:00:00:00:01", true);
+        mFragment.onDeviceAdded(named);
+
+        mFragment.addPendingDevices();
+
+        assertThat(mFragment.mDeviceListGroup.getPreferenceCount()).isEqualTo(1);
+        assertThat(getDevice(0)).isSameAs(named);
+        assertThat(mFragment.mPendingDevices).hasSize(
+                DeviceListPreferenceFragment.DEFAULT_MAX_DISCOVERED_DEVICES);
+    }
+
+    @Test
+    public void testAddPendingDevices_nameResolved_addsDevice() {
+        setUpDeviceList();
+        final CachedBluetoothDevice device = mockDevice("00:00:00:00:00:01", false);
+        mFragment.onDeviceAdded(device);
+        mFragment.addPendingDevices();
+        assertThat(mFragment.mDeviceListGroup.getPreferenceCount()).isEqualTo(0);
+        final ArgumentCaptor<CachedBluetoothDevice.Callback> callback =
+                ArgumentCaptor.forClass(CachedBluetoothDevice.Callback.class);
+        verify(device).registerCallback(callback.capture());
+
+        when(device.hasHumanReadableName()).thenReturn(true);
+        callback.getValue().onDeviceAttributesChanged();
+        mFragment.addPendingDevices();
+
+        assertThat(mFragment.mDeviceListGroup.getPreferenceCount()).isEqualTo(1);
+        assertThat(mFragment.mPendingDevices).isEmpty();
+        verify(device).unregisterCallback(callback.getValue());
+    }
+
+    private void setUpDeviceList() {
+        final Context context = RuntimeEnvironment.application;
+        final PreferenceManager preferenceManager = new PreferenceManager(context);
+        final PreferenceScreen screen = preferenceManager.createPreferenceScreen(context);
+        final PreferenceCategory category = new PreferenceCategory(context);
+        screen.addPreference(category);
+        doReturn(preferenceManager).when(mFragment).getPreferenceManager();
+        mFragment.mDeviceListGroup = category;
+        when(mLocalAdapter.getBluetoothState()).thenReturn(BluetoothAdapter.STATE_ON);
+        mFragment.enableScanning();
+    }
+
+    private CachedBluetoothDevice mockDevice(String address, boolean named) {
+        final BluetoothAdapter adapter =
+                new BluetoothManager(RuntimeEnvironment.application).getAdapter();
+        final CachedBluetoothDevice cachedDevice = mock(CachedBluetoothDevice.class);
+        final BluetoothDevice device = adapter.getRemoteDevice(address);
+        when(cachedDevice.getDevice()).thenReturn(device);
+        when(cachedDevice.getAddress()).thenReturn(address);
+        when(cachedDevice.getBondState()).thenReturn(BluetoothDevice.BOND_NONE);
+        when(cachedDevice.hasHumanReadableName()).thenReturn(named);
+        return cachedDevice;
+    }
+
+    private CachedBluetoothDevice getDevice(int index) {
+        return ((BluetoothDevicePreference) mFragment.mDeviceListGroup.getPreference(index))
+                .getCachedDevice();
+    }
+
     /**
      * Fragment to test since {@code DeviceListPreferenceFragment} is abstract
      */
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.TrafficStats.UID_REMOVED;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.pm.UserInfo;
+import android.os.UserHandle;
+import android.os.UserManager;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AppUsageCollapserTest {
+    private static final int CURRENT_USER = 0;
+    private static final int MANAGED_USER = 10;
+    private static final int OTHER_USER = 11;
+    private static final int REMOVED_USER = 12;
+    private static final int APP_ID = 10001;
+
+    @Mock
+    private UserManager mUserManager;
+    private AppUsageCollapser mCollapser;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        when(mUserManager.getUserInfo(OTHER_USER)).thenReturn(new UserInfo());
+        mCollapser = new AppUsageCollapser(CURRENT_USER,
+                Arrays.asList(new UserHandle(CURRENT_USER), new UserHandle(MANAGED_USER)),
+                mUserManager);
+    }
+
+    @Test
+    public void testAdd_managedProfileApp_addsToUserAndApp() {
+        final int uid = UserHandle.getUid(MANAGED_USER, APP_ID);
+        mCollapser.add(uid, 100);
+
+        final List<AppItem> items = mCollapser.getItems();
+
+        assertThat(items).hasSize(2);
+        final AppItem userItem = findItem(items, UidDetailProvider.buildKeyForUser(MANAGED_USER));
+        assertThat(userItem.category).isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(userItem.total).isEqualTo(100L);
+        final AppItem appItem = findItem(items, uid);
+        assertThat(appItem.category).isEqualTo(AppItem.CATEGORY_APP);
+        assertThat(appItem.total).isEqualTo(100L);
+        assertThat(appItem.uids.get(uid)).isTrue();
+    }
+
+    @Test
+    public void testAdd_sameUid_addsUpRows() {
+        final int uid = UserHandle.getUid(CURRENT_USER, APP_ID);
+        mCollapser.add(uid, 100);
+        mCollapser.add(uid, 50);
+        mCollapser.add(UserHandle.getUid(CURRENT_USER, APP_ID + 1), 120);
+
+        final List<AppItem> items = mCollapser.getItems();
+
+        assertThat(items).hasSize(2);
+        // Sorted by descending usage.
+        assertThat(items.get(0).key).isEqualTo(uid);
+        assertThat(items.get(0).total).isEqualTo(150L);
+        assertThat(mCollapser.getLargest()).isEqualTo(150L);
+    }
+
+    @Test
+    public void testAdd_otherUsers_collapsePerUserAndLookUpOnce() {
+        mCollapser.add(UserHandle.getUid(OTHER_USER, APP_ID), 10);
+        mCollapser.add(UserHandle.getUid(OTHER_USER, APP_ID + 1), 20);
+        mCollapser.add(UserHandle.getUid(REMOVED_USER, APP_ID), 30);
+        mCollapser.add(UserHandle.getUid(REMOVED_USER, APP_ID + 1), 40);
+        mCollapser.add(UID_REMOVED, 5);
+
+        final List<AppItem> items = mCollapser.getItems();
+
+        assertThat(items).hasSize(2);
+        final AppItem otherItem = findItem(items, UidDetailProvider.buildKeyForUser(OTHER_USER));
+        assertThat(otherItem.category).isEqualTo(AppItem.CATEGORY_USER);
+        assertThat(otherItem.total).isEqualTo(30L);
+        assertThat(findItem(items, UID_REMOVED).total).isEqualTo(75L);
+        verify(mUserManager, times(1)).getUserInfo(OTHER_USER);
+        verify(mUserManager, times(1)).getUserInfo(REMOVED_USER);
+    }
+
+    @Test
+    public void testAddRestricted_withoutUsage_addsRestrictedItem() {
+        final int usedUid = UserHandle.getUid(CURRENT_USER, APP_ID);
+        final int unusedUid = UserHandle.getUid(CURRENT_USER, APP_ID + 1);
+        mCollapser.add(usedUid, 100);
+        mCollapser.addRestricted(usedUid);
+        mCollapser.addRestricted(unusedUid);
+        mCollapser.addRestricted(UserHandle.getUid(OTHER_USER, APP_ID));
+
+        final List<AppItem> items = mCollapser.getItems();
+
+        assertThat(items).hasSize(2);
+        final AppItem usedItem = findItem(items, usedUid);
+        assertThat(usedItem.restricted).isTrue();
+        assertThat(usedItem.total).isEqualTo(100L);
+        final AppItem unusedItem = findItem(items, unusedUid);
+        assertThat(unusedItem.restricted).isTrue();
+        assertThat(unusedItem.total).isEqualTo(-1L);
+        assertThat(mCollapser.getLargest()).isEqualTo(100L);
+    }
+
+    private static AppItem findItem(List<AppItem> items, int key) {
+        for (AppItem item : items) {
+            if (item.key == key) {
+                return item;
+            }
+        }
+        throw new AssertionError("No item for key " + key);
+    }
+}
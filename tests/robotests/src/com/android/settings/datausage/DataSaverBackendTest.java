@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.NetworkPolicyManager.POLICY_ALLOW_METERED_BACKGROUND;
+import static android.net.NetworkPolicyManager.POLICY_NONE;
+import static android.net.NetworkPolicyManager.POLICY_REJECT_METERED_BACKGROUND;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.net.NetworkPolicyManager;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.FakeFeatureFactory;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Answers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+import org.robolectric.shadows.ShadowLooper;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class DataSaverBackendTest {
+    private static final int UID_1 = 10001;
+    private static final int UID_2 = 10002;
+    private static final int UID_3 = 10003;
+
+    @Mock(answer = Answers.RETURNS_DEEP_STUBS)
+    private Context mContext;
+    @Mock
+    private NetworkPolicyManager mPolicyManager;
+    @Mock
+    private DataSaverBackend.Listener mListener;
+    private DataSaverBackend mBackend;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        FakeFeatureFactory.setupForTest(mContext);
+        when(mContext.getSystemService(Context.NETWORK_POLICY_SERVICE))
+                .thenReturn(mPolicyManager);
+        when(mPolicyManager.getUidsWithPolicy(POLICY_ALLOW_METERED_BACKGROUND))
+                .thenReturn(new int[] {UID_1});
+        when(mPolicyManager.getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND))
+                .thenReturn(new int[] {UID_2});
+        mBackend = new DataSaverBackend(mContext);
+    }
+
+    @Test
+    public void testGetUidPolicy_loadsPoliciesOnce() {
+        assertThat(mBackend.getUidPolicy(UID_1)).isEqualTo(POLICY_ALLOW_METERED_BACKGROUND);
+        assertThat(mBackend.getUidPolicy(UID_2)).isEqualTo(POLICY_REJECT_METERED_BACKGROUND);
+        assertThat(mBackend.getUidPolicy(UID_3)).isEqualTo(POLICY_NONE);
+        assertThat(mBackend.isWhitelisted(UID_1)).isTrue();
+        assertThat(mBackend.isBlacklisted(UID_2)).isTrue();
+
+        verify(mPolicyManager, times(1)).getUidsWithPolicy(POLICY_ALLOW_METERED_BACKGROUND);
+        verify(mPolicyManager, times(1)).getUidsWithPolicy(POLICY_REJECT_METERED_BACKGROUND);
+    }
+
+    @Test
+    public void testOnUidPoliciesChanged_dispatchesLatestPolicyOfEachUid() throws Exception {
+        mBackend.addListener(mListener);
+        ShadowLooper.pauseMainLooper();
+
+        mBackend.mPolicyListener.onUidPoliciesChanged(UID_3, POLICY_ALLOW_METERED_BACKGROUND);
+        mBackend.mPolicyListener.onUidPoliciesChanged(UID_3, POLICY_REJECT_METERED_BACKGROUND);
+        mBackend.mPolicyListener.onUidPoliciesChanged(UID_1, POLICY_NONE);
+        ShadowLooper.runUiThreadTasks();
+
+        verify(mListener, never()).onWhitelistStatusChanged(UID_3, true);
+        verify(mListener).onBlacklistStatusChanged(UID_3, true);
+        verify(mListener).onWhitelistStatusChanged(UID_1, false);
+        assertThat(mBackend.getUidPolicy(UID_3)).isEqualTo(POLICY_REJECT_METERED_BACKGROUND);
+        assertThat(mBackend.getUidPolicy(UID_1)).isEqualTo(POLICY_NONE);
+    }
+
+    @Test
+    public void testAddListener_readsRestrictBackgroundOnce() {
+        when(mPolicyManager.getRestrictBackground()).thenReturn(true);
+
+        mBackend.addListener(mListener);
+        mBackend.addListener(mock(DataSaverBackend.Listener.class));
+
+        assertThat(mBackend.isDataSaverEnabled()).isTrue();
+        verify(mPolicyManager, times(1)).getRestrictBackground();
+        verify(mPolicyManager, times(1)).registerListener(mBackend.mPolicyListener);
+    }
+}
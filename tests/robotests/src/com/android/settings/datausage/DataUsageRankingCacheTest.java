@@ -0,0 +1,155 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.net.NetworkTemplate;
+import android.text.format.DateUtils;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.UidDetail;
+import com.android.settingslib.net.UidDetailProvider;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class DataUsageRankingCacheTest {
+    private static final long START = 1000L;
+    private static final long END = 2000L;
+    private static final int UID = 10001;
+    private static final String LABEL = "Test app";
+
+    @Mock
+    private DataUsageRankingCache.Clock mMockClock;
+    @Mock
+    private UidDetailProvider mProvider;
+    private Context mContext;
+    private NetworkTemplate mTemplate;
+    private DataUsageRankingCache mCache;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application.getApplicationContext();
+        mContext.getSharedPreferences(DataUsageRankingCache.SHARED_PREFERENCES_NAME, 0).edit()
+                .clear().commit();
+        mTemplate = NetworkTemplate.buildTemplateWifiWildcard();
+        mCache = new DataUsageRankingCache(mContext, 0);
+        mCache.mClock = mMockClock;
+        when(mMockClock.getCurrentTime()).thenReturn(END);
+
+        final UidDetail detail = new UidDetail();
+        detail.label = LABEL;
+        when(mProvider.getUidDetail(eq(UID), anyBoolean())).thenReturn(detail);
+    }
+
+    @Test
+    public void testGetRanking_returnsStoredItemsAndLabels() {
+        final AppItem app = new AppItem(UID);
+        app.category = AppItem.CATEGORY_APP;
+        app.total = 300;
+        app.restricted = true;
+        app.addUid(UID);
+        final AppItem other = new AppItem(UID + 1);
+        other.total = 100;
+        other.addUid(UID + 1);
+        final List<AppItem> items = new ArrayList<>();
+        items.add(app);
+        items.add(other);
+
+        mCache.putRanking(mTemplate, START, END, items, mProvider);
+        final DataUsageRankingCache.Ranking ranking = mCache.getRanking(mTemplate, START, END);
+
+        assertThat(ranking.items).hasSize(2);
+        final AppItem stored = ranking.items.get(0);
+        assertThat(stored.key).isEqualTo(UID);
+        assertThat(stored.category).isEqualTo(AppItem.CATEGORY_APP);
+        assertThat(stored.total).isEqualTo(300L);
+        assertThat(stored.restricted).isTrue();
+        assertThat(stored.uids.get(UID)).isTrue();
+        assertThat(ranking.getLargest()).isEqualTo(300L);
+        assertThat(ranking.getLabel(UID).toString()).isEqualTo(LABEL);
+        assertThat(ranking.getLabel(UID + 1)).isNull();
+    }
+
+    @Test
+    public void testPutRanking_storesFirstItemsOnly() {
+        final List<AppItem> items = new ArrayList<>();
+        for (int i = 0; i < DataUsageRankingCache.MAX_ITEMS + 10; i++) {
+            items.add(new AppItem(UID + i));
+        }
+
+        mCache.putRanking(mTemplate, START, END, items, mProvider);
+
+        assertThat(mCache.getRanking(mTemplate, START, END).items)
+                .hasSize(DataUsageRankingCache.MAX_ITEMS);
+    }
+
+    @Test
+    public void testGetRanking_otherRangeOrTemplate_returnsNull() {
+        mCache.putRanking(mTemplate, START, END, new ArrayList<>(), mProvider);
+
+        assertThat(mCache.getRanking(mTemplate, START, END + 1)).isNull();
+        assertThat(mCache.getRanking(NetworkTemplate.buildTemplateEthernet(), START, END))
+                .isNull();
+        assertThat(new DataUsageRankingCache(mContext, 10).getRanking(mTemplate, START, END))
+                .isNull();
+    }
+
+    @Test
+    public void testIsSameCycle_rollingCycleMovedForward_returnTrue() {
+        final long start = END - CycleAdapter.ROLLING_CYCLE_MS;
+        final long later = DateUtils.HOUR_IN_MILLIS;
+
+        assertThat(DataUsageRankingCache.isSameCycle(start, END, start + later, END + later))
+                .isTrue();
+        assertThat(DataUsageRankingCache.isSameCycle(start + later, END + later, start, END))
+                .isFalse();
+    }
+
+    @Test
+    public void testIsSameCycle_policyCycleMovedForward_returnFalse() {
+        assertThat(DataUsageRankingCache.isSameCycle(START, END, START + 1, END + 1)).isFalse();
+    }
+
+    @Test
+    public void testGetRanking_tooOld_returnsNull() {
+        mCache.putRanking(mTemplate, START, END, new ArrayList<>(), mProvider);
+
+        when(mMockClock.getCurrentTime()).thenReturn(END + DataUsageRankingCache.MAX_AGE_MS);
+
+        assertThat(mCache.getRanking(mTemplate, START, END)).isNull();
+    }
+}
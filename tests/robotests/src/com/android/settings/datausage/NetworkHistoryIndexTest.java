@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.text.format.DateUtils.DAY_IN_MILLIS;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+import static android.text.format.DateUtils.WEEK_IN_MILLIS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.Random;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class NetworkHistoryIndexTest {
+    private static final long HISTORY_START = 1483228800000L; // 2017-01-01
+    private static final long HISTORY_DURATION = 3 * 365 * DAY_IN_MILLIS;
+
+    private final Random mRandom = new Random(42);
+    private NetworkStatsHistory mHistory;
+
+    @Before
+    public void setUp() {
+        mHistory = new NetworkStatsHistory(HOUR_IN_MILLIS);
+        for (long time = HISTORY_START; time < HISTORY_START + HISTORY_DURATION;
+                time += HOUR_IN_MILLIS) {
+            // Leave gaps, like a device that was off.
+            if (mRandom.nextInt(10) == 0) {
+                continue;
+            }
+            mHistory.recordData(time, time + HOUR_IN_MILLIS, new NetworkStats.Entry(
+                    mRandom.nextInt(1 << 20), 1, mRandom.nextInt(1 << 20), 1, 0));
+        }
+    }
+
+    @Test
+    public void testGetTotalBytes_sameAsHistory() {
+        final NetworkHistoryIndex index = NetworkHistoryIndex.get(mHistory);
+        for (int i = 0; i < 500; i++) {
+            final long start = HISTORY_START - WEEK_IN_MILLIS
+                    + (long) (mRandom.nextDouble() * (HISTORY_DURATION + 2 * WEEK_IN_MILLIS));
+            final long end = start + (long) (mRandom.nextDouble() * 8 * WEEK_IN_MILLIS);
+            final long now = start + (long) (mRandom.nextDouble() * (end - start));
+
+            assertThat(index.getTotalBytes(start, end)).isEqualTo(getTotalBytes(start, end,
+                    Long.MAX_VALUE));
+            assertThat(index.getTotalBytes(start, end, now)).isEqualTo(getTotalBytes(start, end,
+                    now));
+        }
+    }
+
+    @Test
+    public void testGetTotalBytes_fourWeekCycles_sameAsHistory() {
+        final NetworkHistoryIndex index = NetworkHistoryIndex.get(mHistory);
+        for (long end = mHistory.getEnd(); end > mHistory.getStart();
+                end -= 4 * WEEK_IN_MILLIS) {
+            final long start = end - 4 * WEEK_IN_MILLIS;
+            assertThat(index.getTotalBytes(start, end)).isEqualTo(getTotalBytes(start, end,
+                    Long.MAX_VALUE));
+        }
+    }
+
+    @Test
+    public void testGetTotalBytes_bucketRange() {
+        final NetworkHistoryIndex index = NetworkHistoryIndex.get(mHistory);
+        final int first = mHistory.getIndexBefore(HISTORY_START + WEEK_IN_MILLIS);
+        final int last = mHistory.getIndexAfter(HISTORY_START + 5 * WEEK_IN_MILLIS);
+
+        long expected = 0;
+        NetworkStatsHistory.Entry entry = null;
+        for (int i = first; i <= last; i++) {
+            entry = mHistory.getValues(i, entry);
+            expected += entry.rxBytes + entry.txBytes;
+        }
+        assertThat(index.getTotalBytes(first, last)).isEqualTo(expected);
+        assertThat(index.getTotalBytes(last, first)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testGetTotalBytes_emptyHistory_returnZero() {
+        final NetworkHistoryIndex index =
+                NetworkHistoryIndex.get(new NetworkStatsHistory(HOUR_IN_MILLIS));
+
+        assertThat(index.getTotalBytes(HISTORY_START, HISTORY_START + WEEK_IN_MILLIS))
+                .isEqualTo(0L);
+        assertThat(index.getTotalBytes(0, 10)).isEqualTo(0L);
+    }
+
+    @Test
+    public void testGet_sameHistory_reusesIndex() {
+        assertThat(NetworkHistoryIndex.get(mHistory)).isSameAs(NetworkHistoryIndex.get(mHistory));
+    }
+
+    @Test
+    public void testGet_historyChanged_rebuildsIndex() {
+        final NetworkHistoryIndex index = NetworkHistoryIndex.get(mHistory);
+        final long end = mHistory.getEnd();
+
+        mHistory.recordData(end, end + HOUR_IN_MILLIS, new NetworkStats.Entry(100, 1, 0, 1, 0));
+
+        final NetworkHistoryIndex newIndex = NetworkHistoryIndex.get(mHistory);
+        assertThat(newIndex).isNotSameAs(index);
+        assertThat(newIndex.getTotalBytes(end, end + HOUR_IN_MILLIS)).isEqualTo(100L);
+    }
+
+    private long getTotalBytes(long start, long end, long now) {
+        final NetworkStatsHistory.Entry entry = mHistory.getValues(start, end, now, null);
+        return entry.rxBytes + entry.txBytes;
+    }
+}
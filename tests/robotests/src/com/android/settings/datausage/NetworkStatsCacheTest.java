@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.datausage;
+
+import static android.net.NetworkStats.SET_DEFAULT;
+import static android.net.NetworkStats.SET_FOREGROUND;
+import static android.text.format.DateUtils.HOUR_IN_MILLIS;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.anyBoolean;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import android.net.INetworkStatsSession;
+import android.net.NetworkStats;
+import android.net.NetworkStatsHistory;
+import android.net.NetworkTemplate;
+import android.os.SystemClock;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.AppItem;
+import com.android.settingslib.net.ChartData;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Matchers;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class NetworkStatsCacheTest {
+    private static final long START = 1483228800000L; // 2017-01-01
+    private static final int UID_1 = 10001;
+    private static final int UID_2 = 10002;
+
+    @Mock
+    private INetworkStatsSession mSession;
+    private NetworkTemplate mTemplate;
+    private Context mContext;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        NetworkStatsCache.invalidate();
+        mContext = RuntimeEnvironment.application;
+        mTemplate = NetworkTemplate.buildTemplateWifiWildcard();
+        when(mSession.getHistoryForNetwork(Matchers.any(NetworkTemplate.class), anyInt()))
+                .thenReturn(createHistory(100));
+        when(mSession.getHistoryForUid(Matchers.any(NetworkTemplate.class), anyInt(), anyInt(),
+                anyInt(), anyInt())).thenAnswer(invocation -> createHistory(10));
+        when(mSession.getSummaryForAllUid(Matchers.any(NetworkTemplate.class), anyLong(),
+                anyLong(), anyBoolean())).thenReturn(new NetworkStats(0, 1));
+    }
+
+    @After
+    public void tearDown() {
+        NetworkStatsCache.invalidate();
+    }
+
+    @Test
+    public void testGetHistoryForNetwork_sameTemplate_queriesOnce() throws Exception {
+        final NetworkStatsHistory history =
+                NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+
+        assertThat(NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate))
+                .isSameAs(history);
+        verify(mSession, times(1)).getHistoryForNetwork(eq(mTemplate), anyInt());
+    }
+
+    @Test
+    public void testGetSummaryForAllUid_otherRange_queriesAgain() throws Exception {
+        NetworkStatsCache.getSummaryForAllUid(mSession, mTemplate, START, START + HOUR_IN_MILLIS);
+        NetworkStatsCache.getSummaryForAllUid(mSession, mTemplate, START, START + HOUR_IN_MILLIS);
+        NetworkStatsCache.getSummaryForAllUid(mSession, mTemplate, START + HOUR_IN_MILLIS,
+                START + 2 * HOUR_IN_MILLIS);
+
+        verify(mSession, times(2)).getSummaryForAllUid(eq(mTemplate), anyLong(), anyLong(),
+                anyBoolean());
+    }
+
+    @Test
+    public void testInvalidate_queriesAgain() throws Exception {
+        NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+
+        NetworkStatsCache.invalidate();
+        NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+
+        verify(mSession, times(2)).getHistoryForNetwork(eq(mTemplate), anyInt());
+    }
+
+    @Test
+    public void testInvalidateTemplate_keepsOtherTemplates() throws Exception {
+        final NetworkTemplate otherTemplate = NetworkTemplate.buildTemplateEthernet();
+        NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+        NetworkStatsCache.getHistoryForNetwork(mSession, otherTemplate);
+
+        NetworkStatsCache.invalidate(mTemplate);
+        NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+        NetworkStatsCache.getHistoryForNetwork(mSession, otherTemplate);
+
+        verify(mSession, times(2)).getHistoryForNetwork(eq(mTemplate), anyInt());
+        verify(mSession, times(1)).getHistoryForNetwork(eq(otherTemplate), anyInt());
+    }
+
+    @Test
+    public void testPut_dropsExpiredStats() throws Exception {
+        NetworkStatsCache.getSummaryForAllUid(mSession, mTemplate, START, START + HOUR_IN_MILLIS);
+
+        SystemClock.sleep(NetworkStatsCache.CACHE_TTL_MS);
+        NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+
+        assertThat(NetworkStatsCache.getCachedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testGetHistoryForNetwork_expired_queriesAgain() throws Exception {
+        NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+
+        SystemClock.sleep(NetworkStatsCache.CACHE_TTL_MS);
+        NetworkStatsCache.getHistoryForNetwork(mSession, mTemplate);
+
+        verify(mSession, times(2)).getHistoryForNetwork(eq(mTemplate), anyInt());
+    }
+
+    @Test
+    public void testChartLoader_appWithSeveralUids_doesNotChangeCachedHistory()
+            throws Exception {
+        final AppItem app = new AppItem(UID_1);
+        app.addUid(UID_1);
+        app.addUid(UID_2);
+        final NetworkStatsCache.ChartLoader loader = new NetworkStatsCache.ChartLoader(
+                mContext, mSession, NetworkStatsCache.ChartLoader.buildArgs(mTemplate, app));
+
+        final ChartData data = loader.loadInBackground();
+
+        assertThat(data.detailDefault.getTotalBytes()).isEqualTo(20L);
+        assertThat(data.detail.getTotalBytes()).isEqualTo(40L);
+        assertThat(NetworkStatsCache.getHistoryForUid(mSession, mTemplate, UID_1, SET_DEFAULT)
+                .getTotalBytes()).isEqualTo(10L);
+
+        // Opening the app again reuses all histories.
+        loader.loadInBackground();
+        verify(mSession, times(1)).getHistoryForNetwork(eq(mTemplate), anyInt());
+        verify(mSession, times(1)).getHistoryForUid(eq(mTemplate), eq(UID_2),
+                eq(SET_FOREGROUND), anyInt(), anyInt());
+    }
+
+    private static NetworkStatsHistory createHistory(long bytes) {
+        final NetworkStatsHistory history = new NetworkStatsHistory(HOUR_IN_MILLIS);
+        history.recordData(START, START + HOUR_IN_MILLIS,
+                new NetworkStats.Entry(bytes, 1, 0, 0, 0));
+        return history;
+    }
+}
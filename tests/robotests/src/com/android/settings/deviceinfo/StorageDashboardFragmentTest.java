@@ -120,6 +120,38 @@ public class StorageDashboardFragmentTest {
         assertThat(mFragment.getAppsStorageResult()).isNull();
     }
 
+    @Test
+    public void test_mergeAppsResults_partialUsersReplacePreviousValues() {
+        final StorageAsyncLoader.AppsStorageResult cachedPrimary =
+                new StorageAsyncLoader.AppsStorageResult();
+        final StorageAsyncLoader.AppsStorageResult cachedSecondary =
+                new StorageAsyncLoader.AppsStorageResult();
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> previous = new SparseArray<>();
+        previous.put(0, cachedPrimary);
+        previous.put(10, cachedSecondary);
+        final StorageAsyncLoader.AppsStorageResult loadedPrimary =
+                new StorageAsyncLoader.AppsStorageResult();
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> partial = new SparseArray<>();
+        partial.put(0, loadedPrimary);
+
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> merged =
+                StorageDashboardFragment.mergeAppsResults(partial, previous);
+
+        assertThat(merged.size()).isEqualTo(2);
+        assertThat(merged.get(0)).isSameAs(loadedPrimary);
+        assertThat(merged.get(10)).isSameAs(cachedSecondary);
+        assertThat(partial.size()).isEqualTo(1);
+    }
+
+    @Test
+    public void test_mergeAppsResults_noPreviousValues_returnPartialUsers() {
+        final SparseArray<StorageAsyncLoader.AppsStorageResult> partial = new SparseArray<>();
+        partial.put(0, new StorageAsyncLoader.AppsStorageResult());
+
+        assertThat(StorageDashboardFragment.mergeAppsResults(partial, null).size())
+                .isEqualTo(1);
+    }
+
     @Test
     public void test_loadWhenQuotaOffIfVolumeInfoNotLoaded() {
         View fakeView = mock(View.class, RETURNS_DEEP_STUBS);
@@ -17,6 +17,7 @@ package com.android.settings.fuelgauge;
 
 
 import android.content.Context;
+import android.content.Intent;
 import android.content.pm.ApplicationInfo;
 import android.content.pm.PackageManager;
 import android.content.pm.PackageManager.NameNotFoundException;
@@ -28,6 +29,7 @@ import com.android.internal.os.BatterySipper;
 import com.android.internal.os.BatterySipper.DrainType;
 import com.android.settings.TestConfig;
 
+import org.junit.After;
 import org.junit.Before;
 import org.junit.Rule;
 import org.junit.Test;
@@ -77,6 +79,12 @@ public class BatteryEntryTest {
         when(mockPackageManager.getApplicationLabel(appInfo)).thenReturn(APP_LABEL);
     }
 
+    @After
+    public void tearDown() {
+        BatteryEntry.stopRequestQueue();
+        BatteryEntry.clearUidCache();
+    }
+
     private BatteryEntry createBatteryEntryForApp() {
         return new BatteryEntry(mockContext, mockHandler, mockUserManager, createSipperForApp());
     }
@@ -152,4 +160,42 @@ public class BatteryEntryTest {
 
         assertThat(entry.extractPackagesFromSipper(entry.sipper)).isEqualTo(entry.sipper.mPackages);
     }
+
+    @Test
+    public void prioritizeRequest_movesEntryToHeadOfQueue() {
+        BatteryEntry.stopRequestQueue();
+        BatteryEntry first = createBatteryEntryForApp();
+        BatteryEntry second = createBatteryEntryForApp();
+
+        BatteryEntry.prioritizeRequest(second);
+
+        assertThat(BatteryEntry.sRequestQueue.peekFirst()).isSameAs(second);
+        assertThat(BatteryEntry.sRequestQueue.peekLast()).isSameAs(first);
+    }
+
+    @Test
+    public void getQuickNameIconForUid_cachedUid_shouldNotQueueRequest() {
+        BatteryEntry.stopRequestQueue();
+        BatteryEntry.UidToDetail detail = new BatteryEntry.UidToDetail();
+        detail.name = APP_LABEL;
+        detail.packageName = APP_DEFAULT_PACKAGE_NAME;
+        BatteryEntry.sUidCache.put(APP_UID, detail);
+
+        BatteryEntry entry = createBatteryEntryForApp();
+
+        assertThat(entry.getLabel()).isEqualTo(APP_LABEL);
+        assertThat(BatteryEntry.sRequestQueue).isEmpty();
+    }
+
+    @Test
+    public void uidCacheInvalidator_packageChanged_shouldOnlyEvictThatUid() {
+        BatteryEntry.sUidCache.put(APP_UID, new BatteryEntry.UidToDetail());
+        BatteryEntry.sUidCache.put(SYSTEM_UID, new BatteryEntry.UidToDetail());
+
+        new BatteryEntry.UidCacheInvalidator().onReceive(mockContext,
+                new Intent(Intent.ACTION_PACKAGE_CHANGED).putExtra(Intent.EXTRA_UID, APP_UID));
+
+        assertThat(BatteryEntry.sUidCache.get(APP_UID)).isNull();
+        assertThat(BatteryEntry.sUidCache.get(SYSTEM_UID)).isNotNull();
+    }
 }
@@ -0,0 +1,103 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryHistoryStoreTest {
+    private static final int CAPACITY = 4;
+
+    private File mFile;
+
+    @Before
+    public void setUp() {
+        mFile = new File(RuntimeEnvironment.application.getFilesDir(), "battery_history_test");
+        mFile.delete();
+    }
+
+    @Test
+    public void testAdd_overCapacity_dropsOldestSamples() {
+        final BatteryHistoryStore store = new BatteryHistoryStore(CAPACITY, null);
+        for (int i = 0; i < CAPACITY + 2; i++) {
+            store.add(i * 1000L, 100 - i, 0);
+        }
+
+        assertThat(store.size()).isEqualTo(CAPACITY);
+        assertThat(store.getTimeMs(0)).isEqualTo(2000L);
+        assertThat(store.getLevel(0)).isEqualTo(98);
+        assertThat(store.getLevel(CAPACITY - 1)).isEqualTo(95);
+    }
+
+    @Test
+    public void testSaveAndLoad_restoresSamplesInOrder() {
+        final BatteryHistoryStore store = new BatteryHistoryStore(CAPACITY, mFile);
+        for (int i = 0; i < CAPACITY + 1; i++) {
+            store.add(i * 1000L, 50 + i, BatteryHistoryStore.FLAG_PLUGGED);
+        }
+        store.save();
+
+        final BatteryHistoryStore restored = new BatteryHistoryStore(CAPACITY, mFile);
+        restored.load();
+
+        assertThat(restored.size()).isEqualTo(CAPACITY);
+        for (int i = 0; i < CAPACITY; i++) {
+            assertThat(restored.getTimeMs(i)).isEqualTo(store.getTimeMs(i));
+            assertThat(restored.getLevel(i)).isEqualTo(store.getLevel(i));
+            assertThat(restored.getFlags(i)).isEqualTo(BatteryHistoryStore.FLAG_PLUGGED);
+        }
+    }
+
+    @Test
+    public void testLoad_noFile_isEmpty() {
+        final BatteryHistoryStore store = new BatteryHistoryStore(CAPACITY, mFile);
+        store.add(0, 10, 0);
+
+        store.load();
+
+        assertThat(store.size()).isEqualTo(0);
+    }
+
+    @Test
+    public void testLoad_elapsedRealtimeHistory_isDropped() throws Exception {
+        try (DataOutputStream out = new DataOutputStream(new FileOutputStream(mFile))) {
+            out.writeInt(1 /* version */);
+            out.writeInt(1 /* size */);
+            out.writeLong(1000L);
+            out.writeByte(90);
+            out.writeByte(0);
+        }
+        final BatteryHistoryStore store = new BatteryHistoryStore(CAPACITY, mFile);
+
+        store.load();
+
+        assertThat(store.size()).isEqualTo(0);
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.text.format.DateUtils;
+import android.util.Log;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.util.Random;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatteryRemainingTimeEstimatorTest {
+    private static final String TAG = "BatteryEstimatorTest";
+    private static final long SCREEN_ON_MS_PER_LEVEL = 6 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long SCREEN_OFF_MS_PER_LEVEL = 40 * DateUtils.MINUTE_IN_MILLIS;
+    private static final long CHARGE_MS_PER_LEVEL = DateUtils.MINUTE_IN_MILLIS;
+    private static final double TOLERANCE = 0.1;
+    private static final int LATENCY_ITERATIONS = 100000;
+    private static final long MAX_QUERY_LATENCY_NS = 50000;
+
+    private BatteryRemainingTimeEstimator mEstimator;
+
+    @Before
+    public void setUp() {
+        mEstimator = new BatteryRemainingTimeEstimator(new BatteryHistoryStore(256, null));
+    }
+
+    @Test
+    public void testGetRemainingTimeUs_noHistory_returnZero() {
+        assertThat(mEstimator.getRemainingTimeUs(50, false, true)).isEqualTo(0);
+        assertThat(mEstimator.getRemainingTimeUs(50, true, true)).isEqualTo(0);
+    }
+
+    @Test
+    public void testAddSample_sameLevelAndState_notRecorded() {
+        assertThat(mEstimator.addSample(0, 90, false, true)).isTrue();
+        assertThat(mEstimator.addSample(1000, 90, false, true)).isFalse();
+        assertThat(mEstimator.addSample(2000, 90, false, false)).isTrue();
+    }
+
+    @Test
+    public void testAddSample_gapTooLong_ignored() {
+        mEstimator.addSample(0, 90, false, true);
+        mEstimator.addSample(BatteryRemainingTimeEstimator.MAX_SAMPLE_GAP_MS + 1, 89, false, true);
+
+        assertThat(mEstimator.getRate(BatteryRemainingTimeEstimator.STATE_DISCHARGING_SCREEN_ON))
+                .isEqualTo(0.0);
+    }
+
+    @Test
+    public void testAddSample_clockSetBack_ignored() {
+        mEstimator.addSample(DateUtils.HOUR_IN_MILLIS, 90, false, true);
+        mEstimator.addSample(0, 89, false, true);
+
+        assertThat(mEstimator.getRate(BatteryRemainingTimeEstimator.STATE_DISCHARGING_SCREEN_ON))
+                .isEqualTo(0.0);
+    }
+
+    @Test
+    public void testGetRemainingTimeUs_jitteryDischargeTrace_withinTolerance() {
+        final long timeMs = replayDischargeTrace(0, 100, 60, new Random(1));
+
+        // A screen on trace can still answer for screen off through the fallback.
+        assertThat(mEstimator.getRate(
+                BatteryRemainingTimeEstimator.STATE_DISCHARGING_SCREEN_OFF)).isEqualTo(0.0);
+        assertThat(mEstimator.getRemainingTimeUs(60, false, false)).isGreaterThan(0L);
+
+        final long expectedUs = BatteryUtils.convertMsToUs(60 * SCREEN_ON_MS_PER_LEVEL);
+        assertThat((double) mEstimator.getRemainingTimeUs(60, false, true))
+                .isWithin(expectedUs * TOLERANCE).of(expectedUs);
+        assertThat(timeMs).isGreaterThan(0L);
+    }
+
+    @Test
+    public void testGetRemainingTimeUs_mixedScreenStates_usesRateOfCurrentState() {
+        long timeMs = 0;
+        for (int level = 100; level >= 40; level--) {
+            final boolean screenOn = (level / 10) % 2 == 0;
+            // Toggle the screen once per ten levels, marking the switch with its own sample.
+            mEstimator.addSample(timeMs, level, false, screenOn);
+            timeMs += screenOn ? SCREEN_ON_MS_PER_LEVEL : SCREEN_OFF_MS_PER_LEVEL;
+        }
+
+        final long screenOnUs = BatteryUtils.convertMsToUs(40 * SCREEN_ON_MS_PER_LEVEL);
+        final long screenOffUs = BatteryUtils.convertMsToUs(40 * SCREEN_OFF_MS_PER_LEVEL);
+        assertThat((double) mEstimator.getRemainingTimeUs(40, false, true))
+                .isWithin(screenOnUs * TOLERANCE).of(screenOnUs);
+        assertThat((double) mEstimator.getRemainingTimeUs(40, false, false))
+                .isWithin(screenOffUs * TOLERANCE).of(screenOffUs);
+    }
+
+    @Test
+    public void testGetRemainingTimeUs_chargingTrace_estimatesTimeToFull() {
+        for (int level = 20; level <= 50; level++) {
+            mEstimator.addSample(level * CHARGE_MS_PER_LEVEL, level, true, false);
+        }
+
+        final long expectedUs = BatteryUtils.convertMsToUs(50 * CHARGE_MS_PER_LEVEL);
+        assertThat((double) mEstimator.getRemainingTimeUs(50, true, false))
+                .isWithin(expectedUs * TOLERANCE).of(expectedUs);
+        assertThat(mEstimator.getRemainingTimeUs(100, true, false)).isEqualTo(0);
+    }
+
+    @Test
+    public void testGetRemainingTimeUs_restoredFromHistoryFile_sameEstimate() {
+        final File file = new File(RuntimeEnvironment.application.getFilesDir(),
+                "battery_estimator_test");
+        file.delete();
+        final BatteryHistoryStore store = new BatteryHistoryStore(256, file);
+        mEstimator = new BatteryRemainingTimeEstimator(store);
+        replayDischargeTrace(0, 100, 70, new Random(2));
+        store.save();
+
+        final BatteryRemainingTimeEstimator restored = new BatteryRemainingTimeEstimator(
+                new BatteryHistoryStore(256, file));
+
+        assertThat(restored.getRemainingTimeUs(70, false, true)).isEqualTo(
+                mEstimator.getRemainingTimeUs(70, false, true));
+    }
+
+    @Test
+    public void testGetRemainingTimeUs_latency() {
+        replayDischargeTrace(0, 100, 0, new Random(3));
+
+        final long start = System.nanoTime();
+        long sum = 0;
+        for (int i = 0; i < LATENCY_ITERATIONS; i++) {
+            sum += mEstimator.getRemainingTimeUs(i % 100, false, true);
+        }
+        final long averageNs = (System.nanoTime() - start) / LATENCY_ITERATIONS;
+        Log.i(TAG, "getRemainingTimeUs average latency: " + averageNs + "ns");
+
+        assertThat(sum).isGreaterThan(0L);
+        assertThat(averageNs).isLessThan(MAX_QUERY_LATENCY_NS);
+    }
+
+    /**
+     * Replays a recorded-like screen on discharge trace, where every level step takes
+     * {@link #SCREEN_ON_MS_PER_LEVEL} with up to 10% jitter.
+     *
+     * @return the time of the last sample
+     */
+    private long replayDischargeTrace(long startMs, int fromLevel, int toLevel, Random random) {
+        long timeMs = startMs;
+        for (int level = fromLevel; level >= toLevel; level--) {
+            mEstimator.addSample(timeMs, level, false, true);
+            final double jitter = 1 + (random.nextDouble() - 0.5) * 0.2;
+            timeMs += (long) (SCREEN_ON_MS_PER_LEVEL * jitter);
+        }
+        return timeMs - startMs;
+    }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.when;
+
+import android.os.Process;
+import android.util.Log;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatterySipper.DrainType;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class BatterySipperCoalescerTest {
+    private static final String TAG = "BatterySipperCoalescerTest";
+    private static final int APP_UID = 10050;
+    private static final int SHARED_GID = 50050;
+    private static final int OTHER_APP_UID = 10051;
+    private static final int BENCHMARK_UID_COUNT = 2000;
+    private static final int BENCHMARK_ITERATIONS = 20;
+    private static final int MAX_ITEMS = 10;
+
+    @Mock
+    private BatteryUtils mBatteryUtils;
+    private BatterySipperCoalescer mCoalescer;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mCoalescer = new BatterySipperCoalescer(mBatteryUtils);
+    }
+
+    @Test
+    public void testCoalesce_sharedGid_mergedIntoOwnerUid() {
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(createAppSipper(APP_UID, 10, "com.android.app"));
+        sippers.add(createAppSipper(SHARED_GID, 5, "dex2oat"));
+
+        final List<BatterySipper> results = mCoalescer.coalesce(sippers, false, MAX_ITEMS);
+
+        assertThat(results).hasSize(1);
+        assertThat(results.get(0).getUid()).isEqualTo(APP_UID);
+        assertThat(results.get(0).totalPowerMah).isWithin(1e-6).of(15);
+        assertThat(results.get(0).mPackages).asList()
+                .containsExactly("com.android.app", "dex2oat").inOrder();
+    }
+
+    @Test
+    public void testCoalesce_sharedGid_keepsOwnerUidObj() {
+        final BatterySipper app = createAppSipper(APP_UID, 10, "com.android.app");
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(createAppSipper(SHARED_GID, 5, "dex2oat"));
+        sippers.add(app);
+
+        final List<BatterySipper> results = mCoalescer.coalesce(sippers, false, MAX_ITEMS);
+
+        assertThat(results.get(0).uidObj).isSameAs(app.uidObj);
+    }
+
+    @Test
+    public void testCoalesce_systemUids_mergedExceptMediaserver() {
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(createAppSipper(Process.SYSTEM_UID, 10, "android"));
+        sippers.add(createAppSipper(Process.NFC_UID, 4, "com.android.nfc"));
+        sippers.add(createAppSipper(Process.MEDIA_UID, 3, "mediaserver"));
+
+        final List<BatterySipper> results = mCoalescer.coalesce(sippers, false, MAX_ITEMS);
+
+        assertThat(results).hasSize(2);
+        assertThat(results.get(0).getUid()).isEqualTo(Process.SYSTEM_UID);
+        assertThat(results.get(0).totalPowerMah).isWithin(1e-6).of(14);
+        assertThat(results.get(1)).isSameAs(sippers.get(2));
+    }
+
+    @Test
+    public void testCoalesce_singleUid_reusesOriginalSipper() {
+        final BatterySipper sipper = createAppSipper(APP_UID, 10, "com.android.app");
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(sipper);
+
+        assertThat(mCoalescer.coalesce(sippers, false, MAX_ITEMS).get(0)).isSameAs(sipper);
+    }
+
+    @Test
+    public void testCoalesce_removeHidden_dropsHiddenAndReportsTheirPower() {
+        final BatterySipper app = createAppSipper(APP_UID, 10, "com.android.app");
+        final BatterySipper cell = new BatterySipper(DrainType.CELL, null, 7);
+        final BatterySipper wifi = new BatterySipper(DrainType.WIFI, null, 3);
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(app);
+        sippers.add(cell);
+        sippers.add(wifi);
+        when(mBatteryUtils.shouldHideSipper(app)).thenReturn(false);
+        when(mBatteryUtils.shouldHideSipper(cell)).thenReturn(true);
+        when(mBatteryUtils.shouldHideSipper(wifi)).thenReturn(true);
+
+        final List<BatterySipper> results = mCoalescer.coalesce(sippers, true, MAX_ITEMS);
+
+        assertThat(results).containsExactly(app);
+        // Wifi power is not smeared, so it is not reported as hidden power.
+        assertThat(mCoalescer.getHiddenPowerMah()).isWithin(1e-6).of(7);
+    }
+
+    @Test
+    public void testCoalesce_removeHidden_smearsScreenPower() {
+        final BatterySipper app = createAppSipper(APP_UID, 10, "com.android.app");
+        final BatterySipper otherApp = createAppSipper(OTHER_APP_UID, 10, "com.android.other");
+        final BatterySipper screen = new BatterySipper(DrainType.SCREEN, null, 40);
+        final List<BatterySipper> sippers = new ArrayList<>();
+        sippers.add(app);
+        sippers.add(otherApp);
+        sippers.add(screen);
+        when(mBatteryUtils.shouldHideSipper(screen)).thenReturn(true);
+        doReturn(BatteryUtils.MIN_SCREEN_SMEAR_ACTIVITY_TIME_MS).when(mBatteryUtils)
+                .getProcessTimeMs(anyInt(), any(), anyInt());
+
+        final List<BatterySipper> results = mCoalescer.coalesce(sippers, true, MAX_ITEMS);
+
+        assertThat(results).containsExactly(app, otherApp).inOrder();
+        assertThat(app.totalPowerMah).isWithin(1e-6).of(30);
+        assertThat(otherApp.totalPowerMah).isWithin(1e-6).of(30);
+    }
+
+    @Test
+    public void testCoalesce_returnsTopItemsInDescendingOrder() {
+        final List<BatterySipper> sippers = createRandomSippers(100);
+
+        final List<BatterySipper> results = mCoalescer.coalesce(sippers, false, MAX_ITEMS);
+
+        assertThat(results).containsExactlyElementsIn(
+                sortedCopy(sippers).subList(0, MAX_ITEMS)).inOrder();
+    }
+
+    /**
+     * Checks the top rows for a device with many uids against a full sort by power. The time of
+     * both is logged for reference only; the sort is not the code the coalescer replaced.
+     */
+    @Test
+    public void testCoalesce_thousandsOfUids_matchesFullSort() {
+        final List<BatterySipper> sippers = createRandomSippers(BENCHMARK_UID_COUNT);
+        final List<BatterySipper> expected = sortedCopy(sippers).subList(0, MAX_ITEMS);
+
+        List<BatterySipper> results = null;
+        long coalesceNs = 0;
+        long sortNs = 0;
+        for (int i = 0; i < BENCHMARK_ITERATIONS; i++) {
+            long start = System.nanoTime();
+            results = mCoalescer.coalesce(sippers, false, MAX_ITEMS);
+            coalesceNs += System.nanoTime() - start;
+
+            start = System.nanoTime();
+            sortedCopy(sippers);
+            sortNs += System.nanoTime() - start;
+        }
+        Log.i(TAG, "coalesce " + BENCHMARK_UID_COUNT + " uids: "
+                + coalesceNs / BENCHMARK_ITERATIONS + "ns, full sort: "
+                + sortNs / BENCHMARK_ITERATIONS + "ns");
+
+        assertThat(results).containsExactlyElementsIn(expected).inOrder();
+    }
+
+    private List<BatterySipper> createRandomSippers(int count) {
+        final Random random = new Random(count);
+        final List<BatterySipper> sippers = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            sippers.add(createAppSipper(Process.FIRST_APPLICATION_UID + i,
+                    random.nextDouble() * 100, "com.android.app" + i));
+        }
+        return sippers;
+    }
+
+    private List<BatterySipper> sortedCopy(List<BatterySipper> sippers) {
+        final List<BatterySipper> sorted = new ArrayList<>(sippers);
+        Collections.sort(sorted, (a, b) -> Double.compare(b.totalPowerMah, a.totalPowerMah));
+        return sorted;
+    }
+
+    private BatterySipper createAppSipper(int uid, double powerMah, String packageName) {
+        final BatterySipper sipper = new BatterySipper(DrainType.APP, new FakeUid(uid), powerMah);
+        sipper.packageWithHighestDrain = packageName;
+        sipper.mPackages = new String[]{packageName};
+        return sipper;
+    }
+}
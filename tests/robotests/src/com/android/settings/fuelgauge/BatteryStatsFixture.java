@@ -0,0 +1,272 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.RETURNS_DEEP_STUBS;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.mock;
+
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.os.Process;
+
+import com.android.internal.os.BatterySipper;
+import com.android.internal.os.BatterySipper.DrainType;
+import com.android.internal.os.BatteryStatsHelper;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Replayable snapshot of battery stats used by the fuelgauge benchmarks.
+ *
+ * Fixtures are stored as text, one record per line:
+ * <pre>
+ * discharge &lt;amount&gt;
+ * sipper &lt;drainType&gt; &lt;uid&gt; &lt;powerMah&gt; &lt;usageTimeMs&gt; &lt;packages|-&gt;
+ * history &lt;cmd&gt; &lt;timeMs&gt; &lt;level&gt; &lt;states&gt; &lt;currentTimeMs&gt;
+ * </pre>
+ * Lines starting with '#' are ignored.
+ */
+public class BatteryStatsFixture {
+    private static final String DISCHARGE = "discharge";
+    private static final String SIPPER = "sipper";
+    private static final String HISTORY = "history";
+    private static final String NO_PACKAGES = "-";
+    private static final long HISTORY_STEP_MS = 60 * 1000;
+    private static final long WALL_TIME_START_MS = 1500000000000L;
+
+    public final String name;
+    public final List<SipperRecord> sippers = new ArrayList<>();
+    public final List<HistoryRecord> history = new ArrayList<>();
+    public int dischargeAmount;
+
+    public static class SipperRecord {
+        DrainType drainType;
+        int uid;
+        double powerMah;
+        long usageTimeMs;
+        String[] packages;
+    }
+
+    public static class HistoryRecord {
+        byte cmd;
+        long timeMs;
+        byte level;
+        int states;
+        long currentTimeMs;
+    }
+
+    public BatteryStatsFixture(String name) {
+        this.name = name;
+    }
+
+    public static BatteryStatsFixture read(String name, InputStream in) throws IOException {
+        final BatteryStatsFixture fixture = new BatteryStatsFixture(name);
+        final BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+        String line;
+        while ((line = reader.readLine()) != null) {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            final String[] fields = line.split("\\s+");
+            switch (fields[0]) {
+                case DISCHARGE:
+                    fixture.dischargeAmount = Integer.parseInt(fields[1]);
+                    break;
+                case SIPPER:
+                    final SipperRecord sipper = new SipperRecord();
+                    sipper.drainType = DrainType.valueOf(fields[1]);
+                    sipper.uid = Integer.parseInt(fields[2]);
+                    sipper.powerMah = Double.parseDouble(fields[3]);
+                    sipper.usageTimeMs = Long.parseLong(fields[4]);
+                    sipper.packages = NO_PACKAGES.equals(fields[5]) ? null : fields[5].split(",");
+                    fixture.sippers.add(sipper);
+                    break;
+                case HISTORY:
+                    final HistoryRecord record = new HistoryRecord();
+                    record.cmd = Byte.parseByte(fields[1]);
+                    record.timeMs = Long.parseLong(fields[2]);
+                    record.level = Byte.parseByte(fields[3]);
+                    record.states = Integer.parseInt(fields[4]);
+                    record.currentTimeMs = Long.parseLong(fields[5]);
+                    fixture.history.add(record);
+                    break;
+                default:
+                    throw new IOException("Unknown record in " + name + ": " + line);
+            }
+        }
+        return fixture;
+    }
+
+    public void write(Writer out) {
+        final PrintWriter writer = new PrintWriter(out);
+        writer.println("# " + name);
+        writer.println(DISCHARGE + " " + dischargeAmount);
+        for (SipperRecord sipper : sippers) {
+            writer.println(SIPPER + " " + sipper.drainType + " " + sipper.uid + " "
+                    + sipper.powerMah + " " + sipper.usageTimeMs + " "
+                    + (sipper.packages == null ? NO_PACKAGES : String.join(",", sipper.packages)));
+        }
+        for (HistoryRecord record : history) {
+            writer.println(HISTORY + " " + record.cmd + " " + record.timeMs + " " + record.level
+                    + " " + record.states + " " + record.currentTimeMs);
+        }
+        writer.flush();
+    }
+
+    /**
+     * Generates a fixture with {@code appCount} app uids, a handful of system and shared gid
+     * uids, the usual hardware sippers and {@code historyCount} history items.
+     */
+    public static BatteryStatsFixture generate(String name, long seed, int appCount,
+            int historyCount) {
+        final Random random = new Random(seed);
+        final BatteryStatsFixture fixture = new BatteryStatsFixture(name);
+        fixture.dischargeAmount = 20 + random.nextInt(60);
+
+        final DrainType[] hardware = {DrainType.SCREEN, DrainType.IDLE, DrainType.CELL,
+                DrainType.WIFI, DrainType.BLUETOOTH, DrainType.UNACCOUNTED,
+                DrainType.OVERCOUNTED};
+        for (DrainType drainType : hardware) {
+            fixture.sippers.add(createSipper(drainType, 0, random.nextDouble() * 200, null));
+        }
+        for (int i = 0; i < appCount; i++) {
+            final int uid = Process.FIRST_APPLICATION_UID + i;
+            fixture.sippers.add(createSipper(DrainType.APP, uid,
+                    random.nextDouble() * random.nextDouble() * 100,
+                    new String[]{"com.example.app" + i}));
+            if (i % 20 == 0) {
+                // dex2oat style shared gid of the same app
+                fixture.sippers.add(createSipper(DrainType.APP, 50000 + i,
+                        random.nextDouble(), new String[]{"com.example.app" + i}));
+            }
+        }
+        for (int i = 0; i < Math.max(1, appCount / 50); i++) {
+            fixture.sippers.add(createSipper(DrainType.APP, Process.SYSTEM_UID + i,
+                    random.nextDouble() * 30, new String[]{"com.android.system" + i}));
+        }
+
+        int level = 100;
+        for (int i = 0; i < historyCount; i++) {
+            final HistoryRecord record = new HistoryRecord();
+            record.cmd = i == 0 ? HistoryItem.CMD_CURRENT_TIME : HistoryItem.CMD_UPDATE;
+            record.timeMs = i * HISTORY_STEP_MS;
+            if (random.nextInt(10) == 0 && level > 1) {
+                level--;
+            }
+            record.level = (byte) level;
+            record.states = random.nextInt();
+            record.currentTimeMs = WALL_TIME_START_MS + record.timeMs;
+            fixture.history.add(record);
+        }
+        return fixture;
+    }
+
+    private static SipperRecord createSipper(DrainType drainType, int uid, double powerMah,
+            String[] packages) {
+        final SipperRecord sipper = new SipperRecord();
+        sipper.drainType = drainType;
+        sipper.uid = uid;
+        sipper.powerMah = powerMah;
+        sipper.packages = packages;
+        return sipper;
+    }
+
+    /**
+     * @return fresh {@link BatterySipper}s, since the code under test mutates them
+     */
+    public List<BatterySipper> createSippers() {
+        final List<BatterySipper> result = new ArrayList<>(sippers.size());
+        for (SipperRecord record : sippers) {
+            final BatterySipper sipper = new BatterySipper(record.drainType,
+                    record.drainType == DrainType.APP ? new FakeUid(record.uid) : null,
+                    record.powerMah);
+            sipper.usageTimeMs = record.usageTimeMs;
+            sipper.mPackages = record.packages;
+            if (record.packages != null) {
+                sipper.packageWithHighestDrain = record.packages[0];
+            }
+            result.add(sipper);
+        }
+        return result;
+    }
+
+    public double getTotalPower() {
+        double total = 0;
+        for (SipperRecord record : sippers) {
+            total += record.powerMah;
+        }
+        return total;
+    }
+
+    /**
+     * @return a {@link BatteryStats} that replays the recorded history
+     */
+    public BatteryStats createBatteryStats() {
+        final BatteryStats stats = mock(BatteryStats.class);
+        final int[] position = new int[1];
+        doReturn(dischargeAmount).when(stats).getDischargeAmount(anyInt());
+        doAnswer(invocation -> {
+            position[0] = 0;
+            return !history.isEmpty();
+        }).when(stats).startIteratingHistoryLocked();
+        doAnswer(invocation -> {
+            if (position[0] >= history.size()) {
+                return false;
+            }
+            final HistoryRecord record = history.get(position[0]++);
+            final HistoryItem item = (HistoryItem) invocation.getArguments()[0];
+            item.clear();
+            item.cmd = record.cmd;
+            item.time = record.timeMs;
+            item.batteryLevel = record.level;
+            item.states = record.states;
+            item.currentTime = record.currentTimeMs;
+            return true;
+        }).when(stats).getNextHistoryLocked(any(HistoryItem.class));
+        return stats;
+    }
+
+    /**
+     * @return a {@link BatteryStatsHelper} backed by this fixture
+     */
+    public BatteryStatsHelper createBatteryStatsHelper() {
+        final BatteryStatsHelper helper = mock(BatteryStatsHelper.class, RETURNS_DEEP_STUBS);
+        final BatteryStats stats = createBatteryStats();
+        final List<BatterySipper> usageList = createSippers();
+        double maxPower = 0;
+        for (BatterySipper sipper : usageList) {
+            maxPower = Math.max(maxPower, sipper.totalPowerMah);
+        }
+        doReturn(stats).when(helper).getStats();
+        doReturn(usageList).when(helper).getUsageList();
+        doReturn(getTotalPower()).when(helper).getTotalPower();
+        doReturn(maxPower).when(helper).getMaxPower();
+        return helper;
+    }
+}
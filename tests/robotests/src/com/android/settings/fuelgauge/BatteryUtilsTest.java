@@ -107,6 +107,8 @@ public class BatteryUtilsTest {
     @Mock
     private BatteryStats.Uid mUid;
     @Mock
+    private PowerWhitelistBackend mPowerWhitelistBackend;
+    @Mock
     private BatteryStats.Timer mTimer;
     @Mock
     private BatterySipper mNormalBatterySipper;
@@ -195,6 +197,7 @@ public class BatteryUtilsTest {
         doReturn(mAppOpsManager).when(shadowContext).getSystemService(Context.APP_OPS_SERVICE);
         mBatteryUtils = spy(new BatteryUtils(shadowContext));
         mBatteryUtils.mPowerUsageFeatureProvider = mProvider;
+        mBatteryUtils.mPowerWhitelistBackend = mPowerWhitelistBackend;
         doReturn(0L).when(mBatteryUtils).getForegroundServiceTotalTimeUs(
                 any(BatteryStats.Uid.class), anyLong());
     }
@@ -430,8 +433,8 @@ public class BatteryUtilsTest {
 
     @Test
     public void testBackgroundRestrictionOn_restrictionOn_returnTrue() {
-        doReturn(AppOpsManager.MODE_IGNORED).when(mAppOpsManager).checkOpNoThrow(
-                AppOpsManager.OP_RUN_IN_BACKGROUND, UID, PACKAGE_NAME);
+        doReturn(AppOpsManager.MODE_IGNORED).when(mPowerWhitelistBackend).getBackgroundOpMode(UID,
+                PACKAGE_NAME);
 
         assertThat(mBatteryUtils.isBackgroundRestrictionEnabled(SDK_VERSION, UID,
                 PACKAGE_NAME)).isTrue();
@@ -439,8 +442,8 @@ public class BatteryUtilsTest {
 
     @Test
     public void testBackgroundRestrictionOn_restrictionOff_returnFalse() {
-        doReturn(AppOpsManager.MODE_ALLOWED).when(mAppOpsManager).checkOpNoThrow(
-                AppOpsManager.OP_RUN_IN_BACKGROUND, UID, PACKAGE_NAME);
+        doReturn(AppOpsManager.MODE_ALLOWED).when(mPowerWhitelistBackend).getBackgroundOpMode(UID,
+                PACKAGE_NAME);
 
         assertThat(mBatteryUtils.isBackgroundRestrictionEnabled(SDK_VERSION, UID,
                 PACKAGE_NAME)).isFalse();
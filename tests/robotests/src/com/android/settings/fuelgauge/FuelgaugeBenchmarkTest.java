@@ -0,0 +1,303 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.junit.Assume.assumeTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+
+import android.app.Activity;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.os.BatteryStats;
+import android.os.BatteryStats.HistoryItem;
+import android.os.UserManager;
+import android.support.v7.preference.PreferenceCategory;
+import android.support.v7.preference.PreferenceManager;
+import android.support.v7.preference.PreferenceScreen;
+import android.util.Log;
+
+import com.android.internal.os.BatteryStatsHelper;
+import com.android.internal.os.PowerProfile;
+import com.android.settings.TestConfig;
+import com.android.settings.fuelgauge.anomaly.checker.AnomalyDetector;
+import com.android.settings.fuelgauge.anomaly.checker.BluetoothScanAnomalyDetector;
+import com.android.settings.fuelgauge.anomaly.checker.WakeLockAnomalyDetector;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.Robolectric;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Replays {@link BatteryStatsFixture}s through the main fuelgauge code paths and records how
+ * long each one takes, so regressions show up as a diff between two reports.
+ *
+ * The benchmark only runs when the {@code fuelgauge.benchmark} system property is true, since it
+ * takes a while on the large fixture. Results are logged, and also written as JSON to the file
+ * named by the {@code fuelgauge.benchmark.report} system property if it is set.
+ */
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION,
+        assetDir = "/tests/robotests/assets")
+public class FuelgaugeBenchmarkTest {
+    private static final String TAG = "FuelgaugeBenchmark";
+    private static final String RUN_PROPERTY = "fuelgauge.benchmark";
+    private static final String REPORT_PROPERTY = "fuelgauge.benchmark.report";
+    private static final String SMALL_FIXTURE = "fuelgauge_benchmark_small.fixture";
+    private static final int WARMUP_ITERATIONS = 3;
+    private static final int ITERATIONS = 15;
+    // Anything above PowerUsageSummary's threshold, so the app list is built.
+    private static final double SCREEN_POWER_MA = 100;
+    private static final String STUB_STRING = "stub_string";
+
+    @Mock
+    private PackageManager mPackageManager;
+    @Mock
+    private UserManager mUserManager;
+    @Mock
+    private PowerUsageFeatureProvider mPowerUsageFeatureProvider;
+    private Context mContext;
+    private BatteryUtils mBatteryUtils;
+    private final JSONArray mReport = new JSONArray();
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        mBatteryUtils = BatteryUtils.getInstance(mContext);
+        doReturn(1).when(mUserManager).getUserCount();
+    }
+
+    @After
+    public void tearDown() {
+        BatteryEntry.stopRequestQueue();
+        BatteryEntry.clearUidCache();
+    }
+
+    @Test
+    public void testBenchmark_allFixtures() throws Exception {
+        assumeTrue(Boolean.getBoolean(RUN_PROPERTY));
+        final List<BatteryStatsFixture> fixtures = new ArrayList<>();
+        fixtures.add(loadAsset(SMALL_FIXTURE));
+        fixtures.add(roundTrip(BatteryStatsFixture.generate("medium", 1, 300, 1500)));
+        fixtures.add(roundTrip(BatteryStatsFixture.generate("large", 2, 3000, 10000)));
+
+        for (BatteryStatsFixture fixture : fixtures) {
+            benchmarkAppList(fixture);
+            benchmarkAdvancedList(fixture);
+            benchmarkHistoryParse(fixture);
+            benchmarkAnomalyDetector(fixture, "wakelockAnomaly",
+                    new WakeLockAnomalyDetector(mContext));
+            benchmarkAnomalyDetector(fixture, "bluetoothScanAnomaly",
+                    new BluetoothScanAnomalyDetector(mContext));
+        }
+
+        writeReport();
+        assertThat(mReport.length()).isEqualTo(fixtures.size() * 5);
+    }
+
+    @Test
+    public void testFixture_writeThenRead_sameRecords() throws Exception {
+        final BatteryStatsFixture fixture = BatteryStatsFixture.generate("roundtrip", 3, 50, 20);
+
+        final BatteryStatsFixture copy = roundTrip(fixture);
+
+        assertThat(copy.dischargeAmount).isEqualTo(fixture.dischargeAmount);
+        assertThat(copy.sippers).hasSize(fixture.sippers.size());
+        assertThat(copy.history).hasSize(fixture.history.size());
+        assertThat(copy.getTotalPower()).isWithin(1e-6).of(fixture.getTotalPower());
+    }
+
+    @Test
+    public void testFixture_replayHistory_visitsEveryItem() throws Exception {
+        final BatteryStatsFixture fixture = loadAsset(SMALL_FIXTURE);
+        final CountingParser parser = new CountingParser();
+
+        BatteryInfo.parse(fixture.createBatteryStats(), parser);
+
+        // Everything but the leading CMD_CURRENT_TIME item is a data point.
+        assertThat(parser.mDataPoints).isEqualTo(fixture.history.size() - 1);
+        assertThat(parser.mDone).isTrue();
+    }
+
+    private void benchmarkAppList(BatteryStatsFixture fixture) throws JSONException {
+        final PowerUsageSummary summary = spy(new PowerUsageSummary());
+        final PreferenceManager preferenceManager = new PreferenceManager(mContext);
+        final PreferenceScreen screen = preferenceManager.createPreferenceScreen(mContext);
+        final PreferenceCategory appListGroup = new PreferenceCategory(mContext);
+        screen.addPreference(appListGroup);
+        doReturn(mContext).when(summary).getContext();
+        doReturn(Robolectric.setupActivity(Activity.class)).when(summary).getActivity();
+        doReturn(preferenceManager).when(summary).getPreferenceManager();
+        doReturn(STUB_STRING).when(summary).getText(anyInt());
+        summary.mAppListGroup = appListGroup;
+        summary.mBatteryUtils = mBatteryUtils;
+        summary.mSipperCoalescer = new BatterySipperCoalescer(mBatteryUtils);
+        summary.mUm = mUserManager;
+        // Without a handler no labels are loaded in the background while timing.
+        summary.mHandler = null;
+        // The coalescer mutates the sippers, so every iteration gets a fresh helper.
+        record("appList", fixture, () -> createAppListHelper(fixture), helper -> {
+            summary.mStatsHelper = helper;
+            summary.refreshAppListGroup();
+        });
+    }
+
+    private BatteryStatsHelper createAppListHelper(BatteryStatsFixture fixture) {
+        final BatteryStatsHelper helper = fixture.createBatteryStatsHelper();
+        doReturn(SCREEN_POWER_MA).when(helper.getPowerProfile()).getAveragePower(
+                PowerProfile.POWER_SCREEN_FULL);
+        return helper;
+    }
+
+    private void benchmarkAdvancedList(BatteryStatsFixture fixture) throws JSONException {
+        final PowerUsageAdvanced advanced = spy(new PowerUsageAdvanced());
+        doReturn(mContext).when(advanced).getContext();
+        doReturn(STUB_STRING).when(advanced).getString(anyInt(), any(), any());
+        doReturn(STUB_STRING).when(advanced).getText(anyInt());
+        doReturn(new String[0]).when(mPackageManager).getPackagesForUid(anyInt());
+        advanced.setPackageManager(mPackageManager);
+        advanced.setPowerUsageFeatureProvider(mPowerUsageFeatureProvider);
+        advanced.setUserManager(mUserManager);
+        advanced.setBatteryUtils(mBatteryUtils);
+        record("advancedList", fixture, fixture::createBatteryStatsHelper,
+                advanced::parsePowerUsageData);
+    }
+
+    private void benchmarkHistoryParse(BatteryStatsFixture fixture) throws JSONException {
+        final BatteryStats stats = fixture.createBatteryStats();
+        record("historyParse", fixture, () -> stats,
+                s -> BatteryInfo.parse(s, new CountingParser()));
+    }
+
+    private void benchmarkAnomalyDetector(BatteryStatsFixture fixture, String name,
+            AnomalyDetector detector) throws JSONException {
+        final BatteryStatsHelper helper = fixture.createBatteryStatsHelper();
+        record(name, fixture, () -> helper, detector::detectAnomalies);
+    }
+
+    /**
+     * Times {@code body} on the output of {@code setup}, which is not included in the timing.
+     */
+    private <T> void record(String benchmark, BatteryStatsFixture fixture, Supplier<T> setup,
+            Consumer<T> body) throws JSONException {
+        for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+            body.accept(setup.get());
+        }
+        final long[] durationsNs = new long[ITERATIONS];
+        for (int i = 0; i < ITERATIONS; i++) {
+            final T input = setup.get();
+            final long start = System.nanoTime();
+            body.accept(input);
+            durationsNs[i] = System.nanoTime() - start;
+        }
+        Arrays.sort(durationsNs);
+
+        final JSONObject result = new JSONObject();
+        result.put("benchmark", benchmark);
+        result.put("fixture", fixture.name);
+        result.put("sippers", fixture.sippers.size());
+        result.put("historyItems", fixture.history.size());
+        result.put("iterations", ITERATIONS);
+        result.put("medianNs", durationsNs[ITERATIONS / 2]);
+        result.put("minNs", durationsNs[0]);
+        mReport.put(result);
+        Log.i(TAG, result.toString());
+    }
+
+    private void writeReport() throws IOException, JSONException {
+        final String path = System.getProperty(REPORT_PROPERTY);
+        if (path == null) {
+            return;
+        }
+        try (Writer writer = new FileWriter(path)) {
+            writer.write(mReport.toString(2));
+        }
+        Log.i(TAG, "Report written to " + path);
+    }
+
+    private BatteryStatsFixture loadAsset(String name) throws IOException {
+        try (InputStream in = mContext.getAssets().open(name)) {
+            return BatteryStatsFixture.read(name, in);
+        }
+    }
+
+    /**
+     * Writes the fixture out and reads it back, so generated fixtures go through the same
+     * parsing as checked in ones.
+     */
+    private BatteryStatsFixture roundTrip(BatteryStatsFixture fixture) throws IOException {
+        final File file = File.createTempFile(fixture.name, ".fixture");
+        file.deleteOnExit();
+        try (Writer writer = new FileWriter(file)) {
+            fixture.write(writer);
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            return BatteryStatsFixture.read(fixture.name, in);
+        }
+    }
+
+    private static class CountingParser implements BatteryInfo.BatteryDataParser {
+        int mDataPoints;
+        boolean mDone;
+
+        @Override
+        public void onParsingStarted(long startTime, long endTime) {
+            mDataPoints = 0;
+            mDone = false;
+        }
+
+        @Override
+        public void onDataPoint(long time, HistoryItem record) {
+            mDataPoints++;
+        }
+
+        @Override
+        public void onDataGap() {
+        }
+
+        @Override
+        public void onParsingDone() {
+            mDone = true;
+        }
+    }
+}
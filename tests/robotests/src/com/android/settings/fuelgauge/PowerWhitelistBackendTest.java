@@ -0,0 +1,134 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.settings.fuelgauge;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Matchers.any;
+import static org.mockito.Matchers.eq;
+import static org.mockito.Matchers.isNull;
+import static org.mockito.Mockito.doReturn;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+import android.app.AppOpsManager;
+import android.content.Context;
+import android.content.Intent;
+import android.os.IDeviceIdleController;
+import android.os.PowerManager;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class PowerWhitelistBackendTest {
+    private static final String PACKAGE_ONE = "com.example.packageone";
+    private static final String PACKAGE_TWO = "com.example.packagetwo";
+    private static final int UID_ONE = 10001;
+    private static final int UID_TWO = 10002;
+
+    @Mock
+    private IDeviceIdleController mDeviceIdleService;
+    @Mock
+    private AppOpsManager mAppOpsManager;
+    private Context mContext;
+    private PowerWhitelistBackend mBackend;
+
+    @Before
+    public void setUp() throws Exception {
+        MockitoAnnotations.initMocks(this);
+        mContext = RuntimeEnvironment.application;
+        doReturn(new String[]{PACKAGE_ONE}).when(mDeviceIdleService).getFullPowerWhitelist();
+        doReturn(new String[]{}).when(mDeviceIdleService).getSystemPowerWhitelist();
+        final List<AppOpsManager.OpEntry> entries = new ArrayList<>();
+        entries.add(new AppOpsManager.OpEntry(AppOpsManager.OP_RUN_IN_BACKGROUND,
+                AppOpsManager.MODE_IGNORED, 0, 0, 0, -1, null));
+        doReturn(Arrays.asList(new AppOpsManager.PackageOps(PACKAGE_ONE, UID_ONE, entries)))
+                .when(mAppOpsManager).getPackagesForOps(any(int[].class));
+
+        mBackend = new PowerWhitelistBackend(mDeviceIdleService);
+    }
+
+    @Test
+    public void testIsWhitelisted() {
+        assertThat(mBackend.isWhitelisted(PACKAGE_ONE)).isTrue();
+        assertThat(mBackend.isWhitelisted(PACKAGE_TWO)).isFalse();
+    }
+
+    @Test
+    public void testIsWhitelisted_whitelistChangedBroadcast_reloadsOnNextQuery() throws Exception {
+        mBackend.startObserving(mContext);
+        doReturn(new String[]{PACKAGE_ONE, PACKAGE_TWO}).when(mDeviceIdleService)
+                .getFullPowerWhitelist();
+
+        assertThat(mBackend.isWhitelisted(PACKAGE_TWO)).isFalse();
+
+        mContext.sendBroadcast(new Intent(PowerManager.ACTION_POWER_SAVE_WHITELIST_CHANGED));
+
+        assertThat(mBackend.isWhitelisted(PACKAGE_TWO)).isTrue();
+        verify(mDeviceIdleService, times(2)).getFullPowerWhitelist();
+    }
+
+    @Test
+    public void testGetBackgroundOpMode_loadsAllPackagesOnce() {
+        startObservingWithAppOps();
+
+        assertThat(mBackend.getBackgroundOpMode(UID_ONE, PACKAGE_ONE))
+                .isEqualTo(AppOpsManager.MODE_IGNORED);
+        assertThat(mBackend.getBackgroundOpMode(UID_TWO, PACKAGE_TWO))
+                .isEqualTo(AppOpsManager.MODE_ALLOWED);
+        verify(mAppOpsManager, times(1)).getPackagesForOps(any(int[].class));
+    }
+
+    @Test
+    public void testGetBackgroundOpMode_opChanged_reloadsOnNextQuery() {
+        final AppOpsManager.OnOpChangedListener listener = startObservingWithAppOps();
+        mBackend.getBackgroundOpMode(UID_ONE, PACKAGE_ONE);
+
+        listener.onOpChanged(AppOpsManager.opToName(AppOpsManager.OP_RUN_IN_BACKGROUND),
+                PACKAGE_ONE);
+        mBackend.getBackgroundOpMode(UID_ONE, PACKAGE_ONE);
+
+        verify(mAppOpsManager, times(2)).getPackagesForOps(any(int[].class));
+    }
+
+    private AppOpsManager.OnOpChangedListener startObservingWithAppOps() {
+        final Context context = spy(mContext);
+        doReturn(mAppOpsManager).when(context).getSystemService(Context.APP_OPS_SERVICE);
+        mBackend.startObserving(context);
+
+        final ArgumentCaptor<AppOpsManager.OnOpChangedListener> captor =
+                ArgumentCaptor.forClass(AppOpsManager.OnOpChangedListener.class);
+        verify(mAppOpsManager).startWatchingMode(eq(AppOpsManager.OP_RUN_IN_BACKGROUND),
+                isNull(String.class), captor.capture());
+        return captor.getValue();
+    }
+}
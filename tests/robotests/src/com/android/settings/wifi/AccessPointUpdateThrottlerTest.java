@@ -0,0 +1,141 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.wifi.AccessPoint;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class AccessPointUpdateThrottlerTest {
+    private AccessPoint mAccessPoint1;
+    private AccessPoint mAccessPoint2;
+    private List<AccessPoint> mAccessPoints;
+    private AccessPointUpdateThrottler mThrottler;
+
+    @Before
+    public void setUp() {
+        mAccessPoint1 = mockAccessPoint("00:00:00:00:00:01", 2);
+        mAccessPoint2 = mockAccessPoint("00:00:00:00:00:02", 3);
+        mAccessPoints = new ArrayList<>();
+        mAccessPoints.add(mAccessPoint1);
+        mAccessPoints.add(mAccessPoint2);
+        mThrottler = new AccessPointUpdateThrottler();
+    }
+
+    @Test
+    public void testShouldUpdate_nothingShown_updates() {
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+    }
+
+    @Test
+    public void testShouldUpdate_unchanged_skips() {
+        mThrottler.onUpdated(mAccessPoints);
+
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isFalse();
+        assertThat(mThrottler.getAppliedCount()).isEqualTo(1);
+        assertThat(mThrottler.getSkippedCount()).isEqualTo(1);
+    }
+
+    @Test
+    public void testShouldUpdate_levelJitter_skips() {
+        mThrottler.onUpdated(mAccessPoints);
+
+        when(mAccessPoint1.getLevel()).thenReturn(3);
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isFalse();
+        when(mAccessPoint1.getLevel()).thenReturn(2);
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isFalse();
+        when(mAccessPoint1.getLevel()).thenReturn(3);
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isFalse();
+    }
+
+    @Test
+    public void testShouldUpdate_levelChangeSeenTwice_updates() {
+        mThrottler.onUpdated(mAccessPoints);
+
+        when(mAccessPoint1.getLevel()).thenReturn(3);
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isFalse();
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+    }
+
+    @Test
+    public void testShouldUpdate_largeLevelChange_updates() {
+        mThrottler.onUpdated(mAccessPoints);
+
+        when(mAccessPoint1.getLevel())
+                .thenReturn(2 + AccessPointUpdateThrottler.LEVEL_HYSTERESIS);
+
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+    }
+
+    @Test
+    public void testShouldUpdate_stateOrMembershipChanged_updates() {
+        mThrottler.onUpdated(mAccessPoints);
+
+        when(mAccessPoint2.isActive()).thenReturn(true);
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+
+        mThrottler.onUpdated(mAccessPoints);
+        when(mAccessPoint2.isReachable()).thenReturn(false);
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+
+        mThrottler.onUpdated(mAccessPoints);
+        mAccessPoints.add(mockAccessPoint("00:00:00:00:00:03", 1));
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+    }
+
+    @Test
+    public void testShouldUpdate_sameAccessPointNewInstance_updates() {
+        mThrottler.onUpdated(mAccessPoints);
+
+        mAccessPoints.set(0, mockAccessPoint("00:00:00:00:00:01", 2));
+
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+    }
+
+    @Test
+    public void testReset_updatesNextList() {
+        mThrottler.onUpdated(mAccessPoints);
+        mThrottler.reset();
+
+        assertThat(mThrottler.shouldUpdate(mAccessPoints)).isTrue();
+    }
+
+    private static AccessPoint mockAccessPoint(String bssid, int level) {
+        final AccessPoint accessPoint = mock(AccessPoint.class);
+        when(accessPoint.getBssid()).thenReturn(bssid);
+        when(accessPoint.getSecurity()).thenReturn(AccessPoint.SECURITY_PSK);
+        when(accessPoint.getLevel()).thenReturn(level);
+        when(accessPoint.isReachable()).thenReturn(true);
+        when(accessPoint.getSettingsSummary()).thenReturn("");
+        return accessPoint;
+    }
+}
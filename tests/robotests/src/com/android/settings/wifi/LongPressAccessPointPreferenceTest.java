@@ -0,0 +1,92 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+
+import com.android.settings.R;
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+import com.android.settingslib.wifi.AccessPoint;
+import com.android.settingslib.wifi.AccessPointPreference;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.MockitoAnnotations;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class LongPressAccessPointPreferenceTest {
+    private static final String SSID = "ssid";
+    private static final String BSSID = "00:11:22:33:44:55";
+
+    @Mock
+    private AccessPoint mAccessPoint;
+    private LongPressAccessPointPreference mPreference;
+
+    @Before
+    public void setUp() {
+        MockitoAnnotations.initMocks(this);
+        final Context context = RuntimeEnvironment.application;
+        when(mAccessPoint.getSsid()).thenReturn(SSID);
+        when(mAccessPoint.getSsidStr()).thenReturn(SSID);
+        when(mAccessPoint.getBssid()).thenReturn(BSSID);
+        when(mAccessPoint.getSecurity()).thenReturn(AccessPoint.SECURITY_PSK);
+        when(mAccessPoint.getLevel()).thenReturn(2);
+        when(mAccessPoint.getSettingsSummary()).thenReturn("Saved");
+        mPreference = new LongPressAccessPointPreference(mAccessPoint, context,
+                null /* cache */, false /* forSavedNetworks */, R.drawable.ic_wifi_signal_0,
+                null /* fragment */);
+        mPreference.setKey(AccessPointPreference.generatePreferenceKey(mAccessPoint));
+    }
+
+    @Test
+    public void testRefreshIfChanged_unchanged_doesNotRefresh() {
+        assertThat(mPreference.refreshIfChanged()).isFalse();
+    }
+
+    @Test
+    public void testRefreshIfChanged_levelOrSummaryChanged_refreshesOnce() {
+        when(mAccessPoint.getLevel()).thenReturn(3);
+
+        assertThat(mPreference.refreshIfChanged()).isTrue();
+        assertThat(mPreference.refreshIfChanged()).isFalse();
+
+        when(mAccessPoint.getSettingsSummary()).thenReturn("Connected");
+
+        assertThat(mPreference.refreshIfChanged()).isTrue();
+    }
+
+    @Test
+    public void testIsKeyCurrent() {
+        assertThat(mPreference.isKeyCurrent()).isTrue();
+
+        when(mAccessPoint.getLevel()).thenReturn(4);
+        assertThat(mPreference.isKeyCurrent()).isTrue();
+
+        when(mAccessPoint.getSecurity()).thenReturn(AccessPoint.SECURITY_NONE);
+        assertThat(mPreference.isKeyCurrent()).isFalse();
+    }
+}
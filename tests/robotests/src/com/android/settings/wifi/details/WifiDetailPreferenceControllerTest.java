@@ -17,6 +17,7 @@ package com.android.settings.wifi.details;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import static org.mockito.ArgumentMatchers.anyBoolean;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.ArgumentMatchers.nullable;
@@ -563,6 +564,25 @@ public class WifiDetailPreferenceControllerTest {
         inOrder.verify(mockDnsPref).setVisible(true);
     }
 
+    @Test
+    public void onLinkPropertiesChanged_unchangedFields_shouldNotBeUpdated() {
+        displayAndResume();
+
+        LinkProperties lp = new LinkProperties();
+        lp.addLinkAddress(Constants.IPV4_ADDR);
+        lp.addRoute(Constants.IPV4_DEFAULT);
+        updateLinkProperties(lp);
+        reset(mockIpAddressPref, mockGatewayPref, mockDnsPref);
+
+        lp.addDnsServer(Constants.IPV4_DNS1);
+        updateLinkProperties(lp);
+
+        verify(mockIpAddressPref, never()).setDetailText(anyString());
+        verify(mockIpAddressPref, never()).setVisible(anyBoolean());
+        verify(mockGatewayPref, never()).setDetailText(anyString());
+        verify(mockDnsPref).setDetailText(Constants.IPV4_DNS1.getHostAddress());
+    }
+
     @Test
     public void onCapabilitiesChanged_callsRefreshIfNecessary() {
         NetworkCapabilities nc = makeNetworkCapabilities();
@@ -680,6 +700,39 @@ public class WifiDetailPreferenceControllerTest {
         verify(mockWifiManager, times(2)).getConnectionInfo();
     }
 
+    @Test
+    public void rssiChangedIntent_unchangedInfo_shouldNotRebindViews() {
+        displayAndResume();
+        reset(mockHeaderController, mockSignalStrengthPref, mockMacAddressPref,
+                mockLinkSpeedPref, mockFrequencyPref);
+
+        mContext.sendBroadcast(new Intent(WifiManager.RSSI_CHANGED_ACTION));
+
+        verify(mockHeaderController, never()).setIcon(any(Drawable.class));
+        verify(mockHeaderController, never()).setSummary(any(CharSequence.class));
+        verify(mockSignalStrengthPref, never()).setIcon(any(Drawable.class));
+        verify(mockSignalStrengthPref, never()).setDetailText(nullable(String.class));
+        verify(mockMacAddressPref, never()).setDetailText(nullable(String.class));
+        verify(mockLinkSpeedPref, never()).setDetailText(nullable(String.class));
+        verify(mockFrequencyPref, never()).setDetailText(nullable(String.class));
+    }
+
+    @Test
+    public void rssiChangedIntent_newSignalLevel_shouldUpdateSignalViewsOnly() {
+        displayAndResume();
+        reset(mockHeaderController, mockSignalStrengthPref, mockMacAddressPref);
+        when(mockAccessPoint.getLevel()).thenReturn(LEVEL + 1);
+        when(mockWifiInfo.getRssi()).thenReturn(RSSI - 30);
+
+        mContext.sendBroadcast(new Intent(WifiManager.RSSI_CHANGED_ACTION));
+
+        verify(mockHeaderController).setIcon(any(Drawable.class));
+        verify(mockSignalStrengthPref).setIcon(any(Drawable.class));
+        verify(mockSignalStrengthPref).setDetailText(
+                mContext.getResources().getStringArray(R.array.wifi_signal)[LEVEL + 1]);
+        verify(mockMacAddressPref, never()).setDetailText(nullable(String.class));
+    }
+
     @Test
     public void networkDisconnectedState_shouldFinishActivity() {
         displayAndResume();
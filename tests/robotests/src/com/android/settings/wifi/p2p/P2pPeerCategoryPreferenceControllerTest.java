@@ -0,0 +1,143 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi.p2p;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.net.wifi.p2p.WifiP2pDevice;
+import android.support.v7.preference.PreferenceCategory;
+import android.support.v7.preference.PreferenceManager;
+import android.support.v7.preference.PreferenceScreen;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class P2pPeerCategoryPreferenceControllerTest {
+    private static final String ADDRESS_1 = "02:00:00:00:00:01";
+    private static final String ADDRESS_2 = "02:00:00:00:00:02";
+    private static final String ADDRESS_3 = "02:00:00:00:00:03";
+
+    private PreferenceCategory mCategory;
+    private P2pPeerCategoryPreferenceController mController;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        final PreferenceManager preferenceManager = new PreferenceManager(context);
+        final PreferenceScreen screen = preferenceManager.createPreferenceScreen(context);
+        mController = new P2pPeerCategoryPreferenceController(context);
+        mCategory = new PreferenceCategory(context);
+        mCategory.setKey(mController.getPreferenceKey());
+        screen.addPreference(mCategory);
+        mController.displayPreference(screen);
+    }
+
+    @Test
+    public void updatePeers_samePeers_keepsPreferences() {
+        mController.updatePeers(Arrays.asList(
+                device(ADDRESS_1, "Phone", WifiP2pDevice.AVAILABLE),
+                device(ADDRESS_2, "TV", WifiP2pDevice.AVAILABLE)));
+        final WifiP2pPeer peer1 = (WifiP2pPeer) mController.getChild(ADDRESS_1);
+        final WifiP2pPeer peer2 = (WifiP2pPeer) mController.getChild(ADDRESS_2);
+
+        mController.updatePeers(Arrays.asList(
+                device(ADDRESS_2, "TV", WifiP2pDevice.AVAILABLE),
+                device(ADDRESS_1, "Phone", WifiP2pDevice.INVITED)));
+
+        assertThat(mCategory.getPreferenceCount()).isEqualTo(2);
+        assertThat(mController.getChild(ADDRESS_1)).isSameAs(peer1);
+        assertThat(mController.getChild(ADDRESS_2)).isSameAs(peer2);
+        assertThat(peer1.device.status).isEqualTo(WifiP2pDevice.INVITED);
+    }
+
+    @Test
+    public void updatePeers_peerGone_removesItsPreference() {
+        mController.updatePeers(Arrays.asList(
+                device(ADDRESS_1, "Phone", WifiP2pDevice.AVAILABLE),
+                device(ADDRESS_2, "TV", WifiP2pDevice.AVAILABLE)));
+
+        mController.updatePeers(Arrays.asList(
+                device(ADDRESS_2, "TV", WifiP2pDevice.AVAILABLE)));
+
+        assertThat(mCategory.getPreferenceCount()).isEqualTo(1);
+        assertThat(mController.getChild(ADDRESS_1)).isNull();
+        assertThat(mCategory.isVisible()).isTrue();
+
+        mController.updatePeers(new ArrayList<>());
+
+        assertThat(mCategory.getPreferenceCount()).isEqualTo(0);
+        assertThat(mCategory.isVisible()).isFalse();
+    }
+
+    @Test
+    public void updatePeers_replayedBurst_showsLastListWithStablePreferences() {
+        final List<List<WifiP2pDevice>> burst = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            final List<WifiP2pDevice> peers = new ArrayList<>();
+            peers.add(device(ADDRESS_1, "Phone",
+                    i % 2 == 0 ? WifiP2pDevice.AVAILABLE : WifiP2pDevice.INVITED));
+            // A peer that keeps appearing and disappearing.
+            if (i % 3 != 0) {
+                peers.add(device(ADDRESS_2, "TV", WifiP2pDevice.AVAILABLE));
+            }
+            if (i >= 10) {
+                peers.add(device(ADDRESS_3, "Speaker " + i, WifiP2pDevice.AVAILABLE));
+            }
+            burst.add(peers);
+        }
+
+        mController.updatePeers(burst.get(0));
+        final WifiP2pPeer peer1 = (WifiP2pPeer) mController.getChild(ADDRESS_1);
+        WifiP2pPeer peer3 = null;
+        for (int i = 1; i < burst.size(); i++) {
+            mController.updatePeers(burst.get(i));
+            assertThat(mController.getChild(ADDRESS_1)).isSameAs(peer1);
+            if (i == 10) {
+                peer3 = (WifiP2pPeer) mController.getChild(ADDRESS_3);
+            } else if (i > 10) {
+                assertThat(mController.getChild(ADDRESS_3)).isSameAs(peer3);
+            }
+        }
+
+        // The last list is 19: ADDRESS_1 invited, ADDRESS_2 present, ADDRESS_3 renamed.
+        assertThat(mCategory.getPreferenceCount()).isEqualTo(3);
+        assertThat(peer1.device.status).isEqualTo(WifiP2pDevice.INVITED);
+        assertThat(mController.getChild(ADDRESS_2)).isNotNull();
+        assertThat(peer3.getTitle().toString()).isEqualTo("Speaker 19");
+    }
+
+    private static WifiP2pDevice device(String address, String name, int status) {
+        final WifiP2pDevice device = new WifiP2pDevice();
+        device.deviceAddress = address;
+        device.deviceName = name;
+        device.status = status;
+        return device;
+    }
+}
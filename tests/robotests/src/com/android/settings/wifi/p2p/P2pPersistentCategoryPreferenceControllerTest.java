@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2017 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.settings.wifi.p2p;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import android.content.Context;
+import android.net.wifi.p2p.WifiP2pGroup;
+import android.support.v7.preference.PreferenceCategory;
+import android.support.v7.preference.PreferenceManager;
+import android.support.v7.preference.PreferenceScreen;
+
+import com.android.settings.TestConfig;
+import com.android.settings.testutils.SettingsRobolectricTestRunner;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.Arrays;
+
+@RunWith(SettingsRobolectricTestRunner.class)
+@Config(manifest = TestConfig.MANIFEST_PATH, sdk = TestConfig.SDK_VERSION)
+public class P2pPersistentCategoryPreferenceControllerTest {
+    private PreferenceCategory mCategory;
+    private P2pPersistentCategoryPreferenceController mController;
+
+    @Before
+    public void setUp() {
+        final Context context = RuntimeEnvironment.application;
+        final PreferenceManager preferenceManager = new PreferenceManager(context);
+        final PreferenceScreen screen = preferenceManager.createPreferenceScreen(context);
+        mController = new P2pPersistentCategoryPreferenceController(context);
+        mCategory = new PreferenceCategory(context);
+        mCategory.setKey(mController.getPreferenceKey());
+        screen.addPreference(mCategory);
+        mController.displayPreference(screen);
+    }
+
+    @Test
+    public void updateGroups_keepsPreferencesByNetworkId() {
+        mController.updateGroups(Arrays.asList(group(1, "DIRECT-a"), group(2, "DIRECT-b")));
+        final WifiP2pPersistentGroup first = mController.getGroup("DIRECT-a");
+
+        mController.updateGroups(Arrays.asList(group(1, "DIRECT-c")));
+
+        assertThat(mCategory.getPreferenceCount()).isEqualTo(1);
+        assertThat(mController.getGroup("DIRECT-c")).isSameAs(first);
+        assertThat(first.getTitle().toString()).isEqualTo("DIRECT-c");
+        assertThat(mController.getGroup("DIRECT-b")).isNull();
+    }
+
+    private static WifiP2pGroup group(int networkId, String name) {
+        final WifiP2pGroup group = new WifiP2pGroup();
+        group.setNetworkId(networkId);
+        group.setNetworkName(name);
+        return group;
+    }
+}
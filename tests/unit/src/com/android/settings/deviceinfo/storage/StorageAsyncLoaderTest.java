@@ -220,6 +220,35 @@ public class StorageAsyncLoaderTest {
         assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(DEFAULT_QUOTA + 11);
     }
 
+    @Test
+    public void testPackagesAreQueriedInChunks() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        mLoader = new StorageAsyncLoader(mContext, mUserManager, "id", mSource, mPackageManager,
+                tasks::add);
+        final int packageCount = StorageAsyncLoader.PACKAGES_PER_TASK * 2 + 1;
+        for (int i = 0; i < packageCount; i++) {
+            addPackage(PACKAGE_NAME_1 + i, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        }
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        // Three chunks of apps and the external stats.
+        assertThat(tasks).hasSize(4);
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(11L * packageCount);
+    }
+
+    @Test
+    public void testMorePackageChunksThanThePoolQueues() throws Exception {
+        final int packageCount = StorageAsyncLoader.PACKAGES_PER_TASK * 100;
+        for (int i = 0; i < packageCount; i++) {
+            addPackage(PACKAGE_NAME_1 + i, 0, 1, 10, ApplicationInfo.CATEGORY_UNDEFINED);
+        }
+
+        SparseArray<StorageAsyncLoader.AppsStorageResult> result = mLoader.loadInBackground();
+
+        assertThat(result.get(PRIMARY_USER_ID).otherAppsSize).isEqualTo(11L * packageCount);
+    }
+
     private ApplicationInfo addPackage(String packageName, long cacheSize, long codeSize,
             long dataSize, int category) throws Exception {
         StorageStatsSource.AppStorageStats storageStats =